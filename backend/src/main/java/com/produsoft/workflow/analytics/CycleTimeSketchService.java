@@ -0,0 +1,286 @@
+package com.produsoft.workflow.analytics;
+
+import com.produsoft.workflow.datastructure.QuantileSketch;
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.OrderStageStatus;
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.dto.CycleTimeAnalyticsResponse;
+import com.produsoft.workflow.dto.CycleTimeStatsResponse;
+import com.produsoft.workflow.repository.OrderStageStatusRepository;
+import com.produsoft.workflow.repository.ServiceTimeSample;
+import com.produsoft.workflow.service.OrderChangedEvent;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Service-time percentiles of completed stages, per stage and per assignee within a stage. Each group is held as a
+ * {@link QuantileSketch}, so percentile queries never scan stage rows. The sketches are built from the stage table
+ * on startup and can be rebuilt from it at any time, for example after completions were made by another instance.
+ *
+ * <p>The service time of every completed stage is also kept by stage status id, together with the version of each
+ * order last applied: rework clears a stage's service time, so this is where the value to take back out of the
+ * sketches comes from. Committed order changes replace an order's entries unless an event with a newer version was
+ * already applied, so a stage completed again after rework counts once, and a completion undone by rework is
+ * removed from the sketches. Minimum and maximum figures may still include removed values, see
+ * {@link QuantileSketch#remove}.
+ */
+@Service
+public class CycleTimeSketchService {
+
+    private static final Logger log = LoggerFactory.getLogger(CycleTimeSketchService.class);
+
+    private final OrderStageStatusRepository stageStatusRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final double relativeAccuracy;
+
+    private final Object lock = new Object();
+    private final Object rebuildLock = new Object();
+    private Completions completions = new Completions(new HashMap<>());
+    private Sketches sketches;
+    private Instant rebuiltAt;
+    /** Latest change of each order seen while a rebuild is scanning the table; null otherwise. */
+    private Map<Long, OrderCompletions> changedDuringRebuild;
+
+    public CycleTimeSketchService(OrderStageStatusRepository stageStatusRepository,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${app.workflow.analytics.cycle-time-accuracy:0.01}") double relativeAccuracy) {
+        this.stageStatusRepository = stageStatusRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.relativeAccuracy = relativeAccuracy;
+        this.sketches = new Sketches(relativeAccuracy);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        rebuild();
+    }
+
+    @TransactionalEventListener
+    public void onOrderChanged(OrderChangedEvent event) {
+        OrderCompletions change = OrderCompletions.of(event.order());
+        if (change.version() == null) {
+            return;
+        }
+        synchronized (lock) {
+            if (changedDuringRebuild != null) {
+                changedDuringRebuild.merge(change.orderId(), change, OrderCompletions::later);
+            }
+            completions.apply(change, sketches);
+        }
+    }
+
+    /**
+     * Replaces the sketches with ones built from every completed stage in the table. Order changes committed
+     * during the scan are applied afterwards unless the scan already read that version of the order or a later one.
+     */
+    public void rebuild() {
+        synchronized (rebuildLock) {
+            Map<Long, OrderCompletions> pending = new HashMap<>();
+            Completions rebuilt;
+            synchronized (lock) {
+                changedDuringRebuild = pending;
+                rebuilt = new Completions(new HashMap<>(completions.orderVersions));
+            }
+            long scanned;
+            try {
+                scanned = readOnlyTransaction.execute(status -> {
+                    long rows = 0;
+                    try (Stream<ServiceTimeSample> samples = stageStatusRepository.streamServiceTimes(StageState.COMPLETED)) {
+                        for (ServiceTimeSample sample : (Iterable<ServiceTimeSample>) samples::iterator) {
+                            if (sample.stage() == null || sample.serviceTimeMinutes() < 0) {
+                                continue;
+                            }
+                            rebuilt.addScanned(sample);
+                            rows++;
+                        }
+                    }
+                    return rows;
+                });
+            } finally {
+                synchronized (lock) {
+                    changedDuringRebuild = null;
+                }
+            }
+            synchronized (lock) {
+                Sketches fresh = Sketches.of(relativeAccuracy, rebuilt.byStageStatus.values());
+                pending.values().forEach(change -> rebuilt.apply(change, fresh));
+                completions = rebuilt;
+                sketches = fresh;
+                rebuiltAt = Instant.now();
+            }
+            log.info("Cycle-time sketches rebuilt from {} completed stages", scanned);
+        }
+    }
+
+    /**
+     * Returns percentiles for every stage, or only {@code stage} when given. Assignee figures are per stage when a
+     * stage is given and merged across stages otherwise.
+     */
+    public CycleTimeAnalyticsResponse buildCycleTimeAnalytics(StageType stage) {
+        synchronized (lock) {
+            List<CycleTimeStatsResponse> stages = new ArrayList<>();
+            List<CycleTimeStatsResponse> assignees = new ArrayList<>();
+            if (stage != null) {
+                stages.add(stats(stage, null, sketches.byStage.get(stage)));
+                new TreeMap<>(sketches.byAssignee.get(stage))
+                    .forEach((assignee, sketch) -> assignees.add(stats(stage, assignee, sketch)));
+            } else {
+                Map<String, QuantileSketch> merged = new TreeMap<>();
+                for (StageType each : StageType.values()) {
+                    stages.add(stats(each, null, sketches.byStage.get(each)));
+                    sketches.byAssignee.get(each).forEach((assignee, sketch) -> merged
+                        .computeIfAbsent(assignee, key -> new QuantileSketch(relativeAccuracy))
+                        .merge(sketch));
+                }
+                merged.forEach((assignee, sketch) -> assignees.add(stats(null, assignee, sketch)));
+            }
+            return new CycleTimeAnalyticsResponse(relativeAccuracy, rebuiltAt, stages, assignees);
+        }
+    }
+
+    private static CycleTimeStatsResponse stats(StageType stage, String assignee, QuantileSketch sketch) {
+        if (sketch.isEmpty()) {
+            return new CycleTimeStatsResponse(stage, assignee, 0, null, null, null, null, null, null);
+        }
+        return new CycleTimeStatsResponse(
+            stage,
+            assignee,
+            sketch.count(),
+            sketch.average(),
+            sketch.min(),
+            sketch.max(),
+            sketch.quantile(0.5),
+            sketch.quantile(0.9),
+            sketch.quantile(0.99));
+    }
+
+    private record Completion(StageType stage, String assignee, long serviceTimeMinutes) {}
+
+    /**
+     * The completed stages of one order as of {@code version}; {@code stageStatusIds} lists every stage of the order,
+     * completed or not.
+     */
+    private record OrderCompletions(Long orderId, Long version, List<Long> stageStatusIds,
+                                    Map<Long, Completion> completed) {
+
+        private static OrderCompletions of(Order order) {
+            List<Long> ids = new ArrayList<>();
+            Map<Long, Completion> completed = new HashMap<>();
+            for (OrderStageStatus status : order.getStages()) {
+                if (status.getId() == null) {
+                    continue;
+                }
+                ids.add(status.getId());
+                Long minutes = status.getServiceTimeMinutes();
+                if (status.getState() == StageState.COMPLETED && status.getStage() != null && minutes != null && minutes >= 0) {
+                    completed.put(status.getId(), new Completion(status.getStage(), status.getAssignee(), minutes));
+                }
+            }
+            return new OrderCompletions(order.getId(), order.getVersion(), ids, completed);
+        }
+
+        private OrderCompletions later(OrderCompletions other) {
+            return other.version > version ? other : this;
+        }
+    }
+
+    private static final class Completions {
+
+        private final Map<Long, Completion> byStageStatus = new HashMap<>();
+        private final Map<Long, Long> orderVersions;
+
+        private Completions(Map<Long, Long> orderVersions) {
+            this.orderVersions = orderVersions;
+        }
+
+        private void addScanned(ServiceTimeSample sample) {
+            byStageStatus.put(sample.stageStatusId(),
+                new Completion(sample.stage(), sample.assignee(), sample.serviceTimeMinutes()));
+            orderVersions.merge(sample.orderId(), sample.orderVersion(), Math::max);
+        }
+
+        /**
+         * Applies the change unless a newer version of the order was already applied, adding the completions it
+         * adds to {@code sketches} and removing those it undoes or replaces.
+         */
+        private void apply(OrderCompletions change, Sketches sketches) {
+            Long applied = orderVersions.get(change.orderId());
+            if (applied != null && change.version() <= applied) {
+                return;
+            }
+            orderVersions.put(change.orderId(), change.version());
+            for (Long id : change.stageStatusIds()) {
+                Completion next = change.completed().get(id);
+                Completion previous = next == null ? byStageStatus.remove(id) : byStageStatus.put(id, next);
+                if (previous != null && !previous.equals(next)) {
+                    sketches.remove(previous);
+                }
+                if (next != null && !next.equals(previous)) {
+                    sketches.add(next);
+                }
+            }
+        }
+    }
+
+    private static final class Sketches {
+
+        private final double relativeAccuracy;
+        private final Map<StageType, QuantileSketch> byStage = new EnumMap<>(StageType.class);
+        private final Map<StageType, Map<String, QuantileSketch>> byAssignee = new EnumMap<>(StageType.class);
+
+        private Sketches(double relativeAccuracy) {
+            this.relativeAccuracy = relativeAccuracy;
+            for (StageType stage : StageType.values()) {
+                byStage.put(stage, new QuantileSketch(relativeAccuracy));
+                byAssignee.put(stage, new HashMap<>());
+            }
+        }
+
+        private static Sketches of(double relativeAccuracy, Collection<Completion> completions) {
+            Sketches sketches = new Sketches(relativeAccuracy);
+            completions.forEach(sketches::add);
+            return sketches;
+        }
+
+        private void add(Completion completion) {
+            byStage.get(completion.stage()).add(completion.serviceTimeMinutes());
+            String assignee = completion.assignee();
+            if (assignee != null && !assignee.isBlank()) {
+                byAssignee.get(completion.stage())
+                    .computeIfAbsent(assignee, key -> new QuantileSketch(relativeAccuracy))
+                    .add(completion.serviceTimeMinutes());
+            }
+        }
+
+        private void remove(Completion completion) {
+            byStage.get(completion.stage()).remove(completion.serviceTimeMinutes());
+            String assignee = completion.assignee();
+            if (assignee != null && !assignee.isBlank()) {
+                Map<String, QuantileSketch> stageAssignees = byAssignee.get(completion.stage());
+                QuantileSketch sketch = stageAssignees.get(assignee);
+                sketch.remove(completion.serviceTimeMinutes());
+                if (sketch.isEmpty()) {
+                    stageAssignees.remove(assignee);
+                }
+            }
+        }
+    }
+}
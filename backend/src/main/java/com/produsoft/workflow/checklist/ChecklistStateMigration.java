@@ -0,0 +1,70 @@
+package com.produsoft.workflow.checklist;
+
+import com.produsoft.workflow.domain.ChecklistStateConverter;
+import com.produsoft.workflow.domain.StageType;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Converts checklist state still stored as JSON in {@code checklist_state} into the {@code checklist_mask} bitmask
+ * on startup, then clears the JSON so each row is converted once.
+ */
+@Component
+public class ChecklistStateMigration implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(ChecklistStateMigration.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final StageChecklistService stageChecklistService;
+    private final TransactionTemplate transactionTemplate;
+    private final ChecklistStateConverter legacyConverter = new ChecklistStateConverter();
+
+    public ChecklistStateMigration(JdbcTemplate jdbcTemplate,
+                                   StageChecklistService stageChecklistService,
+                                   PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.stageChecklistService = stageChecklistService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        try {
+            Integer migrated = transactionTemplate.execute(status -> migrate());
+            if (migrated != null && migrated > 0) {
+                log.info("Converted checklist state of {} stage rows to bitmasks", migrated);
+            }
+        } catch (BadSqlGrammarException ex) {
+            // Schemas created from the entities alone never had the JSON column.
+            log.debug("Skipping checklist state migration: {}", ex.getMessage());
+        }
+    }
+
+    private int migrate() {
+        List<Object[]> updates = new ArrayList<>();
+        jdbcTemplate.query(
+            "SELECT id, stage, checklist_state FROM order_stage_status WHERE checklist_state IS NOT NULL",
+            rs -> {
+                StageType stage = StageType.valueOf(rs.getString("stage"));
+                long mask = stageChecklistService.toState(stage,
+                    legacyConverter.convertToEntityAttribute(rs.getString("checklist_state")));
+                updates.add(new Object[] {mask, rs.getLong("id")});
+            });
+        for (int from = 0; from < updates.size(); from += BATCH_SIZE) {
+            jdbcTemplate.batchUpdate(
+                "UPDATE order_stage_status SET checklist_mask = COALESCE(checklist_mask, ?), checklist_state = NULL WHERE id = ?",
+                updates.subList(from, Math.min(from + BATCH_SIZE, updates.size())));
+        }
+        return updates.size();
+    }
+}
@@ -0,0 +1,90 @@
+package com.produsoft.workflow.checklist;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checklist of one stage compiled for bitmask state: bit {@code i} of a state is task {@code i} in
+ * {@code checklists.yml}, so tasks may be appended to a stage but existing ones must not be reordered.
+ * The rendered item list of every possible state is built up front when the stage has few tasks.
+ */
+final class StageChecklist {
+
+    static final int MAX_TASKS = Long.SIZE;
+    private static final int MAX_PRECOMPUTED_TASKS = 8;
+
+    private final List<ChecklistTaskDefinition> tasks;
+    private final Map<String, Integer> indexById;
+    private final long allMask;
+    private final long requiredMask;
+    private final List<List<ChecklistItem>> itemsByState;
+
+    StageChecklist(List<ChecklistTaskDefinition> tasks) {
+        if (tasks.size() > MAX_TASKS) {
+            throw new IllegalStateException("A stage checklist supports at most %d tasks".formatted(MAX_TASKS));
+        }
+        this.tasks = List.copyOf(tasks);
+        this.indexById = new HashMap<>();
+        long required = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            if (indexById.put(tasks.get(i).id(), i) != null) {
+                throw new IllegalStateException("Duplicate checklist task id: " + tasks.get(i).id());
+            }
+            if (tasks.get(i).required()) {
+                required |= bit(i);
+            }
+        }
+        this.requiredMask = required;
+        this.allMask = tasks.size() == MAX_TASKS ? -1L : bit(tasks.size()) - 1;
+
+        if (tasks.size() <= MAX_PRECOMPUTED_TASKS) {
+            List<List<ChecklistItem>> rendered = new ArrayList<>(1 << tasks.size());
+            for (long state = 0; state <= allMask; state++) {
+                rendered.add(render(state));
+            }
+            this.itemsByState = List.copyOf(rendered);
+        } else {
+            this.itemsByState = null;
+        }
+    }
+
+    List<ChecklistTaskDefinition> tasks() {
+        return tasks;
+    }
+
+    boolean isEmpty() {
+        return tasks.isEmpty();
+    }
+
+    /**
+     * Returns the bit of the task, or 0 if the stage has no such task.
+     */
+    long bitOf(String taskId) {
+        Integer index = indexById.get(taskId);
+        return index == null ? 0 : bit(index);
+    }
+
+    boolean isComplete(long state) {
+        return (state & requiredMask) == requiredMask;
+    }
+
+    List<ChecklistItem> items(long state) {
+        long known = state & allMask;
+        return itemsByState != null ? itemsByState.get((int) known) : render(known);
+    }
+
+    private List<ChecklistItem> render(long state) {
+        List<ChecklistItem> items = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            ChecklistTaskDefinition task = tasks.get(i);
+            items.add(new ChecklistItem(task.id(), task.label(), task.required(), (state & bit(i)) != 0));
+        }
+        return List.copyOf(items);
+    }
+
+    private static long bit(int index) {
+        return 1L << index;
+    }
+}
@@ -11,71 +11,68 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Objects;
-import java.util.stream.Collectors;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Component;
 
+/**
+ * Stage checklists from {@code checklists.yml}. Checklist state is a bitmask with one bit per task, in the order
+ * the tasks are listed for the stage.
+ */
 @Component
 public class StageChecklistService {
 
     private static final String CHECKLIST_RESOURCE = "checklists.yml";
 
-    private final Map<StageType, List<ChecklistTaskDefinition>> definitions;
+    private final Map<StageType, StageChecklist> checklists;
 
     public StageChecklistService() {
-        this.definitions = loadDefinitions(new ClassPathResource(CHECKLIST_RESOURCE));
+        this.checklists = loadDefinitions(new ClassPathResource(CHECKLIST_RESOURCE));
     }
 
     public List<ChecklistTaskDefinition> definitionsFor(StageType stage) {
-        return definitions.getOrDefault(stage, List.of());
+        return checklists.get(stage).tasks();
     }
 
-    public Map<String, Boolean> initializeState(StageType stage) {
-        List<ChecklistTaskDefinition> tasks = definitionsFor(stage);
-        Map<String, Boolean> state = new LinkedHashMap<>();
-        tasks.forEach(task -> state.put(task.id(), false));
-        return state;
+    public long initializeState(StageType stage) {
+        return 0L;
     }
 
-    public Map<String, Boolean> updateTask(StageType stage, Map<String, Boolean> currentState, String taskId, boolean completed) {
-        List<ChecklistTaskDefinition> tasks = definitionsFor(stage);
-        if (tasks.isEmpty()) {
+    public long updateTask(StageType stage, long currentState, String taskId, boolean completed) {
+        StageChecklist checklist = checklists.get(stage);
+        if (checklist.isEmpty()) {
             throw new IllegalArgumentException("No checklist configured for stage %s".formatted(stage));
         }
-        Map<String, Boolean> safeState = currentState == null ? Map.of() : currentState;
-        Map<String, Boolean> nextState = new LinkedHashMap<>();
-        boolean found = false;
-        for (ChecklistTaskDefinition task : tasks) {
-            boolean value = safeState.getOrDefault(task.id(), false);
-            if (Objects.equals(task.id(), taskId)) {
-                value = completed;
-                found = true;
-            }
-            nextState.put(task.id(), value);
-        }
-        if (!found) {
+        long bit = checklist.bitOf(taskId);
+        if (bit == 0) {
             throw new IllegalArgumentException("Unknown checklist task %s for stage %s".formatted(taskId, stage));
         }
-        return nextState;
+        return completed ? currentState | bit : currentState & ~bit;
+    }
+
+    public List<ChecklistItem> buildChecklist(StageType stage, Long state) {
+        return checklists.get(stage).items(state == null ? 0L : state);
     }
 
-    public List<ChecklistItem> buildChecklist(StageType stage, Map<String, Boolean> state) {
-        Map<String, Boolean> safeState = state == null ? Map.of() : state;
-        return definitionsFor(stage).stream()
-            .map(task -> new ChecklistItem(task.id(), task.label(), task.required(), safeState.getOrDefault(task.id(), false)))
-            .collect(Collectors.toList());
+    public boolean isChecklistComplete(StageType stage, Long state) {
+        return checklists.get(stage).isComplete(state == null ? 0L : state);
     }
 
-    public boolean isChecklistComplete(StageType stage, Map<String, Boolean> state) {
-        Map<String, Boolean> safeState = state == null ? Map.of() : state;
-        return definitionsFor(stage).stream()
-            .filter(ChecklistTaskDefinition::required)
-            .allMatch(task -> Boolean.TRUE.equals(safeState.get(task.id())));
+    /**
+     * Converts the task-id map the checklist state used to be stored as; unknown task ids are dropped.
+     */
+    public long toState(StageType stage, Map<String, Boolean> legacyState) {
+        StageChecklist checklist = checklists.get(stage);
+        long state = 0L;
+        for (Map.Entry<String, Boolean> entry : legacyState.entrySet()) {
+            if (Boolean.TRUE.equals(entry.getValue())) {
+                state |= checklist.bitOf(entry.getKey());
+            }
+        }
+        return state;
     }
 
-    private Map<StageType, List<ChecklistTaskDefinition>> loadDefinitions(Resource resource) {
+    private Map<StageType, StageChecklist> loadDefinitions(Resource resource) {
         if (!resource.exists()) {
             throw new IllegalStateException("Checklist configuration not found on classpath: " + CHECKLIST_RESOURCE);
         }
@@ -87,9 +84,9 @@ public class StageChecklistService {
             if (raw != null) {
                 raw.forEach((key, value) -> normalized.put(key.toUpperCase(Locale.ROOT), value == null ? List.of() : List.copyOf(value)));
             }
-            Map<StageType, List<ChecklistTaskDefinition>> mapped = new EnumMap<>(StageType.class);
+            Map<StageType, StageChecklist> mapped = new EnumMap<>(StageType.class);
             for (StageType stage : StageType.values()) {
-                mapped.put(stage, normalized.getOrDefault(stage.name(), List.of()));
+                mapped.put(stage, new StageChecklist(normalized.getOrDefault(stage.name(), List.of())));
             }
             return mapped;
         } catch (IOException ex) {
@@ -1,5 +1,8 @@
 package com.produsoft.workflow.config;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
@@ -14,17 +17,55 @@ public class OllamaClientProperties {
      */
     private String host = "https://ollama.com";
 
+    /**
+     * Base URLs of several Ollama servers serving the same models, used instead of {@code host} when given. Each
+     * conversation sticks to one of them, so that its prompt prefix is still cached there on the next turn.
+     */
+    private List<String> endpoints = List.of();
+
     /**
      * Default model that is used when the request does not specify one.
      */
     private String defaultModel = "gpt-oss:20b-cloud";
 
+    /**
+     * Smaller model that answers when the requested one fails or its circuit is open; none if empty.
+     */
+    private String fallbackModel;
+
+    /**
+     * How long Ollama keeps a model loaded after a request, sent as {@code keep_alive}; the server's default if
+     * not set. A model that stays loaded also keeps its prompt cache.
+     */
+    private Duration modelKeepAlive;
+
     /**
      * API key, usually supplied via {@code app.ai.ollama.api-key} property or the
      * {@code OLLAMA_API_KEY} environment variable.
      */
     private String apiKey;
 
+    /**
+     * HTTP version offered to Ollama. HTTP/2 is negotiated over TLS and falls back to HTTP/1.1 when refused.
+     */
+    private HttpClient.Version httpVersion = HttpClient.Version.HTTP_2;
+
+    /**
+     * Longest wait for a TCP (and TLS) connection to Ollama.
+     */
+    private Duration connectTimeout = Duration.ofSeconds(5);
+
+    /**
+     * Longest wait for the response headers once a request is sent. Ollama sends them with the first token when
+     * streaming and with the whole reply otherwise.
+     */
+    private Duration firstByteTimeout = Duration.ofSeconds(60);
+
+    /**
+     * Longest gap between two chunks of a streamed reply before the call is abandoned.
+     */
+    private Duration idleReadTimeout = Duration.ofSeconds(30);
+
     public String getHost() {
         return host;
     }
@@ -33,6 +74,25 @@ public class OllamaClientProperties {
         this.host = host;
     }
 
+    public List<String> getEndpoints() {
+        return endpoints;
+    }
+
+    public void setEndpoints(List<String> endpoints) {
+        this.endpoints = endpoints == null ? List.of() : endpoints;
+    }
+
+    /**
+     * The configured endpoints, or {@code host} when there are none.
+     */
+    public List<String> resolveEndpoints() {
+        List<String> configured = endpoints.stream()
+            .filter(StringUtils::hasText)
+            .map(String::trim)
+            .toList();
+        return configured.isEmpty() ? List.of(host) : configured;
+    }
+
     public String getDefaultModel() {
         return defaultModel;
     }
@@ -41,6 +101,54 @@ public class OllamaClientProperties {
         this.defaultModel = defaultModel;
     }
 
+    public String getFallbackModel() {
+        return fallbackModel;
+    }
+
+    public void setFallbackModel(String fallbackModel) {
+        this.fallbackModel = fallbackModel;
+    }
+
+    public Duration getModelKeepAlive() {
+        return modelKeepAlive;
+    }
+
+    public void setModelKeepAlive(Duration modelKeepAlive) {
+        this.modelKeepAlive = modelKeepAlive;
+    }
+
+    public HttpClient.Version getHttpVersion() {
+        return httpVersion;
+    }
+
+    public void setHttpVersion(HttpClient.Version httpVersion) {
+        this.httpVersion = httpVersion;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public Duration getFirstByteTimeout() {
+        return firstByteTimeout;
+    }
+
+    public void setFirstByteTimeout(Duration firstByteTimeout) {
+        this.firstByteTimeout = firstByteTimeout;
+    }
+
+    public Duration getIdleReadTimeout() {
+        return idleReadTimeout;
+    }
+
+    public void setIdleReadTimeout(Duration idleReadTimeout) {
+        this.idleReadTimeout = idleReadTimeout;
+    }
+
     public void setApiKey(String apiKey) {
         this.apiKey = apiKey;
     }
@@ -40,6 +40,8 @@ public class SecurityConfig {
                 .requestMatchers(HttpMethod.OPTIONS, "/**").permitAll()
                 .requestMatchers("/auth/signup").permitAll()
                 .requestMatchers("/auth/me").authenticated()
+                .requestMatchers("/actuator/health").permitAll()
+                .requestMatchers("/actuator/**").hasRole("SUPERVISOR")
                 .requestMatchers("/api/supervisor/**").hasRole("SUPERVISOR")
                 .requestMatchers("/api/operator/**").hasRole("OPERATOR")
                 .requestMatchers("/api/ai/**").hasAnyRole("OPERATOR", "SUPERVISOR")
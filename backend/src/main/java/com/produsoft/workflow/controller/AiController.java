@@ -2,13 +2,18 @@ package com.produsoft.workflow.controller;
 
 import com.produsoft.workflow.dto.AiChatRequest;
 import com.produsoft.workflow.dto.AiChatResponse;
+import com.produsoft.workflow.dto.AiConversationMapper;
+import com.produsoft.workflow.dto.AiConversationPageResponse;
 import com.produsoft.workflow.dto.AiConversationResponse;
 import com.produsoft.workflow.dto.AiConversationSummaryResponse;
+import com.produsoft.workflow.dto.AiMessagePageResponse;
 import com.produsoft.workflow.dto.CreateConversationRequest;
 import com.produsoft.workflow.dto.SendMessageRequest;
 import com.produsoft.workflow.dto.UpdateConversationTitleRequest;
 import com.produsoft.workflow.service.AiChatService;
+import com.produsoft.workflow.service.AiConversationPage;
 import com.produsoft.workflow.service.AiConversationService;
+import com.produsoft.workflow.service.AiMessagePage;
 import jakarta.validation.Valid;
 import java.util.List;
 import org.springframework.http.HttpStatus;
@@ -20,7 +25,9 @@ import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
@@ -31,10 +38,14 @@ public class AiController {
 
     private final AiChatService aiChatService;
     private final AiConversationService conversationService;
+    private final AiConversationMapper mapper;
 
-    public AiController(AiChatService aiChatService, AiConversationService conversationService) {
+    public AiController(AiChatService aiChatService,
+                        AiConversationService conversationService,
+                        AiConversationMapper mapper) {
         this.aiChatService = aiChatService;
         this.conversationService = conversationService;
+        this.mapper = mapper;
     }
 
     @PostMapping("/chat")
@@ -47,6 +58,16 @@ public class AiController {
         return conversationService.listConversations(authentication.getName());
     }
 
+    @GetMapping("/conversations/page")
+    public AiConversationPageResponse listConversationPage(Authentication authentication,
+                                                           @RequestParam(value = "cursor", required = false) String cursor,
+                                                           @RequestParam(value = "limit", required = false) Integer limit) {
+        AiConversationPage page = conversationService.findConversationPage(authentication.getName(), cursor, limit);
+        return new AiConversationPageResponse(
+            page.conversations().stream().map(mapper::toSummary).toList(),
+            page.nextCursor());
+    }
+
     @PostMapping("/conversations")
     public AiConversationResponse createConversation(Authentication authentication,
                                                      @Valid @RequestBody CreateConversationRequest request) {
@@ -59,6 +80,15 @@ public class AiController {
         return conversationService.getConversation(authentication.getName(), conversationId);
     }
 
+    @GetMapping("/conversations/{conversationId}/messages")
+    public AiMessagePageResponse listMessages(Authentication authentication,
+                                              @PathVariable Long conversationId,
+                                              @RequestParam(value = "cursor", required = false) String cursor,
+                                              @RequestParam(value = "limit", required = false) Integer limit) {
+        AiMessagePage page = conversationService.findMessagePage(authentication.getName(), conversationId, cursor, limit);
+        return mapper.toPageResponse(page.messages(), page.nextCursor());
+    }
+
     @PostMapping(value = "/conversations/{conversationId}/messages", produces = MediaType.APPLICATION_JSON_VALUE)
     public AiConversationResponse sendMessage(Authentication authentication,
                                               @PathVariable Long conversationId,
@@ -73,6 +103,16 @@ public class AiController {
         return conversationService.streamMessage(authentication.getName(), conversationId, request);
     }
 
+    /**
+     * Picks a streamed reply back up after the last event the client received, as sent by {@code EventSource}.
+     */
+    @GetMapping(value = "/conversations/{conversationId}/messages/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter resumeStream(Authentication authentication,
+                                   @PathVariable Long conversationId,
+                                   @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        return conversationService.resumeStream(authentication.getName(), conversationId, lastEventId);
+    }
+
     @PatchMapping("/conversations/{conversationId}")
     public AiConversationResponse renameConversation(Authentication authentication,
                                                      @PathVariable Long conversationId,
@@ -1,5 +1,6 @@
 package com.produsoft.workflow.controller;
 
+import com.produsoft.workflow.dispatch.DispatchQueueService;
 import com.produsoft.workflow.domain.StageState;
 import com.produsoft.workflow.domain.StageType;
 import com.produsoft.workflow.dto.ClaimStageRequest;
@@ -14,37 +15,58 @@ import jakarta.validation.Valid;
 import java.util.List;
 import java.util.Locale;
 import java.util.stream.Collectors;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
 @RequestMapping("/api/operator")
 public class OperatorController {
 
     private final OrderWorkflowService orderWorkflowService;
+    private final DispatchQueueService dispatchQueueService;
     private final OrderMapper mapper;
 
-    public OperatorController(OrderWorkflowService orderWorkflowService, OrderMapper mapper) {
+    public OperatorController(OrderWorkflowService orderWorkflowService,
+                              DispatchQueueService dispatchQueueService,
+                              OrderMapper mapper) {
         this.orderWorkflowService = orderWorkflowService;
+        this.dispatchQueueService = dispatchQueueService;
         this.mapper = mapper;
     }
 
     @GetMapping("/queue")
     public List<WorkQueueItemResponse> getQueue(@RequestParam("stage") String stage,
-                                                @RequestParam(value = "states", required = false) List<String> states) {
+                                                @RequestParam(value = "states", required = false) List<String> states,
+                                                @RequestParam(value = "page", defaultValue = "0") int page,
+                                                @RequestParam(value = "size", required = false) Integer size) {
         StageType stageType = StageType.fromString(stage);
         List<StageState> parsedStates = parseStates(states);
-        return orderWorkflowService.fetchQueue(stageType, parsedStates).stream()
+        return dispatchQueueService.fetchQueue(stageType, parsedStates, page, size).stream()
             .map(mapper::toQueueItem)
             .collect(Collectors.toList());
     }
 
+    /**
+     * Live queue changes for a stage. Browsers reconnecting with {@code Last-Event-ID} resume where they left off.
+     */
+    @GetMapping(value = "/queue/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamQueue(@RequestParam("stage") String stage,
+                                  @RequestParam(value = "states", required = false) List<String> states,
+                                  @RequestParam(value = "resumeToken", required = false) String resumeToken,
+                                  @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        StageType stageType = StageType.fromString(stage);
+        return dispatchQueueService.subscribe(stageType, parseStates(states), resumeToken != null ? resumeToken : lastEventId);
+    }
+
     @PostMapping("/orders/{orderId}/stages/{stage}/claim")
     public OrderStageStatusResponse claim(@PathVariable Long orderId,
                                           @PathVariable String stage,
@@ -53,6 +75,13 @@ public class OperatorController {
         return mapper.toStageResponse(orderWorkflowService.claimStage(orderId, stageType, request.assignee()));
     }
 
+    @PostMapping("/stages/{stage}/claim-next")
+    public WorkQueueItemResponse claimNext(@PathVariable String stage,
+                                           @Valid @RequestBody ClaimStageRequest request) {
+        StageType stageType = StageType.fromString(stage);
+        return mapper.toQueueItem(orderWorkflowService.claimNext(stageType, request.assignee()));
+    }
+
     @PostMapping("/orders/{orderId}/stages/{stage}/complete")
     public OrderStageStatusResponse complete(@PathVariable Long orderId,
                                              @PathVariable String stage,
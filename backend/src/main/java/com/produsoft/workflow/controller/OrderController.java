@@ -1,38 +1,111 @@
 package com.produsoft.workflow.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.dto.BulkOrderIngestResponse;
 import com.produsoft.workflow.dto.CreateOrderRequest;
 import com.produsoft.workflow.dto.OrderMapper;
+import com.produsoft.workflow.dto.OrderPageResponse;
 import com.produsoft.workflow.dto.OrderResponse;
 import com.produsoft.workflow.dto.ReprioritizeOrderRequest;
+import com.produsoft.workflow.service.OrderIngestFormat;
+import com.produsoft.workflow.service.OrderIngestService;
+import com.produsoft.workflow.service.OrderPage;
 import com.produsoft.workflow.service.OrderWorkflowService;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/api/orders")
 public class OrderController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
     private final OrderWorkflowService orderWorkflowService;
+    private final OrderIngestService orderIngestService;
     private final OrderMapper mapper;
+    private final ObjectMapper objectMapper;
 
-    public OrderController(OrderWorkflowService orderWorkflowService, OrderMapper mapper) {
+    public OrderController(OrderWorkflowService orderWorkflowService,
+                           OrderIngestService orderIngestService,
+                           OrderMapper mapper,
+                           ObjectMapper objectMapper) {
         this.orderWorkflowService = orderWorkflowService;
+        this.orderIngestService = orderIngestService;
         this.mapper = mapper;
+        this.objectMapper = objectMapper;
     }
 
+    /**
+     * Writes all matching orders as a JSON array while they are read from the database, so the response never
+     * has to be held in memory as a whole.
+     */
     @GetMapping
-    public List<OrderResponse> listOrders() {
-        return orderWorkflowService.findAllOrders().stream()
-            .map(mapper::toOrderResponse)
-            .collect(Collectors.toList());
+    public ResponseEntity<StreamingResponseBody> listOrders(@RequestParam(value = "overallState", required = false) String overallState,
+                                                            @RequestParam(value = "currentStage", required = false) String currentStage) {
+        StageState state = parseState(overallState);
+        StageType stage = parseStage(currentStage);
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.writeStartArray();
+                orderWorkflowService.streamOrders(state, stage, order -> write(generator, mapper.toOrderResponse(order)));
+                generator.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * Same orders as {@link #listOrders}, one JSON document per line.
+     */
+    @GetMapping(value = "/stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> streamOrders(@RequestParam(value = "overallState", required = false) String overallState,
+                                                              @RequestParam(value = "currentStage", required = false) String currentStage) {
+        StageState state = parseState(overallState);
+        StageType stage = parseStage(currentStage);
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.setRootValueSeparator(null);
+                orderWorkflowService.streamOrders(state, stage, order -> {
+                    write(generator, mapper.toOrderResponse(order));
+                    writeRaw(generator, "\n");
+                });
+            }
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    @GetMapping("/page")
+    public OrderPageResponse listOrderPage(@RequestParam(value = "cursor", required = false) String cursor,
+                                           @RequestParam(value = "limit", required = false) Integer limit,
+                                           @RequestParam(value = "overallState", required = false) String overallState,
+                                           @RequestParam(value = "currentStage", required = false) String currentStage) {
+        OrderPage page = orderWorkflowService.findOrderPage(cursor, limit, parseState(overallState), parseStage(currentStage));
+        return new OrderPageResponse(
+            page.orders().stream().map(mapper::toOrderResponse).toList(),
+            page.nextCursor());
     }
 
     @GetMapping("/{id}")
@@ -45,8 +118,41 @@ public class OrderController {
         return mapper.toOrderResponse(orderWorkflowService.createOrder(request));
     }
 
+    @PostMapping(value = "/bulk", consumes = {OrderIngestFormat.NDJSON_VALUE, OrderIngestFormat.CSV_VALUE})
+    public BulkOrderIngestResponse bulkCreateOrders(@RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+                                                    HttpServletRequest request) throws IOException {
+        Charset charset = contentType.getCharset() != null ? contentType.getCharset() : StandardCharsets.UTF_8;
+        try (Reader reader = new InputStreamReader(request.getInputStream(), charset)) {
+            return orderIngestService.ingest(reader, OrderIngestFormat.of(contentType));
+        }
+    }
+
     @PatchMapping("/{id}/priority")
     public OrderResponse updatePriority(@PathVariable Long id, @Valid @RequestBody ReprioritizeOrderRequest request) {
         return mapper.toOrderResponse(orderWorkflowService.updatePriority(id, request));
     }
+
+    private void write(JsonGenerator generator, OrderResponse response) {
+        try {
+            objectMapper.writeValue(generator, response);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void writeRaw(JsonGenerator generator, String text) {
+        try {
+            generator.writeRaw(text);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private StageState parseState(String value) {
+        return value == null || value.isBlank() ? null : StageState.valueOf(value.toUpperCase(Locale.ROOT));
+    }
+
+    private StageType parseStage(String value) {
+        return value == null || value.isBlank() ? null : StageType.fromString(value);
+    }
 }
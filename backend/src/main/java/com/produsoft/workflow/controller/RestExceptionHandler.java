@@ -3,9 +3,14 @@ package com.produsoft.workflow.controller;
 import com.produsoft.workflow.exception.AiClientException;
 import com.produsoft.workflow.exception.InvalidStageActionException;
 import com.produsoft.workflow.exception.NotFoundException;
+import com.produsoft.workflow.exception.ServiceUnavailableException;
+import com.produsoft.workflow.exception.TooManyRequestsException;
 import java.time.Instant;
 import java.util.Map;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
@@ -16,6 +21,7 @@ public class RestExceptionHandler {
     @ExceptionHandler(NotFoundException.class)
     public ResponseEntity<Map<String, Object>> handleNotFound(NotFoundException ex) {
         return ResponseEntity.status(HttpStatus.NOT_FOUND)
+            .contentType(MediaType.APPLICATION_JSON)
             .body(Map.of(
                 "timestamp", Instant.now(),
                 "message", ex.getMessage(),
@@ -25,24 +31,58 @@ public class RestExceptionHandler {
     @ExceptionHandler(InvalidStageActionException.class)
     public ResponseEntity<Map<String, Object>> handleInvalidAction(InvalidStageActionException ex) {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+            .contentType(MediaType.APPLICATION_JSON)
             .body(Map.of(
                 "timestamp", Instant.now(),
                 "message", ex.getMessage(),
                 "status", HttpStatus.BAD_REQUEST.value()));
     }
 
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<Map<String, Object>> handleConcurrentModification(OptimisticLockingFailureException ex) {
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(Map.of(
+                "timestamp", Instant.now(),
+                "message", "The order was modified by another request. Reload it and try again.",
+                "status", HttpStatus.CONFLICT.value()));
+    }
+
     @ExceptionHandler(AiClientException.class)
     public ResponseEntity<Map<String, Object>> handleAiClient(AiClientException ex) {
         return ResponseEntity.status(HttpStatus.BAD_GATEWAY)
+            .contentType(MediaType.APPLICATION_JSON)
             .body(Map.of(
                 "timestamp", Instant.now(),
                 "message", ex.getMessage(),
                 "status", HttpStatus.BAD_GATEWAY.value()));
     }
 
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<Map<String, Object>> handleServiceUnavailable(ServiceUnavailableException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(Map.of(
+                "timestamp", Instant.now(),
+                "message", ex.getMessage(),
+                "status", HttpStatus.SERVICE_UNAVAILABLE.value()));
+    }
+
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<Map<String, Object>> handleTooManyRequests(TooManyRequestsException ex) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(ex.getRetryAfter().toSeconds(), 1)))
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(Map.of(
+                "timestamp", Instant.now(),
+                "message", ex.getMessage(),
+                "status", HttpStatus.TOO_MANY_REQUESTS.value()));
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Map<String, Object>> handleGeneric(Exception ex) {
         return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            .contentType(MediaType.APPLICATION_JSON)
             .body(Map.of(
                 "timestamp", Instant.now(),
                 "message", ex.getMessage(),
@@ -1,17 +1,26 @@
 package com.produsoft.workflow.controller;
 
+import com.produsoft.workflow.analytics.CycleTimeSketchService;
 import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.dto.CycleTimeAnalyticsResponse;
 import com.produsoft.workflow.dto.OrderMapper;
 import com.produsoft.workflow.dto.OrderStageStatusResponse;
+import com.produsoft.workflow.dto.ProjectionStatusResponse;
+import com.produsoft.workflow.dto.StageAnalyticsResponse;
 import com.produsoft.workflow.dto.SupervisorDecisionRequest;
 import com.produsoft.workflow.dto.WipSummaryResponse;
+import com.produsoft.workflow.journal.JournalProjector;
+import com.produsoft.workflow.journal.StageAnalyticsService;
 import com.produsoft.workflow.service.OrderWorkflowService;
 import jakarta.validation.Valid;
+import java.util.List;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 @RestController
@@ -19,10 +28,20 @@ import org.springframework.web.bind.annotation.RestController;
 public class SupervisorController {
 
     private final OrderWorkflowService orderWorkflowService;
+    private final StageAnalyticsService stageAnalyticsService;
+    private final JournalProjector journalProjector;
+    private final CycleTimeSketchService cycleTimeSketchService;
     private final OrderMapper mapper;
 
-    public SupervisorController(OrderWorkflowService orderWorkflowService, OrderMapper mapper) {
+    public SupervisorController(OrderWorkflowService orderWorkflowService,
+                                StageAnalyticsService stageAnalyticsService,
+                                JournalProjector journalProjector,
+                                CycleTimeSketchService cycleTimeSketchService,
+                                OrderMapper mapper) {
         this.orderWorkflowService = orderWorkflowService;
+        this.stageAnalyticsService = stageAnalyticsService;
+        this.journalProjector = journalProjector;
+        this.cycleTimeSketchService = cycleTimeSketchService;
         this.mapper = mapper;
     }
 
@@ -31,6 +50,33 @@ public class SupervisorController {
         return orderWorkflowService.buildWipSummary();
     }
 
+    @GetMapping("/analytics/stages")
+    public StageAnalyticsResponse stageAnalytics(@RequestParam(value = "days", defaultValue = "7") int days) {
+        return stageAnalyticsService.buildStageAnalytics(days);
+    }
+
+    @GetMapping("/analytics/projections")
+    public List<ProjectionStatusResponse> projectionStatus() {
+        return stageAnalyticsService.projectionStatus();
+    }
+
+    @PostMapping("/analytics/projections/{name}/rebuild")
+    public ResponseEntity<Void> rebuildProjection(@PathVariable String name) {
+        journalProjector.rebuild(name);
+        return ResponseEntity.accepted().build();
+    }
+
+    @GetMapping("/analytics/cycle-times")
+    public CycleTimeAnalyticsResponse cycleTimes(@RequestParam(value = "stage", required = false) String stage) {
+        return cycleTimeSketchService.buildCycleTimeAnalytics(stage == null ? null : StageType.fromString(stage));
+    }
+
+    @PostMapping("/analytics/cycle-times/rebuild")
+    public CycleTimeAnalyticsResponse rebuildCycleTimes() {
+        cycleTimeSketchService.rebuild();
+        return cycleTimeSketchService.buildCycleTimeAnalytics(null);
+    }
+
     @PostMapping("/orders/{orderId}/stages/{stage}/approve-skip")
     public OrderStageStatusResponse approveSkip(@PathVariable Long orderId,
                                                 @PathVariable String stage,
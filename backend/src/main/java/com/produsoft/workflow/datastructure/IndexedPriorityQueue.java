@@ -0,0 +1,107 @@
+package com.produsoft.workflow.datastructure;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Binary heap that also indexes its elements by key, so an element can be replaced (decrease- or increase-key)
+ * or removed in O(log n) instead of rebuilding the heap.
+ */
+public class IndexedPriorityQueue<K, T extends Comparable<? super T>> extends PriorityQueue<T> {
+    private final Function<? super T, ? extends K> keyExtractor;
+    private final Map<K, Integer> positions = new HashMap<>();
+
+    public IndexedPriorityQueue(Function<? super T, ? extends K> keyExtractor) {
+        this.keyExtractor = Objects.requireNonNull(keyExtractor, "Key extractor cannot be null");
+    }
+
+    /**
+     * Inserts the value, or replaces the element with the same key and restores heap order around it.
+     *
+     * @return the replaced element, or null if the key was not present
+     */
+    public T put(T value) {
+        Objects.requireNonNull(value, "IndexedPriorityQueue does not support null elements");
+        Integer index = positions.get(keyExtractor.apply(value));
+        if (index == null) {
+            offer(value);
+            return null;
+        }
+        T previous = elementAt(index);
+        replaceAt(index, value);
+        return previous;
+    }
+
+    public T get(K key) {
+        Integer index = positions.get(key);
+        return index == null ? null : elementAt(index);
+    }
+
+    public boolean containsKey(K key) {
+        return positions.containsKey(key);
+    }
+
+    public T remove(K key) {
+        Integer index = positions.get(key);
+        if (index == null) {
+            return null;
+        }
+        T removed = removeAt(index);
+        positions.remove(key);
+        return removed;
+    }
+
+    @Override
+    public T poll() {
+        T root = super.poll();
+        positions.remove(keyExtractor.apply(root));
+        return root;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        positions.clear();
+    }
+
+    /**
+     * Returns up to {@code skip + limit} matching elements in priority order, skipping the first {@code skip}, without
+     * modifying the heap. Only the visited frontier is ordered, so the cost is O(k log k) for k visited elements.
+     */
+    public List<T> peekOrdered(int skip, int limit, Predicate<? super T> filter) {
+        List<T> result = new ArrayList<>();
+        if (limit <= 0 || isEmpty()) {
+            return result;
+        }
+        java.util.PriorityQueue<Integer> frontier = new java.util.PriorityQueue<>(
+            Comparator.comparing(this::elementAt));
+        frontier.add(0);
+        int matched = 0;
+        while (!frontier.isEmpty() && result.size() < limit) {
+            int index = frontier.poll();
+            T value = elementAt(index);
+            if (filter.test(value) && matched++ >= skip) {
+                result.add(value);
+            }
+            int left = (index << 1) + 1;
+            if (left < size()) {
+                frontier.add(left);
+            }
+            if (left + 1 < size()) {
+                frontier.add(left + 1);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    protected void indexChanged(T value, int index) {
+        positions.put(keyExtractor.apply(value), index);
+    }
+}
@@ -17,6 +17,7 @@ public class PriorityQueue<T extends Comparable<? super T>> {
         Objects.requireNonNull(value, "PriorityQueue does not support null elements");
         ensureCapacity(size + 1);
         heap[size] = value;
+        indexChanged(value, size);
         siftUp(size);
         size++;
     }
@@ -25,14 +26,7 @@ public class PriorityQueue<T extends Comparable<? super T>> {
         if (isEmpty()) {
             throw new NoSuchElementException("PriorityQueue is empty");
         }
-        T root = elementAt(0);
-        size--;
-        heap[0] = heap[size];
-        heap[size] = null;
-        if (size > 0) {
-            siftDown(0);
-        }
-        return root;
+        return removeAt(0);
     }
 
     public T peek() {
@@ -55,8 +49,37 @@ public class PriorityQueue<T extends Comparable<? super T>> {
         size = 0;
     }
 
+    /**
+     * Called whenever an element is stored at a heap slot, so subclasses can track element positions.
+     */
+    protected void indexChanged(T value, int index) {
+    }
+
+    protected T removeAt(int index) {
+        T removed = elementAt(index);
+        size--;
+        if (index == size) {
+            heap[size] = null;
+            return removed;
+        }
+        heap[index] = heap[size];
+        heap[size] = null;
+        indexChanged(elementAt(index), index);
+        siftDown(index);
+        siftUp(index);
+        return removed;
+    }
+
+    protected void replaceAt(int index, T value) {
+        Objects.requireNonNull(value, "PriorityQueue does not support null elements");
+        heap[index] = value;
+        indexChanged(value, index);
+        siftDown(index);
+        siftUp(index);
+    }
+
     @SuppressWarnings("unchecked")
-    private T elementAt(int index) {
+    protected T elementAt(int index) {
         return (T) heap[index];
     }
 
@@ -107,5 +130,7 @@ public class PriorityQueue<T extends Comparable<? super T>> {
         Object tmp = heap[firstIndex];
         heap[firstIndex] = heap[secondIndex];
         heap[secondIndex] = tmp;
+        indexChanged(elementAt(firstIndex), firstIndex);
+        indexChanged(elementAt(secondIndex), secondIndex);
     }
 }
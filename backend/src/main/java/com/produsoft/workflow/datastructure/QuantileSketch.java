@@ -0,0 +1,177 @@
+package com.produsoft.workflow.datastructure;
+
+/**
+ * Mergeable quantile sketch over non-negative values. Values are counted in logarithmic buckets whose bounds grow
+ * by a factor {@code (1 + a) / (1 - a)}, so every estimated quantile is within relative error {@code a} of a
+ * value that was actually added. Memory depends on the range of the values, not on how many were added, and two
+ * sketches with the same accuracy merge by adding bucket counts. A value added earlier can be removed again; the
+ * minimum and maximum are then approximations, since they stay those of every value added since the sketch was
+ * last empty.
+ *
+ * <p>Not thread-safe.
+ */
+public class QuantileSketch {
+
+    private static final double MIN_INDEXABLE_VALUE = 1e-9;
+    private static final int GROWTH_MARGIN = 16;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    private long[] counts = new long[0];
+    private int minIndex;
+    private long zeroCount;
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch(double relativeAccuracy) {
+        if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+            throw new IllegalArgumentException("Relative accuracy must be between 0 and 1 (exclusive)");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value) || value < 0) {
+            throw new IllegalArgumentException("QuantileSketch only accepts non-negative values");
+        }
+        if (value < MIN_INDEXABLE_VALUE) {
+            zeroCount++;
+        } else {
+            int index = (int) Math.ceil(Math.log(value) / logGamma);
+            ensureIndex(index);
+            counts[index - minIndex]++;
+        }
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Removes a value added earlier by decrementing its bucket. The minimum and maximum are left as they are unless
+     * the sketch becomes empty.
+     *
+     * @throws IllegalArgumentException if no value in the bucket of {@code value} is left to remove
+     */
+    public void remove(double value) {
+        if (Double.isNaN(value) || value < 0) {
+            throw new IllegalArgumentException("QuantileSketch only accepts non-negative values");
+        }
+        if (value < MIN_INDEXABLE_VALUE) {
+            if (zeroCount == 0) {
+                throw new IllegalArgumentException("Value " + value + " was not added to the sketch");
+            }
+            zeroCount--;
+        } else {
+            int index = (int) Math.ceil(Math.log(value) / logGamma);
+            int slot = index - minIndex;
+            if (slot < 0 || slot >= counts.length || counts[slot] == 0) {
+                throw new IllegalArgumentException("Value " + value + " was not added to the sketch");
+            }
+            counts[slot]--;
+        }
+        count--;
+        sum -= value;
+        if (count == 0) {
+            sum = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Adds every value of {@code other} to this sketch. Both sketches must have the same relative accuracy.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy) {
+            throw new IllegalArgumentException("Cannot merge sketches with different relative accuracy");
+        }
+        if (other.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] != 0) {
+                int index = other.minIndex + i;
+                ensureIndex(index);
+                counts[index - minIndex] += other.counts[i];
+            }
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns the estimated value at quantile {@code q} (0 to 1), or NaN if the sketch is empty.
+     */
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1");
+        }
+        if (isEmpty()) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.floor(q * (count - 1));
+        long seen = zeroCount;
+        if (rank < seen) {
+            return 0;
+        }
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (rank < seen) {
+                double estimate = 2 * Math.pow(gamma, minIndex + i) / (gamma + 1);
+                return Math.max(min, Math.min(max, estimate));
+            }
+        }
+        return max;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public double min() {
+        return isEmpty() ? Double.NaN : min;
+    }
+
+    public double max() {
+        return isEmpty() ? Double.NaN : max;
+    }
+
+    public double average() {
+        return isEmpty() ? Double.NaN : sum / count;
+    }
+
+    public double relativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    private void ensureIndex(int index) {
+        if (counts.length == 0) {
+            counts = new long[GROWTH_MARGIN];
+            minIndex = index - GROWTH_MARGIN / 2;
+            return;
+        }
+        int maxIndex = minIndex + counts.length - 1;
+        if (index >= minIndex && index <= maxIndex) {
+            return;
+        }
+        int newMin = index < minIndex ? index - GROWTH_MARGIN : minIndex;
+        int newMax = index > maxIndex ? index + GROWTH_MARGIN : maxIndex;
+        long[] grown = new long[newMax - newMin + 1];
+        System.arraycopy(counts, 0, grown, minIndex - newMin, counts.length);
+        counts = grown;
+        minIndex = newMin;
+    }
+}
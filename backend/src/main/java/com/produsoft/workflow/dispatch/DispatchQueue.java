@@ -0,0 +1,93 @@
+package com.produsoft.workflow.dispatch;
+
+import com.produsoft.workflow.datastructure.IndexedPriorityQueue;
+import com.produsoft.workflow.domain.StageState;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Priority-ordered work queue of a single stage, keyed by order id. Reads take a shared lock so any number of
+ * request threads can page through the queue while transitions update it. Every put or remove that changes the
+ * queue is reported to the change listener while the write lock is still held, so listeners see changes in the
+ * order they were applied.
+ */
+class DispatchQueue {
+
+    private final IndexedPriorityQueue<Long, DispatchQueueEntry> heap = new IndexedPriorityQueue<>(DispatchQueueEntry::orderId);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final BiConsumer<DispatchQueueEntry, DispatchQueueEntry> changeListener;
+
+    DispatchQueue(BiConsumer<DispatchQueueEntry, DispatchQueueEntry> changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    void put(DispatchQueueEntry entry) {
+        lock.writeLock().lock();
+        try {
+            DispatchQueueEntry previous = heap.put(entry);
+            if (!entry.equals(previous)) {
+                changeListener.accept(previous, entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(Long orderId) {
+        lock.writeLock().lock();
+        try {
+            DispatchQueueEntry removed = heap.remove(orderId);
+            if (removed != null) {
+                changeListener.accept(removed, null);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the whole queue with the entries produced by the loader. The write lock is held while loading so
+     * updates from transactions that commit during the reload are applied after it rather than overwritten.
+     */
+    void reload(Supplier<? extends Collection<DispatchQueueEntry>> loader) {
+        lock.writeLock().lock();
+        try {
+            Collection<DispatchQueueEntry> entries = loader.get();
+            heap.clear();
+            entries.forEach(heap::put);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    List<DispatchQueueEntry> page(Collection<StageState> states, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            return heap.peekOrdered(offset, limit, entry -> states.contains(entry.stageState()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean contains(Long orderId) {
+        lock.readLock().lock();
+        try {
+            return heap.containsKey(orderId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return heap.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
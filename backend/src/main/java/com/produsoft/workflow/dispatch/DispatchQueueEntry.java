@@ -0,0 +1,63 @@
+package com.produsoft.workflow.dispatch;
+
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.OrderStageStatus;
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Optional;
+
+/**
+ * Immutable copy of everything a work queue item shows, ordered the same way as
+ * {@code OrderStageStatusRepository.findQueueByStageAndStates}: highest priority first, then oldest order.
+ */
+public record DispatchQueueEntry(
+    Long orderId,
+    String orderNumber,
+    Integer priority,
+    Instant createdAt,
+    StageType stage,
+    StageState stageState,
+    StageType currentStage,
+    StageState overallState,
+    String assignee,
+    Instant claimedAt,
+    Instant updatedAt,
+    String exceptionReason,
+    String notes,
+    Long checklistMask,
+    Long orderVersion
+) implements Comparable<DispatchQueueEntry> {
+
+    private static final Comparator<DispatchQueueEntry> ORDERING = Comparator
+        .comparing((DispatchQueueEntry entry) -> Optional.ofNullable(entry.priority()).orElse(0), Comparator.reverseOrder())
+        .thenComparing(DispatchQueueEntry::createdAt, Comparator.nullsLast(Comparator.naturalOrder()))
+        .thenComparing(DispatchQueueEntry::orderId);
+
+    public static DispatchQueueEntry of(OrderStageStatus status) {
+        Order order = status.getOrder();
+        return new DispatchQueueEntry(
+            order.getId(),
+            order.getOrderNumber(),
+            order.getPriority(),
+            order.getCreatedAt(),
+            status.getStage(),
+            status.getState(),
+            order.getCurrentStage(),
+            order.getOverallState(),
+            status.getAssignee(),
+            status.getClaimedAt(),
+            status.getUpdatedAt(),
+            status.getExceptionReason(),
+            status.getNotes(),
+            status.getChecklistMask(),
+            order.getVersion()
+        );
+    }
+
+    @Override
+    public int compareTo(DispatchQueueEntry other) {
+        return ORDERING.compare(this, other);
+    }
+}
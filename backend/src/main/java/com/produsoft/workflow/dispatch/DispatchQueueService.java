@@ -0,0 +1,174 @@
+package com.produsoft.workflow.dispatch;
+
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.OrderStageStatus;
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.exception.InvalidStageActionException;
+import com.produsoft.workflow.exception.ServiceUnavailableException;
+import com.produsoft.workflow.repository.OrderStageStatusRepository;
+import com.produsoft.workflow.repository.QueueKey;
+import com.produsoft.workflow.service.OrderChangedEvent;
+import com.produsoft.workflow.service.OrderWorkflowService;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Serves operator work queues from per-stage in-memory heaps instead of querying the database on every poll.
+ * The heaps are loaded on startup, updated after each committed order change and periodically compared with
+ * the SQL queue query; a stage that has drifted (for example because another instance changed an order) is
+ * reloaded.
+ *
+ * <p>After-commit listeners of concurrent transactions can run out of commit order, so the last applied version
+ * of each order is kept and an event older than it is ignored. Versions of orders no longer in any queue are
+ * dropped at the consistency check.
+ */
+@Component
+public class DispatchQueueService {
+
+    private static final Logger log = LoggerFactory.getLogger(DispatchQueueService.class);
+
+    static final Set<StageState> TRACKED_STATES =
+        EnumSet.of(StageState.PENDING, StageState.REWORK, StageState.IN_PROGRESS, StageState.EXCEPTION);
+
+    private final OrderStageStatusRepository stageStatusRepository;
+    private final OrderWorkflowService orderWorkflowService;
+    private final QueueDeltaBroadcaster deltaBroadcaster;
+    private final Map<StageType, DispatchQueue> queues = new EnumMap<>(StageType.class);
+    private final Map<Long, Long> appliedVersions = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    public DispatchQueueService(OrderStageStatusRepository stageStatusRepository,
+                                OrderWorkflowService orderWorkflowService,
+                                QueueDeltaBroadcaster deltaBroadcaster) {
+        this.stageStatusRepository = stageStatusRepository;
+        this.orderWorkflowService = orderWorkflowService;
+        this.deltaBroadcaster = deltaBroadcaster;
+        for (StageType stage : StageType.values()) {
+            queues.put(stage, new DispatchQueue((previous, current) -> deltaBroadcaster.publish(stage, previous, current)));
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        for (StageType stage : StageType.values()) {
+            reload(stage);
+        }
+        loaded = true;
+        log.info("Dispatch queues loaded: {}", queues.entrySet().stream()
+            .map(entry -> entry.getKey() + "=" + entry.getValue().size())
+            .toList());
+    }
+
+    /**
+     * Returns a page of the stage's queue. States outside the tracked set, such as completed stages, are not held
+     * in memory and are read from the database instead.
+     */
+    public List<DispatchQueueEntry> fetchQueue(StageType stage, List<StageState> states, int page, Integer size) {
+        List<StageState> effectiveStates = (states == null || states.isEmpty())
+            ? OrderWorkflowService.DEFAULT_QUEUE_STATES
+            : states;
+        int limit = size == null ? Integer.MAX_VALUE : Math.max(size, 0);
+        int offset = (int) Math.min((long) Math.max(page, 0) * limit, Integer.MAX_VALUE);
+        if (loaded && TRACKED_STATES.containsAll(effectiveStates)) {
+            return queues.get(stage).page(EnumSet.copyOf(effectiveStates), offset, limit);
+        }
+        return orderWorkflowService.fetchQueue(stage, effectiveStates).stream()
+            .skip(offset)
+            .limit(limit)
+            .map(DispatchQueueEntry::of)
+            .toList();
+    }
+
+    /**
+     * Opens a server-sent event stream of the stage's queue changes, limited to the given tracked states.
+     */
+    public SseEmitter subscribe(StageType stage, List<StageState> states, String resumeToken) {
+        List<StageState> effectiveStates = (states == null || states.isEmpty())
+            ? OrderWorkflowService.DEFAULT_QUEUE_STATES
+            : states;
+        if (!TRACKED_STATES.containsAll(effectiveStates)) {
+            throw new InvalidStageActionException("Live queue updates are only available for states " + TRACKED_STATES);
+        }
+        if (!loaded) {
+            throw new ServiceUnavailableException("Dispatch queues are still loading");
+        }
+        return deltaBroadcaster.subscribe(stage, EnumSet.copyOf(effectiveStates), resumeToken, snapshotOf(stage));
+    }
+
+    @TransactionalEventListener
+    public void onOrderChanged(OrderChangedEvent event) {
+        Order order = event.order();
+        Long version = event.version();
+        // Applied while holding the order's map entry, so two events for one order are never applied at once.
+        appliedVersions.compute(order.getId(), (orderId, applied) -> {
+            if (applied != null && version != null && version <= applied) {
+                return applied;
+            }
+            for (OrderStageStatus status : order.getStages()) {
+                DispatchQueue queue = queues.get(status.getStage());
+                if (TRACKED_STATES.contains(status.getState())) {
+                    queue.put(DispatchQueueEntry.of(status));
+                } else {
+                    queue.remove(orderId);
+                }
+            }
+            return version != null ? version : applied;
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${app.workflow.dispatch.consistency-check-interval:PT1M}",
+        initialDelayString = "${app.workflow.dispatch.consistency-check-interval:PT1M}")
+    public void verifyConsistency() {
+        if (!loaded) {
+            return;
+        }
+        for (StageType stage : StageType.values()) {
+            if (!isConsistent(stage)) {
+                log.warn("Dispatch queue for stage {} diverged from the database; reloading", stage);
+                reload(stage);
+                deltaBroadcaster.resync(stage, snapshotOf(stage));
+            }
+        }
+        appliedVersions.keySet().removeIf(orderId -> queues.values().stream().noneMatch(queue -> queue.contains(orderId)));
+    }
+
+    public boolean isConsistent(StageType stage) {
+        List<QueueKey> expected = stageStatusRepository.findQueueKeysByStageAndStates(stage, TRACKED_STATES);
+        List<QueueKey> actual = queues.get(stage).page(TRACKED_STATES, 0, Integer.MAX_VALUE).stream()
+            .map(entry -> new QueueKey(entry.orderId(), entry.stageState()))
+            .toList();
+        return expected.equals(actual);
+    }
+
+    private Function<Set<StageState>, List<DispatchQueueEntry>> snapshotOf(StageType stage) {
+        return states -> queues.get(stage).page(states, 0, Integer.MAX_VALUE);
+    }
+
+    private void reload(StageType stage) {
+        queues.get(stage).reload(() -> {
+            List<DispatchQueueEntry> entries = stageStatusRepository.findQueueByStageAndStates(stage, TRACKED_STATES).stream()
+                .map(DispatchQueueEntry::of)
+                .toList();
+            for (DispatchQueueEntry entry : entries) {
+                if (entry.orderVersion() != null) {
+                    appliedVersions.merge(entry.orderId(), entry.orderVersion(), Math::max);
+                }
+            }
+            return entries;
+        });
+    }
+}
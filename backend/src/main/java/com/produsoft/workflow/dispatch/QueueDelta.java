@@ -0,0 +1,34 @@
+package com.produsoft.workflow.dispatch;
+
+import com.produsoft.workflow.domain.StageState;
+import java.util.Collection;
+
+/**
+ * Net change of one order in a stage queue: the entry before the change (null if it was not queued) and after it
+ * (null if it left the queue). Deltas of the same order merge by keeping the oldest {@code previous} and the
+ * newest {@code current}.
+ */
+record QueueDelta(Long orderId, DispatchQueueEntry previous, DispatchQueueEntry current) {
+
+    enum Type {
+        ADDED,
+        UPDATED,
+        REMOVED
+    }
+
+    QueueDelta merge(QueueDelta later) {
+        return new QueueDelta(orderId, previous, later.current);
+    }
+
+    /**
+     * How the change looks to a client that only shows the given states, or null if it does not affect that client.
+     */
+    Type typeFor(Collection<StageState> states) {
+        boolean wasVisible = previous != null && states.contains(previous.stageState());
+        boolean isVisible = current != null && states.contains(current.stageState());
+        if (isVisible) {
+            return wasVisible ? Type.UPDATED : Type.ADDED;
+        }
+        return wasVisible ? Type.REMOVED : null;
+    }
+}
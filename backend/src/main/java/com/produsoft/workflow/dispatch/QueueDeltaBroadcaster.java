@@ -0,0 +1,388 @@
+package com.produsoft.workflow.dispatch;
+
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.dto.OrderMapper;
+import com.produsoft.workflow.dto.QueueChangeResponse;
+import com.produsoft.workflow.dto.QueueDeltaResponse;
+import com.produsoft.workflow.dto.QueueSnapshotResponse;
+import com.produsoft.workflow.dto.WorkQueueItemResponse;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Pushes queue changes to operator terminals over server-sent events. Changes reported by the dispatch queues are
+ * buffered per stage and flushed on a short interval, so a burst of updates to one order reaches clients as a
+ * single change. Every flushed batch gets a sequence number; clients resume from the token of the last batch they
+ * received and are replayed what they missed, or sent a fresh snapshot if it is no longer buffered.
+ *
+ * <p>Changes are idempotent for the client: an ADDED item may already be present and a REMOVED one may already be
+ * gone.
+ *
+ * <p>Events are written by threads of the broadcaster's own, never by the scheduler or a request thread: each
+ * client has an outbox of up to {@code app.workflow.dispatch.client-buffer} events drained by one of
+ * {@code send-threads} send threads at a time. A client with events waiting for a free thread keeps its place in
+ * line, however many clients are being written to. A client whose outbox overflows, or whose current write has
+ * taken longer than {@code send-timeout}, is dropped and its stream closed once the write returns; it reconnects
+ * with its last token and catches up.
+ */
+@Component
+public class QueueDeltaBroadcaster {
+
+    private static final Logger log = LoggerFactory.getLogger(QueueDeltaBroadcaster.class);
+
+    private final OrderMapper mapper;
+    private final int historySize;
+    private final int clientBuffer;
+    private final long sendTimeoutNanos;
+    private final ThreadPoolExecutor sendExecutor;
+    private final String instanceId = Long.toString(ThreadLocalRandom.current().nextLong() >>> 1, 36);
+    private final Map<StageType, StageChannel> channels = new EnumMap<>(StageType.class);
+
+    public QueueDeltaBroadcaster(OrderMapper mapper,
+                                 @Value("${app.workflow.dispatch.delta-history:256}") int historySize,
+                                 @Value("${app.workflow.dispatch.client-buffer:512}") int clientBuffer,
+                                 @Value("${app.workflow.dispatch.send-timeout:PT10S}") Duration sendTimeout,
+                                 @Value("${app.workflow.dispatch.send-threads:32}") int sendThreads) {
+        this.mapper = mapper;
+        this.historySize = Math.max(historySize, 1);
+        // A resuming client is replayed the whole history, plus a snapshot or heartbeat, before it drains.
+        this.clientBuffer = Math.max(clientBuffer, this.historySize + 2);
+        this.sendTimeoutNanos = sendTimeout.toNanos();
+        AtomicInteger threadNumber = new AtomicInteger();
+        // A client has at most one drain queued, so the queue is bounded by the number of clients.
+        this.sendExecutor = new ThreadPoolExecutor(Math.max(sendThreads, 1), Math.max(sendThreads, 1), 60,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "queue-sse-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.sendExecutor.allowCoreThreadTimeOut(true);
+        for (StageType stage : StageType.values()) {
+            channels.put(stage, new StageChannel());
+        }
+    }
+
+    /**
+     * Records a queue change. Called by the dispatch queue while it holds its write lock, so this only buffers.
+     */
+    void publish(StageType stage, DispatchQueueEntry previous, DispatchQueueEntry current) {
+        Long orderId = current != null ? current.orderId() : previous.orderId();
+        StageChannel channel = channels.get(stage);
+        synchronized (channel.pendingLock) {
+            channel.pending.merge(orderId, new QueueDelta(orderId, previous, current), QueueDelta::merge);
+        }
+    }
+
+    /**
+     * Registers a client for the stage's changes. A valid resume token replays the batches sent after it; otherwise
+     * the client first receives a snapshot of the queue from {@code snapshot}.
+     */
+    SseEmitter subscribe(StageType stage, Set<StageState> states, String resumeToken,
+                         Function<Set<StageState>, List<DispatchQueueEntry>> snapshot) {
+        StageChannel channel = channels.get(stage);
+        Subscriber subscriber = new Subscriber(newEmitter(), states);
+        subscriber.emitter.onCompletion(() -> subscriber.open = false);
+        subscriber.emitter.onTimeout(() -> subscriber.open = false);
+        subscriber.emitter.onError(error -> subscriber.open = false);
+        synchronized (channel.sendLock) {
+            Long resumeFrom = channel.resumableSequence(resumeToken);
+            if (resumeFrom == null) {
+                sendSnapshot(channel, subscriber, snapshot);
+            } else {
+                for (Batch batch : channel.history) {
+                    if (batch.sequence() > resumeFrom) {
+                        sendBatch(channel, subscriber, batch, new HashMap<>());
+                    }
+                }
+            }
+            if (subscriber.open) {
+                channel.subscribers.add(subscriber);
+            }
+        }
+        return subscriber.emitter;
+    }
+
+    /**
+     * Starts a new token generation for the stage after its queue was reloaded, and sends every client a snapshot.
+     */
+    void resync(StageType stage, Function<Set<StageState>, List<DispatchQueueEntry>> snapshot) {
+        StageChannel channel = channels.get(stage);
+        synchronized (channel.sendLock) {
+            synchronized (channel.pendingLock) {
+                channel.pending.clear();
+            }
+            channel.generation++;
+            channel.sequence = 0;
+            channel.history.clear();
+            channel.subscribers.forEach(subscriber -> sendSnapshot(channel, subscriber, snapshot));
+            channel.subscribers.removeIf(subscriber -> !subscriber.open);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${app.workflow.dispatch.delta-flush-interval:PT0.25S}")
+    public void flush() {
+        channels.values().forEach(channel -> {
+            dropStalled(channel);
+            flush(channel);
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${app.workflow.dispatch.heartbeat-interval:PT30S}",
+        initialDelayString = "${app.workflow.dispatch.heartbeat-interval:PT30S}")
+    public void heartbeat() {
+        for (StageChannel channel : channels.values()) {
+            synchronized (channel.sendLock) {
+                channel.subscribers.forEach(subscriber -> send(subscriber, SseEmitter.event().comment("keepalive")));
+                channel.subscribers.removeIf(subscriber -> !subscriber.open);
+            }
+        }
+    }
+
+    public int subscriberCount(StageType stage) {
+        StageChannel channel = channels.get(stage);
+        synchronized (channel.sendLock) {
+            return channel.subscribers.size();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sendExecutor.shutdownNow();
+    }
+
+    SseEmitter newEmitter() {
+        return new SseEmitter(0L);
+    }
+
+    private void dropStalled(StageChannel channel) {
+        long now = System.nanoTime();
+        synchronized (channel.sendLock) {
+            channel.subscribers.removeIf(subscriber -> {
+                long since = subscriber.sendingSince;
+                if (since != 0 && now - since > sendTimeoutNanos) {
+                    log.debug("Dropping a queue subscriber whose write has been blocked for over {} ms",
+                        TimeUnit.NANOSECONDS.toMillis(sendTimeoutNanos));
+                    close(subscriber);
+                }
+                return !subscriber.open;
+            });
+        }
+    }
+
+    private void flush(StageChannel channel) {
+        synchronized (channel.sendLock) {
+            List<QueueDelta> deltas;
+            synchronized (channel.pendingLock) {
+                if (channel.pending.isEmpty()) {
+                    return;
+                }
+                deltas = channel.pending.values().stream()
+                    .filter(delta -> delta.previous() != null || delta.current() != null)
+                    .toList();
+                channel.pending.clear();
+            }
+            if (deltas.isEmpty()) {
+                return;
+            }
+            Batch batch = new Batch(++channel.sequence, deltas);
+            channel.history.addLast(batch);
+            if (channel.history.size() > historySize) {
+                channel.history.removeFirst();
+            }
+            Map<Long, WorkQueueItemResponse> rendered = new HashMap<>();
+            for (Iterator<Subscriber> iterator = channel.subscribers.iterator(); iterator.hasNext(); ) {
+                Subscriber subscriber = iterator.next();
+                sendBatch(channel, subscriber, batch, rendered);
+                if (!subscriber.open) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private void sendBatch(StageChannel channel, Subscriber subscriber, Batch batch, Map<Long, WorkQueueItemResponse> rendered) {
+        List<QueueChangeResponse> changes = new ArrayList<>();
+        for (QueueDelta delta : batch.deltas()) {
+            QueueDelta.Type type = delta.typeFor(subscriber.states);
+            if (type == null) {
+                continue;
+            }
+            WorkQueueItemResponse item = type == QueueDelta.Type.REMOVED
+                ? null
+                : rendered.computeIfAbsent(delta.orderId(), id -> mapper.toQueueItem(delta.current()));
+            changes.add(new QueueChangeResponse(type.name(), delta.orderId(), item));
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        String token = channel.token(batch.sequence());
+        send(subscriber, SseEmitter.event().name("delta").id(token).data(new QueueDeltaResponse(token, changes)));
+    }
+
+    private void sendSnapshot(StageChannel channel, Subscriber subscriber,
+                              Function<Set<StageState>, List<DispatchQueueEntry>> snapshot) {
+        String token = channel.token(channel.sequence);
+        List<WorkQueueItemResponse> items = snapshot.apply(subscriber.states).stream()
+            .map(mapper::toQueueItem)
+            .toList();
+        send(subscriber, SseEmitter.event().name("snapshot").id(token).data(new QueueSnapshotResponse(token, items)));
+    }
+
+    /**
+     * Queues the event for the subscriber's send thread, starting one if none is draining its outbox.
+     */
+    private void send(Subscriber subscriber, SseEmitter.SseEventBuilder event) {
+        if (!subscriber.open) {
+            return;
+        }
+        synchronized (subscriber.outbox) {
+            if (subscriber.outbox.size() >= clientBuffer) {
+                log.debug("Dropping a queue subscriber that fell {} events behind", clientBuffer);
+            } else {
+                subscriber.outbox.addLast(event);
+                if (subscriber.draining) {
+                    return;
+                }
+                subscriber.draining = true;
+                try {
+                    sendExecutor.execute(() -> drain(subscriber));
+                    return;
+                } catch (RejectedExecutionException ex) {
+                    // Shutting down.
+                    subscriber.draining = false;
+                }
+            }
+        }
+        close(subscriber);
+    }
+
+    private void drain(Subscriber subscriber) {
+        while (true) {
+            SseEmitter.SseEventBuilder event;
+            synchronized (subscriber.outbox) {
+                event = subscriber.open ? subscriber.outbox.pollFirst() : null;
+                if (event == null) {
+                    subscriber.draining = false;
+                    if (!subscriber.open) {
+                        subscriber.outbox.clear();
+                        break;
+                    }
+                    return;
+                }
+            }
+            subscriber.sendingSince = System.nanoTime();
+            try {
+                subscriber.emitter.send(event);
+            } catch (IOException | IllegalStateException ex) {
+                subscriber.open = false;
+            } finally {
+                subscriber.sendingSince = 0;
+            }
+        }
+        complete(subscriber);
+    }
+
+    /**
+     * Stops sending to the subscriber. The stream is completed here unless a send thread is still writing to it,
+     * in which case that thread completes it when the write returns.
+     */
+    private void close(Subscriber subscriber) {
+        subscriber.open = false;
+        boolean idle;
+        synchronized (subscriber.outbox) {
+            subscriber.outbox.clear();
+            idle = !subscriber.draining;
+        }
+        if (idle) {
+            complete(subscriber);
+        }
+    }
+
+    private static void complete(Subscriber subscriber) {
+        try {
+            subscriber.emitter.complete();
+        } catch (IllegalStateException ex) {
+            // Already completed by the container.
+        }
+    }
+
+    private record Batch(long sequence, List<QueueDelta> deltas) {}
+
+    private static final class Subscriber {
+
+        private final SseEmitter emitter;
+        private final Set<StageState> states;
+        private final Deque<SseEmitter.SseEventBuilder> outbox = new ArrayDeque<>();
+        private boolean draining;
+        private volatile boolean open = true;
+        private volatile long sendingSince;
+
+        private Subscriber(SseEmitter emitter, Set<StageState> states) {
+            this.emitter = emitter;
+            this.states = states;
+        }
+    }
+
+    private final class StageChannel {
+
+        private final Object pendingLock = new Object();
+        private final Map<Long, QueueDelta> pending = new LinkedHashMap<>();
+
+        private final Object sendLock = new Object();
+        private final Deque<Batch> history = new ArrayDeque<>();
+        private final List<Subscriber> subscribers = new ArrayList<>();
+        private int generation;
+        private long sequence;
+
+        private String token(long sequence) {
+            return instanceId + "-" + generation + "-" + sequence;
+        }
+
+        /**
+         * Returns the sequence to replay from, or null if the token is from another instance or generation, or
+         * older than the buffered history.
+         */
+        private Long resumableSequence(String token) {
+            if (token == null || token.isBlank()) {
+                return null;
+            }
+            String[] parts = token.split("-");
+            if (parts.length != 3 || !parts[0].equals(instanceId) || !parts[1].equals(Integer.toString(generation))) {
+                return null;
+            }
+            long resumeFrom;
+            try {
+                resumeFrom = Long.parseLong(parts[2]);
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+            long oldestBuffered = history.isEmpty() ? sequence + 1 : history.peekFirst().sequence();
+            return resumeFrom <= sequence && resumeFrom >= oldestBuffered - 1 ? resumeFrom : null;
+        }
+    }
+}
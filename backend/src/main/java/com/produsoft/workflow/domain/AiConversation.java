@@ -17,6 +17,8 @@ import java.util.List;
 @Table(name = "ai_conversations")
 public class AiConversation {
 
+    public static final int PREVIEW_LENGTH = 120;
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -33,6 +35,14 @@ public class AiConversation {
     @Column(length = 255)
     private String title;
 
+    @Column(length = PREVIEW_LENGTH)
+    private String lastMessagePreview;
+
+    private Instant lastMessageAt;
+
+    @Column(nullable = false)
+    private int messageCount;
+
     @OneToMany(mappedBy = "conversation", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
     private List<AiMessage> messages = new ArrayList<>();
 
@@ -46,12 +56,28 @@ public class AiConversation {
         this.updatedAt = Instant.now();
     }
 
+    /**
+     * Appends a message and updates the preview, timestamp and count kept on the conversation for listings. The
+     * messages collection is not loaded by this.
+     */
     public void addMessage(AiMessage message) {
         messages.add(message);
         message.setConversation(this);
+        this.lastMessagePreview = preview(message.getContent());
+        this.lastMessageAt = message.getCreatedAt();
+        this.messageCount++;
         touch();
     }
 
+    /**
+     * The listing preview of a message: its content, cut to {@link #PREVIEW_LENGTH} characters.
+     */
+    public static String preview(String content) {
+        return content != null && content.length() > PREVIEW_LENGTH
+            ? content.substring(0, PREVIEW_LENGTH - 3) + "..."
+            : content;
+    }
+
     public Long getId() {
         return id;
     }
@@ -92,6 +118,30 @@ public class AiConversation {
         this.title = title;
     }
 
+    public String getLastMessagePreview() {
+        return lastMessagePreview;
+    }
+
+    public void setLastMessagePreview(String lastMessagePreview) {
+        this.lastMessagePreview = lastMessagePreview;
+    }
+
+    public Instant getLastMessageAt() {
+        return lastMessageAt;
+    }
+
+    public void setLastMessageAt(Instant lastMessageAt) {
+        this.lastMessageAt = lastMessageAt;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    public void setMessageCount(int messageCount) {
+        this.messageCount = messageCount;
+    }
+
     public List<AiMessage> getMessages() {
         return messages;
     }
@@ -0,0 +1,55 @@
+package com.produsoft.workflow.domain;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.time.Instant;
+
+/**
+ * The part of a streamed assistant reply produced so far, written while the reply streams so that it survives a
+ * restart of the node generating it. Removed once the reply is finished.
+ */
+@Entity
+@Table(name = "ai_reply_checkpoints")
+public class AiReplyCheckpoint {
+
+    @Id
+    @Column(name = "reply_id", length = 32)
+    private String replyId;
+
+    @Column(name = "conversation_id", nullable = false)
+    private Long conversationId;
+
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String content;
+
+    @Column(nullable = false)
+    private Instant updatedAt;
+
+    protected AiReplyCheckpoint() {
+    }
+
+    public AiReplyCheckpoint(String replyId, Long conversationId, String content, Instant updatedAt) {
+        this.replyId = replyId;
+        this.conversationId = conversationId;
+        this.content = content;
+        this.updatedAt = updatedAt;
+    }
+
+    public String getReplyId() {
+        return replyId;
+    }
+
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+}
@@ -9,6 +9,10 @@ import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+/**
+ * Reads and writes checklist state in its former JSON form. Only used to migrate rows written before checklist
+ * state became a bitmask.
+ */
 @Converter
 public class ChecklistStateConverter implements AttributeConverter<Map<String, Boolean>, String> {
 
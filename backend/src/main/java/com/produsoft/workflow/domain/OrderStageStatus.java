@@ -10,12 +10,11 @@ import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
-import jakarta.persistence.Convert;
+import jakarta.persistence.Version;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.Objects;
 
 @Entity
@@ -23,9 +22,13 @@ import java.util.Objects;
 public class OrderStageStatus {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_stage_status_seq")
+    @SequenceGenerator(name = "order_stage_status_seq", sequenceName = "order_stage_status_seq", allocationSize = 50)
     private Long id;
 
+    @Version
+    private Long version;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "order_id")
     private Order order;
@@ -59,9 +62,11 @@ public class OrderStageStatus {
 
     private Instant updatedAt;
 
-    @Convert(converter = ChecklistStateConverter.class)
-    @Column(name = "checklist_state", columnDefinition = "TEXT")
-    private Map<String, Boolean> checklistState;
+    /**
+     * Completed checklist tasks as a bitmask, see {@code StageChecklistService}. Null until the stage is claimed.
+     */
+    @Column(name = "checklist_mask")
+    private Long checklistMask;
 
     public void markPending() {
         this.state = StageState.PENDING;
@@ -123,7 +128,7 @@ public class OrderStageStatus {
         this.exceptionReason = null;
         this.state = StageState.REWORK;
         this.updatedAt = Instant.now();
-        this.checklistState = null;
+        this.checklistMask = null;
     }
 
     public void markReadyAfterRework() {
@@ -139,6 +144,10 @@ public class OrderStageStatus {
         this.id = id;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
     public Order getOrder() {
         return order;
     }
@@ -243,20 +252,20 @@ public class OrderStageStatus {
         this.updatedAt = updatedAt;
     }
 
-    public Map<String, Boolean> getChecklistState() {
-        return checklistState == null ? new LinkedHashMap<>() : new LinkedHashMap<>(checklistState);
+    public Long getChecklistMask() {
+        return checklistMask;
     }
 
-    public void setChecklistState(Map<String, Boolean> checklistState) {
-        this.checklistState = checklistState == null ? null : new LinkedHashMap<>(checklistState);
+    public void setChecklistMask(Long checklistMask) {
+        this.checklistMask = checklistMask;
     }
 
     public void clearChecklistState() {
-        this.checklistState = null;
+        this.checklistMask = null;
     }
 
     public boolean hasChecklistState() {
-        return checklistState != null && !checklistState.isEmpty();
+        return checklistMask != null;
     }
 
     @Override
@@ -0,0 +1,67 @@
+package com.produsoft.workflow.domain;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+@Entity
+@Table(name = "wip_counters")
+public class WipCounter {
+
+    private static final String ORDER_SCOPE = "ORDER";
+
+    @Id
+    @Column(name = "counter_key", length = 100)
+    private String key;
+
+    /**
+     * Stage the counter belongs to, or {@code null} for counters over {@link Order#getOverallState()}.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(length = 50)
+    private StageType stage;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 50)
+    private StageState state;
+
+    @Column(name = "counter_value", nullable = false)
+    private long value;
+
+    protected WipCounter() {
+    }
+
+    public WipCounter(StageType stage, StageState state, long value) {
+        this.key = keyFor(stage, state);
+        this.stage = stage;
+        this.state = state;
+        this.value = value;
+    }
+
+    public static String keyFor(StageType stage, StageState state) {
+        return (stage == null ? ORDER_SCOPE : stage.name()) + ":" + state.name();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public StageType getStage() {
+        return stage;
+    }
+
+    public StageState getState() {
+        return state;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public void setValue(long value) {
+        this.value = value;
+    }
+}
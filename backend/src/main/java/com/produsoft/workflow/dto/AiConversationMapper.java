@@ -2,42 +2,47 @@ package com.produsoft.workflow.dto;
 
 import com.produsoft.workflow.domain.AiConversation;
 import com.produsoft.workflow.domain.AiMessage;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Optional;
 import org.springframework.stereotype.Component;
 
 @Component
 public class AiConversationMapper {
 
-    public AiConversationSummaryResponse toSummary(AiConversation conversation, Optional<AiMessage> lastMessage) {
-        String preview = lastMessage.map(AiMessage::getContent)
-            .map(content -> content.length() > 120 ? content.substring(0, 117) + "..." : content)
-            .orElse(null);
+    public AiConversationSummaryResponse toSummary(AiConversation conversation) {
         return new AiConversationSummaryResponse(
             conversation.getId(),
             conversation.getTitle(),
             conversation.getCreatedAt(),
             conversation.getUpdatedAt(),
-            preview
+            conversation.getLastMessagePreview(),
+            conversation.getLastMessageAt(),
+            conversation.getMessageCount()
         );
     }
 
-    public AiConversationResponse toResponse(AiConversation conversation) {
-        List<AiMessageResponse> messages = conversation.getMessages().stream()
-            .sorted(Comparator.comparing(AiMessage::getCreatedAt))
-            .map(message -> new AiMessageResponse(
-                message.getId(),
-                message.getRole(),
-                message.getContent(),
-                message.getCreatedAt()))
-            .toList();
+    /**
+     * Maps a conversation with the given messages, which must already be in chronological order.
+     */
+    public AiConversationResponse toResponse(AiConversation conversation, List<AiMessage> messages, String earlierMessagesCursor) {
         return new AiConversationResponse(
             conversation.getId(),
             conversation.getTitle(),
             conversation.getCreatedAt(),
             conversation.getUpdatedAt(),
-            messages
+            messages.stream().map(this::toMessageResponse).toList(),
+            earlierMessagesCursor
         );
     }
+
+    public AiMessagePageResponse toPageResponse(List<AiMessage> messages, String nextCursor) {
+        return new AiMessagePageResponse(messages.stream().map(this::toMessageResponse).toList(), nextCursor);
+    }
+
+    public AiMessageResponse toMessageResponse(AiMessage message) {
+        return new AiMessageResponse(
+            message.getId(),
+            message.getRole(),
+            message.getContent(),
+            message.getCreatedAt());
+    }
 }
@@ -3,11 +3,16 @@ package com.produsoft.workflow.dto;
 import java.time.Instant;
 import java.util.List;
 
+/**
+ * A conversation with its latest messages, oldest first. {@code earlierMessagesCursor} fetches the messages before
+ * them from {@code GET /api/ai/conversations/{id}/messages}, and is null when the whole conversation is included.
+ */
 public record AiConversationResponse(
     Long id,
     String title,
     Instant createdAt,
     Instant updatedAt,
-    List<AiMessageResponse> messages
+    List<AiMessageResponse> messages,
+    String earlierMessagesCursor
 ) {
 }
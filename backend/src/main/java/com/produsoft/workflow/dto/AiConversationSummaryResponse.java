@@ -7,6 +7,8 @@ public record AiConversationSummaryResponse(
     String title,
     Instant createdAt,
     Instant updatedAt,
-    String lastMessagePreview
+    String lastMessagePreview,
+    Instant lastMessageAt,
+    int messageCount
 ) {
 }
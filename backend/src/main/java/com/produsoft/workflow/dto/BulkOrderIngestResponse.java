@@ -0,0 +1,10 @@
+package com.produsoft.workflow.dto;
+
+import java.util.List;
+
+public record BulkOrderIngestResponse(
+    int received,
+    int created,
+    int rejected,
+    List<BulkOrderLineResult> results
+) {}
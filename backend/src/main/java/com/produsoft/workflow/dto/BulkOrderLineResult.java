@@ -0,0 +1,21 @@
+package com.produsoft.workflow.dto;
+
+public record BulkOrderLineResult(
+    int line,
+    String orderNumber,
+    Long orderId,
+    String status,
+    String error
+) {
+
+    public static final String CREATED = "CREATED";
+    public static final String REJECTED = "REJECTED";
+
+    public static BulkOrderLineResult created(int line, String orderNumber, Long orderId) {
+        return new BulkOrderLineResult(line, orderNumber, orderId, CREATED, null);
+    }
+
+    public static BulkOrderLineResult rejected(int line, String orderNumber, String error) {
+        return new BulkOrderLineResult(line, orderNumber, null, REJECTED, error);
+    }
+}
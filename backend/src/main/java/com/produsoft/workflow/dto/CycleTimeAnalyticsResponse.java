@@ -0,0 +1,11 @@
+package com.produsoft.workflow.dto;
+
+import java.time.Instant;
+import java.util.List;
+
+public record CycleTimeAnalyticsResponse(
+    double relativeAccuracy,
+    Instant rebuiltAt,
+    List<CycleTimeStatsResponse> stages,
+    List<CycleTimeStatsResponse> assignees
+) {}
@@ -0,0 +1,15 @@
+package com.produsoft.workflow.dto;
+
+import com.produsoft.workflow.domain.StageType;
+
+public record CycleTimeStatsResponse(
+    StageType stage,
+    String assignee,
+    long completedCount,
+    Double averageMinutes,
+    Double minMinutes,
+    Double maxMinutes,
+    Double p50Minutes,
+    Double p90Minutes,
+    Double p99Minutes
+) {}
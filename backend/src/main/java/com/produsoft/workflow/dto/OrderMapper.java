@@ -1,8 +1,10 @@
 package com.produsoft.workflow.dto;
 
 import com.produsoft.workflow.checklist.StageChecklistService;
+import com.produsoft.workflow.dispatch.DispatchQueueEntry;
 import com.produsoft.workflow.domain.Order;
 import com.produsoft.workflow.domain.OrderStageStatus;
+import com.produsoft.workflow.domain.StageType;
 import java.util.List;
 import java.util.Comparator;
 import java.util.stream.Collectors;
@@ -73,8 +75,30 @@ public class OrderMapper {
         );
     }
 
+    public WorkQueueItemResponse toQueueItem(DispatchQueueEntry entry) {
+        return new WorkQueueItemResponse(
+            entry.orderId(),
+            entry.orderNumber(),
+            entry.priority(),
+            entry.stage(),
+            entry.stageState(),
+            entry.currentStage(),
+            entry.overallState(),
+            entry.assignee(),
+            entry.claimedAt(),
+            entry.updatedAt(),
+            entry.exceptionReason(),
+            entry.notes(),
+            toChecklist(entry.stage(), entry.checklistMask())
+        );
+    }
+
     private List<ChecklistItemResponse> toChecklist(OrderStageStatus status) {
-        return stageChecklistService.buildChecklist(status.getStage(), status.hasChecklistState() ? status.getChecklistState() : null)
+        return toChecklist(status.getStage(), status.getChecklistMask());
+    }
+
+    private List<ChecklistItemResponse> toChecklist(StageType stage, Long checklistMask) {
+        return stageChecklistService.buildChecklist(stage, checklistMask)
             .stream()
             .map(item -> new ChecklistItemResponse(item.id(), item.label(), item.required(), item.completed()))
             .collect(Collectors.toList());
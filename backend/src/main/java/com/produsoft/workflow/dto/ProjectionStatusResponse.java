@@ -0,0 +1,9 @@
+package com.produsoft.workflow.dto;
+
+import java.time.Instant;
+
+public record ProjectionStatusResponse(
+    String name,
+    long lastTransitionId,
+    Instant updatedAt
+) {}
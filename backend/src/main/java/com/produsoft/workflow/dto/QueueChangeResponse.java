@@ -0,0 +1,7 @@
+package com.produsoft.workflow.dto;
+
+public record QueueChangeResponse(
+    String type,
+    Long orderId,
+    WorkQueueItemResponse item
+) {}
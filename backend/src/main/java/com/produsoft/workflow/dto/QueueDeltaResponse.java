@@ -0,0 +1,8 @@
+package com.produsoft.workflow.dto;
+
+import java.util.List;
+
+public record QueueDeltaResponse(
+    String token,
+    List<QueueChangeResponse> changes
+) {}
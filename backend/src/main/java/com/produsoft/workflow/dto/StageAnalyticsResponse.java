@@ -0,0 +1,13 @@
+package com.produsoft.workflow.dto;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Stage metrics read from the journal projections. Transition counts cover the days from {@code since};
+ * cycle times cover the whole journal.
+ */
+public record StageAnalyticsResponse(
+    LocalDate since,
+    List<StageMetricsResponse> stages
+) {}
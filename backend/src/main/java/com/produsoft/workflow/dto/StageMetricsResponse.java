@@ -0,0 +1,14 @@
+package com.produsoft.workflow.dto;
+
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import java.util.Map;
+
+public record StageMetricsResponse(
+    StageType stage,
+    Map<StageState, Long> transitions,
+    long completedCount,
+    double averageCycleSeconds,
+    Long minCycleSeconds,
+    Long maxCycleSeconds
+) {}
@@ -0,0 +1,24 @@
+package com.produsoft.workflow.journal;
+
+import java.util.List;
+
+/**
+ * Read model built from the stage transition journal. {@link JournalProjector} feeds each projection the journal
+ * in id order and stores how far it got, in the same transaction as the projection's own writes. Rows committed
+ * after the cursor passed their id arrive in a later batch, so projections must not depend on ordering between
+ * batches.
+ */
+public interface JournalProjection {
+
+    /**
+     * Stable name, used as the key of the projection's cursor.
+     */
+    String name();
+
+    void apply(List<StageTransition> transitions);
+
+    /**
+     * Deletes everything the projection has built so it can be replayed from the start of the journal.
+     */
+    void reset();
+}
@@ -0,0 +1,127 @@
+package com.produsoft.workflow.journal;
+
+import com.produsoft.workflow.exception.NotFoundException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Brings every {@link JournalProjection} up to date with the stage transition journal, off the request path.
+ * Each batch is applied and the projection's cursor advanced in one transaction.
+ *
+ * <p>Journal ids are assigned when a row is inserted, not when its transaction commits, so a slow transaction
+ * can commit a lower id after the cursor has moved past it. Ids the cursor skips are recorded as gaps and read
+ * again on every run until their row shows up; a gap still empty after the gap timeout belonged to a rolled back
+ * transaction and is dropped.
+ */
+@Component
+public class JournalProjector {
+
+    private static final Logger log = LoggerFactory.getLogger(JournalProjector.class);
+
+    private final Map<String, JournalProjection> projections = new LinkedHashMap<>();
+    private final StageTransitionRepository transitionRepository;
+    private final ProjectionCursorRepository cursorRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration gapTimeout;
+    private final int batchSize;
+
+    public JournalProjector(List<JournalProjection> projections,
+                            StageTransitionRepository transitionRepository,
+                            ProjectionCursorRepository cursorRepository,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${app.workflow.journal.gap-timeout:PT10M}") Duration gapTimeout,
+                            @Value("${app.workflow.journal.batch-size:1000}") int batchSize) {
+        projections.forEach(projection -> this.projections.put(projection.name(), projection));
+        this.transitionRepository = transitionRepository;
+        this.cursorRepository = cursorRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.gapTimeout = gapTimeout;
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    @Scheduled(fixedDelayString = "${app.workflow.journal.projection-interval:PT5S}",
+        initialDelayString = "${app.workflow.journal.projection-interval:PT5S}")
+    public void catchUp() {
+        for (JournalProjection projection : projections.values()) {
+            try {
+                int applied;
+                do {
+                    applied = applyNextBatch(projection);
+                } while (applied == batchSize);
+            } catch (RuntimeException ex) {
+                log.warn("Projection {} failed; it will be retried from its cursor", projection.name(), ex);
+            }
+        }
+    }
+
+    /**
+     * Clears the projection and moves its cursor back to the start of the journal; the next run replays it.
+     */
+    public void rebuild(String name) {
+        JournalProjection projection = projections.get(name);
+        if (projection == null) {
+            throw new NotFoundException("Projection not found: " + name);
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            cursorRepository.lock(name);
+            projection.reset();
+            cursorRepository.clearGaps(name);
+            cursorRepository.advance(name, 0);
+        });
+        log.info("Projection {} reset for replay", name);
+    }
+
+    public List<String> projectionNames() {
+        return List.copyOf(projections.keySet());
+    }
+
+    private int applyNextBatch(JournalProjection projection) {
+        String name = projection.name();
+        Integer applied = transactionTemplate.execute(status -> {
+            long cursor = cursorRepository.lock(name);
+            Instant now = Instant.now();
+            List<StageTransition> filled = transitionRepository.findInGaps(name);
+            List<StageTransition> batch = transitionRepository.findAfter(cursor, batchSize);
+            if (!filled.isEmpty() || !batch.isEmpty()) {
+                List<StageTransition> transitions = new ArrayList<>(filled.size() + batch.size());
+                transitions.addAll(filled);
+                transitions.addAll(batch);
+                projection.apply(transitions);
+                cursorRepository.removeGaps(name, filled.stream().map(StageTransition::id).toList());
+            }
+            if (!batch.isEmpty()) {
+                cursorRepository.addGaps(name, skippedIds(cursor, batch), now);
+                cursorRepository.advance(name, batch.get(batch.size() - 1).id());
+            }
+            int expired = cursorRepository.expireGaps(name, now.minus(gapTimeout));
+            if (expired > 0) {
+                log.debug("Projection {} dropped {} journal gaps older than {}", name, expired, gapTimeout);
+            }
+            return batch.size();
+        });
+        return applied == null ? 0 : applied;
+    }
+
+    private static List<Long> skippedIds(long cursor, List<StageTransition> batch) {
+        List<Long> skipped = new ArrayList<>();
+        long expected = cursor + 1;
+        for (StageTransition transition : batch) {
+            for (long id = expected; id < transition.id(); id++) {
+                skipped.add(id);
+            }
+            expected = transition.id() + 1;
+        }
+        return skipped;
+    }
+}
@@ -0,0 +1,95 @@
+package com.produsoft.workflow.journal;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public class ProjectionCursorRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ProjectionCursorRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Returns the id of the last transition applied by the projection, locking the cursor row until the current
+     * transaction ends so that two instances never apply the same transitions.
+     */
+    public long lock(String name) {
+        List<Long> positions = selectForUpdate(name);
+        if (positions.isEmpty()) {
+            try {
+                jdbcTemplate.update(
+                    "INSERT INTO projection_cursor (name, last_transition_id, updated_at) VALUES (?, 0, ?)",
+                    name, Timestamp.from(Instant.now()));
+            } catch (DuplicateKeyException ex) {
+                // Created concurrently by another instance.
+            }
+            positions = selectForUpdate(name);
+        }
+        return positions.get(0);
+    }
+
+    public void advance(String name, long lastTransitionId) {
+        jdbcTemplate.update(
+            "UPDATE projection_cursor SET last_transition_id = ?, updated_at = ? WHERE name = ?",
+            lastTransitionId, Timestamp.from(Instant.now()), name);
+    }
+
+    /**
+     * Remembers journal ids the cursor moved past before they were committed, so later runs can pick them up.
+     */
+    public void addGaps(String name, Collection<Long> transitionIds, Instant seenAt) {
+        if (transitionIds.isEmpty()) {
+            return;
+        }
+        Timestamp timestamp = Timestamp.from(seenAt);
+        jdbcTemplate.batchUpdate(
+            "INSERT INTO projection_gap (name, transition_id, seen_at) VALUES (?, ?, ?)",
+            transitionIds.stream().map(id -> new Object[] {name, id, timestamp}).toList());
+    }
+
+    public void removeGaps(String name, Collection<Long> transitionIds) {
+        if (transitionIds.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(
+            "DELETE FROM projection_gap WHERE name = ? AND transition_id = ?",
+            transitionIds.stream().map(id -> new Object[] {name, id}).toList());
+    }
+
+    /**
+     * Gives up on gaps seen before {@code seenBefore}; their transactions rolled back or the id was never used.
+     */
+    public int expireGaps(String name, Instant seenBefore) {
+        return jdbcTemplate.update("DELETE FROM projection_gap WHERE name = ? AND seen_at < ?",
+            name, Timestamp.from(seenBefore));
+    }
+
+    public void clearGaps(String name) {
+        jdbcTemplate.update("DELETE FROM projection_gap WHERE name = ?", name);
+    }
+
+    public List<ProjectionCursor> findAll() {
+        return jdbcTemplate.query(
+            "SELECT name, last_transition_id, updated_at FROM projection_cursor ORDER BY name",
+            (rs, rowNum) -> new ProjectionCursor(
+                rs.getString("name"),
+                rs.getLong("last_transition_id"),
+                rs.getObject("updated_at", OffsetDateTime.class).toInstant()));
+    }
+
+    private List<Long> selectForUpdate(String name) {
+        return jdbcTemplate.queryForList(
+            "SELECT last_transition_id FROM projection_cursor WHERE name = ? FOR UPDATE", Long.class, name);
+    }
+
+    public record ProjectionCursor(String name, long lastTransitionId, Instant updatedAt) {}
+}
@@ -0,0 +1,62 @@
+package com.produsoft.workflow.journal;
+
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.dto.ProjectionStatusResponse;
+import com.produsoft.workflow.dto.StageAnalyticsResponse;
+import com.produsoft.workflow.dto.StageMetricsResponse;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.stereotype.Service;
+
+/**
+ * Answers analytics questions from the journal read models only; the order tables are never queried.
+ */
+@Service
+public class StageAnalyticsService {
+
+    private final StageThroughputProjection throughputProjection;
+    private final StageCycleTimeProjection cycleTimeProjection;
+    private final ProjectionCursorRepository cursorRepository;
+
+    public StageAnalyticsService(StageThroughputProjection throughputProjection,
+                                 StageCycleTimeProjection cycleTimeProjection,
+                                 ProjectionCursorRepository cursorRepository) {
+        this.throughputProjection = throughputProjection;
+        this.cycleTimeProjection = cycleTimeProjection;
+        this.cursorRepository = cursorRepository;
+    }
+
+    public StageAnalyticsResponse buildStageAnalytics(int days) {
+        LocalDate since = LocalDate.now(ZoneOffset.UTC).minusDays(Math.max(days, 1) - 1L);
+        Map<StageType, Map<StageState, Long>> transitions = new EnumMap<>(StageType.class);
+        throughputProjection.findSince(since).forEach(row -> transitions
+            .computeIfAbsent(row.stage(), stage -> new EnumMap<>(StageState.class))
+            .put(row.toState(), row.count()));
+        Map<StageType, StageCycleTimeProjection.StageCycleTime> cycleTimes = new EnumMap<>(StageType.class);
+        cycleTimeProjection.findAll().forEach(row -> cycleTimes.put(row.stage(), row));
+
+        List<StageMetricsResponse> stages = new ArrayList<>();
+        for (StageType stage : StageType.values()) {
+            StageCycleTimeProjection.StageCycleTime cycleTime = cycleTimes.get(stage);
+            stages.add(new StageMetricsResponse(
+                stage,
+                transitions.getOrDefault(stage, Map.of()),
+                cycleTime == null ? 0 : cycleTime.completedCount(),
+                cycleTime == null ? 0 : cycleTime.averageSeconds(),
+                cycleTime == null ? null : cycleTime.minSeconds(),
+                cycleTime == null ? null : cycleTime.maxSeconds()));
+        }
+        return new StageAnalyticsResponse(since, stages);
+    }
+
+    public List<ProjectionStatusResponse> projectionStatus() {
+        return cursorRepository.findAll().stream()
+            .map(cursor -> new ProjectionStatusResponse(cursor.name(), cursor.lastTransitionId(), cursor.updatedAt()))
+            .toList();
+    }
+}
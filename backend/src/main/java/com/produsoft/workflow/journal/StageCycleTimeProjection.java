@@ -0,0 +1,85 @@
+package com.produsoft.workflow.journal;
+
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps count, total, minimum and maximum of the start-to-completion time of each stage in
+ * {@code stage_cycle_time}.
+ */
+@Component
+public class StageCycleTimeProjection implements JournalProjection {
+
+    public static final String NAME = "stage-cycle-time";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public StageCycleTimeProjection(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void apply(List<StageTransition> transitions) {
+        Map<StageType, StageCycleTime> batch = new EnumMap<>(StageType.class);
+        for (StageTransition transition : transitions) {
+            if (transition.toState() != StageState.COMPLETED || transition.durationSeconds() == null) {
+                continue;
+            }
+            long seconds = transition.durationSeconds();
+            batch.merge(transition.stage(), new StageCycleTime(transition.stage(), 1, seconds, seconds, seconds),
+                StageCycleTime::plus);
+        }
+        batch.values().forEach(cycleTime -> {
+            int updated = jdbcTemplate.update(
+                "UPDATE stage_cycle_time SET completed_count = completed_count + ?, total_seconds = total_seconds + ?, " +
+                "min_seconds = LEAST(min_seconds, ?), max_seconds = GREATEST(max_seconds, ?) WHERE stage = ?",
+                cycleTime.completedCount(), cycleTime.totalSeconds(), cycleTime.minSeconds(), cycleTime.maxSeconds(),
+                cycleTime.stage().name());
+            if (updated == 0) {
+                jdbcTemplate.update(
+                    "INSERT INTO stage_cycle_time (stage, completed_count, total_seconds, min_seconds, max_seconds) " +
+                    "VALUES (?, ?, ?, ?, ?)",
+                    cycleTime.stage().name(), cycleTime.completedCount(), cycleTime.totalSeconds(),
+                    cycleTime.minSeconds(), cycleTime.maxSeconds());
+            }
+        });
+    }
+
+    @Override
+    public void reset() {
+        jdbcTemplate.update("DELETE FROM stage_cycle_time");
+    }
+
+    public List<StageCycleTime> findAll() {
+        return jdbcTemplate.query(
+            "SELECT stage, completed_count, total_seconds, min_seconds, max_seconds FROM stage_cycle_time",
+            (rs, rowNum) -> new StageCycleTime(
+                StageType.valueOf(rs.getString("stage")),
+                rs.getLong("completed_count"),
+                rs.getLong("total_seconds"),
+                rs.getLong("min_seconds"),
+                rs.getLong("max_seconds")));
+    }
+
+    public record StageCycleTime(StageType stage, long completedCount, long totalSeconds, long minSeconds, long maxSeconds) {
+
+        StageCycleTime plus(StageCycleTime other) {
+            return new StageCycleTime(stage, completedCount + other.completedCount, totalSeconds + other.totalSeconds,
+                Math.min(minSeconds, other.minSeconds), Math.max(maxSeconds, other.maxSeconds));
+        }
+
+        public double averageSeconds() {
+            return completedCount == 0 ? 0 : (double) totalSeconds / completedCount;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.produsoft.workflow.journal;
+
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts transitions per stage, target state and UTC day in {@code stage_throughput_daily}.
+ */
+@Component
+public class StageThroughputProjection implements JournalProjection {
+
+    public static final String NAME = "stage-throughput";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public StageThroughputProjection(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public void apply(List<StageTransition> transitions) {
+        Map<Bucket, Long> counts = new TreeMap<>();
+        for (StageTransition transition : transitions) {
+            Bucket bucket = new Bucket(transition.stage(), LocalDate.ofInstant(transition.occurredAt(), ZoneOffset.UTC),
+                transition.toState());
+            counts.merge(bucket, 1L, Long::sum);
+        }
+        counts.forEach((bucket, count) -> {
+            int updated = jdbcTemplate.update(
+                "UPDATE stage_throughput_daily SET transition_count = transition_count + ? " +
+                "WHERE stage = ? AND bucket_date = ? AND to_state = ?",
+                count, bucket.stage().name(), Date.valueOf(bucket.day()), bucket.toState().name());
+            if (updated == 0) {
+                jdbcTemplate.update(
+                    "INSERT INTO stage_throughput_daily (stage, bucket_date, to_state, transition_count) VALUES (?, ?, ?, ?)",
+                    bucket.stage().name(), Date.valueOf(bucket.day()), bucket.toState().name(), count);
+            }
+        });
+    }
+
+    @Override
+    public void reset() {
+        jdbcTemplate.update("DELETE FROM stage_throughput_daily");
+    }
+
+    public List<StageThroughput> findSince(LocalDate firstDay) {
+        return jdbcTemplate.query(
+            "SELECT stage, to_state, SUM(transition_count) AS total FROM stage_throughput_daily " +
+            "WHERE bucket_date >= ? GROUP BY stage, to_state",
+            (rs, rowNum) -> new StageThroughput(
+                StageType.valueOf(rs.getString("stage")),
+                StageState.valueOf(rs.getString("to_state")),
+                rs.getLong("total")),
+            Date.valueOf(firstDay));
+    }
+
+    public record StageThroughput(StageType stage, StageState toState, long count) {}
+
+    private record Bucket(StageType stage, LocalDate day, StageState toState) implements Comparable<Bucket> {
+
+        @Override
+        public int compareTo(Bucket other) {
+            int byStage = stage.compareTo(other.stage);
+            if (byStage != 0) {
+                return byStage;
+            }
+            int byDay = day.compareTo(other.day);
+            return byDay != 0 ? byDay : toState.compareTo(other.toState);
+        }
+    }
+}
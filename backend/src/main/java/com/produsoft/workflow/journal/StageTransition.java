@@ -0,0 +1,21 @@
+package com.produsoft.workflow.journal;
+
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import java.time.Instant;
+
+/**
+ * One row of the append-only {@code stage_transition} journal: a stage of an order moved from one state to
+ * another. {@code fromState} is null when the order was created, and {@code durationSeconds} is the time from
+ * start to completion for transitions into {@link StageState#COMPLETED}.
+ */
+public record StageTransition(
+    Long id,
+    Long orderId,
+    StageType stage,
+    StageState fromState,
+    StageState toState,
+    String actor,
+    Long durationSeconds,
+    Instant occurredAt
+) {}
@@ -0,0 +1,74 @@
+package com.produsoft.workflow.journal;
+
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.OrderStageStatus;
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.service.OrderStateSnapshot;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes a journal row for every stage whose state differs between the snapshot taken before a transition and the
+ * order afterwards. Rows are inserted in the caller's transaction, so the journal commits or rolls back with the
+ * change it describes.
+ */
+@Component
+public class StageTransitionJournal {
+
+    private final StageTransitionRepository repository;
+
+    public StageTransitionJournal(StageTransitionRepository repository) {
+        this.repository = repository;
+    }
+
+    public void record(OrderStateSnapshot before, Order after) {
+        List<StageTransition> transitions = new ArrayList<>();
+        collect(before, after, Instant.now(), transitions);
+        repository.append(transitions);
+    }
+
+    public void recordCreated(Collection<Order> orders) {
+        Instant now = Instant.now();
+        List<StageTransition> transitions = new ArrayList<>(orders.size() * 3);
+        orders.forEach(order -> collect(OrderStateSnapshot.EMPTY, order, now, transitions));
+        repository.append(transitions);
+    }
+
+    private void collect(OrderStateSnapshot before, Order after, Instant now, List<StageTransition> transitions) {
+        for (OrderStageStatus status : after.getStages()) {
+            StageState previous = before.stateOf(status.getStage());
+            if (status.getState() == null || Objects.equals(previous, status.getState())) {
+                continue;
+            }
+            transitions.add(new StageTransition(
+                null,
+                after.getId(),
+                status.getStage(),
+                previous,
+                status.getState(),
+                actorOf(status),
+                durationOf(status),
+                now));
+        }
+    }
+
+    private static String actorOf(OrderStageStatus status) {
+        return switch (status.getState()) {
+            case IN_PROGRESS, COMPLETED, EXCEPTION -> status.getAssignee();
+            case SKIPPED, REWORK -> status.getApprovedBy();
+            default -> null;
+        };
+    }
+
+    private static Long durationOf(OrderStageStatus status) {
+        if (status.getState() != StageState.COMPLETED || status.getStartedAt() == null || status.getCompletedAt() == null) {
+            return null;
+        }
+        return Duration.between(status.getStartedAt(), status.getCompletedAt()).toSeconds();
+    }
+}
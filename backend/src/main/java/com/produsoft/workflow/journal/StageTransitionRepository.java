@@ -0,0 +1,91 @@
+package com.produsoft.workflow.journal;
+
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * JDBC access to the {@code stage_transition} journal. Rows are only ever inserted; ids come from the table's
+ * identity column so they grow in insertion order, but a row becomes visible only when its transaction commits,
+ * which may be after rows with higher ids.
+ */
+@Repository
+public class StageTransitionRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public StageTransitionRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void append(Collection<StageTransition> transitions) {
+        if (transitions.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(
+            "INSERT INTO stage_transition (order_id, stage, from_state, to_state, actor, duration_seconds, occurred_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?)",
+            transitions.stream()
+                .map(transition -> new Object[] {
+                    transition.orderId(),
+                    transition.stage().name(),
+                    transition.fromState() == null ? null : transition.fromState().name(),
+                    transition.toState().name(),
+                    transition.actor(),
+                    transition.durationSeconds(),
+                    Timestamp.from(transition.occurredAt())
+                })
+                .toList());
+    }
+
+    /**
+     * Returns up to {@code limit} committed transitions with an id above {@code afterId}, in id order.
+     */
+    public List<StageTransition> findAfter(long afterId, int limit) {
+        return jdbcTemplate.query(
+            "SELECT id, order_id, stage, from_state, to_state, actor, duration_seconds, occurred_at " +
+            "FROM stage_transition WHERE id > ? ORDER BY id ASC FETCH FIRST " + limit + " ROWS ONLY",
+            (rs, rowNum) -> map(rs),
+            afterId);
+    }
+
+    /**
+     * Returns the transitions that have since been committed into the gaps recorded for a projection.
+     */
+    public List<StageTransition> findInGaps(String projection) {
+        return jdbcTemplate.query(
+            "SELECT t.id, t.order_id, t.stage, t.from_state, t.to_state, t.actor, t.duration_seconds, t.occurred_at " +
+            "FROM stage_transition t JOIN projection_gap g ON g.transition_id = t.id WHERE g.name = ? ORDER BY t.id ASC",
+            (rs, rowNum) -> map(rs),
+            projection);
+    }
+
+    public List<StageTransition> findByOrderId(Long orderId) {
+        return jdbcTemplate.query(
+            "SELECT id, order_id, stage, from_state, to_state, actor, duration_seconds, occurred_at " +
+            "FROM stage_transition WHERE order_id = ? ORDER BY id ASC",
+            (rs, rowNum) -> map(rs),
+            orderId);
+    }
+
+    private static StageTransition map(ResultSet rs) throws SQLException {
+        String fromState = rs.getString("from_state");
+        OffsetDateTime occurredAt = rs.getObject("occurred_at", OffsetDateTime.class);
+        return new StageTransition(
+            rs.getLong("id"),
+            rs.getLong("order_id"),
+            StageType.valueOf(rs.getString("stage")),
+            fromState == null ? null : StageState.valueOf(fromState),
+            StageState.valueOf(rs.getString("to_state")),
+            rs.getString("actor"),
+            rs.getObject("duration_seconds", Long.class),
+            occurredAt.toInstant());
+    }
+}
@@ -1,10 +1,14 @@
 package com.produsoft.workflow.repository;
 
 import com.produsoft.workflow.domain.AiConversation;
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
-import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
@@ -12,8 +16,30 @@ public interface AiConversationRepository extends JpaRepository<AiConversation,
 
     List<AiConversation> findByCreatedByOrderByUpdatedAtDesc(String createdBy);
 
-    @EntityGraph(attributePaths = "messages")
-    Optional<AiConversation> findWithMessagesByIdAndCreatedBy(Long id, String createdBy);
-
     Optional<AiConversation> findByIdAndCreatedBy(Long id, String createdBy);
+
+    @Query("SELECT c FROM AiConversation c WHERE c.createdBy = :createdBy " +
+           "ORDER BY c.updatedAt DESC, c.id DESC")
+    List<AiConversation> findFirstPage(@Param("createdBy") String createdBy, Limit limit);
+
+    @Query("SELECT c FROM AiConversation c WHERE c.createdBy = :createdBy " +
+           "AND (c.updatedAt < :updatedAt OR (c.updatedAt = :updatedAt AND c.id < :id)) " +
+           "ORDER BY c.updatedAt DESC, c.id DESC")
+    List<AiConversation> findPageAfter(@Param("createdBy") String createdBy,
+                                       @Param("updatedAt") Instant updatedAt,
+                                       @Param("id") Long id,
+                                       Limit limit);
+
+    /**
+     * Records a message appended to the conversation in the fields kept for listings, without loading the
+     * conversation. Returns 0 if the user has no such conversation.
+     */
+    @Modifying
+    @Query("UPDATE AiConversation c SET c.updatedAt = :at, c.lastMessageAt = :at, " +
+           "c.lastMessagePreview = :preview, c.messageCount = c.messageCount + 1 " +
+           "WHERE c.id = :id AND c.createdBy = :createdBy")
+    int recordAppendedMessage(@Param("id") Long id,
+                              @Param("createdBy") String createdBy,
+                              @Param("preview") String preview,
+                              @Param("at") Instant at);
 }
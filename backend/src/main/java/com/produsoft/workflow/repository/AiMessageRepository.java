@@ -1,11 +1,42 @@
 package com.produsoft.workflow.repository;
 
 import com.produsoft.workflow.domain.AiMessage;
+import com.produsoft.workflow.domain.AiMessageRole;
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface AiMessageRepository extends JpaRepository<AiMessage, Long> {
-    Optional<AiMessage> findTopByConversationIdOrderByCreatedAtDesc(Long conversationId);
+    // The finders below skip SYSTEM messages, which hold conversation summaries rather than turns.
+
+    @Query("SELECT m FROM AiMessage m WHERE m.conversation.id = :conversationId " +
+           "AND m.role <> com.produsoft.workflow.domain.AiMessageRole.SYSTEM " +
+           "ORDER BY m.createdAt DESC, m.id DESC")
+    List<AiMessage> findLatest(@Param("conversationId") Long conversationId, Limit limit);
+
+    @Query("SELECT m FROM AiMessage m WHERE m.conversation.id = :conversationId " +
+           "AND m.role <> com.produsoft.workflow.domain.AiMessageRole.SYSTEM " +
+           "AND (m.createdAt < :createdAt OR (m.createdAt = :createdAt AND m.id < :id)) " +
+           "ORDER BY m.createdAt DESC, m.id DESC")
+    List<AiMessage> findLatestBefore(@Param("conversationId") Long conversationId,
+                                     @Param("createdAt") Instant createdAt,
+                                     @Param("id") Long id,
+                                     Limit limit);
+
+    @Query("SELECT m FROM AiMessage m WHERE m.conversation.id = :conversationId " +
+           "AND m.role <> com.produsoft.workflow.domain.AiMessageRole.SYSTEM " +
+           "AND (m.createdAt > :createdAt OR (m.createdAt = :createdAt AND m.id > :id)) " +
+           "ORDER BY m.createdAt DESC, m.id DESC")
+    List<AiMessage> findLatestAfter(@Param("conversationId") Long conversationId,
+                                    @Param("createdAt") Instant createdAt,
+                                    @Param("id") Long id,
+                                    Limit limit);
+
+    Optional<AiMessage> findTopByConversationIdAndRoleOrderByCreatedAtDescIdDesc(Long conversationId, AiMessageRole role);
 }
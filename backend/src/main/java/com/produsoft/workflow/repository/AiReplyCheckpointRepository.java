@@ -0,0 +1,23 @@
+package com.produsoft.workflow.repository;
+
+import com.produsoft.workflow.domain.AiReplyCheckpoint;
+import java.time.Instant;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface AiReplyCheckpointRepository extends JpaRepository<AiReplyCheckpoint, String> {
+
+    @Modifying
+    @Query("UPDATE AiReplyCheckpoint c SET c.content = :content, c.updatedAt = :updatedAt WHERE c.replyId = :replyId")
+    int updateContent(@Param("replyId") String replyId,
+                      @Param("content") String content,
+                      @Param("updatedAt") Instant updatedAt);
+
+    @Modifying
+    @Query("DELETE FROM AiReplyCheckpoint c WHERE c.updatedAt < :cutoff")
+    int deleteUpdatedBefore(@Param("cutoff") Instant cutoff);
+}
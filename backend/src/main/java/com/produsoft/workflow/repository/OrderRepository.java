@@ -1,11 +1,52 @@
 package com.produsoft.workflow.repository;
 
 import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface OrderRepository extends JpaRepository<Order, Long> {
     Optional<Order> findByOrderNumber(String orderNumber);
+
+    @Query("SELECT o.orderNumber FROM Order o WHERE o.orderNumber IN :orderNumbers")
+    List<String> findExistingOrderNumbers(@Param("orderNumbers") Collection<String> orderNumbers);
+
+    @Query("SELECT new com.produsoft.workflow.repository.StateCount(o.overallState, COUNT(o)) " +
+           "FROM Order o WHERE o.overallState IS NOT NULL GROUP BY o.overallState")
+    List<StateCount> countByOverallState();
+
+    @Query("SELECT o.id FROM Order o " +
+           "WHERE (:overallState IS NULL OR o.overallState = :overallState) " +
+           "AND (:currentStage IS NULL OR o.currentStage = :currentStage) " +
+           "ORDER BY -COALESCE(o.priority, 0) ASC, o.createdAt ASC, o.id ASC")
+    List<Long> findFirstPageIds(@Param("overallState") StageState overallState,
+                                @Param("currentStage") StageType currentStage,
+                                Limit limit);
+
+    @Query("SELECT o.id FROM Order o " +
+           "WHERE (:overallState IS NULL OR o.overallState = :overallState) " +
+           "AND (:currentStage IS NULL OR o.currentStage = :currentStage) " +
+           "AND (-COALESCE(o.priority, 0), o.createdAt, o.id) > (:negatedPriority, :createdAt, :id) " +
+           "ORDER BY -COALESCE(o.priority, 0) ASC, o.createdAt ASC, o.id ASC")
+    List<Long> findPageIdsAfter(@Param("overallState") StageState overallState,
+                                @Param("currentStage") StageType currentStage,
+                                @Param("negatedPriority") int negatedPriority,
+                                @Param("createdAt") Instant createdAt,
+                                @Param("id") Long id,
+                                Limit limit);
+
+    @Query("SELECT o.id FROM Order o ORDER BY COALESCE(o.priority, 0) DESC, o.createdAt DESC NULLS LAST, o.id DESC")
+    List<Long> findTopIdsByPriorityAndNewest(Limit limit);
+
+    @Query("SELECT DISTINCT o FROM Order o LEFT JOIN FETCH o.stages WHERE o.id IN :ids")
+    List<Order> findAllWithStagesByIdIn(@Param("ids") Collection<Long> ids);
 }
@@ -3,11 +3,17 @@ package com.produsoft.workflow.repository;
 import com.produsoft.workflow.domain.OrderStageStatus;
 import com.produsoft.workflow.domain.StageState;
 import com.produsoft.workflow.domain.StageType;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
@@ -16,12 +22,45 @@ public interface OrderStageStatusRepository extends JpaRepository<OrderStageStat
 
     @Query("SELECT oss FROM OrderStageStatus oss JOIN FETCH oss.order o " +
            "WHERE oss.stage = :stage AND oss.state IN :states " +
-           "ORDER BY COALESCE(o.priority, 0) DESC, o.createdAt ASC")
+           "ORDER BY COALESCE(o.priority, 0) DESC, o.createdAt ASC, o.id ASC")
     List<OrderStageStatus> findQueueByStageAndStates(@Param("stage") StageType stage,
                                                      @Param("states") Collection<StageState> states);
 
+    @Query("SELECT new com.produsoft.workflow.repository.QueueKey(o.id, oss.state) " +
+           "FROM OrderStageStatus oss JOIN oss.order o " +
+           "WHERE oss.stage = :stage AND oss.state IN :states " +
+           "ORDER BY COALESCE(o.priority, 0) DESC, o.createdAt ASC, o.id ASC")
+    List<QueueKey> findQueueKeysByStageAndStates(@Param("stage") StageType stage,
+                                                 @Param("states") Collection<StageState> states);
+
+    /**
+     * Locks the highest-priority matching stage rows, skipping rows already locked by another transaction
+     * ({@code FOR UPDATE SKIP LOCKED} on PostgreSQL), so concurrent callers each receive a different row. H2 has no
+     * skip-locked support in Hibernate and falls back to a blocking {@code FOR UPDATE}, which re-evaluates the
+     * query once the competing claim commits.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT oss FROM OrderStageStatus oss JOIN oss.order o " +
+           "WHERE oss.stage = :stage AND oss.state IN :states " +
+           "ORDER BY COALESCE(o.priority, 0) DESC, o.createdAt ASC, o.id ASC")
+    List<OrderStageStatus> lockNextClaimable(@Param("stage") StageType stage,
+                                             @Param("states") Collection<StageState> states,
+                                             Limit limit);
+
     @Query("SELECT oss FROM OrderStageStatus oss JOIN FETCH oss.order o WHERE o.id = :orderId AND oss.stage = :stage")
     Optional<OrderStageStatus> findByOrderIdAndStage(@Param("orderId") Long orderId, @Param("stage") StageType stage);
 
     List<OrderStageStatus> findByOrderId(Long orderId);
+
+    @Query("SELECT new com.produsoft.workflow.repository.StageStateCount(oss.stage, oss.state, COUNT(oss)) " +
+           "FROM OrderStageStatus oss WHERE oss.stage IS NOT NULL AND oss.state IS NOT NULL " +
+           "GROUP BY oss.stage, oss.state")
+    List<StageStateCount> countByStageAndState();
+
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+    @Query("SELECT new com.produsoft.workflow.repository.ServiceTimeSample(oss.id, o.id, o.version, oss.stage, oss.assignee, " +
+           "oss.serviceTimeMinutes) " +
+           "FROM OrderStageStatus oss JOIN oss.order o WHERE oss.state = :state AND oss.serviceTimeMinutes IS NOT NULL")
+    Stream<ServiceTimeSample> streamServiceTimes(@Param("state") StageState state);
 }
@@ -0,0 +1,136 @@
+package com.produsoft.workflow.repository;
+
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.OrderStageStatus;
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import javax.sql.DataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Reads orders with their stages through a forward-only JDBC cursor and hands each order to the caller as soon
+ * as its last row has been read, so memory use does not depend on the number of orders. The orders passed to
+ * the consumer are plain detached objects, not managed entities. Must be called inside a transaction:
+ * PostgreSQL only honours the fetch size when auto-commit is off.
+ */
+@Repository
+public class OrderStreamRepository {
+
+    private static final int FETCH_SIZE = 500;
+
+    private static final String SELECT_ORDERS = """
+        SELECT o.id, o.order_number, o.priority, o.current_stage, o.overall_state, o.created_at, o.updated_at, o.notes,
+               s.id AS stage_id, s.stage, s.state, s.assignee, s.claimed_at, s.started_at, s.completed_at,
+               s.service_time_minutes, s.notes AS stage_notes, s.exception_reason, s.supervisor_notes, s.approved_by,
+               s.updated_at AS stage_updated_at, s.checklist_mask
+        FROM orders o
+        LEFT JOIN order_stage_status s ON s.order_id = o.id
+        WHERE 1 = 1""";
+
+    private static final String ORDER_BY = " ORDER BY -COALESCE(o.priority, 0) ASC, o.created_at ASC, o.id ASC";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public OrderStreamRepository(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+    }
+
+    public void streamOrders(StageState overallState, StageType currentStage, Consumer<Order> consumer) {
+        StringBuilder sql = new StringBuilder(SELECT_ORDERS);
+        List<Object> args = new ArrayList<>();
+        if (overallState != null) {
+            sql.append(" AND o.overall_state = ?");
+            args.add(overallState.name());
+        }
+        if (currentStage != null) {
+            sql.append(" AND o.current_stage = ?");
+            args.add(currentStage.name());
+        }
+        sql.append(ORDER_BY);
+
+        OrderRowCollector collector = new OrderRowCollector(consumer);
+        jdbcTemplate.query(sql.toString(), collector, args.toArray());
+        collector.finish();
+    }
+
+    private final class OrderRowCollector implements RowCallbackHandler {
+
+        private final Consumer<Order> consumer;
+        private Order current;
+
+        private OrderRowCollector(Consumer<Order> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            long orderId = rs.getLong("id");
+            if (current == null || current.getId() != orderId) {
+                finish();
+                current = mapOrder(rs);
+            }
+            rs.getLong("stage_id");
+            if (!rs.wasNull()) {
+                current.addStageStatus(mapStage(rs));
+            }
+        }
+
+        private void finish() {
+            if (current != null) {
+                consumer.accept(current);
+                current = null;
+            }
+        }
+    }
+
+    private Order mapOrder(ResultSet rs) throws SQLException {
+        Order order = new Order();
+        order.setId(rs.getLong("id"));
+        order.setOrderNumber(rs.getString("order_number"));
+        order.setPriority(rs.getObject("priority", Integer.class));
+        order.setCurrentStage(enumValue(StageType.class, rs.getString("current_stage")));
+        order.setOverallState(enumValue(StageState.class, rs.getString("overall_state")));
+        order.setCreatedAt(instant(rs, "created_at"));
+        order.setUpdatedAt(instant(rs, "updated_at"));
+        order.setNotes(rs.getString("notes"));
+        return order;
+    }
+
+    private OrderStageStatus mapStage(ResultSet rs) throws SQLException {
+        OrderStageStatus status = new OrderStageStatus();
+        status.setId(rs.getLong("stage_id"));
+        status.setStage(enumValue(StageType.class, rs.getString("stage")));
+        status.setState(enumValue(StageState.class, rs.getString("state")));
+        status.setAssignee(rs.getString("assignee"));
+        status.setClaimedAt(instant(rs, "claimed_at"));
+        status.setStartedAt(instant(rs, "started_at"));
+        status.setCompletedAt(instant(rs, "completed_at"));
+        status.setServiceTimeMinutes(rs.getObject("service_time_minutes", Long.class));
+        status.setNotes(rs.getString("stage_notes"));
+        status.setExceptionReason(rs.getString("exception_reason"));
+        status.setSupervisorNotes(rs.getString("supervisor_notes"));
+        status.setApprovedBy(rs.getString("approved_by"));
+        status.setUpdatedAt(instant(rs, "stage_updated_at"));
+        status.setChecklistMask(rs.getObject("checklist_mask", Long.class));
+        return status;
+    }
+
+    private static Instant instant(ResultSet rs, String column) throws SQLException {
+        OffsetDateTime value = rs.getObject(column, OffsetDateTime.class);
+        return value == null ? null : value.toInstant();
+    }
+
+    private static <E extends Enum<E>> E enumValue(Class<E> type, String value) {
+        return value == null ? null : Enum.valueOf(type, value);
+    }
+}
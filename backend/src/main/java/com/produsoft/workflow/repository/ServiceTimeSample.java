@@ -0,0 +1,12 @@
+package com.produsoft.workflow.repository;
+
+import com.produsoft.workflow.domain.StageType;
+
+public record ServiceTimeSample(
+    Long stageStatusId,
+    Long orderId,
+    Long orderVersion,
+    StageType stage,
+    String assignee,
+    Long serviceTimeMinutes
+) {}
@@ -0,0 +1,10 @@
+package com.produsoft.workflow.repository;
+
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+
+public record StageStateCount(
+    StageType stage,
+    StageState state,
+    long count
+) {}
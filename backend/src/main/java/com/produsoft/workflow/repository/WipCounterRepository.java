@@ -0,0 +1,23 @@
+package com.produsoft.workflow.repository;
+
+import com.produsoft.workflow.domain.WipCounter;
+import jakarta.persistence.LockModeType;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface WipCounterRepository extends JpaRepository<WipCounter, String> {
+
+    @Modifying
+    @Query("UPDATE WipCounter c SET c.value = c.value + :delta WHERE c.key = :key")
+    int increment(@Param("key") String key, @Param("delta") long delta);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM WipCounter c ORDER BY c.key")
+    List<WipCounter> findAllForUpdate();
+}
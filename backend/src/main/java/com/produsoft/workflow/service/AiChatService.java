@@ -1,69 +1,137 @@
 package com.produsoft.workflow.service;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.produsoft.workflow.config.OllamaClientProperties;
 import com.produsoft.workflow.dto.AiChatRequest;
 import com.produsoft.workflow.dto.AiChatResponse;
 import com.produsoft.workflow.exception.AiClientException;
-import java.io.BufferedReader;
+import com.produsoft.workflow.exception.ServiceUnavailableException;
+import com.produsoft.workflow.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClient;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestClientResponseException;
 
+/**
+ * Calls Ollama's {@code /api/chat}. Every request carries {@code app.ai.ollama.model-keep-alive} as
+ * {@code keep_alive} when it is set, so the model and its prompt cache stay loaded between turns. With several
+ * {@code endpoints} configured, each session is pinned to one of them by rendezvous hashing of its key, so that
+ * its next turn finds the prompt prefix still cached; a retry moves on to the session's next endpoint.
+ *
+ * <p>Records the timings Ollama reports with each reply: {@code ai.ollama.prompt.eval} and {@code ai.ollama.eval}
+ * timers, {@code ai.ollama.load} for the time spent loading the model, and an {@code ai.ollama.prompt.tokens}
+ * summary tagged {@code kind=sent}, the estimated size of the prompt, or {@code kind=evaluated}, the tokens Ollama
+ * actually evaluated. The gap between the two is the prefill work saved by the prompt cache. All are tagged with
+ * the model.
+ */
 @Service
 public class AiChatService {
 
     private final RestClient.Builder restClientBuilder;
     private final OllamaClientProperties properties;
     private final ObjectMapper objectMapper;
+    private final AiResponseCache responseCache;
+    private final OllamaHttpClient httpClient;
+    private final AiUpstreamGuard upstreamGuard;
+    private final MeterRegistry meterRegistry;
     private volatile RestClient restClient;
-    private volatile HttpClient streamingClient;
 
     public AiChatService(RestClient.Builder restClientBuilder,
                          OllamaClientProperties properties,
-                         ObjectMapper objectMapper) {
+                         ObjectMapper objectMapper,
+                         AiResponseCache responseCache,
+                         OllamaHttpClient httpClient,
+                         AiUpstreamGuard upstreamGuard,
+                         MeterRegistry meterRegistry) {
         this.restClientBuilder = restClientBuilder;
         this.properties = properties;
         this.objectMapper = objectMapper;
+        this.responseCache = responseCache;
+        this.httpClient = httpClient;
+        this.upstreamGuard = upstreamGuard;
+        this.meterRegistry = meterRegistry;
     }
 
     public AiChatResponse chat(AiChatRequest request) {
+        return chat(request, null);
+    }
+
+    /**
+     * Sends a blocking chat. Requests with the same {@code sessionKey} go to the same endpoint; without one, the
+     * first user message stands in for it.
+     */
+    public AiChatResponse chat(AiChatRequest request, String sessionKey) {
         if (request.streamRequested()) {
             throw new AiClientException("Streaming responses are not supported yet.");
         }
         String model = resolveModel(request.model());
-        Map<String, Object> payload = Map.of(
-            "model", model,
-            "messages", request.messages().stream()
-                .map(message -> Map.of(
-                    "role", message.role(),
-                    "content", message.content()))
-                .toList(),
-            "stream", Boolean.FALSE
-        );
+        List<String> endpoints = endpointsFor(sessionKey, request);
+        AtomicInteger attempt = new AtomicInteger();
+        try {
+            return responseCache.get(model, request.messages(), null,
+                    deltas -> CompletableFuture.completedFuture(upstreamGuard.call(model,
+                        candidate -> callChat(candidate, request, endpointFor(endpoints, attempt)),
+                        AiChatService::isTransient)))
+                .join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof ServiceUnavailableException || ex.getCause() instanceof TooManyRequestsException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw unwrap(ex, "Failed to call Ollama API");
+        }
+    }
+
+    /**
+     * Whether a failed blocking call is worth repeating: the connection failed or timed out, or Ollama answered
+     * with a server error or asked to slow down.
+     */
+    private static boolean isTransient(RuntimeException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof RestClientResponseException response) {
+            return response.getStatusCode().is5xxServerError() || response.getStatusCode().value() == 429;
+        }
+        return cause instanceof ResourceAccessException;
+    }
+
+    private AiChatResponse callChat(String model, AiChatRequest request, String endpoint) {
         try {
             OllamaChatResponse response = ensureClient().post()
-                .uri("/api/chat")
-                .body(payload)
+                .uri(URI.create(endpoint + "/api/chat"))
+                .body(payload(model, request, false))
                 .retrieve()
                 .body(OllamaChatResponse.class);
             if (response == null || response.message() == null || !StringUtils.hasText(response.message().content())) {
                 throw new AiClientException("Received empty response from Ollama.");
             }
+            recordUsage(model, request, new OllamaUsage(
+                response.promptEvalCount(), response.promptEvalDuration(),
+                response.evalCount(), response.evalDuration(), response.loadDuration()));
             return new AiChatResponse(
                 response.model(),
                 response.message().role(),
@@ -75,91 +143,220 @@ public class AiChatService {
         }
     }
 
-    public String chatStream(AiChatRequest request, Consumer<String> tokenConsumer) {
+    /**
+     * Starts a streaming chat without blocking. Each content delta goes to {@code tokenConsumer} on an HTTP client
+     * thread as it arrives; the returned future completes with the whole reply, or fails with an
+     * {@link AiClientException}, or with the exceptions of {@link AiUpstreamGuard} when the model is failing or at
+     * capacity. Identical requests share one call through {@link AiResponseCache}. Cancelling the
+     * future stops the deltas and, once no identical request is waiting for it, aborts the call to Ollama.
+     */
+    public CompletableFuture<String> chatStreamAsync(AiChatRequest request, Consumer<String> tokenConsumer) {
+        return chatStreamAsync(request, null, tokenConsumer);
+    }
+
+    /**
+     * Like {@link #chatStreamAsync(AiChatRequest, Consumer)}, sending requests with the same {@code sessionKey} to
+     * the same endpoint.
+     */
+    public CompletableFuture<String> chatStreamAsync(AiChatRequest request, String sessionKey,
+                                                     Consumer<String> tokenConsumer) {
         if (!request.streamRequested()) {
             throw new AiClientException("Request does not enable streaming.");
         }
         String model = resolveModel(request.model());
-        Map<String, Object> payload = Map.of(
-            "model", model,
-            "messages", request.messages().stream()
-                .map(message -> Map.of(
-                    "role", message.role(),
-                    "content", message.content()))
-                .toList(),
-            "stream", Boolean.TRUE
-        );
+        List<String> endpoints = endpointsFor(sessionKey, request);
+        AtomicInteger attempt = new AtomicInteger();
+        return thenApplyCancellable(
+            responseCache.get(model, request.messages(), tokenConsumer, deltas -> {
+                AtomicBoolean streamed = new AtomicBoolean();
+                return upstreamGuard.callAsync(model,
+                    (candidate, responded) -> thenApplyCancellable(
+                        callChatStream(candidate, request, endpointFor(endpoints, attempt), delta -> {
+                            if (!streamed.getAndSet(true)) {
+                                responded.run();
+                            }
+                            deltas.accept(delta);
+                        }),
+                        reply -> new AiChatResponse(candidate, "assistant", reply)),
+                    // Once part of a reply has gone out, another model cannot take over.
+                    () -> !streamed.get());
+            }),
+            AiChatResponse::content);
+    }
+
+    /**
+     * Like {@link CompletableFuture#thenApply}, except that cancelling the returned future also cancels
+     * {@code source}, so a caller giving up reaches the HTTP exchange underneath.
+     */
+    private static <T, R> CompletableFuture<R> thenApplyCancellable(CompletableFuture<T> source,
+                                                                    Function<? super T, ? extends R> mapper) {
+        CompletableFuture<R> mapped = source.thenApply(mapper);
+        mapped.whenComplete((result, error) -> {
+            if (mapped.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return mapped;
+    }
+
+    private CompletableFuture<String> callChatStream(String model, AiChatRequest request, String endpoint,
+                                                     Consumer<String> tokenConsumer) {
         byte[] body;
         try {
-            body = objectMapper.writeValueAsBytes(payload);
+            body = objectMapper.writeValueAsBytes(payload(model, request, true));
         } catch (IOException ex) {
             throw new AiClientException("Failed to serialize Ollama request payload.", ex);
         }
 
-        HttpRequest httpRequest = HttpRequest.newBuilder()
-            .uri(URI.create(properties.getHost() + "/api/chat"))
+        HttpRequest.Builder httpRequest = HttpRequest.newBuilder()
+            .uri(URI.create(endpoint + "/api/chat"))
             .header(HttpHeaders.AUTHORIZATION, "Bearer " + resolveApiKeyOrThrow())
             .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
-            .POST(HttpRequest.BodyPublishers.ofByteArray(body))
-            .build();
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body));
 
-        try {
-            HttpResponse<InputStream> response = ensureStreamingClient()
-                .send(httpRequest, HttpResponse.BodyHandlers.ofInputStream());
-            if (response.statusCode() >= 400) {
-                String errorBody = readErrorBody(response.body());
-                throw new AiClientException("Ollama API error: " + errorBody);
+        JsonFactory jsonFactory = objectMapper.getFactory();
+        AtomicReference<OllamaStreamSubscriber> subscriber = new AtomicReference<>();
+        CompletableFuture<HttpResponse<String>> exchange = httpClient
+            .sendStreaming(httpRequest, responseInfo -> {
+                if (responseInfo.statusCode() >= 400) {
+                    return HttpResponse.BodySubscribers.mapping(
+                        HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8),
+                        errorBody -> {
+                            throw new AiClientException("Ollama API error: " + errorBody);
+                        });
+                }
+                OllamaStreamSubscriber streamSubscriber = new OllamaStreamSubscriber(jsonFactory, tokenConsumer);
+                subscriber.set(streamSubscriber);
+                return streamSubscriber;
+            });
+        CompletableFuture<String> reply = exchange.handle((response, error) -> {
+            if (error == null) {
+                OllamaStreamSubscriber streamSubscriber = subscriber.get();
+                if (streamSubscriber != null && streamSubscriber.usage() != null) {
+                    recordUsage(model, request, streamSubscriber.usage());
+                }
+                return response.body();
             }
-            StringBuilder builder = new StringBuilder();
-            try (InputStream inputStream = response.body();
-                 BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (line.isBlank()) {
-                        continue;
-                    }
-                    OllamaStreamChunk chunk = objectMapper.readValue(line, OllamaStreamChunk.class);
-                    if (StringUtils.hasText(chunk.error())) {
-                        throw new AiClientException("Ollama API error: " + chunk.error());
-                    }
-                    if (chunk.message() != null && chunk.message().content() != null) {
-                        String delta = chunk.message().content();
-                        builder.append(delta);
-                        if (tokenConsumer != null) {
-                            tokenConsumer.accept(delta);
-                        }
-                    }
-                    if (Boolean.TRUE.equals(chunk.done())) {
-                        break;
-                    }
+            throw unwrap(error, "Failed to stream response from Ollama.");
+        });
+        reply.whenComplete((result, error) -> {
+            if (reply.isCancelled()) {
+                // Stop reading and drop the connection, so Ollama stops generating a reply nobody will read.
+                OllamaStreamSubscriber streamSubscriber = subscriber.get();
+                if (streamSubscriber != null) {
+                    streamSubscriber.cancel();
                 }
+                exchange.cancel(true);
             }
-            return builder.toString();
-        } catch (IOException ex) {
-            throw new AiClientException("Failed to stream response from Ollama.", ex);
-        } catch (InterruptedException ex) {
-            Thread.currentThread().interrupt();
-            throw new AiClientException("Interrupted while streaming response from Ollama.", ex);
+        });
+        return reply;
+    }
+
+    private Map<String, Object> payload(String model, AiChatRequest request, boolean stream) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("model", model);
+        payload.put("messages", request.messages().stream()
+            .map(message -> Map.of(
+                "role", message.role(),
+                "content", message.content()))
+            .toList());
+        payload.put("stream", stream);
+        if (properties.getModelKeepAlive() != null) {
+            payload.put("keep_alive", properties.getModelKeepAlive().toSeconds() + "s");
         }
+        return payload;
     }
 
-    private String resolveModel(String requestedModel) {
-        return StringUtils.hasText(requestedModel) ? requestedModel : properties.getDefaultModel();
+    /**
+     * The endpoints in the order a session tries them: ranked by a hash of the session key and each endpoint, so a
+     * session keeps its endpoint and only the sessions of an endpoint that is removed move elsewhere.
+     */
+    private List<String> endpointsFor(String sessionKey, AiChatRequest request) {
+        List<String> endpoints = properties.resolveEndpoints();
+        if (endpoints.size() == 1) {
+            return endpoints;
+        }
+        String key = sessionKey != null ? sessionKey : request.messages().stream()
+            .filter(message -> "user".equals(message.role()))
+            .map(AiChatRequest.Message::content)
+            .findFirst()
+            .orElse("");
+        int keyHash = mix(key.hashCode());
+        return endpoints.stream()
+            .sorted(Comparator.comparingInt((String endpoint) -> mix(keyHash ^ endpoint.hashCode())).reversed())
+            .toList();
+    }
+
+    private static String endpointFor(List<String> endpoints, AtomicInteger attempt) {
+        return endpoints.get(Math.floorMod(attempt.getAndIncrement(), endpoints.size()));
+    }
+
+    /**
+     * Spreads the bits of a string hash, which differ little between similar strings such as consecutive ids.
+     */
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+
+    private void recordUsage(String model, AiChatRequest request, OllamaUsage usage) {
+        int sent = request.messages().stream().mapToInt(message -> TokenEstimator.estimate(message.content())).sum();
+        promptTokens(model, "sent").record(sent);
+        promptTokens(model, "evaluated").record(usage.promptEvalCount());
+        timer("ai.ollama.prompt.eval", "Time Ollama spent evaluating the prompt", model)
+            .record(usage.promptEvalNanos(), TimeUnit.NANOSECONDS);
+        timer("ai.ollama.eval", "Time Ollama spent generating the reply", model)
+            .record(usage.evalNanos(), TimeUnit.NANOSECONDS);
+        timer("ai.ollama.load", "Time Ollama spent loading the model", model)
+            .record(usage.loadNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private DistributionSummary promptTokens(String model, String kind) {
+        return DistributionSummary.builder("ai.ollama.prompt.tokens")
+            .description("Prompt tokens per chat, as sent (estimated) and as evaluated by Ollama")
+            .baseUnit("tokens")
+            .tag("model", model)
+            .tag("kind", kind)
+            .register(meterRegistry);
+    }
+
+    private Timer timer(String name, String description, String model) {
+        return Timer.builder(name)
+            .description(description)
+            .tag("model", model)
+            .register(meterRegistry);
     }
 
-    private String readErrorBody(InputStream body) throws IOException {
-        try (InputStream inputStream = body) {
-            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+    private static AiClientException unwrap(Throwable error, String message) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+            ? error.getCause()
+            : error;
+        if (cause instanceof AiClientException aiClientException) {
+            return aiClientException;
         }
+        return new AiClientException(message, cause);
     }
 
-    private record OllamaChatResponse(String model, OllamaMessage message, boolean done) {
+    private String resolveModel(String requestedModel) {
+        return StringUtils.hasText(requestedModel) ? requestedModel : properties.getDefaultModel();
     }
 
-    private record OllamaMessage(String role, String content) {
+    private record OllamaChatResponse(
+        String model,
+        OllamaMessage message,
+        boolean done,
+        @JsonProperty("prompt_eval_count") long promptEvalCount,
+        @JsonProperty("prompt_eval_duration") long promptEvalDuration,
+        @JsonProperty("eval_count") long evalCount,
+        @JsonProperty("eval_duration") long evalDuration,
+        @JsonProperty("load_duration") long loadDuration
+    ) {
     }
 
-    private record OllamaStreamChunk(String model, OllamaMessage message, Boolean done, String error) {
+    private record OllamaMessage(String role, String content) {
     }
 
     private RestClient ensureClient() {
@@ -173,7 +370,8 @@ public class AiChatService {
             }
             String apiKey = resolveApiKeyOrThrow();
             restClient = restClientBuilder
-                .baseUrl(properties.getHost())
+                .requestFactory(httpClient.requestFactory())
+                .requestInterceptor(httpClient.blockingMetrics())
                 .defaultHeader(HttpHeaders.AUTHORIZATION, "Bearer " + apiKey)
                 .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                 .build();
@@ -181,20 +379,6 @@ public class AiChatService {
         }
     }
 
-    private HttpClient ensureStreamingClient() {
-        HttpClient existing = streamingClient;
-        if (existing != null) {
-            return existing;
-        }
-        synchronized (this) {
-            if (streamingClient != null) {
-                return streamingClient;
-            }
-            streamingClient = HttpClient.newBuilder().build();
-            return streamingClient;
-        }
-    }
-
     private String resolveApiKeyOrThrow() {
         return properties.resolveApiKey()
             .orElseThrow(() -> new AiClientException("""
@@ -6,59 +6,167 @@ import com.produsoft.workflow.domain.StageState;
 import com.produsoft.workflow.domain.StageType;
 import com.produsoft.workflow.dto.AiChatRequest;
 import com.produsoft.workflow.repository.OrderRepository;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 
+/**
+ * Builds the system message that gives the assistant its view of the workflow. Orders are picked by how well they
+ * match the user's latest message, using {@link OrderContextIndex}, and added until the message reaches
+ * {@code app.ai.context.token-budget}. When nothing matches, the highest-priority orders are shown instead; that
+ * list is cached and rebuilt only when an order change has been committed since it was built, or when it is older
+ * than {@code app.ai.context.max-age} to pick up changes made by other instances.
+ *
+ * <p>With {@code app.ai.context.stable-prefix} on, the instructions are a fixed system message at the start of the
+ * prompt and the workflow data, with its timestamp, goes in a second system message just before the user's latest
+ * message. The prompt of the next turn then starts with the same bytes as this one up to that point, and Ollama
+ * evaluates only what follows instead of the whole prompt. Off, the prompt starts with instructions and data
+ * together, so it changes at every turn.
+ */
 @Service
 public class AiContextService {
 
     private static final int MAX_ORDERS = 25;
+    /** Room left in the budget for the "Total orders" line, which is written after the orders are chosen. */
+    private static final int HEADING_TOKENS = 30;
+    private static final String STABLE_INSTRUCTIONS = "You are ProduSoft's workflow assistant. "
+        + "Answer operations questions using only the workflow data given just before the user's latest message. "
+        + "If something is unknown in the data, say so.";
     private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter
         .ofPattern("yyyy-MM-dd HH:mm 'UTC'")
         .withZone(ZoneOffset.UTC);
 
     private final OrderRepository orderRepository;
-
-    public AiContextService(OrderRepository orderRepository) {
+    private final WipCounterService wipCounterService;
+    private final WorkflowDataVersion dataVersion;
+    private final OrderContextIndex contextIndex;
+    private final Duration maxAge;
+    private final int tokenBudget;
+    private final boolean stablePrefix;
+    private volatile ContextSnapshot snapshot;
+
+    public AiContextService(OrderRepository orderRepository,
+                            WipCounterService wipCounterService,
+                            WorkflowDataVersion dataVersion,
+                            OrderContextIndex contextIndex,
+                            @Value("${app.ai.context.max-age:PT30S}") Duration maxAge,
+                            @Value("${app.ai.context.token-budget:2000}") int tokenBudget,
+                            @Value("${app.ai.context.stable-prefix:true}") boolean stablePrefix) {
         this.orderRepository = orderRepository;
+        this.wipCounterService = wipCounterService;
+        this.dataVersion = dataVersion;
+        this.contextIndex = contextIndex;
+        this.maxAge = maxAge;
+        this.tokenBudget = tokenBudget;
+        this.stablePrefix = stablePrefix;
     }
 
-    public AiChatRequest.Message buildContextMessage() {
-        return new AiChatRequest.Message("system", buildContext());
-    }
-
-    private String buildContext() {
-        List<Order> orders = orderRepository.findAll();
+    /**
+     * Builds the prompt for a conversation turn from its history, which ends with the user's latest message
+     * {@code question}.
+     */
+    public List<AiChatRequest.Message> buildPrompt(String question, List<AiChatRequest.Message> history) {
+        List<AiChatRequest.Message> prompt = new ArrayList<>(history.size() + 2);
+        if (!stablePrefix || history.isEmpty()) {
+            StringBuilder builder = new StringBuilder();
+            builder.append("You are ProduSoft's workflow assistant. Use only the data below to answer operations questions. ")
+                .append("If something is unknown in the data, say so. ")
+                .append("Current timestamp: ")
+                .append(TIMESTAMP_FORMATTER.format(Instant.now()))
+                .append(".\n\n");
+            prompt.add(new AiChatRequest.Message("system", appendWorkflowData(builder, question)));
+            prompt.addAll(history);
+            return prompt;
+        }
         StringBuilder builder = new StringBuilder();
-        builder.append("You are ProduSoft's workflow assistant. Use only the data below to answer operations questions. ")
-            .append("If something is unknown in the data, say so. ")
-            .append("Current timestamp: ")
+        builder.append("Workflow data as of ")
             .append(TIMESTAMP_FORMATTER.format(Instant.now()))
             .append(".\n\n");
+        prompt.add(new AiChatRequest.Message("system", STABLE_INSTRUCTIONS));
+        prompt.addAll(history.subList(0, history.size() - 1));
+        prompt.add(new AiChatRequest.Message("system", appendWorkflowData(builder, question)));
+        prompt.add(history.get(history.size() - 1));
+        return prompt;
+    }
 
-        if (orders.isEmpty()) {
-            builder.append("No orders currently exist in the system.");
-            return builder.toString();
+    private String appendWorkflowData(StringBuilder builder, String question) {
+        ContextSnapshot current = currentSnapshot();
+        if (current.summaries().isEmpty()) {
+            return builder.append("No orders currently exist in the system.").toString();
         }
 
-        builder.append("Total orders: ").append(orders.size()).append(". ")
-            .append("Showing up to ").append(Math.min(MAX_ORDERS, orders.size()))
-            .append(" most recent by priority and creation time.\n");
+        List<Long> relevantIds = contextIndex.search(question, MAX_ORDERS);
+        List<String> relevant = relevantIds.isEmpty() ? List.of() : summarize(relevantIds);
+        List<String> candidates = relevant.isEmpty() ? current.summaries() : relevant;
+        String ordering = relevant.isEmpty()
+            ? " orders, most recent by priority and creation time"
+            : " orders that best match the question, most relevant first";
+
+        int remaining = tokenBudget - TokenEstimator.estimate(builder) - HEADING_TOKENS;
+        List<String> shown = new ArrayList<>();
+        for (String summary : candidates) {
+            int tokens = TokenEstimator.estimate(summary);
+            if (tokens <= remaining) {
+                shown.add(summary);
+                remaining -= tokens;
+            }
+        }
+        builder.append("Total orders: ").append(current.totalOrders()).append(". ")
+            .append("Showing ").append(shown.size()).append(ordering).append(".\n");
+        shown.forEach(builder::append);
+        return builder.toString();
+    }
 
-        orders.stream()
-            .sorted(Comparator
-                .comparing((Order order) -> Optional.ofNullable(order.getPriority()).orElse(0), Comparator.reverseOrder())
-                .thenComparing(Order::getCreatedAt, Comparator.nullsLast(Comparator.reverseOrder())))
-            .limit(MAX_ORDERS)
-            .forEach(order -> appendOrderSummary(builder, order));
+    private ContextSnapshot currentSnapshot() {
+        ContextSnapshot current = snapshot;
+        if (current != null && current.isFresh(dataVersion.current(), maxAge)) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            long version = dataVersion.current();
+            if (current == null || !current.isFresh(version, maxAge)) {
+                // The version is read before the orders, so a change committed during the rebuild marks it stale.
+                List<String> summaries = summarize(orderRepository.findTopIdsByPriorityAndNewest(Limit.of(MAX_ORDERS)));
+                long totalOrders = Math.max(wipCounterService.buildSummary().totalOrders(), summaries.size());
+                current = new ContextSnapshot(version, Instant.now(), totalOrders, summaries);
+                snapshot = current;
+            }
+            return current;
+        }
+    }
 
-        return builder.toString();
+    /**
+     * Renders the orders with the given ids, in the order of the ids.
+     */
+    private List<String> summarize(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, Order> byId = orderRepository.findAllWithStagesByIdIn(ids).stream()
+            .collect(Collectors.toMap(Order::getId, Function.identity()));
+        return ids.stream()
+            .map(byId::get)
+            .filter(Objects::nonNull)
+            .map(order -> {
+                StringBuilder builder = new StringBuilder();
+                appendOrderSummary(builder, order);
+                return builder.toString();
+            })
+            .toList();
     }
 
     private void appendOrderSummary(StringBuilder builder, Order order) {
@@ -103,4 +211,11 @@ public class AiContextService {
     private String nullableState(StageState state) {
         return state == null ? "unknown" : state.name().toLowerCase(Locale.ROOT);
     }
+
+    private record ContextSnapshot(long version, Instant builtAt, long totalOrders, List<String> summaries) {
+
+        boolean isFresh(long currentVersion, Duration maxAge) {
+            return version == currentVersion && builtAt.plus(maxAge).isAfter(Instant.now());
+        }
+    }
 }
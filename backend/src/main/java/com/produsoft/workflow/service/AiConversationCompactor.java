@@ -0,0 +1,228 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.domain.AiMessage;
+import com.produsoft.workflow.domain.AiMessageRole;
+import com.produsoft.workflow.dto.AiChatRequest;
+import com.produsoft.workflow.exception.ServiceUnavailableException;
+import com.produsoft.workflow.exception.TooManyRequestsException;
+import com.produsoft.workflow.repository.AiConversationRepository;
+import com.produsoft.workflow.repository.AiMessageRepository;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+/**
+ * Keeps conversation prompts bounded. Once the turns since the last summary exceed
+ * {@code app.ai.conversation.summarize-after-tokens}, the model is asked in the background to fold the older of
+ * them into the previous summary, keeping the last {@code keep-recent-messages} turns verbatim. The summary is
+ * stored as a {@link AiMessageRole#SYSTEM} message dated like the last turn it covers, so the turns after it are a
+ * keyset range. Prompts are built from the latest summary plus the turns after it, newest first until
+ * {@code history-token-budget} is spent.
+ */
+@Service
+public class AiConversationCompactor {
+
+    private static final Logger log = LoggerFactory.getLogger(AiConversationCompactor.class);
+
+    private static final int MAX_HISTORY_MESSAGES = 20;
+    /** Most turns read for one summarization; older unsummarized turns had already left the prompt. */
+    private static final int COMPACTION_WINDOW = 60;
+    private static final String SUMMARY_PREFIX = "Summary of the earlier conversation:\n";
+    private static final String SUMMARY_INSTRUCTIONS = """
+        Summarize the conversation below between an operations user and the ProduSoft workflow assistant, \
+        building on the earlier summary if one is given. Keep order numbers, stages, people, decisions, open \
+        questions and facts the user stated. Drop greetings and anything answered in full. Reply with the \
+        summary only, in at most 200 words.""";
+
+    private final AiMessageRepository messageRepository;
+    private final AiConversationRepository conversationRepository;
+    private final AiChatService aiChatService;
+    private final AiStreamExecutor streamExecutor;
+    private final TransactionTemplate transactionTemplate;
+    private final int historyTokenBudget;
+    private final int summarizeAfterTokens;
+    private final int keepRecentMessages;
+    private final Set<Long> inProgress = ConcurrentHashMap.newKeySet();
+
+    public AiConversationCompactor(AiMessageRepository messageRepository,
+                                   AiConversationRepository conversationRepository,
+                                   AiChatService aiChatService,
+                                   AiStreamExecutor streamExecutor,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${app.ai.conversation.history-token-budget:3000}") int historyTokenBudget,
+                                   @Value("${app.ai.conversation.summarize-after-tokens:2000}") int summarizeAfterTokens,
+                                   @Value("${app.ai.conversation.keep-recent-messages:6}") int keepRecentMessages) {
+        this.messageRepository = messageRepository;
+        this.conversationRepository = conversationRepository;
+        this.aiChatService = aiChatService;
+        this.streamExecutor = streamExecutor;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.historyTokenBudget = historyTokenBudget;
+        this.summarizeAfterTokens = summarizeAfterTokens;
+        this.keepRecentMessages = Math.max(keepRecentMessages, 1);
+    }
+
+    /**
+     * Returns the prompt history of a conversation: its latest summary, if any, then the most recent turns after
+     * it in chronological order. The latest turn is always included, whatever its size.
+     */
+    public List<AiChatRequest.Message> buildHistory(Long conversationId) {
+        Optional<AiMessage> summary = latestSummary(conversationId);
+        List<AiMessage> newestFirst = turnsAfter(conversationId, summary, MAX_HISTORY_MESSAGES);
+
+        List<AiChatRequest.Message> history = new ArrayList<>(newestFirst.size() + 1);
+        int remaining = historyTokenBudget;
+        if (summary.isPresent()) {
+            String content = SUMMARY_PREFIX + summary.get().getContent();
+            history.add(new AiChatRequest.Message("system", content));
+            remaining -= TokenEstimator.estimate(content);
+        }
+        List<AiChatRequest.Message> turns = new ArrayList<>(newestFirst.size());
+        for (AiMessage message : newestFirst) {
+            int tokens = TokenEstimator.estimate(message.getContent());
+            if (!turns.isEmpty() && tokens > remaining) {
+                break;
+            }
+            turns.add(toChatMessage(message));
+            remaining -= tokens;
+        }
+        Collections.reverse(turns);
+        history.addAll(turns);
+        return history;
+    }
+
+    @TransactionalEventListener
+    public void onTurnCompleted(ConversationTurnCompletedEvent event) {
+        compactIfNeeded(event.conversationId());
+    }
+
+    /**
+     * Starts summarizing the conversation if its unsummarized turns are over the threshold and no summary of it is
+     * already being written. Does nothing if the assistant has no capacity; the next turn tries again.
+     */
+    public void compactIfNeeded(Long conversationId) {
+        if (!inProgress.add(conversationId)) {
+            return;
+        }
+        boolean started = false;
+        try {
+            Compaction compaction = transactionTemplate.execute(status -> planCompaction(conversationId));
+            if (compaction == null) {
+                return;
+            }
+            streamExecutor.submit(
+                () -> summarize(conversationId, compaction)
+                    .whenComplete((result, error) -> inProgress.remove(conversationId)),
+                error -> {
+                    log.debug("Skipped summarizing conversation {}: {}", conversationId, error.getMessage());
+                    inProgress.remove(conversationId);
+                });
+            started = true;
+        } catch (TooManyRequestsException | ServiceUnavailableException ex) {
+            log.debug("Skipped summarizing conversation {}: {}", conversationId, ex.getMessage());
+        } finally {
+            if (!started) {
+                inProgress.remove(conversationId);
+            }
+        }
+    }
+
+    private Compaction planCompaction(Long conversationId) {
+        Optional<AiMessage> summary = latestSummary(conversationId);
+        List<AiMessage> turns = turnsAfter(conversationId, summary, COMPACTION_WINDOW);
+        if (turns.size() <= keepRecentMessages) {
+            return null;
+        }
+        int tokens = 0;
+        for (AiMessage turn : turns) {
+            tokens += TokenEstimator.estimate(turn.getContent());
+        }
+        if (tokens <= summarizeAfterTokens && turns.size() <= MAX_HISTORY_MESSAGES) {
+            return null;
+        }
+        List<AiMessage> older = new ArrayList<>(turns.subList(keepRecentMessages, turns.size()));
+        Collections.reverse(older);
+        return new Compaction(summary.map(AiMessage::getContent).orElse(null), older);
+    }
+
+    private CompletableFuture<Void> summarize(Long conversationId, Compaction compaction) {
+        StringBuilder transcript = new StringBuilder();
+        if (compaction.previousSummary() != null) {
+            transcript.append("Earlier summary:\n").append(compaction.previousSummary()).append("\n\n");
+        }
+        transcript.append("Conversation:\n");
+        for (AiMessage turn : compaction.turns()) {
+            transcript.append(turn.getRole() == AiMessageRole.USER ? "User: " : "Assistant: ")
+                .append(turn.getContent())
+                .append('\n');
+        }
+        AiChatRequest request = new AiChatRequest(
+            null,
+            List.of(
+                new AiChatRequest.Message("system", SUMMARY_INSTRUCTIONS),
+                new AiChatRequest.Message("user", transcript.toString())),
+            Boolean.TRUE);
+
+        AiMessage lastCovered = compaction.turns().get(compaction.turns().size() - 1);
+        return aiChatService.chatStreamAsync(request, null)
+            .thenAccept(summary -> {
+                if (!StringUtils.hasText(summary)) {
+                    return;
+                }
+                transactionTemplate.executeWithoutResult(status -> conversationRepository.findById(conversationId)
+                    .ifPresent(conversation -> {
+                        AiMessage message = new AiMessage();
+                        message.setRole(AiMessageRole.SYSTEM);
+                        message.setContent(summary.trim());
+                        message.setCreatedAt(lastCovered.getCreatedAt());
+                        // Not added through the conversation, so the listing preview and count only show turns.
+                        message.setConversation(conversation);
+                        messageRepository.save(message);
+                    }));
+            })
+            .exceptionally(error -> {
+                log.warn("Failed to summarize conversation {}", conversationId, error);
+                return null;
+            });
+    }
+
+    private Optional<AiMessage> latestSummary(Long conversationId) {
+        return messageRepository.findTopByConversationIdAndRoleOrderByCreatedAtDescIdDesc(conversationId, AiMessageRole.SYSTEM);
+    }
+
+    private List<AiMessage> turnsAfter(Long conversationId, Optional<AiMessage> summary, int limit) {
+        return summary
+            .map(found -> messageRepository.findLatestAfter(conversationId, found.getCreatedAt(), found.getId(), Limit.of(limit)))
+            .orElseGet(() -> messageRepository.findLatest(conversationId, Limit.of(limit)));
+    }
+
+    private static AiChatRequest.Message toChatMessage(AiMessage message) {
+        return new AiChatRequest.Message(
+            switch (message.getRole()) {
+                case USER -> "user";
+                case ASSISTANT -> "assistant";
+                case SYSTEM -> "system";
+            },
+            message.getContent());
+    }
+
+    /**
+     * Turns to fold into the summary, oldest first, and the summary they extend.
+     */
+    private record Compaction(String previousSummary, List<AiMessage> turns) {}
+}
@@ -0,0 +1,9 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.domain.AiConversation;
+import java.util.List;
+
+/**
+ * One page of a user's conversations. {@code nextCursor} is null on the last page.
+ */
+public record AiConversationPage(List<AiConversation> conversations, String nextCursor) {}
@@ -0,0 +1,36 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.domain.AiConversation;
+import com.produsoft.workflow.exception.InvalidStageActionException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position of the last conversation on a page of a user's conversations, which are listed most recently updated
+ * first. Clients receive it as an opaque URL-safe token and pass it back to fetch the next page.
+ */
+public record AiConversationPageCursor(Instant updatedAt, Long id) {
+
+    public static AiConversationPageCursor after(AiConversation conversation) {
+        return new AiConversationPageCursor(conversation.getUpdatedAt(), conversation.getId());
+    }
+
+    public static AiConversationPageCursor decode(String token) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\|", -1);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected two cursor fields");
+            }
+            return new AiConversationPageCursor(Instant.parse(parts[0]), Long.parseLong(parts[1]));
+        } catch (IllegalArgumentException | DateTimeParseException ex) {
+            throw new InvalidStageActionException("Invalid page cursor: " + token);
+        }
+    }
+
+    public String encode() {
+        String raw = updatedAt + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -12,20 +12,33 @@ import com.produsoft.workflow.dto.SendMessageRequest;
 import com.produsoft.workflow.exception.AiClientException;
 import com.produsoft.workflow.exception.InvalidStageActionException;
 import com.produsoft.workflow.exception.NotFoundException;
+import com.produsoft.workflow.exception.ServiceUnavailableException;
+import com.produsoft.workflow.exception.TooManyRequestsException;
 import com.produsoft.workflow.repository.AiConversationRepository;
 import com.produsoft.workflow.repository.AiMessageRepository;
 import com.produsoft.workflow.dto.AiConversationResponse;
+import com.produsoft.workflow.dto.AiMessageResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.transaction.Transactional;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
@@ -34,42 +47,111 @@ import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 @Transactional
 public class AiConversationService {
 
-    private static final int MAX_HISTORY_MESSAGES = 20;
+    private static final Logger log = LoggerFactory.getLogger(AiConversationService.class);
+
+    /**
+     * What happens to the part of a streamed reply received before its client disconnected: {@code discard} drops
+     * it, {@code persist} stores it as the assistant's answer so the conversation shows what the user saw.
+     */
+    public enum CancelledReplyPolicy {
+        DISCARD,
+        PERSIST
+    }
+
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
 
     private final AiConversationRepository conversationRepository;
     private final AiMessageRepository messageRepository;
     private final AiChatService aiChatService;
     private final AiConversationMapper mapper;
     private final AiContextService contextService;
+    private final AiStreamExecutor streamExecutor;
+    private final AiConversationCompactor compactor;
+    private final AiReplyStreams replyStreams;
+    private final ApplicationEventPublisher eventPublisher;
     private final TransactionTemplate transactionTemplate;
+    private final CancelledReplyPolicy cancelledReplyPolicy;
+    private final Counter cancelledPersisted;
+    private final Counter cancelledDiscarded;
 
     public AiConversationService(AiConversationRepository conversationRepository,
                                  AiMessageRepository messageRepository,
                                  AiChatService aiChatService,
                                  AiConversationMapper mapper,
                                  AiContextService contextService,
-                                 PlatformTransactionManager transactionManager) {
+                                 AiStreamExecutor streamExecutor,
+                                 AiConversationCompactor compactor,
+                                 AiReplyStreams replyStreams,
+                                 ApplicationEventPublisher eventPublisher,
+                                 PlatformTransactionManager transactionManager,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.ai.streaming.cancelled-reply-policy:discard}") String cancelledReplyPolicy) {
         this.conversationRepository = conversationRepository;
         this.messageRepository = messageRepository;
         this.aiChatService = aiChatService;
         this.mapper = mapper;
         this.contextService = contextService;
+        this.streamExecutor = streamExecutor;
+        this.compactor = compactor;
+        this.replyStreams = replyStreams;
+        this.eventPublisher = eventPublisher;
         this.transactionTemplate = new TransactionTemplate(transactionManager);
         this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.cancelledReplyPolicy = CancelledReplyPolicy.valueOf(cancelledReplyPolicy.trim().toUpperCase(Locale.ROOT));
+        this.cancelledPersisted = Counter.builder("ai.stream.cancelled")
+            .description("Streamed replies abandoned because the client disconnected")
+            .tag("partial", "persisted")
+            .register(meterRegistry);
+        this.cancelledDiscarded = Counter.builder("ai.stream.cancelled")
+            .description("Streamed replies abandoned because the client disconnected")
+            .tag("partial", "discarded")
+            .register(meterRegistry);
     }
 
     public List<AiConversationSummaryResponse> listConversations(String username) {
         return conversationRepository.findByCreatedByOrderByUpdatedAtDesc(username).stream()
-            .map(conversation -> mapper.toSummary(
-                conversation,
-                messageRepository.findTopByConversationIdOrderByCreatedAtDesc(conversation.getId())))
+            .map(mapper::toSummary)
             .toList();
     }
 
+    /**
+     * Returns the page of a user's conversations that follows {@code cursor}, most recently updated first. The
+     * preview and message count are stored on the conversation, so a page is a single index range scan on
+     * {@code (created_by, updated_at)}.
+     */
+    public AiConversationPage findConversationPage(String username, String cursor, Integer limit) {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        Limit fetchLimit = Limit.of(pageSize + 1);
+        List<AiConversation> conversations;
+        if (cursor == null || cursor.isBlank()) {
+            conversations = conversationRepository.findFirstPage(username, fetchLimit);
+        } else {
+            AiConversationPageCursor position = AiConversationPageCursor.decode(cursor);
+            conversations = conversationRepository.findPageAfter(username, position.updatedAt(), position.id(), fetchLimit);
+        }
+        boolean hasMore = conversations.size() > pageSize;
+        List<AiConversation> page = hasMore ? conversations.subList(0, pageSize) : conversations;
+        String nextCursor = hasMore ? AiConversationPageCursor.after(page.get(page.size() - 1)).encode() : null;
+        return new AiConversationPage(page, nextCursor);
+    }
+
     public AiConversationResponse getConversation(String username, Long conversationId) {
-        AiConversation conversation = conversationRepository.findWithMessagesByIdAndCreatedBy(conversationId, username)
+        AiConversation conversation = conversationRepository.findByIdAndCreatedBy(conversationId, username)
             .orElseThrow(() -> new NotFoundException("Conversation not found: " + conversationId));
-        return mapper.toResponse(conversation);
+        return toResponse(conversation);
+    }
+
+    /**
+     * Returns the messages of a conversation before {@code cursor}, or its latest messages without one. Each page is
+     * an index range scan on {@code (conversation_id, created_at, id)}, however long the conversation is.
+     */
+    public AiMessagePage findMessagePage(String username, Long conversationId, String cursor, Integer limit) {
+        conversationRepository.findByIdAndCreatedBy(conversationId, username)
+            .orElseThrow(() -> new NotFoundException("Conversation not found: " + conversationId));
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        AiMessagePageCursor before = cursor == null || cursor.isBlank() ? null : AiMessagePageCursor.decode(cursor);
+        return loadMessagePage(conversationId, before, pageSize);
     }
 
     public AiConversationResponse createConversation(String username, CreateConversationRequest request) {
@@ -83,19 +165,19 @@ public class AiConversationService {
             return sendMessage(username, conversation.getId(), sendMessageRequest);
         }
 
-        return mapper.toResponse(conversation);
+        return toResponse(conversation);
     }
 
     public AiConversationResponse renameConversation(String username, Long conversationId, String newTitle) {
-        AiConversation conversation = conversationRepository.findWithMessagesByIdAndCreatedBy(conversationId, username)
+        AiConversation conversation = conversationRepository.findByIdAndCreatedBy(conversationId, username)
             .orElseThrow(() -> new NotFoundException("Conversation not found: " + conversationId));
         conversation.setTitle(normalizeTitle(newTitle));
         conversation.touch();
-        return mapper.toResponse(conversation);
+        return toResponse(conversation);
     }
 
     public AiConversationResponse sendMessage(String username, Long conversationId, SendMessageRequest request) {
-        AiConversation conversation = conversationRepository.findWithMessagesByIdAndCreatedBy(conversationId, username)
+        AiConversation conversation = conversationRepository.findByIdAndCreatedBy(conversationId, username)
             .orElseThrow(() -> new NotFoundException("Conversation not found: " + conversationId));
         String content = request.content().trim();
         if (content.length() > 4000) {
@@ -112,15 +194,13 @@ public class AiConversationService {
             conversation.setTitle(deriveTitle(content));
         }
 
-        List<AiChatRequest.Message> history = buildHistoryMessages(conversation);
-        List<AiChatRequest.Message> messages = new ArrayList<>();
-        messages.add(contextService.buildContextMessage());
-        messages.addAll(history);
+        List<AiChatRequest.Message> messages = contextService.buildPrompt(content,
+            compactor.buildHistory(conversation.getId()));
         AiChatResponse aiResponse = aiChatService.chat(new AiChatRequest(
             null,
             messages,
             Boolean.FALSE
-        ));
+        ), sessionKey(conversationId));
 
         AiMessage assistantMessage = new AiMessage();
         assistantMessage.setRole(AiMessageRole.ASSISTANT);
@@ -129,11 +209,12 @@ public class AiConversationService {
         messageRepository.save(assistantMessage);
 
         conversationRepository.save(conversation);
-        return mapper.toResponse(conversation);
+        eventPublisher.publishEvent(new ConversationTurnCompletedEvent(conversation.getId()));
+        return toResponse(conversation);
     }
 
     public SseEmitter streamMessage(String username, Long conversationId, SendMessageRequest request) {
-        AiConversation conversation = conversationRepository.findWithMessagesByIdAndCreatedBy(conversationId, username)
+        AiConversation conversation = conversationRepository.findByIdAndCreatedBy(conversationId, username)
             .orElseThrow(() -> new NotFoundException("Conversation not found: " + conversationId));
         String content = request.content().trim();
         if (content.length() > 4000) {
@@ -152,10 +233,8 @@ public class AiConversationService {
 
         conversationRepository.save(conversation);
 
-        List<AiChatRequest.Message> history = buildHistoryMessages(conversation);
-        List<AiChatRequest.Message> messages = new ArrayList<>();
-        messages.add(contextService.buildContextMessage());
-        messages.addAll(history);
+        List<AiChatRequest.Message> messages = contextService.buildPrompt(content,
+            compactor.buildHistory(conversation.getId()));
 
         AiChatRequest chatRequest = new AiChatRequest(
             null,
@@ -163,49 +242,130 @@ public class AiConversationService {
             Boolean.TRUE
         );
 
+        AtomicReference<CompletableFuture<String>> upstream = new AtomicReference<>();
+        AiReplyStreams.ReplyStream reply = replyStreams.open(conversationId, () -> {
+            CompletableFuture<String> call = upstream.get();
+            if (call != null) {
+                call.cancel(true);
+            }
+        });
         SseEmitter emitter = new SseEmitter(0L);
-        AtomicBoolean emitterOpen = new AtomicBoolean(true);
-        emitter.onCompletion(() -> emitterOpen.set(false));
-        emitter.onTimeout(() -> emitterOpen.set(false));
-        emitter.onError(error -> emitterOpen.set(false));
+        reply.attach(emitter, 0);
 
-        CompletableFuture.runAsync(() -> {
-            StringBuilder assistantBuilder = new StringBuilder();
+        // The chat starts once the user's message is committed. A reply served from the cache completes on the
+        // starting thread, and storing it must not wait for the conversation row this transaction has updated.
+        Runnable start = () -> {
             try {
-                String assistantReply = aiChatService.chatStream(chatRequest, delta -> {
-                    if (delta == null) {
-                        return;
+                submitReply(reply, chatRequest, conversationId, username, upstream);
+            } catch (TooManyRequestsException | ServiceUnavailableException ex) {
+                replyStreams.discard(reply);
+                throw ex;
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    start.run();
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        replyStreams.discard(reply);
                     }
-                    assistantBuilder.append(delta);
-                    safeSendToken(emitter, emitterOpen, delta);
-                });
-                if (!StringUtils.hasText(assistantReply)) {
-                    throw new AiClientException("Received empty response from Ollama.");
                 }
-                AiConversationResponse response = transactionTemplate.execute(status -> {
-                    AiConversation refreshed = conversationRepository
-                        .findWithMessagesByIdAndCreatedBy(conversationId, username)
-                        .orElseThrow(() -> new NotFoundException("Conversation not found: " + conversationId));
-                    AiMessage assistantMessage = new AiMessage();
-                    assistantMessage.setRole(AiMessageRole.ASSISTANT);
-                    assistantMessage.setContent(assistantReply);
-                    refreshed.addMessage(assistantMessage);
-                    messageRepository.save(assistantMessage);
-                    conversationRepository.save(refreshed);
-                    return mapper.toResponse(refreshed);
+            });
+        } else {
+            start.run();
+        }
+        return emitter;
+    }
+
+    private void submitReply(AiReplyStreams.ReplyStream reply, AiChatRequest chatRequest, Long conversationId,
+                             String username, AtomicReference<CompletableFuture<String>> upstream) {
+        streamExecutor.submit(() -> {
+            if (reply.isAbandoned()) {
+                // Every client went away while the chat was queued.
+                reply.cancelled();
+                return CompletableFuture.completedFuture(null);
+            }
+            StringBuffer partialReply = new StringBuffer();
+            CompletableFuture<String> call = aiChatService.chatStreamAsync(chatRequest, sessionKey(conversationId), delta -> {
+                partialReply.append(delta);
+                reply.accept(delta);
+            });
+            upstream.set(call);
+            if (reply.isAbandoned()) {
+                // Abandoned before the call could be registered for cancellation.
+                call.cancel(true);
+            }
+            return call
+                .thenAccept(assistantReply -> {
+                    if (!StringUtils.hasText(assistantReply)) {
+                        throw new AiClientException("Received empty response from Ollama.");
+                    }
+                    reply.complete(persistAssistantReply(conversationId, username, assistantReply));
+                })
+                .exceptionally(error -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error;
+                    if (cause instanceof CancellationException) {
+                        handleCancelledReply(conversationId, username, partialReply.toString());
+                        reply.cancelled();
+                    } else {
+                        reply.fail(cause instanceof Exception ex ? ex : new AiClientException("Streaming chat failed.", cause));
+                    }
+                    return null;
                 });
-                safeSendConversation(emitter, emitterOpen, response);
-                completeQuietly(emitter);
-            } catch (Exception ex) {
-                if (emitterOpen.get()) {
-                    handleStreamingError(emitter, ex);
-                    return;
-                }
-                completeQuietly(emitter);
+        }, reply::fail);
+    }
+
+    /**
+     * Resumes a streamed reply of a conversation after the SSE event id {@code lastEventId}.
+     */
+    public SseEmitter resumeStream(String username, Long conversationId, String lastEventId) {
+        conversationRepository.findByIdAndCreatedBy(conversationId, username)
+            .orElseThrow(() -> new NotFoundException("Conversation not found: " + conversationId));
+        return replyStreams.resume(conversationId, lastEventId);
+    }
+
+    /**
+     * Applies {@code app.ai.streaming.cancelled-reply-policy} to a reply whose client went away mid-stream.
+     */
+    private void handleCancelledReply(Long conversationId, String username, String partialReply) {
+        boolean persist = cancelledReplyPolicy == CancelledReplyPolicy.PERSIST && StringUtils.hasText(partialReply);
+        if (persist) {
+            try {
+                persistAssistantReply(conversationId, username, partialReply);
+            } catch (RuntimeException ex) {
+                log.warn("Failed to store the partial reply of conversation {}", conversationId, ex);
+                persist = false;
             }
-        });
+        }
+        (persist ? cancelledPersisted : cancelledDiscarded).increment();
+    }
 
-        return emitter;
+    /**
+     * Appends the assistant's reply in its own transaction: one update of the conversation's listing fields and one
+     * insert, whatever the length of the conversation. Returns only the new message.
+     */
+    private AiMessageResponse persistAssistantReply(Long conversationId, String username, String content) {
+        return transactionTemplate.execute(status -> {
+            AiMessage assistantMessage = new AiMessage();
+            assistantMessage.setRole(AiMessageRole.ASSISTANT);
+            assistantMessage.setContent(content);
+            int updated = conversationRepository.recordAppendedMessage(conversationId, username,
+                AiConversation.preview(content), assistantMessage.getCreatedAt());
+            if (updated == 0) {
+                throw new NotFoundException("Conversation not found: " + conversationId);
+            }
+            assistantMessage.setConversation(conversationRepository.getReferenceById(conversationId));
+            messageRepository.save(assistantMessage);
+            eventPublisher.publishEvent(new ConversationTurnCompletedEvent(conversationId));
+            return mapper.toMessageResponse(assistantMessage);
+        });
     }
 
     public void deleteConversation(String username, Long conversationId) {
@@ -214,24 +374,31 @@ public class AiConversationService {
         conversationRepository.delete(conversation);
     }
 
-    private List<AiChatRequest.Message> buildHistoryMessages(AiConversation conversation) {
-        List<AiMessage> sortedMessages = conversation.getMessages().stream()
-            .sorted(Comparator.comparing(AiMessage::getCreatedAt))
-            .toList();
+    /**
+     * Key under which the turns of a conversation go to the same Ollama endpoint, which still has their prompt cached.
+     */
+    private static String sessionKey(Long conversationId) {
+        return "conversation-" + conversationId;
+    }
 
-        int fromIndex = Math.max(0, sortedMessages.size() - MAX_HISTORY_MESSAGES);
-        List<AiChatRequest.Message> history = new ArrayList<>();
-        for (AiMessage message : sortedMessages.subList(fromIndex, sortedMessages.size())) {
-            history.add(new AiChatRequest.Message(
-                switch (message.getRole()) {
-                    case USER -> "user";
-                    case ASSISTANT -> "assistant";
-                    case SYSTEM -> "system";
-                },
-                message.getContent()
-            ));
+    private AiConversationResponse toResponse(AiConversation conversation) {
+        if (conversation.getId() == null) {
+            return mapper.toResponse(conversation, List.of(), null);
         }
-        return history;
+        AiMessagePage latest = loadMessagePage(conversation.getId(), null, DEFAULT_PAGE_SIZE);
+        return mapper.toResponse(conversation, latest.messages(), latest.nextCursor());
+    }
+
+    private AiMessagePage loadMessagePage(Long conversationId, AiMessagePageCursor before, int pageSize) {
+        Limit fetchLimit = Limit.of(pageSize + 1);
+        List<AiMessage> newestFirst = before == null
+            ? messageRepository.findLatest(conversationId, fetchLimit)
+            : messageRepository.findLatestBefore(conversationId, before.createdAt(), before.id(), fetchLimit);
+        boolean hasMore = newestFirst.size() > pageSize;
+        List<AiMessage> page = new ArrayList<>(hasMore ? newestFirst.subList(0, pageSize) : newestFirst);
+        Collections.reverse(page);
+        String nextCursor = hasMore ? AiMessagePageCursor.before(page.get(0)).encode() : null;
+        return new AiMessagePage(page, nextCursor);
     }
 
     private String normalizeTitle(String title) {
@@ -248,44 +415,4 @@ public class AiConversationService {
         String trimmed = message.trim();
         return trimmed.length() <= 60 ? trimmed : trimmed.substring(0, 57) + "...";
     }
-
-    private void safeSendToken(SseEmitter emitter, AtomicBoolean emitterOpen, String delta) {
-        if (!emitterOpen.get()) {
-            return;
-        }
-        try {
-            emitter.send(SseEmitter.event().name("token").data(Map.of("delta", delta)));
-        } catch (IOException | IllegalStateException ex) {
-            emitterOpen.set(false);
-        }
-    }
-
-    private void safeSendConversation(SseEmitter emitter, AtomicBoolean emitterOpen, AiConversationResponse response) {
-        if (!emitterOpen.get()) {
-            return;
-        }
-        try {
-            emitter.send(SseEmitter.event().name("conversation").data(response));
-        } catch (IOException | IllegalStateException ex) {
-            emitterOpen.set(false);
-        }
-    }
-
-    private void handleStreamingError(SseEmitter emitter, Exception ex) {
-        String message = ex.getMessage() != null ? ex.getMessage() : "Streaming chat failed.";
-        try {
-            emitter.send(SseEmitter.event().name("error").data(Map.of("message", message)));
-        } catch (IOException | IllegalStateException ignored) {
-            // If we cannot notify the client, there's nothing else to do.
-        }
-        emitter.completeWithError(ex);
-    }
-
-    private void completeQuietly(SseEmitter emitter) {
-        try {
-            emitter.complete();
-        } catch (IllegalStateException ignored) {
-            // Already completed by the client.
-        }
-    }
 }
@@ -0,0 +1,10 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.domain.AiMessage;
+import java.util.List;
+
+/**
+ * One page of a conversation, oldest message first. {@code nextCursor} leads to the messages before this page and
+ * is null when the page starts at the beginning of the conversation.
+ */
+public record AiMessagePage(List<AiMessage> messages, String nextCursor) {}
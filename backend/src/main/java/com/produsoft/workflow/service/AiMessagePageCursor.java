@@ -0,0 +1,36 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.domain.AiMessage;
+import com.produsoft.workflow.exception.InvalidStageActionException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position of the oldest message on a page of a conversation, which is read newest first. Clients receive it as
+ * an opaque URL-safe token and pass it back to fetch the earlier messages.
+ */
+public record AiMessagePageCursor(Instant createdAt, Long id) {
+
+    public static AiMessagePageCursor before(AiMessage message) {
+        return new AiMessagePageCursor(message.getCreatedAt(), message.getId());
+    }
+
+    public static AiMessagePageCursor decode(String token) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\|", -1);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Expected two cursor fields");
+            }
+            return new AiMessagePageCursor(Instant.parse(parts[0]), Long.parseLong(parts[1]));
+        } catch (IllegalArgumentException | DateTimeParseException ex) {
+            throw new InvalidStageActionException("Invalid page cursor: " + token);
+        }
+    }
+
+    public String encode() {
+        String raw = createdAt + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,456 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.domain.AiReplyCheckpoint;
+import com.produsoft.workflow.dto.AiMessageResponse;
+import com.produsoft.workflow.exception.InvalidStageActionException;
+import com.produsoft.workflow.repository.AiReplyCheckpointRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Makes streamed replies resumable. Every reply gets an id, and each of its token events carries the SSE id
+ * {@code <reply id>:<offset>}, the offset being the length of the reply in characters once that event's delta is
+ * applied. A client that lost the stream sends the last id it saw as {@code Last-Event-ID} and gets the rest of the
+ * reply so far, then the remainder as it is generated. Generation goes on without clients for
+ * {@code app.ai.streaming.resume-grace} before it is cancelled.
+ *
+ * <p>Replies are kept in memory up to {@code replay-max-chars}, and for {@code replay-retention} once finished so
+ * that a client missing only the end still gets it. Every {@code checkpoint-interval} the text of each streaming
+ * reply is written to {@code ai_reply_checkpoints}; after a restart a resume is answered from there, followed by an
+ * {@code interrupted} event since generation was lost with the node. Checkpoints are removed when their reply
+ * finishes, or after {@code checkpoint-retention}. This runs on a thread of its own, so checkpoint writes never
+ * hold up the application's scheduled tasks, nor they it.
+ *
+ * <p>Publishes an {@code ai.stream.resumes} counter tagged with where the reply came from ({@code memory},
+ * {@code checkpoint} or {@code unavailable}) and an {@code ai.stream.replies} gauge of the replies held in memory.
+ */
+@Component
+public class AiReplyStreams {
+
+    private static final Logger log = LoggerFactory.getLogger(AiReplyStreams.class);
+
+    private final Map<String, ReplyStream> streams = new ConcurrentHashMap<>();
+    private final SseTokenFlusher tokenFlusher;
+    private final AiReplyCheckpointRepository checkpointRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int replayMaxChars;
+    private final long resumeGraceNanos;
+    private final long retentionNanos;
+    private final Duration checkpointRetention;
+    private final Duration checkpointInterval;
+    private final ScheduledExecutorService maintenance;
+
+    private final Counter resumedFromMemory;
+    private final Counter resumedFromCheckpoint;
+    private final Counter resumeUnavailable;
+
+    public AiReplyStreams(SseTokenFlusher tokenFlusher,
+                          AiReplyCheckpointRepository checkpointRepository,
+                          PlatformTransactionManager transactionManager,
+                          MeterRegistry meterRegistry,
+                          @Value("${app.ai.streaming.replay-max-chars:65536}") int replayMaxChars,
+                          @Value("${app.ai.streaming.resume-grace:PT15S}") Duration resumeGrace,
+                          @Value("${app.ai.streaming.replay-retention:PT1M}") Duration retention,
+                          @Value("${app.ai.streaming.checkpoint-retention:PT1H}") Duration checkpointRetention,
+                          @Value("${app.ai.streaming.checkpoint-interval:PT1S}") Duration checkpointInterval) {
+        this.tokenFlusher = tokenFlusher;
+        this.checkpointRepository = checkpointRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.replayMaxChars = Math.max(replayMaxChars, 0);
+        this.resumeGraceNanos = resumeGrace.toNanos();
+        this.retentionNanos = retention.toNanos();
+        this.checkpointRetention = checkpointRetention;
+        this.checkpointInterval = checkpointInterval;
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ai-reply-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.resumedFromMemory = Counter.builder("ai.stream.resumes").tag("source", "memory").register(meterRegistry);
+        this.resumedFromCheckpoint = Counter.builder("ai.stream.resumes").tag("source", "checkpoint").register(meterRegistry);
+        this.resumeUnavailable = Counter.builder("ai.stream.resumes").tag("source", "unavailable").register(meterRegistry);
+        Gauge.builder("ai.stream.replies", streams, Map::size)
+            .description("Streamed replies held in memory for resuming")
+            .register(meterRegistry);
+    }
+
+    static String eventId(String replyId, int offset) {
+        return replyId + ":" + offset;
+    }
+
+    /**
+     * Starts a reply of a conversation. {@code onAbandoned} runs if the reply is still streaming once it has had
+     * no client for the resume grace period.
+     */
+    ReplyStream open(Long conversationId, Runnable onAbandoned) {
+        ReplyStream stream = new ReplyStream(UUID.randomUUID().toString().replace("-", ""), conversationId, onAbandoned);
+        streams.put(stream.id, stream);
+        return stream;
+    }
+
+    /**
+     * Drops a reply whose chat never started, ending the streams of its clients. Without this a reply rejected
+     * before generation would stay in memory for good, being neither finished nor without clients.
+     */
+    void discard(ReplyStream stream) {
+        streams.remove(stream.id, stream);
+        stream.cancelled();
+    }
+
+    /**
+     * Resumes a reply of a conversation after {@code lastEventId}, from memory while the reply is kept there and
+     * from its checkpoint otherwise. The caller has checked that the conversation belongs to the user.
+     */
+    SseEmitter resume(Long conversationId, String lastEventId) {
+        int separator = lastEventId == null ? -1 : lastEventId.lastIndexOf(':');
+        String replyId;
+        int offset;
+        try {
+            replyId = lastEventId.substring(0, separator);
+            offset = Integer.parseInt(lastEventId.substring(separator + 1));
+        } catch (RuntimeException ex) {
+            throw new InvalidStageActionException("Invalid Last-Event-ID: " + lastEventId);
+        }
+        if (offset < 0) {
+            throw new InvalidStageActionException("Invalid Last-Event-ID: " + lastEventId);
+        }
+
+        SseEmitter emitter = newEmitter();
+        ReplyStream stream = streams.get(replyId);
+        if (stream != null && !stream.conversationId.equals(conversationId)) {
+            stream = null;
+        }
+        if (stream != null && stream.attach(emitter, offset)) {
+            resumedFromMemory.increment();
+            return emitter;
+        }
+        // A reply still in memory but too long to keep is not checkpointed any further either.
+        Optional<AiReplyCheckpoint> checkpoint = stream != null
+            ? Optional.empty()
+            : checkpointRepository.findById(replyId).filter(found -> found.getConversationId().equals(conversationId));
+        try {
+            if (checkpoint.isPresent()) {
+                String content = checkpoint.get().getContent();
+                if (offset < content.length()) {
+                    emitter.send(SseEmitter.event()
+                        .id(eventId(replyId, content.length()))
+                        .name("token")
+                        .data(Map.of("delta", content.substring(offset))));
+                }
+                emitter.send(SseEmitter.event().name("interrupted").data(Map.of(
+                    "message", "The reply was interrupted. Send the question again for a complete answer.")));
+                resumedFromCheckpoint.increment();
+            } else {
+                emitter.send(SseEmitter.event().name("error").data(Map.of(
+                    "message", "The reply can no longer be resumed. Reload the conversation.")));
+                resumeUnavailable.increment();
+            }
+        } catch (IOException | IllegalStateException ignored) {
+            // The client went away again.
+        }
+        completeQuietly(emitter);
+        return emitter;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        long intervalNanos = Math.max(checkpointInterval.toNanos(), 1);
+        maintenance.scheduleWithFixedDelay(this::maintainQuietly, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        maintenance.shutdownNow();
+    }
+
+    SseEmitter newEmitter() {
+        return new SseEmitter(0L);
+    }
+
+    private void maintainQuietly() {
+        try {
+            maintain();
+        } catch (RuntimeException ex) {
+            // A task that throws is never run again.
+            log.warn("Failed to maintain streamed replies", ex);
+        }
+    }
+
+    /**
+     * Cancels replies left without clients, drops finished ones after their retention and writes checkpoints.
+     */
+    void maintain() {
+        long now = System.nanoTime();
+        for (ReplyStream stream : streams.values()) {
+            Runnable abandon = stream.abandonIfIdle(now);
+            if (abandon != null) {
+                log.debug("Cancelling reply {}, which has had no client for {} ms", stream.id, resumeGraceNanos / 1_000_000);
+                abandon.run();
+            }
+            try {
+                writeCheckpoint(stream);
+            } catch (RuntimeException ex) {
+                log.warn("Failed to checkpoint reply {}", stream.id, ex);
+            }
+            if (stream.expired(now)) {
+                streams.remove(stream.id, stream);
+            }
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                checkpointRepository.deleteUpdatedBefore(Instant.now().minus(checkpointRetention)));
+        } catch (RuntimeException ex) {
+            log.warn("Failed to remove old reply checkpoints", ex);
+        }
+    }
+
+    private void writeCheckpoint(ReplyStream stream) {
+        Checkpoint checkpoint = stream.pendingCheckpoint();
+        if (checkpoint == null) {
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            if (checkpoint.remove()) {
+                checkpointRepository.deleteById(stream.id);
+            } else if (checkpointRepository.updateContent(stream.id, checkpoint.content(), Instant.now()) == 0) {
+                checkpointRepository.save(new AiReplyCheckpoint(stream.id, stream.conversationId, checkpoint.content(), Instant.now()));
+            }
+        });
+        stream.checkpointWritten(checkpoint);
+    }
+
+    private static void completeQuietly(SseEmitter emitter) {
+        try {
+            emitter.complete();
+        } catch (IllegalStateException ignored) {
+            // Already completed by the client.
+        }
+    }
+
+    /**
+     * Text to write for a reply, or the removal of its checkpoint once it finished.
+     */
+    private record Checkpoint(String content, int length, boolean remove) {}
+
+    /**
+     * One streamed reply: its text so far, the clients receiving it and, once finished, how to end a client's
+     * stream. Deltas go to every client as they arrive; a client attaching later is first sent what it missed.
+     */
+    final class ReplyStream implements Consumer<String> {
+
+        private final String id;
+        private final Long conversationId;
+        private final Runnable onAbandoned;
+        private final StringBuilder text = new StringBuilder();
+        private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        private int length;
+        private boolean overflowed;
+        private Consumer<Subscriber> ending;
+        private long finishedAt;
+        private long idleSince = System.nanoTime();
+        private boolean abandoned;
+        private int checkpointedLength;
+        private boolean checkpointExists;
+
+        private ReplyStream(String id, Long conversationId, Runnable onAbandoned) {
+            this.id = id;
+            this.conversationId = conversationId;
+            this.onAbandoned = onAbandoned;
+        }
+
+        String id() {
+            return id;
+        }
+
+        synchronized boolean isAbandoned() {
+            return abandoned;
+        }
+
+        @Override
+        public void accept(String delta) {
+            if (delta == null || delta.isEmpty()) {
+                return;
+            }
+            synchronized (this) {
+                if (ending != null) {
+                    return;
+                }
+                length += delta.length();
+                if (!overflowed && text.length() + delta.length() > replayMaxChars) {
+                    // Too long to keep; it can no longer be resumed, and its checkpoint stays as it was.
+                    overflowed = true;
+                    text.setLength(0);
+                    text.trimToSize();
+                } else if (!overflowed) {
+                    text.append(delta);
+                }
+                for (Subscriber subscriber : subscribers) {
+                    subscriber.tokens.accept(delta);
+                }
+            }
+        }
+
+        /**
+         * Streams this reply to {@code emitter} from {@code offset}. Returns {@code false}, leaving the emitter
+         * untouched, if the text from there is no longer held.
+         */
+        boolean attach(SseEmitter emitter, int offset) {
+            AtomicBoolean emitterOpen = new AtomicBoolean(true);
+            Subscriber subscriber = new Subscriber(emitter, emitterOpen);
+            synchronized (this) {
+                if (overflowed) {
+                    return false;
+                }
+                int start = Math.min(offset, length);
+                subscriber.tokens = tokenFlusher.open(emitter, emitterOpen, id, start, () -> detach(subscriber));
+                if (start < length) {
+                    subscriber.tokens.accept(text.substring(start));
+                }
+                if (ending != null) {
+                    ending.accept(subscriber);
+                    return true;
+                }
+                subscribers.add(subscriber);
+                idleSince = 0;
+            }
+            emitter.onCompletion(() -> detach(subscriber));
+            emitter.onTimeout(() -> detach(subscriber));
+            emitter.onError(error -> detach(subscriber));
+            return true;
+        }
+
+        /**
+         * Sends the stored reply to every client, after its last tokens.
+         */
+        void complete(AiMessageResponse message) {
+            finish(subscriber -> subscriber.tokens.finish(() -> {
+                subscriber.sendMessage(message);
+                completeQuietly(subscriber.emitter);
+            }));
+        }
+
+        void fail(Exception error) {
+            finish(subscriber -> subscriber.tokens.finish(() -> {
+                if (subscriber.emitterOpen.get()) {
+                    subscriber.sendError(error);
+                } else {
+                    completeQuietly(subscriber.emitter);
+                }
+            }));
+        }
+
+        void cancelled() {
+            finish(subscriber -> subscriber.tokens.finish(() -> completeQuietly(subscriber.emitter)));
+        }
+
+        private synchronized void finish(Consumer<Subscriber> ending) {
+            if (this.ending != null) {
+                return;
+            }
+            this.ending = ending;
+            finishedAt = System.nanoTime();
+            for (Subscriber subscriber : subscribers) {
+                ending.accept(subscriber);
+            }
+            subscribers.clear();
+        }
+
+        private void detach(Subscriber subscriber) {
+            subscriber.emitterOpen.set(false);
+            synchronized (this) {
+                if (subscribers.remove(subscriber) && subscribers.isEmpty() && ending == null) {
+                    idleSince = System.nanoTime();
+                }
+            }
+        }
+
+        private synchronized Runnable abandonIfIdle(long now) {
+            if (ending != null || abandoned || idleSince == 0 || now - idleSince < resumeGraceNanos) {
+                return null;
+            }
+            abandoned = true;
+            return onAbandoned;
+        }
+
+        private synchronized boolean expired(long now) {
+            return ending != null && now - finishedAt >= retentionNanos && !checkpointExists;
+        }
+
+        private synchronized Checkpoint pendingCheckpoint() {
+            if (ending != null) {
+                return checkpointExists ? new Checkpoint(null, 0, true) : null;
+            }
+            if (overflowed || length == checkpointedLength) {
+                return null;
+            }
+            return new Checkpoint(text.toString(), length, false);
+        }
+
+        private synchronized void checkpointWritten(Checkpoint checkpoint) {
+            checkpointExists = !checkpoint.remove();
+            checkpointedLength = checkpoint.length();
+        }
+    }
+
+    /**
+     * One client of a reply.
+     */
+    private static final class Subscriber {
+
+        private final SseEmitter emitter;
+        private final AtomicBoolean emitterOpen;
+        private SseTokenFlusher.TokenStream tokens;
+
+        private Subscriber(SseEmitter emitter, AtomicBoolean emitterOpen) {
+            this.emitter = emitter;
+            this.emitterOpen = emitterOpen;
+        }
+
+        void sendMessage(AiMessageResponse message) {
+            if (!emitterOpen.get()) {
+                return;
+            }
+            try {
+                emitter.send(SseEmitter.event().name("message").data(message));
+            } catch (IOException | IllegalStateException ex) {
+                emitterOpen.set(false);
+            }
+        }
+
+        void sendError(Exception ex) {
+            String message = ex.getMessage() != null ? ex.getMessage() : "Streaming chat failed.";
+            try {
+                emitter.send(SseEmitter.event().name("error").data(Map.of("message", message)));
+            } catch (IOException | IllegalStateException ignored) {
+                // If we cannot notify the client, there's nothing else to do.
+            }
+            emitter.completeWithError(ex);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.dto.AiChatRequest;
+import com.produsoft.workflow.dto.AiChatResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Shares assistant replies between identical chat requests. A request is identified by its model, its messages
+ * with whitespace normalized, and the {@link WorkflowDataVersion} it was asked at, so an order change makes earlier
+ * replies unreachable. A request identical to one still in flight joins it instead of calling the model again:
+ * streaming callers get the deltas received so far and then every new one. Finished replies are kept for
+ * {@code app.ai.cache.ttl}, up to {@code app.ai.cache.max-entries} of them, least recently used first out.
+ *
+ * <p>Failed calls and empty replies are never cached. A call is cancelled once every request waiting for it has
+ * cancelled its future. Publishes an {@code ai.chat.cache.requests} counter tagged with the result ({@code hit},
+ * {@code shared} or {@code miss}), an {@code ai.chat.cache.size} gauge and an {@code ai.chat.upstream.cancelled}
+ * counter.
+ */
+@Component
+public class AiResponseCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final WorkflowDataVersion dataVersion;
+    private final Duration ttl;
+    private final int maxEntries;
+    private final Map<String, CachedReply> replies;
+    private final Map<String, InFlightReply> inFlight = new HashMap<>();
+
+    private final Counter hits;
+    private final Counter shared;
+    private final Counter misses;
+    private final Counter upstreamCancelled;
+
+    public AiResponseCache(WorkflowDataVersion dataVersion,
+                           @Value("${app.ai.cache.ttl:PT60S}") Duration ttl,
+                           @Value("${app.ai.cache.max-entries:256}") int maxEntries,
+                           MeterRegistry meterRegistry) {
+        this.dataVersion = dataVersion;
+        this.ttl = ttl;
+        this.maxEntries = Math.max(maxEntries, 0);
+        this.replies = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedReply> eldest) {
+                return size() > AiResponseCache.this.maxEntries;
+            }
+        };
+
+        this.hits = Counter.builder("ai.chat.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.shared = Counter.builder("ai.chat.cache.requests").tag("result", "shared").register(meterRegistry);
+        this.misses = Counter.builder("ai.chat.cache.requests").tag("result", "miss").register(meterRegistry);
+        this.upstreamCancelled = Counter.builder("ai.chat.upstream.cancelled")
+            .description("Model calls abandoned because every request waiting for them went away")
+            .register(meterRegistry);
+        Gauge.builder("ai.chat.cache.size", this, AiResponseCache::size)
+            .description("Assistant replies held for identical requests")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Returns the reply to a chat, from the cache, from an identical call in flight, or by calling
+     * {@code upstream}. {@code upstream} receives the consumer its content deltas must go to, and must not block
+     * for long unless it is expected to run on the caller's thread. {@code deltaConsumer} may be {@code null}.
+     */
+    public CompletableFuture<AiChatResponse> get(String model,
+                                                 List<AiChatRequest.Message> messages,
+                                                 Consumer<String> deltaConsumer,
+                                                 Function<Consumer<String>, CompletableFuture<AiChatResponse>> upstream) {
+        String key = key(model, messages);
+        CachedReply cached;
+        InFlightReply existing;
+        InFlightReply leader = null;
+        synchronized (this) {
+            cached = replies.get(key);
+            if (cached != null && cached.hasExpired(System.nanoTime(), ttl)) {
+                replies.remove(key);
+                cached = null;
+            }
+            existing = cached == null ? inFlight.get(key) : null;
+            if (cached == null && existing == null) {
+                leader = new InFlightReply(key);
+                inFlight.put(key, leader);
+            }
+        }
+        // Deltas are replayed outside the lock, since a consumer may be writing to a slow client.
+        if (cached != null) {
+            hits.increment();
+            if (deltaConsumer != null && !cached.response().content().isEmpty()) {
+                deltaConsumer.accept(cached.response().content());
+            }
+            return CompletableFuture.completedFuture(cached.response());
+        }
+        if (existing != null) {
+            shared.increment();
+            return existing.join(deltaConsumer);
+        }
+        misses.increment();
+        InFlightReply reply = leader;
+        CompletableFuture<AiChatResponse> caller = reply.join(deltaConsumer);
+
+        CompletableFuture<AiChatResponse> call;
+        try {
+            call = upstream.apply(reply::publish);
+        } catch (RuntimeException ex) {
+            call = CompletableFuture.failedFuture(ex);
+        }
+        call.whenComplete((response, error) -> {
+            synchronized (this) {
+                inFlight.remove(key, reply);
+                if (error == null && isCacheable(model, response)) {
+                    replies.put(key, new CachedReply(response, System.nanoTime()));
+                }
+            }
+            if (error == null) {
+                reply.complete(response);
+            } else {
+                reply.fail(error);
+            }
+        });
+        reply.started(call);
+        return caller;
+    }
+
+    private boolean isCacheable(String model, AiChatResponse response) {
+        // A reply from another model, such as the fallback, must not be served once the requested model is back.
+        return maxEntries > 0 && !ttl.isZero() && !ttl.isNegative()
+            && response != null && model.equals(response.model())
+            && response.content() != null && !response.content().isBlank();
+    }
+
+    public synchronized int size() {
+        return replies.size();
+    }
+
+    private String key(String model, List<AiChatRequest.Message> messages) {
+        MessageDigest digest = sha256();
+        update(digest, model == null ? "" : model);
+        update(digest, Long.toString(dataVersion.current()));
+        for (AiChatRequest.Message message : messages) {
+            update(digest, message.role() == null ? "" : message.role().toLowerCase(Locale.ROOT));
+            update(digest, message.content() == null ? "" : WHITESPACE.matcher(message.content().trim()).replaceAll(" "));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private record CachedReply(AiChatResponse response, long storedAt) {
+
+        boolean hasExpired(long now, Duration ttl) {
+            return now - storedAt > ttl.toNanos();
+        }
+    }
+
+    /**
+     * A call to the model that several identical requests wait on. Deltas are kept so that a request joining
+     * late still sees the whole reply. Each request gets a future of its own; cancelling it detaches only that
+     * request, and the call itself is cancelled once no request is left waiting for it.
+     */
+    private final class InFlightReply {
+
+        private final String key;
+        private final StringBuilder received = new StringBuilder();
+        private final List<Consumer<String>> listeners = new ArrayList<>();
+        private final CompletableFuture<AiChatResponse> result = new CompletableFuture<>();
+        private CompletableFuture<AiChatResponse> call;
+        private int waiting;
+        private boolean abandoned;
+
+        private InFlightReply(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Adds a request. Joining after the reply completed is harmless: the listener is replayed everything.
+         */
+        CompletableFuture<AiChatResponse> join(Consumer<String> deltaConsumer) {
+            CompletableFuture<AiChatResponse> caller = new CompletableFuture<>();
+            synchronized (this) {
+                if (deltaConsumer != null) {
+                    if (!received.isEmpty()) {
+                        deltaConsumer.accept(received.toString());
+                    }
+                    listeners.add(deltaConsumer);
+                }
+                waiting++;
+            }
+            result.whenComplete((response, error) -> {
+                if (error == null) {
+                    caller.complete(response);
+                } else {
+                    caller.completeExceptionally(error);
+                }
+            });
+            caller.whenComplete((response, error) -> {
+                if (caller.isCancelled()) {
+                    leave(deltaConsumer);
+                }
+            });
+            return caller;
+        }
+
+        void started(CompletableFuture<AiChatResponse> call) {
+            boolean cancel;
+            synchronized (this) {
+                this.call = call;
+                cancel = abandoned;
+            }
+            if (cancel) {
+                cancelCall(call);
+            }
+        }
+
+        private void leave(Consumer<String> deltaConsumer) {
+            CompletableFuture<AiChatResponse> toCancel = null;
+            synchronized (AiResponseCache.this) {
+                synchronized (this) {
+                    if (deltaConsumer != null) {
+                        listeners.remove(deltaConsumer);
+                    }
+                    waiting--;
+                    if (waiting == 0 && !result.isDone() && !abandoned) {
+                        // Later identical requests must start a call of their own rather than join this one.
+                        abandoned = true;
+                        inFlight.remove(key, this);
+                        toCancel = call;
+                    }
+                }
+            }
+            if (toCancel != null) {
+                cancelCall(toCancel);
+            }
+        }
+
+        private void cancelCall(CompletableFuture<AiChatResponse> call) {
+            if (call.cancel(true)) {
+                upstreamCancelled.increment();
+            }
+        }
+
+        synchronized void publish(String delta) {
+            if (delta == null || delta.isEmpty()) {
+                return;
+            }
+            received.append(delta);
+            Iterator<Consumer<String>> iterator = listeners.iterator();
+            while (iterator.hasNext()) {
+                try {
+                    iterator.next().accept(delta);
+                } catch (RuntimeException ex) {
+                    // One failing listener must not end the reply for the others.
+                    iterator.remove();
+                }
+            }
+        }
+
+        void complete(AiChatResponse response) {
+            synchronized (this) {
+                // A reply fetched without streaming reaches waiting streams in one piece.
+                if (received.isEmpty() && response.content() != null) {
+                    publish(response.content());
+                }
+                listeners.clear();
+            }
+            result.complete(response);
+        }
+
+        void fail(Throwable error) {
+            synchronized (this) {
+                listeners.clear();
+            }
+            result.completeExceptionally(error);
+        }
+    }
+}
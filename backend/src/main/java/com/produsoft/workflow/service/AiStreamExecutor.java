@@ -0,0 +1,198 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.exception.ServiceUnavailableException;
+import com.produsoft.workflow.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits how many AI chats stream at once so chat load cannot take resources from the rest of the application.
+ * Chats stream asynchronously, so a chat holds one of {@code app.ai.streaming.max-concurrency} slots rather than a
+ * thread, from when it starts until the stage it returns completes. Others wait in a queue of
+ * {@code queue-capacity} and are dropped if they have not started within {@code queue-timeout}. A chat that finds
+ * the queue full is rejected with {@link TooManyRequestsException}. A chat that never gets to stream, because it
+ * timed out in the queue, was dropped at shutdown or failed to start, is reported to its {@code onNotStarted}
+ * callback.
+ *
+ * <p>Publishes {@code ai.stream.active} and {@code ai.stream.queued} gauges, the {@code ai.stream.queue.wait}
+ * timer and an {@code ai.stream.rejected} counter tagged with the reason.
+ */
+@Component
+public class AiStreamExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(AiStreamExecutor.class);
+
+    private final int maxConcurrency;
+    private final int queueCapacity;
+    private final Duration queueTimeout;
+    private final Deque<QueuedChat> queue = new ArrayDeque<>();
+    private int active;
+    private boolean shutdown;
+
+    private final Counter queueFull;
+    private final Counter queueTimedOut;
+    private final Timer queueWait;
+
+    public AiStreamExecutor(@Value("${app.ai.streaming.max-concurrency:64}") int maxConcurrency,
+                            @Value("${app.ai.streaming.queue-capacity:128}") int queueCapacity,
+                            @Value("${app.ai.streaming.queue-timeout:PT15S}") Duration queueTimeout,
+                            MeterRegistry meterRegistry) {
+        this.maxConcurrency = Math.max(maxConcurrency, 1);
+        this.queueCapacity = Math.max(queueCapacity, 0);
+        this.queueTimeout = queueTimeout;
+
+        Gauge.builder("ai.stream.active", this, AiStreamExecutor::activeCount)
+            .description("AI chats currently streaming")
+            .register(meterRegistry);
+        Gauge.builder("ai.stream.queued", this, AiStreamExecutor::queuedCount)
+            .description("AI chats waiting for a streaming slot")
+            .register(meterRegistry);
+        this.queueFull = Counter.builder("ai.stream.rejected").tag("reason", "queue-full").register(meterRegistry);
+        this.queueTimedOut = Counter.builder("ai.stream.rejected").tag("reason", "queue-timeout").register(meterRegistry);
+        this.queueWait = Timer.builder("ai.stream.queue.wait")
+            .description("Time AI chats waited for a streaming slot")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Starts a chat now if a slot is free, or queues it. {@code chat} must start the stream without blocking and
+     * return a stage that completes when the stream ends. {@code onNotStarted} is called instead, possibly on
+     * another thread, with a {@link TooManyRequestsException} if the chat waited too long to start, a
+     * {@link ServiceUnavailableException} if it was dropped at shutdown, or whatever {@code chat} threw.
+     *
+     * @throws TooManyRequestsException if the queue is full
+     * @throws ServiceUnavailableException if the application is shutting down
+     */
+    public void submit(Supplier<? extends CompletionStage<?>> chat, Consumer<RuntimeException> onNotStarted) {
+        QueuedChat queued = new QueuedChat(chat, onNotStarted, System.nanoTime());
+        synchronized (this) {
+            if (shutdown) {
+                throw new ServiceUnavailableException("The AI assistant is shutting down");
+            }
+            if (active >= maxConcurrency) {
+                if (queue.size() >= queueCapacity) {
+                    queueFull.increment();
+                    throw new TooManyRequestsException("The AI assistant is busy. Try again shortly.", queueTimeout);
+                }
+                queue.addLast(queued);
+                return;
+            }
+            active++;
+        }
+        start(queued);
+    }
+
+    public synchronized int activeCount() {
+        return active;
+    }
+
+    public synchronized int queuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Drops queued chats that waited longer than the queue timeout even though no slot was released meanwhile.
+     */
+    @Scheduled(fixedDelayString = "${app.ai.streaming.queue-sweep-interval:PT1S}")
+    public void expireQueued() {
+        List<QueuedChat> expired = new ArrayList<>();
+        long now = System.nanoTime();
+        synchronized (this) {
+            queue.removeIf(queued -> queued.hasExpired(now, queueTimeout) && expired.add(queued));
+        }
+        expired.forEach(this::timeOut);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List<QueuedChat> dropped;
+        synchronized (this) {
+            shutdown = true;
+            dropped = new ArrayList<>(queue);
+            queue.clear();
+            if (active > 0) {
+                log.info("Shutting down with {} AI chats still streaming", active);
+            }
+        }
+        dropped.forEach(queued -> notStarted(queued, new ServiceUnavailableException("The AI assistant is shutting down")));
+    }
+
+    private void start(QueuedChat queued) {
+        queueWait.record(System.nanoTime() - queued.queuedAt(), TimeUnit.NANOSECONDS);
+        CompletionStage<?> stream;
+        try {
+            stream = queued.chat().get();
+        } catch (RuntimeException ex) {
+            log.warn("An AI chat failed to start", ex);
+            release();
+            notStarted(queued, ex);
+            return;
+        }
+        stream.whenComplete((result, error) -> release());
+    }
+
+    /**
+     * Hands the slot of a finished chat to the next queued one that has not expired.
+     */
+    private void release() {
+        List<QueuedChat> expired = new ArrayList<>();
+        QueuedChat next = null;
+        long now = System.nanoTime();
+        synchronized (this) {
+            while (!queue.isEmpty()) {
+                QueuedChat candidate = queue.pollFirst();
+                if (candidate.hasExpired(now, queueTimeout)) {
+                    expired.add(candidate);
+                } else {
+                    next = candidate;
+                    break;
+                }
+            }
+            if (next == null) {
+                active--;
+            }
+        }
+        expired.forEach(this::timeOut);
+        if (next != null) {
+            start(next);
+        }
+    }
+
+    private void timeOut(QueuedChat queued) {
+        queueTimedOut.increment();
+        notStarted(queued, new TooManyRequestsException("The AI assistant is busy. Try again shortly.", queueTimeout));
+    }
+
+    private void notStarted(QueuedChat queued, RuntimeException reason) {
+        try {
+            queued.onNotStarted().accept(reason);
+        } catch (RuntimeException ex) {
+            log.debug("Failed to notify an AI chat that it did not start", ex);
+        }
+    }
+
+    private record QueuedChat(Supplier<? extends CompletionStage<?>> chat, Consumer<RuntimeException> onNotStarted,
+                              long queuedAt) {
+
+        boolean hasExpired(long now, Duration timeout) {
+            return now - queuedAt > timeout.toNanos();
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.config.OllamaClientProperties;
+import com.produsoft.workflow.exception.ServiceUnavailableException;
+import com.produsoft.workflow.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * Keeps a struggling model from taking the application down with it. Every call to a model goes through a circuit
+ * breaker and a bulkhead of that model:
+ * <ul>
+ *   <li>The breaker looks at the last {@code app.ai.resilience.window-size} calls. Once at least
+ *   {@code minimum-calls} of them are in and {@code failure-rate-threshold} percent failed, or
+ *   {@code slow-call-rate-threshold} percent took longer than {@code slow-call-duration} to respond, it opens and
+ *   calls fail at once with {@link ServiceUnavailableException}. After {@code open-duration} it lets
+ *   {@code half-open-calls} trial calls through, closing again if all of them succeed.</li>
+ *   <li>The bulkhead allows {@code max-concurrent-calls} calls per model; any more are rejected with
+ *   {@link TooManyRequestsException} rather than queued. It defaults to, and is never below,
+ *   {@code app.ai.streaming.max-concurrency}, so every chat {@link AiStreamExecutor} starts is admitted.</li>
+ * </ul>
+ * Blocking calls that fail on a transient error are retried up to {@code max-attempts} times in all, waiting
+ * {@code retry-backoff} longer before each. If a call still fails or is rejected and
+ * {@code app.ai.ollama.fallback-model} is set, it is tried once on that model.
+ *
+ * <p>Publishes an {@code ai.upstream.circuit.state} gauge per model (0 closed, 1 half open, 2 open), an
+ * {@code ai.upstream.rejected} counter tagged with the model and the reason, and {@code ai.upstream.retries} and
+ * {@code ai.upstream.fallbacks} counters.
+ */
+@Component
+public class AiUpstreamGuard {
+
+    private static final Logger log = LoggerFactory.getLogger(AiUpstreamGuard.class);
+
+    private final OllamaClientProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int failureRateThreshold;
+    private final int slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final int maxConcurrentCalls;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+    private final Map<String, ModelGuard> guards = new ConcurrentHashMap<>();
+
+    private final Counter retries;
+    private final Counter fallbacks;
+
+    public AiUpstreamGuard(OllamaClientProperties properties,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.ai.resilience.window-size:20}") int windowSize,
+                           @Value("${app.ai.resilience.minimum-calls:10}") int minimumCalls,
+                           @Value("${app.ai.resilience.failure-rate-threshold:50}") int failureRateThreshold,
+                           @Value("${app.ai.resilience.slow-call-rate-threshold:80}") int slowCallRateThreshold,
+                           @Value("${app.ai.resilience.slow-call-duration:PT20S}") Duration slowCallDuration,
+                           @Value("${app.ai.resilience.open-duration:PT30S}") Duration openDuration,
+                           @Value("${app.ai.resilience.half-open-calls:3}") int halfOpenCalls,
+                           @Value("${app.ai.resilience.max-concurrent-calls:${app.ai.streaming.max-concurrency:64}}") int maxConcurrentCalls,
+                           @Value("${app.ai.streaming.max-concurrency:64}") int streamingConcurrency,
+                           @Value("${app.ai.resilience.max-attempts:2}") int maxAttempts,
+                           @Value("${app.ai.resilience.retry-backoff:PT0.5S}") Duration retryBackoff) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.windowSize = Math.max(windowSize, 1);
+        this.minimumCalls = Math.min(Math.max(minimumCalls, 1), this.windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallNanos = slowCallDuration.toNanos();
+        this.openNanos = openDuration.toNanos();
+        this.halfOpenCalls = Math.max(halfOpenCalls, 1);
+        if (maxConcurrentCalls < streamingConcurrency) {
+            log.warn("Raising app.ai.resilience.max-concurrent-calls from {} to app.ai.streaming.max-concurrency, {}",
+                maxConcurrentCalls, streamingConcurrency);
+        }
+        this.maxConcurrentCalls = Math.max(Math.max(maxConcurrentCalls, streamingConcurrency), 1);
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.retryBackoff = retryBackoff;
+
+        this.retries = Counter.builder("ai.upstream.retries")
+            .description("Blocking model calls retried after a transient failure")
+            .register(meterRegistry);
+        this.fallbacks = Counter.builder("ai.upstream.fallbacks")
+            .description("Model calls handed to the fallback model")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Runs a blocking call, retrying transient failures and falling back to the fallback model. {@code call}
+     * receives the model to use.
+     */
+    public <T> T call(String model, Function<String, T> call, Predicate<RuntimeException> transientFailure) {
+        try {
+            return callWithRetries(model, call, transientFailure);
+        } catch (RuntimeException ex) {
+            String fallback = fallbackFor(model);
+            if (fallback == null) {
+                throw ex;
+            }
+            log.warn("Model {} failed ({}); answering with {}", model, ex.getMessage(), fallback);
+            fallbacks.increment();
+            return callOnce(fallback, call);
+        }
+    }
+
+    /**
+     * Starts a streaming call, falling back to the fallback model if it fails or is rejected and
+     * {@code fallbackAllowed} still holds, typically because nothing was streamed yet. {@code call} receives the
+     * model to use and a callback to run when the first part of the reply arrives, which is what
+     * {@code slow-call-duration} is measured against. Cancelling the returned future cancels the current attempt.
+     */
+    public <T> CompletableFuture<T> callAsync(String model,
+                                              BiFunction<String, Runnable, CompletableFuture<T>> call,
+                                              BooleanSupplier fallbackAllowed) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<T>> current = new AtomicReference<>();
+        result.whenComplete((value, error) -> {
+            CompletableFuture<T> attempt = current.get();
+            if (result.isCancelled() && attempt != null) {
+                attempt.cancel(true);
+            }
+        });
+        attemptAsync(model, call, current, result).whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            String fallback = fallbackFor(model);
+            if (fallback == null || result.isDone() || isCancellation(error) || !fallbackAllowed.getAsBoolean()) {
+                result.completeExceptionally(error);
+                return;
+            }
+            log.warn("Model {} failed ({}); answering with {}", model, unwrap(error).getMessage(), fallback);
+            fallbacks.increment();
+            attemptAsync(fallback, call, current, result).whenComplete((fallbackValue, fallbackError) -> {
+                if (fallbackError == null) {
+                    result.complete(fallbackValue);
+                } else {
+                    result.completeExceptionally(fallbackError);
+                }
+            });
+        });
+        return result;
+    }
+
+    private <T> T callWithRetries(String model, Function<String, T> call, Predicate<RuntimeException> transientFailure) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return callOnce(model, call);
+            } catch (RuntimeException ex) {
+                if (attempt >= maxAttempts || !transientFailure.test(ex)) {
+                    throw ex;
+                }
+                retries.increment();
+                pause(retryBackoff.multipliedBy(attempt));
+            }
+        }
+    }
+
+    private <T> T callOnce(String model, Function<String, T> call) {
+        Permit permit = guard(model).acquire();
+        try {
+            T result = call.apply(model);
+            permit.responded();
+            permit.complete(null);
+            return result;
+        } catch (RuntimeException ex) {
+            permit.complete(ex);
+            throw ex;
+        }
+    }
+
+    private <T> CompletableFuture<T> attemptAsync(String model,
+                                                  BiFunction<String, Runnable, CompletableFuture<T>> call,
+                                                  AtomicReference<CompletableFuture<T>> current,
+                                                  CompletableFuture<T> result) {
+        Permit permit;
+        CompletableFuture<T> attempt;
+        try {
+            permit = guard(model).acquire();
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        try {
+            attempt = call.apply(model, permit::responded);
+        } catch (RuntimeException ex) {
+            permit.complete(ex);
+            return CompletableFuture.failedFuture(ex);
+        }
+        current.set(attempt);
+        if (result.isCancelled()) {
+            attempt.cancel(true);
+        }
+        attempt.whenComplete((value, error) -> permit.complete(error));
+        return attempt;
+    }
+
+    private String fallbackFor(String model) {
+        String fallback = properties.getFallbackModel();
+        return StringUtils.hasText(fallback) && !fallback.equals(model) ? fallback : null;
+    }
+
+    private ModelGuard guard(String model) {
+        return guards.computeIfAbsent(model, ModelGuard::new);
+    }
+
+    private static boolean isCancellation(Throwable error) {
+        return unwrap(error) instanceof CancellationException;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static void pause(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting to retry");
+        }
+    }
+
+    private enum State {
+        CLOSED,
+        HALF_OPEN,
+        OPEN
+    }
+
+    /**
+     * Breaker and bulkhead of one model. Outcomes are kept in a ring of {@code windowSize} calls.
+     */
+    private final class ModelGuard {
+
+        private final String model;
+        private final boolean[] failed = new boolean[windowSize];
+        private final boolean[] slow = new boolean[windowSize];
+        private final Counter circuitOpen;
+        private final Counter bulkheadFull;
+        private int recorded;
+        private int next;
+        private int failures;
+        private int slowCalls;
+        private State state = State.CLOSED;
+        private long openedAt;
+        private int trialsStarted;
+        private int trialsSucceeded;
+        private int inFlight;
+
+        private ModelGuard(String model) {
+            this.model = model;
+            this.circuitOpen = Counter.builder("ai.upstream.rejected")
+                .tag("model", model)
+                .tag("reason", "circuit-open")
+                .register(meterRegistry);
+            this.bulkheadFull = Counter.builder("ai.upstream.rejected")
+                .tag("model", model)
+                .tag("reason", "bulkhead-full")
+                .register(meterRegistry);
+            Gauge.builder("ai.upstream.circuit.state", this, guard -> guard.state().ordinal())
+                .description("Circuit breaker of a model: 0 closed, 1 half open, 2 open")
+                .tag("model", model)
+                .register(meterRegistry);
+        }
+
+        Permit acquire() {
+            boolean trial;
+            synchronized (this) {
+                if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+                    state = State.HALF_OPEN;
+                    trialsStarted = 0;
+                    trialsSucceeded = 0;
+                }
+                if (state == State.OPEN || (state == State.HALF_OPEN && trialsStarted >= halfOpenCalls)) {
+                    circuitOpen.increment();
+                    throw new ServiceUnavailableException(
+                        "The AI model " + model + " is failing. Try again shortly.");
+                }
+                if (inFlight >= maxConcurrentCalls) {
+                    bulkheadFull.increment();
+                    throw new TooManyRequestsException(
+                        "The AI model " + model + " is at capacity. Try again shortly.", Duration.ofSeconds(1));
+                }
+                inFlight++;
+                trial = state == State.HALF_OPEN;
+                if (trial) {
+                    trialsStarted++;
+                }
+            }
+            return new Permit(this, trial);
+        }
+
+        synchronized void record(boolean trial, boolean failure, boolean slowCall) {
+            inFlight--;
+            if (trial) {
+                if (state != State.HALF_OPEN) {
+                    return;
+                }
+                if (failure || slowCall) {
+                    open();
+                } else if (++trialsSucceeded >= halfOpenCalls) {
+                    log.info("Circuit of AI model {} closed again", model);
+                    state = State.CLOSED;
+                    recorded = 0;
+                    next = 0;
+                    failures = 0;
+                    slowCalls = 0;
+                }
+                return;
+            }
+            if (state != State.CLOSED) {
+                return;
+            }
+            if (recorded == windowSize) {
+                failures -= failed[next] ? 1 : 0;
+                slowCalls -= slow[next] ? 1 : 0;
+            } else {
+                recorded++;
+            }
+            failed[next] = failure;
+            slow[next] = slowCall;
+            failures += failure ? 1 : 0;
+            slowCalls += slowCall ? 1 : 0;
+            next = (next + 1) % windowSize;
+
+            if (recorded >= minimumCalls
+                && (failures * 100 >= failureRateThreshold * recorded || slowCalls * 100 >= slowCallRateThreshold * recorded)) {
+                log.warn("Opening the circuit of AI model {}: {} of the last {} calls failed, {} were slow",
+                    model, failures, recorded, slowCalls);
+                open();
+            }
+        }
+
+        synchronized void released(boolean trial) {
+            inFlight--;
+            // Only a trial gives back a trial place; a call admitted while closed never took one.
+            if (trial && state == State.HALF_OPEN) {
+                trialsStarted--;
+            }
+        }
+
+        private void open() {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+        }
+
+        private synchronized State state() {
+            return state;
+        }
+    }
+
+    /**
+     * One admitted call. The outcome is recorded once, when the call completes; a cancelled call only gives back
+     * its place.
+     */
+    private final class Permit {
+
+        private final ModelGuard guard;
+        private final boolean trial;
+        private final long startedAt = System.nanoTime();
+        private volatile long respondedAt;
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        private Permit(ModelGuard guard, boolean trial) {
+            this.guard = guard;
+            this.trial = trial;
+        }
+
+        void responded() {
+            if (respondedAt == 0) {
+                respondedAt = System.nanoTime();
+            }
+        }
+
+        void complete(Throwable error) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            if (error != null && isCancellation(error)) {
+                guard.released(trial);
+                return;
+            }
+            long responseNanos = (respondedAt == 0 ? System.nanoTime() : respondedAt) - startedAt;
+            guard.record(trial, error != null, responseNanos > slowCallNanos);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.produsoft.workflow.service;
+
+/**
+ * Published by {@link AiConversationService} when an assistant reply has been stored, so that
+ * {@link AiConversationCompactor} can summarize the conversation once the reply is committed.
+ */
+public record ConversationTurnCompletedEvent(
+    Long conversationId
+) {}
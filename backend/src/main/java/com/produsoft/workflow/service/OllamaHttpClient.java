@@ -0,0 +1,330 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.config.OllamaClientProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * The one HTTP client all Ollama traffic goes through, blocking and streaming alike, so both share its
+ * connections. It offers {@code app.ai.ollama.http-version}, gives up on connecting after {@code connect-timeout},
+ * on the response headers after {@code first-byte-timeout} and on a streamed reply that goes quiet for
+ * {@code idle-read-timeout}. The JDK sizes its connection pool from system properties shared by every
+ * {@link HttpClient} in the JVM, so the pool is tuned at launch rather than here:
+ * {@code -Djdk.httpclient.connectionPoolSize} caps the idle HTTP/1.1 connections kept ({@code 0}, the default,
+ * keeps all) and {@code -Djdk.httpclient.keepalive.timeout} is how many seconds one is kept. The Docker image sets
+ * both in {@code JAVA_OPTS}.
+ *
+ * <p>Publishes {@code ai.ollama.requests} tagged with the mode ({@code blocking} or {@code streaming}) and outcome
+ * ({@code success}, {@code error}, {@code timeout} or {@code cancelled}), {@code ai.ollama.first.byte} per mode,
+ * and {@code ai.ollama.connections.opened}, counting TLS handshakes; against the request count it shows how often
+ * a connection was reused.
+ */
+@Component
+public class OllamaHttpClient {
+
+    private static final String BLOCKING = "blocking";
+    private static final String STREAMING = "streaming";
+
+    private final HttpClient httpClient;
+    private final Duration firstByteTimeout;
+    private final Duration idleReadTimeout;
+    private final ScheduledExecutorService idleWatchdog;
+    private final MeterRegistry meterRegistry;
+    private final Counter connectionsOpened;
+
+    public OllamaHttpClient(OllamaClientProperties properties, MeterRegistry meterRegistry) {
+        this.firstByteTimeout = properties.getFirstByteTimeout();
+        this.idleReadTimeout = properties.getIdleReadTimeout();
+        this.meterRegistry = meterRegistry;
+        this.connectionsOpened = Counter.builder("ai.ollama.connections.opened")
+            .description("TLS connections opened to Ollama")
+            .register(meterRegistry);
+
+        this.httpClient = HttpClient.newBuilder()
+            .version(properties.getHttpVersion())
+            .connectTimeout(properties.getConnectTimeout())
+            .sslContext(countingSslContext())
+            .build();
+        this.idleWatchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ollama-idle-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Request factory for a {@code RestClient} that sends blocking calls over the shared client. Its read timeout
+     * is the first-byte timeout, which bounds the whole call since a blocking reply arrives in one piece.
+     */
+    public ClientHttpRequestFactory requestFactory() {
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(firstByteTimeout);
+        return requestFactory;
+    }
+
+    /**
+     * Interceptor that records blocking calls in the request and first-byte metrics.
+     */
+    public ClientHttpRequestInterceptor blockingMetrics() {
+        return (request, body, execution) -> {
+            long start = System.nanoTime();
+            try {
+                ClientHttpResponse response = execution.execute(request, body);
+                long elapsed = System.nanoTime() - start;
+                firstByte(BLOCKING).record(elapsed, TimeUnit.NANOSECONDS);
+                requests(BLOCKING, response.getStatusCode().isError() ? "error" : "success")
+                    .record(elapsed, TimeUnit.NANOSECONDS);
+                return response;
+            } catch (IOException | RuntimeException ex) {
+                requests(BLOCKING, outcome(ex)).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                throw ex;
+            }
+        };
+    }
+
+    /**
+     * Sends a request whose reply is read as it streams. The first-byte timeout is applied to the request and
+     * the idle-read timeout to the body: if no data arrives for that long, the body fails with an
+     * {@link HttpTimeoutException} and the connection is dropped. Cancelling the returned future aborts the
+     * exchange.
+     */
+    public <T> CompletableFuture<HttpResponse<T>> sendStreaming(HttpRequest.Builder request,
+                                                                HttpResponse.BodyHandler<T> bodyHandler) {
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<T>> exchange = httpClient.sendAsync(
+            request.timeout(firstByteTimeout).build(),
+            responseInfo -> {
+                firstByte(STREAMING).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                return new IdleTimeoutSubscriber<>(bodyHandler.apply(responseInfo));
+            });
+        exchange.whenComplete((response, error) -> {
+            String outcome;
+            if (exchange.isCancelled()) {
+                outcome = "cancelled";
+            } else if (error != null) {
+                outcome = outcome(error);
+            } else {
+                outcome = response.statusCode() >= 400 ? "error" : "success";
+            }
+            requests(STREAMING, outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        });
+        return exchange;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        idleWatchdog.shutdownNow();
+    }
+
+    private Timer requests(String mode, String outcome) {
+        return Timer.builder("ai.ollama.requests")
+            .description("Calls to Ollama, from sending the request to the end of the reply")
+            .tag("mode", mode)
+            .tag("outcome", outcome)
+            .register(meterRegistry);
+    }
+
+    private Timer firstByte(String mode) {
+        return Timer.builder("ai.ollama.first.byte")
+            .description("Time from sending a request to Ollama to receiving the response headers")
+            .tag("mode", mode)
+            .register(meterRegistry);
+    }
+
+    private static String outcome(Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof CancellationException) {
+            return "cancelled";
+        }
+        // The idle-read timeout reaches here wrapped by the body subscriber.
+        for (Throwable current = cause; current != null; current = current.getCause()) {
+            if (current instanceof HttpTimeoutException) {
+                return "timeout";
+            }
+        }
+        return "error";
+    }
+
+    /**
+     * The JVM's default TLS context, counting the engines it creates: the client creates one per connection.
+     */
+    private SSLContext countingSslContext() {
+        SSLContext delegate;
+        try {
+            delegate = SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("No default TLS context is available", ex);
+        }
+        SSLContextSpi spi = new SSLContextSpi() {
+            @Override
+            protected void engineInit(KeyManager[] keyManagers, TrustManager[] trustManagers, SecureRandom random)
+                throws KeyManagementException {
+                delegate.init(keyManagers, trustManagers, random);
+            }
+
+            @Override
+            protected SSLSocketFactory engineGetSocketFactory() {
+                return delegate.getSocketFactory();
+            }
+
+            @Override
+            protected SSLServerSocketFactory engineGetServerSocketFactory() {
+                return delegate.getServerSocketFactory();
+            }
+
+            @Override
+            protected SSLEngine engineCreateSSLEngine() {
+                connectionsOpened.increment();
+                return delegate.createSSLEngine();
+            }
+
+            @Override
+            protected SSLEngine engineCreateSSLEngine(String host, int port) {
+                connectionsOpened.increment();
+                return delegate.createSSLEngine(host, port);
+            }
+
+            @Override
+            protected SSLSessionContext engineGetServerSessionContext() {
+                return delegate.getServerSessionContext();
+            }
+
+            @Override
+            protected SSLSessionContext engineGetClientSessionContext() {
+                return delegate.getClientSessionContext();
+            }
+
+            @Override
+            protected SSLParameters engineGetDefaultSSLParameters() {
+                return delegate.getDefaultSSLParameters();
+            }
+
+            @Override
+            protected SSLParameters engineGetSupportedSSLParameters() {
+                return delegate.getSupportedSSLParameters();
+            }
+        };
+        return new SSLContext(spi, delegate.getProvider(), delegate.getProtocol()) {
+        };
+    }
+
+    /**
+     * Passes a response body through, failing it once no data has arrived for the idle-read timeout. Signals are
+     * serialized so that a timeout never overlaps a delivery.
+     */
+    private final class IdleTimeoutSubscriber<T> implements HttpResponse.BodySubscriber<T> {
+
+        private final HttpResponse.BodySubscriber<T> delegate;
+        private Flow.Subscription subscription;
+        private ScheduledFuture<?> watch;
+        private volatile long lastActivity = System.nanoTime();
+        private boolean finished;
+
+        private IdleTimeoutSubscriber(HttpResponse.BodySubscriber<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return delegate.getBody();
+        }
+
+        @Override
+        public synchronized void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            long periodNanos = Math.max(idleReadTimeout.toNanos() / 4, TimeUnit.MILLISECONDS.toNanos(100));
+            watch = idleWatchdog.scheduleAtFixedRate(this::checkIdle, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+            delegate.onSubscribe(subscription);
+        }
+
+        @Override
+        public synchronized void onNext(List<ByteBuffer> item) {
+            lastActivity = System.nanoTime();
+            if (!finished) {
+                delegate.onNext(item);
+            }
+        }
+
+        @Override
+        public synchronized void onError(Throwable throwable) {
+            if (finish()) {
+                delegate.onError(throwable);
+            }
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            if (finish()) {
+                delegate.onComplete();
+            }
+        }
+
+        private synchronized void checkIdle() {
+            if (finished) {
+                watch.cancel(false);
+                return;
+            }
+            if (delegate.getBody().toCompletableFuture().isDone()) {
+                // Read to the end already, or given up on by the caller.
+                finish();
+                return;
+            }
+            if (System.nanoTime() - lastActivity < idleReadTimeout.toNanos()) {
+                return;
+            }
+            finish();
+            subscription.cancel();
+            delegate.onError(new HttpTimeoutException("No data from Ollama for " + idleReadTimeout));
+        }
+
+        private boolean finish() {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            if (watch != null) {
+                watch.cancel(false);
+            }
+            return true;
+        }
+    }
+}
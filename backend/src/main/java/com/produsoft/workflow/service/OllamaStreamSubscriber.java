@@ -0,0 +1,217 @@
+package com.produsoft.workflow.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import com.produsoft.workflow.exception.AiClientException;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Reads an Ollama {@code /api/chat} NDJSON stream as it arrives. Response buffers are fed straight into one
+ * non-blocking Jackson parser, which handles chunks that split a line or a UTF-8 sequence, and only
+ * {@code message.content}, {@code done} and {@code error} are picked out of each line; no per-line objects are
+ * built. Each content delta is passed to the consumer on the HTTP client's thread. The body completes with the
+ * whole reply once a line has {@code done: true} or the stream ends; the timings of that line are then available
+ * from {@link #usage()}.
+ */
+class OllamaStreamSubscriber implements HttpResponse.BodySubscriber<String> {
+
+    private final JsonParser parser;
+    private final ByteBufferFeeder feeder;
+    private final Consumer<String> deltaConsumer;
+    private final StringBuilder reply = new StringBuilder();
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+    private Flow.Subscription subscription;
+
+    // Position within the current line: object depth and the field names at depth 1 and 2.
+    private int depth;
+    private String rootField;
+    private String messageField;
+    private boolean done;
+    private long promptEvalCount;
+    private long promptEvalNanos;
+    private long evalCount;
+    private long evalNanos;
+    private long loadNanos;
+    private volatile OllamaUsage usage;
+
+    OllamaStreamSubscriber(JsonFactory jsonFactory, Consumer<String> deltaConsumer) {
+        try {
+            this.parser = jsonFactory.createNonBlockingByteBufferParser();
+        } catch (IOException ex) {
+            throw new AiClientException("Failed to create streaming parser.", ex);
+        }
+        this.feeder = (ByteBufferFeeder) parser.getNonBlockingInputFeeder();
+        this.deltaConsumer = deltaConsumer;
+    }
+
+    @Override
+    public CompletionStage<String> getBody() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        if (result.isDone()) {
+            subscription.request(1);
+            return;
+        }
+        try {
+            for (ByteBuffer buffer : buffers) {
+                feeder.feedInput(buffer);
+                drain();
+                if (result.isDone()) {
+                    break;
+                }
+            }
+        } catch (IOException ex) {
+            fail(new AiClientException("Malformed response from Ollama.", ex));
+            return;
+        } catch (RuntimeException ex) {
+            fail(ex);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (result.isDone()) {
+            return;
+        }
+        closeParser();
+        result.completeExceptionally(new AiClientException("Failed to stream response from Ollama.", throwable));
+    }
+
+    @Override
+    public void onComplete() {
+        if (result.isDone()) {
+            return;
+        }
+        feeder.endOfInput();
+        try {
+            drain();
+        } catch (IOException ex) {
+            // A truncated last line; keep what was received, as a reader that stops at end of stream would.
+        }
+        closeParser();
+        result.complete(reply.toString());
+    }
+
+    /**
+     * The timings reported with the last line, or {@code null} if the stream ended without one.
+     */
+    OllamaUsage usage() {
+        return usage;
+    }
+
+    /**
+     * Stops reading, for example because the client that asked for the reply went away.
+     */
+    void cancel() {
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        result.cancel(false);
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            switch (token) {
+                case START_OBJECT, START_ARRAY -> depth++;
+                case END_OBJECT, END_ARRAY -> {
+                    depth--;
+                    if (depth == 1) {
+                        messageField = null;
+                    } else if (depth == 0) {
+                        rootField = null;
+                        if (done) {
+                            usage = new OllamaUsage(promptEvalCount, promptEvalNanos, evalCount, evalNanos, loadNanos);
+                            closeParser();
+                            result.complete(reply.toString());
+                            return;
+                        }
+                    }
+                }
+                case FIELD_NAME -> {
+                    if (depth == 1) {
+                        rootField = parser.currentName();
+                    } else if (depth == 2 && "message".equals(rootField)) {
+                        messageField = parser.currentName();
+                    }
+                }
+                case VALUE_STRING -> onString();
+                case VALUE_NUMBER_INT -> {
+                    if (depth == 1) {
+                        onNumber(parser.getLongValue());
+                    }
+                }
+                case VALUE_TRUE -> {
+                    if (depth == 1 && "done".equals(rootField)) {
+                        done = true;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    private void onString() throws IOException {
+        if (depth == 2 && "message".equals(rootField) && "content".equals(messageField)) {
+            String delta = parser.getText();
+            if (!delta.isEmpty()) {
+                reply.append(delta);
+                if (deltaConsumer != null) {
+                    deltaConsumer.accept(delta);
+                }
+            }
+        } else if (depth == 1 && "error".equals(rootField)) {
+            String error = parser.getText();
+            if (!error.isBlank()) {
+                throw new AiClientException("Ollama API error: " + error);
+            }
+        }
+    }
+
+    private void onNumber(long value) {
+        switch (rootField) {
+            case "prompt_eval_count" -> promptEvalCount = value;
+            case "prompt_eval_duration" -> promptEvalNanos = value;
+            case "eval_count" -> evalCount = value;
+            case "eval_duration" -> evalNanos = value;
+            case "load_duration" -> loadNanos = value;
+            default -> {
+            }
+        }
+    }
+
+    private void fail(Throwable error) {
+        subscription.cancel();
+        closeParser();
+        result.completeExceptionally(error);
+    }
+
+    private void closeParser() {
+        try {
+            parser.close();
+        } catch (IOException ignored) {
+            // Nothing is held open by a non-blocking parser.
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.produsoft.workflow.service;
+
+/**
+ * The timings Ollama reports with the last chunk of a reply. {@code promptEvalCount} only counts the prompt tokens
+ * that had to be evaluated, so it drops when the start of the prompt was still cached from an earlier request.
+ * Durations are in nanoseconds.
+ */
+record OllamaUsage(long promptEvalCount, long promptEvalNanos, long evalCount, long evalNanos, long loadNanos) {
+}
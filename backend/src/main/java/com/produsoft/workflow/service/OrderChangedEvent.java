@@ -0,0 +1,22 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.domain.Order;
+
+/**
+ * Published by {@link OrderWorkflowService} whenever an order or one of its stages is modified. Listeners that
+ * keep derived state should use {@code @TransactionalEventListener} so they only observe committed changes.
+ * Listeners of concurrent transactions are not called in commit order; {@link #version()} tells which of two
+ * events for an order is the later one.
+ */
+public record OrderChangedEvent(
+    Order order
+) {
+
+    /**
+     * The order's version as committed. It is read from the entity when called, so it is only final once the
+     * transaction has been flushed, as it has by the time an after-commit listener runs.
+     */
+    public Long version() {
+        return order.getVersion();
+    }
+}
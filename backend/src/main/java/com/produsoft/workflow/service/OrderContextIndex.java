@@ -0,0 +1,258 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.datastructure.PriorityQueue;
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.OrderStageStatus;
+import com.produsoft.workflow.domain.StageState;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * In-memory inverted index over the searchable text of every order (order number, notes, current stage, stage
+ * states, assignees, exception reasons and supervisor notes), used to pick the orders that matter to an assistant
+ * question. Orders are ranked with BM25; order numbers and exception reasons weigh more than free-text notes.
+ *
+ * <p>The index is loaded on startup, updated after each committed order change and periodically reloaded to pick
+ * up changes made by other instances. Only terms are held, not order data.
+ */
+@Component
+public class OrderContextIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderContextIndex.class);
+
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}\\p{N}]+(?:[-_./#][\\p{L}\\p{N}]+)*");
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[-_./#]");
+    private static final int MIN_PART_LENGTH = 3;
+    private static final Set<String> STOP_WORDS = Set.of(
+        "a", "about", "all", "an", "and", "any", "are", "as", "at", "be", "by", "can", "do", "does", "for", "from",
+        "give", "has", "have", "how", "i", "in", "is", "it", "list", "many", "me", "my", "of", "on", "or", "order",
+        "orders", "please", "show", "tell", "that", "the", "there", "this", "to", "was", "we", "were", "what",
+        "which", "who", "why", "with");
+
+    private static final float ORDER_NUMBER_WEIGHT = 3f;
+    private static final float EXCEPTION_WEIGHT = 2f;
+    private static final float ASSIGNEE_WEIGHT = 2f;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final OrderWorkflowService orderWorkflowService;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Map<Long, Float>> postings = new HashMap<>();
+    private final Map<Long, Document> documents = new HashMap<>();
+    private double totalLength;
+
+    public OrderContextIndex(OrderWorkflowService orderWorkflowService) {
+        this.orderWorkflowService = orderWorkflowService;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        reload();
+        log.info("Order context index loaded: {} orders, {} terms", size(), termCount());
+    }
+
+    /**
+     * Re-reads every order. An order changed while the reload runs keeps whichever copy was updated last.
+     */
+    @Scheduled(fixedDelayString = "${app.ai.context.index-reload-interval:PT10M}",
+        initialDelayString = "${app.ai.context.index-reload-interval:PT10M}")
+    public void reload() {
+        orderWorkflowService.streamOrders(null, null, this::index);
+    }
+
+    @TransactionalEventListener
+    public void onOrderChanged(OrderChangedEvent event) {
+        index(event.order());
+    }
+
+    /**
+     * Returns the ids of up to {@code limit} orders matching the text, best match first, or an empty list if no
+     * order shares a searchable term with it.
+     */
+    public List<Long> search(String text, int limit) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(text));
+        terms.removeAll(STOP_WORDS);
+        if (terms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        Map<Long, Double> scores = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            int documentCount = documents.size();
+            if (documentCount == 0) {
+                return List.of();
+            }
+            double averageLength = totalLength / documentCount;
+            for (String term : terms) {
+                Map<Long, Float> termPostings = postings.get(term);
+                if (termPostings == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (documentCount - termPostings.size() + 0.5) / (termPostings.size() + 0.5));
+                for (Map.Entry<Long, Float> posting : termPostings.entrySet()) {
+                    double frequency = posting.getValue();
+                    double length = documents.get(posting.getKey()).length();
+                    double score = idf * frequency * (K1 + 1)
+                        / (frequency + K1 * (1 - B + B * length / averageLength));
+                    scores.merge(posting.getKey(), score, Double::sum);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        PriorityQueue<ScoredOrder> best = new PriorityQueue<>();
+        for (Map.Entry<Long, Double> entry : scores.entrySet()) {
+            best.offer(new ScoredOrder(entry.getKey(), entry.getValue()));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        List<Long> ranked = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            ranked.add(best.poll().orderId());
+        }
+        Collections.reverse(ranked);
+        return ranked;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int termCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void index(Order order) {
+        Map<String, Float> terms = new HashMap<>();
+        addTerms(terms, order.getOrderNumber(), ORDER_NUMBER_WEIGHT);
+        addTerms(terms, order.getNotes(), 1f);
+        if (order.getCurrentStage() != null) {
+            addTerms(terms, order.getCurrentStage().name(), 1f);
+        }
+        if (order.getOverallState() != null) {
+            addTerms(terms, order.getOverallState().name(), 1f);
+        }
+        for (OrderStageStatus status : order.getStages()) {
+            if (status.getState() != StageState.BLOCKED && status.getState() != StageState.PENDING) {
+                addTerms(terms, status.getStage().name(), 1f);
+                addTerms(terms, status.getState().name(), 1f);
+            }
+            addTerms(terms, status.getAssignee(), ASSIGNEE_WEIGHT);
+            addTerms(terms, status.getExceptionReason(), EXCEPTION_WEIGHT);
+            addTerms(terms, status.getSupervisorNotes(), 1f);
+            addTerms(terms, status.getNotes(), 1f);
+            addTerms(terms, status.getApprovedBy(), 1f);
+        }
+        float length = 0;
+        for (float frequency : terms.values()) {
+            length += frequency;
+        }
+
+        lock.writeLock().lock();
+        try {
+            Document existing = documents.get(order.getId());
+            if (existing != null) {
+                if (isOlder(order.getUpdatedAt(), existing.updatedAt())) {
+                    return;
+                }
+                remove(order.getId(), existing);
+            }
+            Document document = new Document(order.getUpdatedAt(), List.copyOf(terms.keySet()), length);
+            documents.put(order.getId(), document);
+            terms.forEach((term, frequency) -> postings.computeIfAbsent(term, key -> new HashMap<>()).put(order.getId(), frequency));
+            totalLength += length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void remove(Long orderId, Document document) {
+        for (String term : document.terms()) {
+            Map<Long, Float> termPostings = postings.get(term);
+            if (termPostings != null) {
+                termPostings.remove(orderId);
+                if (termPostings.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+        documents.remove(orderId);
+        totalLength -= document.length();
+    }
+
+    private static boolean isOlder(Instant candidate, Instant current) {
+        return candidate != null && current != null && candidate.isBefore(current);
+    }
+
+    private static void addTerms(Map<String, Float> terms, String text, float weight) {
+        for (String term : tokenize(text)) {
+            terms.merge(term, weight, Float::sum);
+        }
+    }
+
+    /**
+     * Splits text into lower-case terms. Compound tokens such as {@code PO-4711} or {@code in_progress} are kept
+     * whole and also split into their parts, so both {@code po-4711} and {@code 4711} match. Very short parts
+     * such as {@code po} are dropped, since they would match nearly every order.
+     */
+    static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        List<String> tokens = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(text.toLowerCase(Locale.ROOT));
+        while (matcher.find()) {
+            String token = matcher.group();
+            tokens.add(token);
+            if (TOKEN_SEPARATOR.matcher(token).find()) {
+                for (String part : TOKEN_SEPARATOR.split(token)) {
+                    if (part.length() >= MIN_PART_LENGTH) {
+                        tokens.add(part);
+                    }
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private record Document(Instant updatedAt, List<String> terms, float length) {}
+
+    private record ScoredOrder(Long orderId, double score) implements Comparable<ScoredOrder> {
+
+        @Override
+        public int compareTo(ScoredOrder other) {
+            int byScore = Double.compare(score, other.score);
+            return byScore != 0 ? byScore : Long.compare(orderId, other.orderId);
+        }
+    }
+}
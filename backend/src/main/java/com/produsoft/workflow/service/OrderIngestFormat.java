@@ -0,0 +1,26 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.exception.InvalidStageActionException;
+import org.springframework.http.MediaType;
+
+/**
+ * Upload formats accepted by the bulk order endpoint. NDJSON lines use the {@code CreateOrderRequest} fields;
+ * CSV lines are {@code orderNumber,priority,notes} with an optional header row.
+ */
+public enum OrderIngestFormat {
+    NDJSON,
+    CSV;
+
+    public static final String NDJSON_VALUE = "application/x-ndjson";
+    public static final String CSV_VALUE = "text/csv";
+
+    public static OrderIngestFormat of(MediaType contentType) {
+        if (contentType != null && contentType.isCompatibleWith(MediaType.parseMediaType(CSV_VALUE))) {
+            return CSV;
+        }
+        if (contentType != null && contentType.isCompatibleWith(MediaType.parseMediaType(NDJSON_VALUE))) {
+            return NDJSON;
+        }
+        throw new InvalidStageActionException("Unsupported upload format: " + contentType);
+    }
+}
@@ -0,0 +1,276 @@
+package com.produsoft.workflow.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.dto.BulkOrderIngestResponse;
+import com.produsoft.workflow.dto.BulkOrderLineResult;
+import com.produsoft.workflow.dto.CreateOrderRequest;
+import com.produsoft.workflow.exception.InvalidStageActionException;
+import com.produsoft.workflow.journal.StageTransitionJournal;
+import com.produsoft.workflow.repository.OrderRepository;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Creates orders from an NDJSON or CSV upload. Lines are read lazily and processed in chunks: each chunk checks
+ * order-number uniqueness with one query and is inserted in its own transaction, so Hibernate can send the order
+ * and stage rows as JDBC batches and a bad chunk does not undo the ones before it.
+ */
+@Service
+public class OrderIngestService {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderIngestService.class);
+
+    private final OrderRepository orderRepository;
+    private final OrderWorkflowService orderWorkflowService;
+    private final WipCounterService wipCounterService;
+    private final StageTransitionJournal stageTransitionJournal;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+
+    public OrderIngestService(OrderRepository orderRepository,
+                              OrderWorkflowService orderWorkflowService,
+                              WipCounterService wipCounterService,
+                              StageTransitionJournal stageTransitionJournal,
+                              ApplicationEventPublisher eventPublisher,
+                              ObjectMapper objectMapper,
+                              Validator validator,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${app.workflow.ingest.chunk-size:500}") int chunkSize) {
+        this.orderRepository = orderRepository;
+        this.orderWorkflowService = orderWorkflowService;
+        this.wipCounterService = wipCounterService;
+        this.stageTransitionJournal = stageTransitionJournal;
+        this.eventPublisher = eventPublisher;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = Math.max(chunkSize, 1);
+    }
+
+    public BulkOrderIngestResponse ingest(Reader source, OrderIngestFormat format) throws IOException {
+        BufferedReader reader = source instanceof BufferedReader buffered ? buffered : new BufferedReader(source);
+        List<BulkOrderLineResult> results = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        List<ParsedLine> chunk = new ArrayList<>(chunkSize);
+        int lineNumber = 0;
+        boolean firstRecord = true;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            if (firstRecord && format == OrderIngestFormat.CSV && isCsvHeader(line)) {
+                firstRecord = false;
+                continue;
+            }
+            firstRecord = false;
+            chunk.add(parse(lineNumber, line, format));
+            if (chunk.size() >= chunkSize) {
+                processChunk(chunk, seen, results);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            processChunk(chunk, seen, results);
+        }
+
+        int created = (int) results.stream().filter(result -> BulkOrderLineResult.CREATED.equals(result.status())).count();
+        return new BulkOrderIngestResponse(results.size(), created, results.size() - created, results);
+    }
+
+    private void processChunk(List<ParsedLine> chunk, Set<String> seen, List<BulkOrderLineResult> results) {
+        Set<String> existing = new HashSet<>(orderRepository.findExistingOrderNumbers(chunk.stream()
+            .filter(parsed -> parsed.error() == null)
+            .map(parsed -> parsed.request().orderNumber())
+            .collect(Collectors.toSet())));
+
+        List<BulkOrderLineResult> chunkResults = new ArrayList<>(chunk.size());
+        List<ParsedLine> accepted = new ArrayList<>();
+        for (ParsedLine parsed : chunk) {
+            if (parsed.error() != null) {
+                chunkResults.add(BulkOrderLineResult.rejected(parsed.line(), parsed.orderNumber(), parsed.error()));
+            } else if (existing.contains(parsed.request().orderNumber())) {
+                chunkResults.add(BulkOrderLineResult.rejected(parsed.line(), parsed.orderNumber(),
+                    "Order number already exists: " + parsed.orderNumber()));
+            } else if (!seen.add(parsed.request().orderNumber())) {
+                chunkResults.add(BulkOrderLineResult.rejected(parsed.line(), parsed.orderNumber(),
+                    "Order number repeated in upload: " + parsed.orderNumber()));
+            } else {
+                accepted.add(parsed);
+                chunkResults.add(null);
+            }
+        }
+
+        List<Order> orders;
+        try {
+            orders = insert(accepted);
+        } catch (DataIntegrityViolationException ex) {
+            // Usually an order created concurrently through the API; retry line by line to report which one.
+            log.warn("Bulk insert of {} orders failed, retrying individually: {}", accepted.size(), ex.getMostSpecificCause().getMessage());
+            orders = null;
+        }
+
+        int next = 0;
+        for (int i = 0; i < chunkResults.size(); i++) {
+            if (chunkResults.get(i) != null) {
+                continue;
+            }
+            ParsedLine parsed = accepted.get(next);
+            chunkResults.set(i, orders != null
+                ? BulkOrderLineResult.created(parsed.line(), parsed.orderNumber(), orders.get(next).getId())
+                : createSingle(parsed));
+            next++;
+        }
+        results.addAll(chunkResults);
+    }
+
+    private List<Order> insert(List<ParsedLine> accepted) {
+        if (accepted.isEmpty()) {
+            return List.of();
+        }
+        return transactionTemplate.execute(status -> {
+            Instant now = Instant.now();
+            List<Order> orders = accepted.stream()
+                .map(parsed -> OrderWorkflowService.newOrder(parsed.request(), now))
+                .toList();
+            List<Order> saved = orderRepository.saveAll(orders);
+            orderRepository.flush();
+
+            WipCounterService.Delta delta = new WipCounterService.Delta();
+            for (Order order : saved) {
+                delta.add(OrderStateSnapshot.EMPTY, OrderStateSnapshot.of(order));
+                eventPublisher.publishEvent(new OrderChangedEvent(order));
+            }
+            wipCounterService.apply(delta);
+            stageTransitionJournal.recordCreated(saved);
+            return saved;
+        });
+    }
+
+    private BulkOrderLineResult createSingle(ParsedLine parsed) {
+        try {
+            Order order = orderWorkflowService.createOrder(parsed.request());
+            return BulkOrderLineResult.created(parsed.line(), parsed.orderNumber(), order.getId());
+        } catch (InvalidStageActionException ex) {
+            return BulkOrderLineResult.rejected(parsed.line(), parsed.orderNumber(), ex.getMessage());
+        } catch (DataIntegrityViolationException ex) {
+            return BulkOrderLineResult.rejected(parsed.line(), parsed.orderNumber(), "Order could not be stored");
+        }
+    }
+
+    private ParsedLine parse(int lineNumber, String line, OrderIngestFormat format) {
+        CreateOrderRequest request;
+        try {
+            request = format == OrderIngestFormat.CSV
+                ? parseCsv(line)
+                : objectMapper.readValue(line, CreateOrderRequest.class);
+        } catch (JsonProcessingException ex) {
+            return ParsedLine.error(lineNumber, null, "Malformed JSON: " + ex.getOriginalMessage());
+        } catch (IllegalArgumentException ex) {
+            return ParsedLine.error(lineNumber, null, ex.getMessage());
+        }
+        if (request == null) {
+            return ParsedLine.error(lineNumber, null, "Empty record");
+        }
+        Set<ConstraintViolation<CreateOrderRequest>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            String message = violations.stream()
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .collect(Collectors.joining("; "));
+            return ParsedLine.error(lineNumber, request.orderNumber(), message);
+        }
+        return new ParsedLine(lineNumber, request, null);
+    }
+
+    private CreateOrderRequest parseCsv(String line) {
+        List<String> fields = splitCsv(line);
+        if (fields.size() > 3) {
+            throw new IllegalArgumentException("Expected at most 3 columns (orderNumber,priority,notes)");
+        }
+        String orderNumber = fields.get(0).trim();
+        String priority = fields.size() > 1 ? fields.get(1).trim() : "";
+        String notes = fields.size() > 2 ? fields.get(2) : null;
+        Integer parsedPriority;
+        try {
+            parsedPriority = priority.isEmpty() ? null : Integer.valueOf(priority);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid priority: " + priority);
+        }
+        return new CreateOrderRequest(orderNumber, parsedPriority, notes == null || notes.isEmpty() ? null : notes);
+    }
+
+    private boolean isCsvHeader(String line) {
+        String first = splitCsv(line).get(0).trim();
+        return first.equalsIgnoreCase("orderNumber") || first.equalsIgnoreCase("order_number");
+    }
+
+    /**
+     * Splits one CSV record. Fields may be quoted, with {@code ""} as an escaped quote; quoted fields cannot span
+     * lines.
+     */
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private record ParsedLine(int line, CreateOrderRequest request, String error) {
+
+        static ParsedLine error(int line, String orderNumber, String error) {
+            return new ParsedLine(line, orderNumber == null ? null : new CreateOrderRequest(orderNumber, null, null), error);
+        }
+
+        String orderNumber() {
+            return request == null ? null : request.orderNumber();
+        }
+    }
+}
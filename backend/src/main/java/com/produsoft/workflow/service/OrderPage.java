@@ -0,0 +1,9 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.domain.Order;
+import java.util.List;
+
+/**
+ * One page of the order listing. {@code nextCursor} is null on the last page.
+ */
+public record OrderPage(List<Order> orders, String nextCursor) {}
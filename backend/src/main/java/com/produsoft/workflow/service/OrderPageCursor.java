@@ -0,0 +1,37 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.exception.InvalidStageActionException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * Position of the last order on a page in the listing order (priority descending, then oldest, then id). Clients
+ * receive it as an opaque URL-safe token and pass it back to fetch the next page.
+ */
+public record OrderPageCursor(int priority, Instant createdAt, Long id) {
+
+    public static OrderPageCursor after(Order order) {
+        return new OrderPageCursor(Optional.ofNullable(order.getPriority()).orElse(0), order.getCreatedAt(), order.getId());
+    }
+
+    public static OrderPageCursor decode(String token) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\|", -1);
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Expected three cursor fields");
+            }
+            return new OrderPageCursor(Integer.parseInt(parts[0]), Instant.parse(parts[1]), Long.parseLong(parts[2]));
+        } catch (IllegalArgumentException | DateTimeParseException ex) {
+            throw new InvalidStageActionException("Invalid page cursor: " + token);
+        }
+    }
+
+    public String encode() {
+        String raw = priority + "|" + createdAt + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,35 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.OrderStageStatus;
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Immutable copy of an order's overall state and per-stage states, taken before a transition so the
+ * change can be diffed against the entity afterwards.
+ */
+public record OrderStateSnapshot(
+    StageState overallState,
+    Map<StageType, StageState> stageStates
+) {
+
+    public static final OrderStateSnapshot EMPTY = new OrderStateSnapshot(null, Map.of());
+
+    public static OrderStateSnapshot of(Order order) {
+        Map<StageType, StageState> states = new EnumMap<>(StageType.class);
+        for (OrderStageStatus status : order.getStages()) {
+            if (status.getStage() != null && status.getState() != null) {
+                states.put(status.getStage(), status.getState());
+            }
+        }
+        return new OrderStateSnapshot(order.getOverallState(), Collections.unmodifiableMap(states));
+    }
+
+    public StageState stateOf(StageType stage) {
+        return stageStates.get(stage);
+    }
+}
@@ -10,23 +10,29 @@ import com.produsoft.workflow.dto.UpdateChecklistItemRequest;
 import com.produsoft.workflow.dto.CreateOrderRequest;
 import com.produsoft.workflow.dto.FlagStageExceptionRequest;
 import com.produsoft.workflow.dto.ReprioritizeOrderRequest;
-import com.produsoft.workflow.dto.StageSummaryResponse;
 import com.produsoft.workflow.dto.SupervisorDecisionRequest;
 import com.produsoft.workflow.dto.WipSummaryResponse;
 import com.produsoft.workflow.exception.InvalidStageActionException;
 import com.produsoft.workflow.exception.NotFoundException;
+import com.produsoft.workflow.journal.StageTransitionJournal;
 import com.produsoft.workflow.repository.OrderRepository;
 import com.produsoft.workflow.repository.OrderStageStatusRepository;
+import com.produsoft.workflow.repository.OrderStreamRepository;
 import jakarta.transaction.Transactional;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
@@ -34,16 +40,36 @@ import org.springframework.stereotype.Service;
 @Transactional
 public class OrderWorkflowService {
 
+    public static final List<StageState> DEFAULT_QUEUE_STATES =
+        List.of(StageState.PENDING, StageState.REWORK, StageState.IN_PROGRESS);
+
+    private static final List<StageState> CLAIMABLE_STATES = List.of(StageState.PENDING, StageState.REWORK);
+
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+
     private final OrderRepository orderRepository;
     private final OrderStageStatusRepository stageStatusRepository;
+    private final OrderStreamRepository orderStreamRepository;
     private final StageChecklistService stageChecklistService;
+    private final WipCounterService wipCounterService;
+    private final StageTransitionJournal stageTransitionJournal;
+    private final ApplicationEventPublisher eventPublisher;
 
     public OrderWorkflowService(OrderRepository orderRepository,
                                 OrderStageStatusRepository stageStatusRepository,
-                                StageChecklistService stageChecklistService) {
+                                OrderStreamRepository orderStreamRepository,
+                                StageChecklistService stageChecklistService,
+                                WipCounterService wipCounterService,
+                                StageTransitionJournal stageTransitionJournal,
+                                ApplicationEventPublisher eventPublisher) {
         this.orderRepository = orderRepository;
         this.stageStatusRepository = stageStatusRepository;
+        this.orderStreamRepository = orderStreamRepository;
         this.stageChecklistService = stageChecklistService;
+        this.wipCounterService = wipCounterService;
+        this.stageTransitionJournal = stageTransitionJournal;
+        this.eventPublisher = eventPublisher;
     }
 
     public Order createOrder(CreateOrderRequest request) {
@@ -52,7 +78,15 @@ public class OrderWorkflowService {
                 throw new InvalidStageActionException("Order number already exists: " + request.orderNumber());
             });
 
-        Instant now = Instant.now();
+        Order saved = orderRepository.save(newOrder(request, Instant.now()));
+        recordTransition(OrderStateSnapshot.EMPTY, saved);
+        return saved;
+    }
+
+    /**
+     * Builds a new, unsaved order waiting at the first stage with all later stages blocked.
+     */
+    static Order newOrder(CreateOrderRequest request, Instant now) {
         Order order = new Order();
         order.setOrderNumber(request.orderNumber());
         order.setPriority(request.priority());
@@ -75,13 +109,59 @@ public class OrderWorkflowService {
         }
 
         order.getStages().sort(Comparator.comparingInt(s -> s.getStage().ordinal()));
-        return orderRepository.save(order);
+        return order;
     }
 
     public List<Order> findAllOrders() {
         return orderRepository.findAll(Sort.by(Sort.Order.desc("priority"), Sort.Order.asc("createdAt")));
     }
 
+    public boolean hasOrders() {
+        return !orderRepository.findFirstPageIds(null, null, Limit.of(1)).isEmpty();
+    }
+
+    /**
+     * Returns the page of orders that follows {@code cursor} in listing order. Only the ids are selected, with the
+     * cursor as a row-value comparison on the key of {@code idx_orders_listing_keyset}, so on PostgreSQL each page
+     * is an index range scan however deep the client has paged.
+     */
+    public OrderPage findOrderPage(String cursor, Integer limit, StageState overallState, StageType currentStage) {
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        Limit fetchLimit = Limit.of(pageSize + 1);
+        List<Long> ids;
+        if (cursor == null || cursor.isBlank()) {
+            ids = orderRepository.findFirstPageIds(overallState, currentStage, fetchLimit);
+        } else {
+            OrderPageCursor position = OrderPageCursor.decode(cursor);
+            ids = orderRepository.findPageIdsAfter(overallState, currentStage,
+                -position.priority(), position.createdAt(), position.id(), fetchLimit);
+        }
+        boolean hasMore = ids.size() > pageSize;
+        List<Long> pageIds = hasMore ? ids.subList(0, pageSize) : ids;
+        if (pageIds.isEmpty()) {
+            return new OrderPage(List.of(), null);
+        }
+
+        Map<Long, Order> byId = orderRepository.findAllWithStagesByIdIn(pageIds).stream()
+            .collect(Collectors.toMap(Order::getId, Function.identity()));
+        List<Order> orders = pageIds.stream()
+            .map(byId::get)
+            .filter(Objects::nonNull)
+            .toList();
+        String nextCursor = hasMore && !orders.isEmpty()
+            ? OrderPageCursor.after(orders.get(orders.size() - 1)).encode()
+            : null;
+        return new OrderPage(orders, nextCursor);
+    }
+
+    /**
+     * Passes every matching order, in listing order, to the consumer while the rows are read from the database.
+     * The orders are detached copies and must not be modified.
+     */
+    public void streamOrders(StageState overallState, StageType currentStage, Consumer<Order> consumer) {
+        orderStreamRepository.streamOrders(overallState, currentStage, consumer);
+    }
+
     public Order findOrder(Long id) {
         return orderRepository.findById(id)
             .orElseThrow(() -> new NotFoundException("Order not found: " + id));
@@ -89,22 +169,40 @@ public class OrderWorkflowService {
 
     public List<OrderStageStatus> fetchQueue(StageType stage, List<StageState> states) {
         List<StageState> effectiveStates = (states == null || states.isEmpty())
-            ? List.of(StageState.PENDING, StageState.REWORK, StageState.IN_PROGRESS)
+            ? DEFAULT_QUEUE_STATES
             : states;
         return stageStatusRepository.findQueueByStageAndStates(stage, effectiveStates);
     }
 
     public OrderStageStatus claimStage(Long orderId, StageType stage, String assignee) {
         OrderStageStatus status = getStageStatus(orderId, stage);
-        if (!(status.getState() == StageState.PENDING || status.getState() == StageState.REWORK)) {
+        if (!CLAIMABLE_STATES.contains(status.getState())) {
             throw new InvalidStageActionException("Stage is not available to claim: " + stage);
         }
-        status.markInProgress(assignee);
-        status.setChecklistState(stageChecklistService.initializeState(stage));
+        return applyClaim(status, assignee);
+    }
+
+    public OrderStageStatus claimNext(StageType stage, String assignee) {
+        OrderStageStatus status = stageStatusRepository.lockNextClaimable(stage, CLAIMABLE_STATES, Limit.of(1)).stream()
+            .findFirst()
+            .orElseThrow(() -> new NotFoundException("No claimable orders for stage " + stage));
+        if (!CLAIMABLE_STATES.contains(status.getState())) {
+            // Without SKIP LOCKED the query waits for a competing claim and may hand back the row it just took.
+            throw new OptimisticLockingFailureException("Stage was claimed concurrently: " + stage);
+        }
+        return applyClaim(status, assignee);
+    }
+
+    private OrderStageStatus applyClaim(OrderStageStatus status, String assignee) {
+        StageType stage = status.getStage();
         Order order = status.getOrder();
+        OrderStateSnapshot before = OrderStateSnapshot.of(order);
+        status.markInProgress(assignee);
+        status.setChecklistMask(stageChecklistService.initializeState(stage));
         order.setCurrentStage(stage);
         order.touch();
         order.setOverallState(StageState.IN_PROGRESS);
+        recordTransition(before, order);
         return status;
     }
 
@@ -113,14 +211,16 @@ public class OrderWorkflowService {
         if (status.getState() != StageState.IN_PROGRESS) {
             throw new InvalidStageActionException("Stage must be in progress to complete: " + stage);
         }
-        if (!stageChecklistService.isChecklistComplete(stage, status.getChecklistState())) {
+        if (!stageChecklistService.isChecklistComplete(stage, status.getChecklistMask())) {
             throw new InvalidStageActionException("All required checklist tasks must be completed before closing stage: " + stage);
         }
+        Order order = status.getOrder();
+        OrderStateSnapshot before = OrderStateSnapshot.of(order);
         status.setAssignee(request.assignee());
         status.markCompleted(request.serviceTimeMinutes(), request.notes());
-        Order order = status.getOrder();
         order.touch();
         advanceToNextStage(order, stage);
+        recordTransition(before, order);
         return status;
     }
 
@@ -130,16 +230,17 @@ public class OrderWorkflowService {
             throw new InvalidStageActionException("Checklist can only be updated while stage is in progress: " + stage);
         }
         try {
-            var currentState = status.hasChecklistState()
-                ? status.getChecklistState()
+            long currentState = status.hasChecklistState()
+                ? status.getChecklistMask()
                 : stageChecklistService.initializeState(stage);
-            status.setChecklistState(stageChecklistService.updateTask(stage, currentState, request.taskId(), request.completed()));
+            status.setChecklistMask(stageChecklistService.updateTask(stage, currentState, request.taskId(), request.completed()));
         } catch (IllegalArgumentException ex) {
             throw new InvalidStageActionException(ex.getMessage());
         }
         status.setUpdatedAt(Instant.now());
         Order order = status.getOrder();
         order.touch();
+        eventPublisher.publishEvent(new OrderChangedEvent(order));
         return status;
     }
 
@@ -149,11 +250,13 @@ public class OrderWorkflowService {
         if (!allowed.contains(status.getState())) {
             throw new InvalidStageActionException("Cannot flag exception for stage in state " + status.getState());
         }
+        Order order = status.getOrder();
+        OrderStateSnapshot before = OrderStateSnapshot.of(order);
         status.setAssignee(request.assignee());
         status.markException(request.exceptionReason(), request.notes());
-        Order order = status.getOrder();
         order.setOverallState(StageState.EXCEPTION);
         order.touch();
+        recordTransition(before, order);
         return status;
     }
 
@@ -162,10 +265,12 @@ public class OrderWorkflowService {
         if (status.getState() != StageState.EXCEPTION && status.getState() != StageState.PENDING) {
             throw new InvalidStageActionException("Only exception or pending stages can be skipped");
         }
-        status.markSkipped(request.notes(), request.approver());
         Order order = status.getOrder();
+        OrderStateSnapshot before = OrderStateSnapshot.of(order);
+        status.markSkipped(request.notes(), request.approver());
         order.touch();
         advanceToNextStage(order, stage);
+        recordTransition(before, order);
         return status;
     }
 
@@ -174,12 +279,14 @@ public class OrderWorkflowService {
         if (status.getState() != StageState.COMPLETED && status.getState() != StageState.EXCEPTION) {
             throw new InvalidStageActionException("Rework can only be requested on completed or exception stages");
         }
-        status.markRework(request.notes(), request.approver());
         Order order = status.getOrder();
+        OrderStateSnapshot before = OrderStateSnapshot.of(order);
+        status.markRework(request.notes(), request.approver());
         resetDownstreamStages(order, stage);
         order.setCurrentStage(stage);
         order.setOverallState(StageState.IN_PROGRESS);
         order.touch();
+        recordTransition(before, order);
         return status;
     }
 
@@ -187,6 +294,7 @@ public class OrderWorkflowService {
         Order order = findOrder(orderId);
         order.setPriority(request.priority());
         order.touch();
+        eventPublisher.publishEvent(new OrderChangedEvent(order));
         return order;
     }
 
@@ -212,42 +320,7 @@ public class OrderWorkflowService {
     }
 
     public WipSummaryResponse buildWipSummary() {
-        List<Order> orders = orderRepository.findAll();
-        long total = orders.size();
-        long completedOrders = orders.stream()
-            .filter(order -> order.getOverallState() == StageState.COMPLETED)
-            .count();
-        long exceptionOrders = orders.stream()
-            .filter(order -> order.getOverallState() == StageState.EXCEPTION)
-            .count();
-
-        List<StageSummaryResponse> stageSummaries = Arrays.stream(StageType.values())
-            .map(stage -> {
-                long pending = orders.stream()
-                    .map(order -> order.getStageStatus(stage).orElse(null))
-                    .filter(Objects::nonNull)
-                    .filter(status -> status.getState() == StageState.PENDING || status.getState() == StageState.REWORK)
-                    .count();
-                long inProgress = orders.stream()
-                    .map(order -> order.getStageStatus(stage).orElse(null))
-                    .filter(Objects::nonNull)
-                    .filter(status -> status.getState() == StageState.IN_PROGRESS)
-                    .count();
-                long exceptions = orders.stream()
-                    .map(order -> order.getStageStatus(stage).orElse(null))
-                    .filter(Objects::nonNull)
-                    .filter(status -> status.getState() == StageState.EXCEPTION)
-                    .count();
-                long stageCompleted = orders.stream()
-                    .map(order -> order.getStageStatus(stage).orElse(null))
-                    .filter(Objects::nonNull)
-                    .filter(status -> status.getState() == StageState.COMPLETED || status.getState() == StageState.SKIPPED)
-                    .count();
-                return new StageSummaryResponse(stage, pending, inProgress, exceptions, stageCompleted);
-            })
-            .collect(Collectors.toList());
-
-        return new WipSummaryResponse(total, completedOrders, exceptionOrders, stageSummaries);
+        return wipCounterService.buildSummary();
     }
 
     private void updateOrderState(Order order) {
@@ -288,6 +361,12 @@ public class OrderWorkflowService {
         }
     }
 
+    private void recordTransition(OrderStateSnapshot before, Order order) {
+        wipCounterService.recordTransition(before, order);
+        stageTransitionJournal.record(before, order);
+        eventPublisher.publishEvent(new OrderChangedEvent(order));
+    }
+
     private OrderStageStatus getStageStatus(Long orderId, StageType stage) {
         return stageStatusRepository.findByOrderIdAndStage(orderId, stage)
             .orElseThrow(() -> new NotFoundException("Stage status not found for order %d and stage %s".formatted(orderId, stage)));
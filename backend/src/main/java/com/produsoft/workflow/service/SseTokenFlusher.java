@@ -0,0 +1,405 @@
+package com.produsoft.workflow.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Writes streamed assistant tokens to SSE clients in batches. Deltas of a stream are buffered and sent as one
+ * {@code token} event once {@code app.ai.streaming.flush-interval} has passed since the first of them or
+ * {@code flush-max-chars} have been buffered, so each event and socket flush carries many tokens. Sends run on
+ * up to {@code flush-threads} threads of their own, started as needed, so a slow client no longer holds up the
+ * thread reading the model's reply or the other clients. While a send is in progress deltas keep accumulating; once
+ * more than {@code max-backlog-chars} are waiting, {@code slow-client-policy} decides: {@code drop} stops sending
+ * tokens to that client, which still gets the full reply in the closing event, and {@code close} ends its stream
+ * with an error. A client whose current write has taken longer than {@code send-timeout}, or that finds every send
+ * thread busy, is dropped as well; its stream is closed once the blocked write returns.
+ *
+ * <p>Publishes {@code ai.stream.flushes} and {@code ai.stream.flush.bytes} per send,
+ * {@code ai.stream.flushes.per.stream} and {@code ai.stream.bytes.per.stream} per finished stream, an
+ * {@code ai.stream.slow.clients} counter tagged with the action taken and an {@code ai.stream.send.timeouts}
+ * counter.
+ */
+@Component
+public class SseTokenFlusher {
+
+    private static final Logger log = LoggerFactory.getLogger(SseTokenFlusher.class);
+
+    public enum SlowClientPolicy {
+        DROP,
+        CLOSE
+    }
+
+    private final long flushIntervalNanos;
+    private final int flushMaxChars;
+    private final int maxBacklogChars;
+    private final SlowClientPolicy slowClientPolicy;
+    private final long sendTimeoutNanos;
+    private final ScheduledThreadPoolExecutor timer;
+    private final ThreadPoolExecutor sendExecutor;
+
+    private final Counter flushes;
+    private final DistributionSummary flushBytes;
+    private final DistributionSummary flushesPerStream;
+    private final DistributionSummary bytesPerStream;
+    private final Counter slowClients;
+    private final Counter sendTimeouts;
+
+    public SseTokenFlusher(@Value("${app.ai.streaming.flush-interval:PT0.05S}") Duration flushInterval,
+                           @Value("${app.ai.streaming.flush-max-chars:512}") int flushMaxChars,
+                           @Value("${app.ai.streaming.max-backlog-chars:16384}") int maxBacklogChars,
+                           @Value("${app.ai.streaming.slow-client-policy:drop}") String slowClientPolicy,
+                           @Value("${app.ai.streaming.flush-threads:128}") int flushThreads,
+                           @Value("${app.ai.streaming.send-timeout:PT10S}") Duration sendTimeout,
+                           MeterRegistry meterRegistry) {
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.flushMaxChars = Math.max(flushMaxChars, 1);
+        this.maxBacklogChars = Math.max(maxBacklogChars, this.flushMaxChars);
+        this.slowClientPolicy = SlowClientPolicy.valueOf(slowClientPolicy.trim().toUpperCase(Locale.ROOT));
+        this.sendTimeoutNanos = sendTimeout.toNanos();
+        // Only hands due flushes to the send threads and enforces write deadlines, so it never blocks on a client.
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "sse-flush-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.sendExecutor = new ThreadPoolExecutor(0, Math.max(flushThreads, 1), 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "sse-flush-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        this.flushes = Counter.builder("ai.stream.flushes")
+            .description("Token events sent to AI chat clients")
+            .register(meterRegistry);
+        this.flushBytes = DistributionSummary.builder("ai.stream.flush.bytes")
+            .description("Reply bytes carried by one token event")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        this.flushesPerStream = DistributionSummary.builder("ai.stream.flushes.per.stream")
+            .description("Token events sent over one AI chat stream")
+            .register(meterRegistry);
+        this.bytesPerStream = DistributionSummary.builder("ai.stream.bytes.per.stream")
+            .description("Reply bytes sent as tokens over one AI chat stream")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        this.slowClients = Counter.builder("ai.stream.slow.clients")
+            .tag("action", this.slowClientPolicy.name().toLowerCase(Locale.ROOT))
+            .register(meterRegistry);
+        this.sendTimeouts = Counter.builder("ai.stream.send.timeouts")
+            .description("AI chat clients dropped because a write to them did not complete in time")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Starts buffering tokens for one client. The returned stream accepts deltas from any thread; the stream's
+     * last event must be sent through {@link TokenStream#finish(Runnable)} so it follows every token. Each token
+     * event carries the id {@code AiReplyStreams.eventId(replyId, offset)}, the offset counting from
+     * {@code startOffset}. {@code onClientGone} runs if a send fails or the stream is closed for a slow client.
+     * Once the stream is closed that way its last event is never sent.
+     */
+    TokenStream open(SseEmitter emitter, AtomicBoolean emitterOpen, String replyId, int startOffset,
+                     Runnable onClientGone) {
+        return new TokenStream(emitter, emitterOpen, replyId, startOffset, onClientGone);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+        sendExecutor.shutdownNow();
+    }
+
+    private enum State {
+        IDLE,
+        SCHEDULED,
+        SENDING
+    }
+
+    final class TokenStream implements Consumer<String> {
+
+        private final SseEmitter emitter;
+        private final AtomicBoolean emitterOpen;
+        private final String replyId;
+        private final Runnable onClientGone;
+        private final StringBuilder pending = new StringBuilder();
+        private State state = State.IDLE;
+        private ScheduledFuture<?> flushTimer;
+        private boolean skipTokens;
+        private boolean closed;
+        private long sendSequence;
+        private boolean sending;
+        private boolean sendTimedOut;
+        private Runnable finisher;
+        private int flushCount;
+        private long byteCount;
+        private int offset;
+
+        private TokenStream(SseEmitter emitter, AtomicBoolean emitterOpen, String replyId, int startOffset,
+                            Runnable onClientGone) {
+            this.emitter = emitter;
+            this.emitterOpen = emitterOpen;
+            this.replyId = replyId;
+            this.offset = startOffset;
+            this.onClientGone = onClientGone;
+        }
+
+        @Override
+        public void accept(String delta) {
+            if (delta == null || delta.isEmpty()) {
+                return;
+            }
+            boolean overflowed = false;
+            synchronized (this) {
+                if (closed || skipTokens || finisher != null) {
+                    return;
+                }
+                if (pending.length() + delta.length() > maxBacklogChars) {
+                    pending.setLength(0);
+                    overflowed = true;
+                    if (slowClientPolicy == SlowClientPolicy.DROP) {
+                        skipTokens = true;
+                    } else {
+                        closed = true;
+                    }
+                } else {
+                    pending.append(delta);
+                    if (state == State.IDLE) {
+                        if (pending.length() >= flushMaxChars) {
+                            submitNow();
+                        } else {
+                            scheduleFlush();
+                        }
+                    } else if (state == State.SCHEDULED && pending.length() >= flushMaxChars && cancelFlushTimer()) {
+                        submitNow();
+                    }
+                }
+            }
+            if (overflowed) {
+                slowClients.increment();
+                if (slowClientPolicy == SlowClientPolicy.CLOSE) {
+                    log.debug("Closing an AI chat stream whose client fell {} characters behind", maxBacklogChars);
+                    emitterOpen.set(false);
+                    emitter.completeWithError(new IOException("Client is not reading the stream fast enough"));
+                    onClientGone.run();
+                }
+            }
+        }
+
+        /**
+         * Sends whatever is still buffered, then runs {@code action} on the same sending path, so the stream's
+         * closing event follows its last token. Later deltas are ignored.
+         */
+        void finish(Runnable action) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                finisher = action;
+                if (state == State.IDLE) {
+                    submitNow();
+                } else if (state == State.SCHEDULED && cancelFlushTimer()) {
+                    submitNow();
+                }
+            }
+        }
+
+        /**
+         * Cancels the pending flush timer. Returns {@code false} if the flush has already been handed to a send
+         * thread, which then sends what is buffered.
+         */
+        private boolean cancelFlushTimer() {
+            return flushTimer != null && flushTimer.cancel(false);
+        }
+
+        private void scheduleFlush() {
+            state = State.SCHEDULED;
+            try {
+                flushTimer = timer.schedule(this::startDrain, flushIntervalNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException ex) {
+                // Shutting down; nothing more will be sent.
+                closed = true;
+            }
+        }
+
+        private void submitNow() {
+            state = State.SCHEDULED;
+            flushTimer = null;
+            try {
+                sendExecutor.execute(this::drain);
+            } catch (RejectedExecutionException ex) {
+                closed = true;
+                // Called with this stream's lock held, which must not be held while the reply stream is told.
+                try {
+                    timer.execute(this::dropBusyClient);
+                } catch (RejectedExecutionException ignored) {
+                    // Shutting down; nothing more will be sent.
+                }
+            }
+        }
+
+        private void startDrain() {
+            try {
+                sendExecutor.execute(this::drain);
+            } catch (RejectedExecutionException ex) {
+                synchronized (this) {
+                    closed = true;
+                }
+                dropBusyClient();
+            }
+        }
+
+        /**
+         * Ends the stream of a client that found every send thread busy. No write to it is in progress.
+         */
+        private void dropBusyClient() {
+            if (sendExecutor.isShutdown()) {
+                return;
+            }
+            log.debug("Closing an AI chat stream: all {} send threads are busy", sendExecutor.getMaximumPoolSize());
+            emitterOpen.set(false);
+            emitter.completeWithError(new IOException("No thread available to write the stream"));
+            onClientGone.run();
+        }
+
+        /**
+         * Drops the client if the write {@code sequence} is still in progress. The emitter cannot be completed
+         * while a write to it is blocked, so the sending thread does that once the write returns.
+         */
+        private void sendDeadlinePassed(long sequence) {
+            synchronized (this) {
+                if (!sending || sendSequence != sequence || sendTimedOut) {
+                    return;
+                }
+                closed = true;
+                sendTimedOut = true;
+                pending.setLength(0);
+            }
+            log.debug("Dropping an AI chat client whose write has been blocked for over {} ms",
+                TimeUnit.NANOSECONDS.toMillis(sendTimeoutNanos));
+            sendTimeouts.increment();
+            emitterOpen.set(false);
+            onClientGone.run();
+        }
+
+        private void drain() {
+            while (true) {
+                String chunk;
+                Runnable action = null;
+                synchronized (this) {
+                    if (pending.isEmpty() || skipTokens || closed) {
+                        pending.setLength(0);
+                        state = State.IDLE;
+                        if (finisher != null && !closed) {
+                            action = finisher;
+                            closed = true;
+                        }
+                        chunk = null;
+                    } else {
+                        chunk = pending.toString();
+                        pending.setLength(0);
+                        state = State.SENDING;
+                    }
+                }
+                if (chunk == null) {
+                    if (action != null) {
+                        flushesPerStream.record(flushCount);
+                        bytesPerStream.record(byteCount);
+                        // The closing event completes the emitter itself, also after a missed deadline.
+                        ScheduledFuture<?> deadline = startWrite();
+                        action.run();
+                        endWrite(deadline);
+                    }
+                    return;
+                }
+                send(chunk);
+            }
+        }
+
+        private void send(String chunk) {
+            if (!emitterOpen.get()) {
+                synchronized (this) {
+                    skipTokens = true;
+                }
+                return;
+            }
+            ScheduledFuture<?> deadline = startWrite();
+            boolean failed = false;
+            try {
+                // Drains never overlap and hand over through the lock, so the offset needs no lock of its own.
+                offset += chunk.length();
+                emitter.send(SseEmitter.event()
+                    .id(AiReplyStreams.eventId(replyId, offset))
+                    .name("token")
+                    .data(Map.of("delta", chunk)));
+                int bytes = chunk.getBytes(StandardCharsets.UTF_8).length;
+                flushCount++;
+                byteCount += bytes;
+                flushes.increment();
+                flushBytes.record(bytes);
+            } catch (IOException | IllegalStateException ex) {
+                failed = true;
+            }
+            if (endWrite(deadline)) {
+                emitter.completeWithError(new IOException("Client did not read the stream in time"));
+            } else if (failed) {
+                synchronized (this) {
+                    skipTokens = true;
+                }
+                emitterOpen.set(false);
+                onClientGone.run();
+            }
+        }
+
+        /**
+         * Marks a write as started and arms its deadline.
+         */
+        private ScheduledFuture<?> startWrite() {
+            long sequence;
+            synchronized (this) {
+                sequence = ++sendSequence;
+                sending = true;
+            }
+            try {
+                return timer.schedule(() -> sendDeadlinePassed(sequence), sendTimeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException ex) {
+                return null;
+            }
+        }
+
+        /**
+         * Marks the write as returned. Returns {@code true} if its deadline passed first and the client was dropped.
+         */
+        private boolean endWrite(ScheduledFuture<?> deadline) {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            synchronized (this) {
+                sending = false;
+                return sendTimedOut;
+            }
+        }
+    }
+}
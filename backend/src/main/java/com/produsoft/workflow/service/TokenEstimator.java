@@ -0,0 +1,20 @@
+package com.produsoft.workflow.service;
+
+/**
+ * Cheap token count estimate for prompt budgeting. Model tokenizers average roughly four characters per token on
+ * English text, so this is close enough to keep prompts within a budget without running a real tokenizer.
+ */
+public final class TokenEstimator {
+
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+}
@@ -0,0 +1,189 @@
+package com.produsoft.workflow.service;
+
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.domain.WipCounter;
+import com.produsoft.workflow.dto.StageSummaryResponse;
+import com.produsoft.workflow.dto.WipSummaryResponse;
+import com.produsoft.workflow.repository.OrderRepository;
+import com.produsoft.workflow.repository.OrderStageStatusRepository;
+import com.produsoft.workflow.repository.StageStateCount;
+import com.produsoft.workflow.repository.StateCount;
+import com.produsoft.workflow.repository.WipCounterRepository;
+import jakarta.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Maintains the {@code wip_counters} table so the supervisor WIP summary is a read of a few rows instead of a
+ * scan over every order. Counters are adjusted inside the caller's transaction and periodically reconciled
+ * against the source tables.
+ */
+@Service
+@Transactional
+public class WipCounterService implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(WipCounterService.class);
+
+    private final WipCounterRepository counterRepository;
+    private final OrderRepository orderRepository;
+    private final OrderStageStatusRepository stageStatusRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    public WipCounterService(WipCounterRepository counterRepository,
+                             OrderRepository orderRepository,
+                             OrderStageStatusRepository stageStatusRepository,
+                             PlatformTransactionManager transactionManager) {
+        this.counterRepository = counterRepository;
+        this.orderRepository = orderRepository;
+        this.stageStatusRepository = stageStatusRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        reconcile();
+    }
+
+    public void recordTransition(OrderStateSnapshot before, Order after) {
+        Delta delta = new Delta();
+        delta.add(before, OrderStateSnapshot.of(after));
+        apply(delta);
+    }
+
+    public void apply(Delta delta) {
+        // Keys are applied in sorted order so concurrent transitions lock counter rows consistently.
+        delta.changes.forEach((key, change) -> {
+            if (change.amount == 0) {
+                return;
+            }
+            if (counterRepository.increment(key, change.amount) == 0) {
+                counterRepository.save(new WipCounter(change.stage, change.state, change.amount));
+            }
+        });
+    }
+
+    public WipSummaryResponse buildSummary() {
+        Map<String, Long> values = new HashMap<>();
+        counterRepository.findAll().forEach(counter -> values.put(counter.getKey(), counter.getValue()));
+
+        long total = 0;
+        for (StageState state : StageState.values()) {
+            total += value(values, null, state);
+        }
+        long completedOrders = value(values, null, StageState.COMPLETED);
+        long exceptionOrders = value(values, null, StageState.EXCEPTION);
+
+        List<StageSummaryResponse> stages = new ArrayList<>();
+        for (StageType stage : StageType.values()) {
+            stages.add(new StageSummaryResponse(
+                stage,
+                value(values, stage, StageState.PENDING) + value(values, stage, StageState.REWORK),
+                value(values, stage, StageState.IN_PROGRESS),
+                value(values, stage, StageState.EXCEPTION),
+                value(values, stage, StageState.COMPLETED) + value(values, stage, StageState.SKIPPED)));
+        }
+        return new WipSummaryResponse(total, completedOrders, exceptionOrders, stages);
+    }
+
+    /**
+     * Rebuilds every counter from the order tables. The counter rows are locked before counting, so a
+     * transition that already adjusted a counter is committed before the recount and one that has not yet
+     * adjusted it applies its delta on top of the rebuilt value.
+     */
+    @Scheduled(fixedDelayString = "${app.workflow.wip.reconcile-interval:PT5M}",
+        initialDelayString = "${app.workflow.wip.reconcile-interval:PT5M}")
+    public void reconcile() {
+        transactionTemplate.executeWithoutResult(status -> {
+            Map<String, WipCounter> existing = new HashMap<>();
+            counterRepository.findAllForUpdate().forEach(counter -> existing.put(counter.getKey(), counter));
+
+            Map<String, Long> actual = new HashMap<>();
+            for (StateCount count : orderRepository.countByOverallState()) {
+                actual.put(WipCounter.keyFor(null, count.state()), count.count());
+            }
+            for (StageStateCount count : stageStatusRepository.countByStageAndState()) {
+                actual.put(WipCounter.keyFor(count.stage(), count.state()), count.count());
+            }
+
+            int drifted = 0;
+            List<StageType> scopes = new ArrayList<>();
+            scopes.add(null);
+            scopes.addAll(List.of(StageType.values()));
+            for (StageType stage : scopes) {
+                for (StageState state : StageState.values()) {
+                    String key = WipCounter.keyFor(stage, state);
+                    long expected = actual.getOrDefault(key, 0L);
+                    WipCounter counter = existing.get(key);
+                    if (counter == null) {
+                        counterRepository.save(new WipCounter(stage, state, expected));
+                    } else if (counter.getValue() != expected) {
+                        drifted++;
+                        counter.setValue(expected);
+                    }
+                }
+            }
+            if (drifted > 0) {
+                log.warn("Reconciled {} drifted WIP counters", drifted);
+            }
+        });
+    }
+
+    private long value(Map<String, Long> values, StageType stage, StageState state) {
+        return values.getOrDefault(WipCounter.keyFor(stage, state), 0L);
+    }
+
+    /**
+     * Accumulates counter adjustments so several order transitions can be applied with one update per counter.
+     */
+    public static final class Delta {
+
+        private final Map<String, Change> changes = new TreeMap<>();
+
+        public void add(OrderStateSnapshot before, OrderStateSnapshot after) {
+            if (!Objects.equals(before.overallState(), after.overallState())) {
+                adjust(null, before.overallState(), -1);
+                adjust(null, after.overallState(), 1);
+            }
+            for (StageType stage : StageType.values()) {
+                StageState previous = before.stateOf(stage);
+                StageState next = after.stateOf(stage);
+                if (!Objects.equals(previous, next)) {
+                    adjust(stage, previous, -1);
+                    adjust(stage, next, 1);
+                }
+            }
+        }
+
+        private void adjust(StageType stage, StageState state, long amount) {
+            if (state == null) {
+                return;
+            }
+            changes.computeIfAbsent(WipCounter.keyFor(stage, state), key -> new Change(stage, state)).amount += amount;
+        }
+    }
+
+    private static final class Change {
+
+        private final StageType stage;
+        private final StageState state;
+        private long amount;
+
+        private Change(StageType stage, StageState state) {
+            this.stage = stage;
+            this.state = state;
+        }
+    }
+}
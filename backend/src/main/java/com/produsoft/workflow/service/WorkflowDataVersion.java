@@ -0,0 +1,24 @@
+package com.produsoft.workflow.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Counter bumped after every committed order change, so caches derived from workflow data can tell whether they
+ * are stale without querying. It only sees changes made by this instance.
+ */
+@Component
+public class WorkflowDataVersion {
+
+    private final AtomicLong version = new AtomicLong();
+
+    public long current() {
+        return version.get();
+    }
+
+    @TransactionalEventListener
+    public void onOrderChanged(OrderChangedEvent event) {
+        version.incrementAndGet();
+    }
+}
@@ -0,0 +1,10 @@
+-- PostgreSQL-only objects; schema.sql is shared with the embedded H2 database.
+
+-- The listing order as one ascending key, so a page cursor is a single row-value range on it.
+DROP INDEX IF EXISTS idx_orders_listing_order;
+CREATE INDEX IF NOT EXISTS idx_orders_listing_keyset ON orders ((-COALESCE(priority, 0)), created_at, id);
+CREATE INDEX IF NOT EXISTS idx_orders_newest_by_priority ON orders ((COALESCE(priority, 0)) DESC, created_at DESC NULLS LAST, id DESC);
+
+-- Ids used to come from the BIGSERIAL defaults; move the pooled sequences past any existing rows.
+SELECT setval('orders_seq', GREATEST((SELECT COALESCE(MAX(id), 1) FROM orders), (SELECT last_value FROM orders_seq)));
+SELECT setval('order_stage_status_seq', GREATEST((SELECT COALESCE(MAX(id), 1) FROM order_stage_status), (SELECT last_value FROM order_stage_status_seq)));
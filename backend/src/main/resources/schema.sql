@@ -6,7 +6,8 @@ CREATE TABLE IF NOT EXISTS orders (
     overall_state VARCHAR(50),
     created_at TIMESTAMP WITH TIME ZONE,
     updated_at TIMESTAMP WITH TIME ZONE,
-    notes VARCHAR(1024)
+    notes VARCHAR(1024),
+    version BIGINT DEFAULT 0 NOT NULL
 );
 
 CREATE TABLE IF NOT EXISTS order_stage_status (
@@ -25,11 +26,74 @@ CREATE TABLE IF NOT EXISTS order_stage_status (
     approved_by VARCHAR(255),
     updated_at TIMESTAMP WITH TIME ZONE,
     checklist_state TEXT,
+    checklist_mask BIGINT,
+    version BIGINT DEFAULT 0 NOT NULL,
     CONSTRAINT uq_order_stage_status_order_stage UNIQUE (order_id, stage)
 );
 
 CREATE INDEX IF NOT EXISTS idx_order_stage_status_order_id ON order_stage_status(order_id);
 CREATE INDEX IF NOT EXISTS idx_order_stage_status_stage ON order_stage_status(stage);
+CREATE INDEX IF NOT EXISTS idx_order_stage_status_stage_state ON order_stage_status(stage, state);
+CREATE INDEX IF NOT EXISTS idx_orders_overall_state ON orders(overall_state);
+CREATE INDEX IF NOT EXISTS idx_orders_current_stage ON orders(current_stage);
+
+ALTER TABLE orders ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
+ALTER TABLE order_stage_status ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
+-- checklist_state (JSON) is superseded by checklist_mask and converted on startup by ChecklistStateMigration.
+ALTER TABLE order_stage_status ADD COLUMN IF NOT EXISTS checklist_mask BIGINT;
+
+CREATE SEQUENCE IF NOT EXISTS orders_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS order_stage_status_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS wip_counters (
+    counter_key VARCHAR(100) PRIMARY KEY,
+    stage VARCHAR(50),
+    state VARCHAR(50) NOT NULL,
+    counter_value BIGINT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS stage_transition (
+    id BIGSERIAL PRIMARY KEY,
+    order_id BIGINT NOT NULL,
+    stage VARCHAR(50) NOT NULL,
+    from_state VARCHAR(50),
+    to_state VARCHAR(50) NOT NULL,
+    actor VARCHAR(255),
+    duration_seconds BIGINT,
+    occurred_at TIMESTAMP WITH TIME ZONE NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_stage_transition_order_id ON stage_transition(order_id);
+
+CREATE TABLE IF NOT EXISTS projection_cursor (
+    name VARCHAR(100) PRIMARY KEY,
+    last_transition_id BIGINT NOT NULL,
+    updated_at TIMESTAMP WITH TIME ZONE NOT NULL
+);
+
+-- Journal ids below a projection's cursor that were not yet committed when the cursor passed them.
+CREATE TABLE IF NOT EXISTS projection_gap (
+    name VARCHAR(100) NOT NULL,
+    transition_id BIGINT NOT NULL,
+    seen_at TIMESTAMP WITH TIME ZONE NOT NULL,
+    PRIMARY KEY (name, transition_id)
+);
+
+CREATE TABLE IF NOT EXISTS stage_throughput_daily (
+    stage VARCHAR(50) NOT NULL,
+    bucket_date DATE NOT NULL,
+    to_state VARCHAR(50) NOT NULL,
+    transition_count BIGINT NOT NULL,
+    PRIMARY KEY (stage, bucket_date, to_state)
+);
+
+CREATE TABLE IF NOT EXISTS stage_cycle_time (
+    stage VARCHAR(50) PRIMARY KEY,
+    completed_count BIGINT NOT NULL,
+    total_seconds BIGINT NOT NULL,
+    min_seconds BIGINT NOT NULL,
+    max_seconds BIGINT NOT NULL
+);
 
 CREATE TABLE IF NOT EXISTS ai_conversations (
     id BIGSERIAL PRIMARY KEY,
@@ -47,5 +111,31 @@ CREATE TABLE IF NOT EXISTS ai_messages (
     created_at TIMESTAMP WITH TIME ZONE NOT NULL
 );
 
-CREATE INDEX IF NOT EXISTS idx_ai_conversations_created_by ON ai_conversations(created_by);
-CREATE INDEX IF NOT EXISTS idx_ai_messages_conversation_id ON ai_messages(conversation_id);
+ALTER TABLE ai_conversations ADD COLUMN IF NOT EXISTS last_message_preview VARCHAR(120);
+ALTER TABLE ai_conversations ADD COLUMN IF NOT EXISTS last_message_at TIMESTAMP WITH TIME ZONE;
+ALTER TABLE ai_conversations ADD COLUMN IF NOT EXISTS message_count INTEGER DEFAULT 0 NOT NULL;
+
+-- Fills the listing columns for conversations written before they existed; a no-op once they are populated.
+UPDATE ai_conversations c SET
+    message_count = (SELECT COUNT(*) FROM ai_messages m WHERE m.conversation_id = c.id),
+    last_message_at = (SELECT MAX(m.created_at) FROM ai_messages m WHERE m.conversation_id = c.id),
+    last_message_preview = (
+        SELECT CASE WHEN LENGTH(m.content) > 120 THEN SUBSTRING(m.content, 1, 117) || '...' ELSE m.content END
+        FROM ai_messages m WHERE m.conversation_id = c.id
+        ORDER BY m.created_at DESC, m.id DESC
+        LIMIT 1)
+WHERE c.message_count = 0
+  AND EXISTS (SELECT 1 FROM ai_messages m WHERE m.conversation_id = c.id);
+
+DROP INDEX IF EXISTS idx_ai_conversations_created_by;
+CREATE INDEX IF NOT EXISTS idx_ai_conversations_created_by_updated ON ai_conversations(created_by, updated_at DESC, id DESC);
+DROP INDEX IF EXISTS idx_ai_messages_conversation_id;
+CREATE INDEX IF NOT EXISTS idx_ai_messages_conversation_created ON ai_messages(conversation_id, created_at, id);
+
+CREATE TABLE IF NOT EXISTS ai_reply_checkpoints (
+    reply_id VARCHAR(32) PRIMARY KEY,
+    conversation_id BIGINT NOT NULL REFERENCES ai_conversations(id) ON DELETE CASCADE,
+    content TEXT NOT NULL,
+    updated_at TIMESTAMP WITH TIME ZONE NOT NULL
+);
+CREATE INDEX IF NOT EXISTS idx_ai_reply_checkpoints_updated ON ai_reply_checkpoints(updated_at);
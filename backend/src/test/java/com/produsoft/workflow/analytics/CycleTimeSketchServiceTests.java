@@ -0,0 +1,105 @@
+package com.produsoft.workflow.analytics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import com.produsoft.workflow.checklist.StageChecklistService;
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.dto.CompleteStageRequest;
+import com.produsoft.workflow.dto.CreateOrderRequest;
+import com.produsoft.workflow.dto.CycleTimeStatsResponse;
+import com.produsoft.workflow.dto.SupervisorDecisionRequest;
+import com.produsoft.workflow.dto.UpdateChecklistItemRequest;
+import com.produsoft.workflow.service.OrderChangedEvent;
+import com.produsoft.workflow.service.OrderWorkflowService;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+class CycleTimeSketchServiceTests {
+
+    private static final StageType STAGE = StageType.PREPARATION;
+
+    @Autowired
+    private OrderWorkflowService workflowService;
+
+    @Autowired
+    private StageChecklistService checklistService;
+
+    @Autowired
+    private CycleTimeSketchService sketchService;
+
+    @Test
+    void reworkReplacesTheUndoneCompletion() {
+        String assignee = assignee();
+        Order order = workflowService.createOrder(new CreateOrderRequest(orderNumber(), 1, null));
+        complete(order.getId(), assignee, 10);
+        assertThat(stats(assignee).completedCount()).isEqualTo(1);
+
+        workflowService.requestRework(order.getId(), STAGE, new SupervisorDecisionRequest("supervisor1", "redo"));
+        assertThat(stats(assignee).completedCount()).isZero();
+
+        complete(order.getId(), assignee, 40);
+        CycleTimeStatsResponse stats = stats(assignee);
+        assertThat(stats.completedCount()).isEqualTo(1);
+        assertThat(stats.maxMinutes()).isEqualTo(40.0);
+    }
+
+    @Test
+    void reworkTakesOnlyTheUndoneCompletionOutOfTheSketches() {
+        String assignee = assignee();
+        Order first = workflowService.createOrder(new CreateOrderRequest(orderNumber(), 1, null));
+        Order second = workflowService.createOrder(new CreateOrderRequest(orderNumber(), 1, null));
+        complete(first.getId(), assignee, 10);
+        complete(second.getId(), assignee, 90);
+
+        workflowService.requestRework(second.getId(), STAGE, new SupervisorDecisionRequest("supervisor1", "redo"));
+
+        CycleTimeStatsResponse stats = stats(assignee);
+        assertThat(stats.completedCount()).isEqualTo(1);
+        assertThat(stats.averageMinutes()).isEqualTo(10.0);
+        assertThat(stats.p90Minutes()).isCloseTo(10.0, within(0.1));
+    }
+
+    @Test
+    void rebuildAndStaleEventsDoNotCountCompletionsTwice() {
+        String assignee = assignee();
+        Order created = workflowService.createOrder(new CreateOrderRequest(orderNumber(), 1, null));
+        Order stale = workflowService.findOrder(created.getId());
+        complete(created.getId(), assignee, 25);
+        Order completed = workflowService.findOrder(created.getId());
+
+        sketchService.rebuild();
+        sketchService.onOrderChanged(new OrderChangedEvent(completed));
+        sketchService.onOrderChanged(new OrderChangedEvent(stale));
+
+        CycleTimeStatsResponse stats = stats(assignee);
+        assertThat(stats.completedCount()).isEqualTo(1);
+        assertThat(stats.averageMinutes()).isEqualTo(25.0);
+    }
+
+    private void complete(Long orderId, String assignee, long minutes) {
+        workflowService.claimStage(orderId, STAGE, assignee);
+        checklistService.definitionsFor(STAGE).forEach(task -> workflowService.updateChecklistItem(orderId, STAGE,
+            new UpdateChecklistItemRequest(task.id(), true)));
+        workflowService.completeStage(orderId, STAGE, new CompleteStageRequest(assignee, minutes, null));
+    }
+
+    private CycleTimeStatsResponse stats(String assignee) {
+        return sketchService.buildCycleTimeAnalytics(STAGE).assignees().stream()
+            .filter(stats -> assignee.equals(stats.assignee()))
+            .findFirst()
+            .orElse(new CycleTimeStatsResponse(STAGE, assignee, 0, null, null, null, null, null, null));
+    }
+
+    private static String assignee() {
+        return "sketch-" + UUID.randomUUID();
+    }
+
+    private static String orderNumber() {
+        return "CT-" + UUID.randomUUID();
+    }
+}
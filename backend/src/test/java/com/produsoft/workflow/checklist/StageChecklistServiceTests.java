@@ -0,0 +1,68 @@
+package com.produsoft.workflow.checklist;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.produsoft.workflow.domain.StageType;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class StageChecklistServiceTests {
+
+    private final StageChecklistService service = new StageChecklistService();
+
+    @Test
+    void completesOnceEveryRequiredTaskIsSet() {
+        StageType stage = StageType.ASSEMBLY;
+        long state = service.initializeState(stage);
+        assertThat(service.isChecklistComplete(stage, state)).isFalse();
+
+        for (ChecklistTaskDefinition task : service.definitionsFor(stage)) {
+            if (task.required()) {
+                state = service.updateTask(stage, state, task.id(), true);
+            }
+        }
+        assertThat(service.isChecklistComplete(stage, state)).isTrue();
+
+        List<ChecklistItem> items = service.buildChecklist(stage, state);
+        assertThat(items).extracting(ChecklistItem::id)
+            .containsExactlyElementsOf(service.definitionsFor(stage).stream().map(ChecklistTaskDefinition::id).toList());
+        assertThat(items).allSatisfy(item -> assertThat(item.completed()).isEqualTo(item.required()));
+
+        String required = service.definitionsFor(stage).get(0).id();
+        long cleared = service.updateTask(stage, state, required, false);
+        assertThat(service.isChecklistComplete(stage, cleared)).isFalse();
+        assertThat(service.updateTask(stage, cleared, required, true)).isEqualTo(state);
+    }
+
+    @Test
+    void treatsMissingStateAsEmpty() {
+        assertThat(service.isChecklistComplete(StageType.PREPARATION, null)).isFalse();
+        assertThat(service.buildChecklist(StageType.PREPARATION, null)).noneMatch(ChecklistItem::completed);
+    }
+
+    @Test
+    void rejectsUnknownTasks() {
+        assertThatThrownBy(() -> service.updateTask(StageType.PREPARATION, 0L, "no-such-task", true))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("no-such-task");
+    }
+
+    @Test
+    void convertsLegacyStateDroppingUnknownTasks() {
+        StageType stage = StageType.PREPARATION;
+        List<ChecklistTaskDefinition> tasks = service.definitionsFor(stage);
+        Map<String, Boolean> legacy = new LinkedHashMap<>();
+        legacy.put(tasks.get(0).id(), true);
+        legacy.put(tasks.get(1).id(), false);
+        legacy.put("retired-task", true);
+
+        long state = service.toState(stage, legacy);
+
+        assertThat(state).isEqualTo(service.updateTask(stage, 0L, tasks.get(0).id(), true));
+        assertThat(service.buildChecklist(stage, state)).extracting(ChecklistItem::completed)
+            .containsExactly(true, false, false);
+    }
+}
@@ -0,0 +1,64 @@
+package com.produsoft.workflow.datastructure;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class IndexedPriorityQueueTests {
+
+    @Test
+    void replacesAndRemovesByKeyKeepingHeapOrder() {
+        IndexedPriorityQueue<Integer, Item> queue = new IndexedPriorityQueue<>(Item::key);
+        Map<Integer, Item> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 2_000; i++) {
+            int key = random.nextInt(200);
+            if (random.nextInt(4) == 0) {
+                assertThat(queue.remove(key)).isEqualTo(expected.remove(key));
+            } else {
+                Item item = new Item(key, random.nextInt(50));
+                assertThat(queue.put(item)).isEqualTo(expected.put(key, item));
+            }
+        }
+
+        List<Item> sorted = new ArrayList<>(expected.values());
+        sorted.sort(Comparator.naturalOrder());
+        assertThat(queue.size()).isEqualTo(sorted.size());
+        assertThat(queue.peekOrdered(0, Integer.MAX_VALUE, item -> true)).isEqualTo(sorted);
+        List<Item> polled = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            polled.add(queue.poll());
+        }
+        assertThat(polled).isEqualTo(sorted);
+    }
+
+    @Test
+    void peekOrderedPagesThroughMatchingElementsOnly() {
+        IndexedPriorityQueue<Integer, Item> queue = new IndexedPriorityQueue<>(Item::key);
+        for (int key = 0; key < 20; key++) {
+            queue.put(new Item(key, 20 - key));
+        }
+
+        List<Item> evenPage = queue.peekOrdered(2, 3, item -> item.key() % 2 == 0);
+
+        assertThat(evenPage).extracting(Item::key).containsExactly(14, 12, 10);
+        assertThat(queue.size()).isEqualTo(20);
+        assertThat(queue.peek().key()).isEqualTo(19);
+    }
+
+    private record Item(int key, int rank) implements Comparable<Item> {
+
+        @Override
+        public int compareTo(Item other) {
+            int byRank = Integer.compare(rank, other.rank);
+            return byRank != 0 ? byRank : Integer.compare(key, other.key);
+        }
+    }
+}
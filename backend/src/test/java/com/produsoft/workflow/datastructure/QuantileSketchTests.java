@@ -0,0 +1,102 @@
+package com.produsoft.workflow.datastructure;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class QuantileSketchTests {
+
+    private static final double ACCURACY = 0.01;
+
+    @Test
+    void quantilesStayWithinTheRelativeAccuracy() {
+        Random random = new Random(42);
+        QuantileSketch sketch = new QuantileSketch(ACCURACY);
+        double[] values = new double[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.exp(random.nextGaussian() * 2 + 3);
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double q : new double[] {0, 0.1, 0.5, 0.9, 0.99, 1}) {
+            double exact = values[(int) Math.floor(q * (values.length - 1))];
+            assertThat(sketch.quantile(q)).isCloseTo(exact, within(exact * ACCURACY));
+        }
+        assertThat(sketch.count()).isEqualTo(values.length);
+        assertThat(sketch.min()).isEqualTo(values[0]);
+        assertThat(sketch.max()).isEqualTo(values[values.length - 1]);
+    }
+
+    @Test
+    void mergeMatchesAddingEveryValueToOneSketch() {
+        QuantileSketch all = new QuantileSketch(ACCURACY);
+        QuantileSketch low = new QuantileSketch(ACCURACY);
+        QuantileSketch high = new QuantileSketch(ACCURACY);
+        for (int value = 0; value < 500; value++) {
+            all.add(value);
+            (value < 100 ? low : high).add(value);
+        }
+
+        low.merge(high);
+
+        assertThat(low.count()).isEqualTo(all.count());
+        assertThat(low.average()).isEqualTo(all.average());
+        for (double q : new double[] {0, 0.25, 0.5, 0.75, 1}) {
+            assertThat(low.quantile(q)).isEqualTo(all.quantile(q));
+        }
+    }
+
+    @Test
+    void removingValuesMatchesNeverHavingAddedThem() {
+        QuantileSketch kept = new QuantileSketch(ACCURACY);
+        QuantileSketch sketch = new QuantileSketch(ACCURACY);
+        for (int value = 0; value < 500; value++) {
+            sketch.add(value);
+            if (value % 3 != 0) {
+                kept.add(value);
+            }
+        }
+
+        for (int value = 0; value < 500; value += 3) {
+            sketch.remove(value);
+        }
+
+        assertThat(sketch.count()).isEqualTo(kept.count());
+        assertThat(sketch.average()).isCloseTo(kept.average(), within(1e-9));
+        for (double q : new double[] {0.1, 0.25, 0.5, 0.75, 0.9}) {
+            assertThat(sketch.quantile(q)).isEqualTo(kept.quantile(q));
+        }
+        // Not narrowed by removal.
+        assertThat(sketch.min()).isZero();
+        assertThat(sketch.max()).isEqualTo(499);
+        assertThatThrownBy(() -> sketch.remove(10_000)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void removingTheLastValueEmptiesTheSketch() {
+        QuantileSketch sketch = new QuantileSketch(ACCURACY);
+        sketch.add(42);
+        sketch.remove(42);
+
+        assertThat(sketch.isEmpty()).isTrue();
+        assertThat(sketch.max()).isNaN();
+        sketch.add(7);
+        assertThat(sketch.min()).isEqualTo(7);
+        assertThat(sketch.max()).isEqualTo(7);
+        assertThatThrownBy(() -> new QuantileSketch(ACCURACY).remove(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void emptySketchesAndInvalidInput() {
+        QuantileSketch sketch = new QuantileSketch(ACCURACY);
+        assertThat(sketch.isEmpty()).isTrue();
+        assertThat(sketch.quantile(0.5)).isNaN();
+        assertThatThrownBy(() -> sketch.add(-1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> sketch.merge(new QuantileSketch(0.05))).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,63 @@
+package com.produsoft.workflow.dispatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.dto.CreateOrderRequest;
+import com.produsoft.workflow.service.OrderChangedEvent;
+import com.produsoft.workflow.service.OrderWorkflowService;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+class DispatchQueueServiceTests {
+
+    @Autowired
+    private OrderWorkflowService workflowService;
+
+    @Autowired
+    private DispatchQueueService dispatchQueueService;
+
+    @Test
+    void queueFollowsCommittedChangesInPriorityOrder() {
+        Order low = workflowService.createOrder(new CreateOrderRequest(orderNumber(), 900_001, null));
+        Order high = workflowService.createOrder(new CreateOrderRequest(orderNumber(), 900_002, null));
+
+        assertThat(queuedIds(StageState.PENDING)).containsSubsequence(high.getId(), low.getId());
+
+        workflowService.claimStage(high.getId(), StageType.PREPARATION, "operator1");
+
+        assertThat(queuedIds(StageState.PENDING)).contains(low.getId()).doesNotContain(high.getId());
+        assertThat(queuedIds(StageState.IN_PROGRESS)).contains(high.getId());
+        assertThat(dispatchQueueService.isConsistent(StageType.PREPARATION)).isTrue();
+    }
+
+    @Test
+    void ignoresAnEventOlderThanTheAppliedOne() {
+        Order order = workflowService.createOrder(new CreateOrderRequest(orderNumber(), 1, null));
+        Order stale = workflowService.findOrder(order.getId());
+        workflowService.claimStage(order.getId(), StageType.PREPARATION, "operator1");
+
+        // The listener of the create transaction arriving after that of the claim.
+        dispatchQueueService.onOrderChanged(new OrderChangedEvent(stale));
+
+        assertThat(queuedIds(StageState.IN_PROGRESS)).contains(order.getId());
+        assertThat(queuedIds(StageState.PENDING)).doesNotContain(order.getId());
+        assertThat(dispatchQueueService.isConsistent(StageType.PREPARATION)).isTrue();
+    }
+
+    private List<Long> queuedIds(StageState state) {
+        return dispatchQueueService.fetchQueue(StageType.PREPARATION, List.of(state), 0, null).stream()
+            .map(DispatchQueueEntry::orderId)
+            .toList();
+    }
+
+    private static String orderNumber() {
+        return "DQ-" + UUID.randomUUID();
+    }
+}
@@ -0,0 +1,196 @@
+package com.produsoft.workflow.dispatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.produsoft.workflow.checklist.StageChecklistService;
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.dto.OrderMapper;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+class QueueDeltaBroadcasterTests {
+
+    private static final OrderMapper MAPPER = new OrderMapper(new StageChecklistService());
+
+    private final Deque<SseEmitter> emitters = new ArrayDeque<>();
+    private TestBroadcaster broadcaster;
+
+    @AfterEach
+    void shutDown() {
+        if (broadcaster != null) {
+            broadcaster.shutdown();
+        }
+    }
+
+    @Test
+    void stalledClientDoesNotHoldUpOthersAndIsDropped() throws Exception {
+        broadcaster = new TestBroadcaster(64, Duration.ofMillis(200));
+        StalledEmitter stalled = new StalledEmitter();
+        RecordingEmitter healthy = new RecordingEmitter();
+        emitters.add(stalled);
+        emitters.add(healthy);
+
+        subscribe();
+        subscribe();
+        assertThat(stalled.sending.await(5, TimeUnit.SECONDS)).isTrue();
+        healthy.awaitSends(1);
+
+        broadcaster.publish(StageType.PREPARATION, null, entry(1L));
+        broadcaster.flush();
+        healthy.awaitSends(2);
+        assertThat(broadcaster.subscriberCount(StageType.PREPARATION)).isEqualTo(2);
+
+        Thread.sleep(300);
+        broadcaster.flush();
+        assertThat(broadcaster.subscriberCount(StageType.PREPARATION)).isEqualTo(1);
+        assertThat(stalled.completed).hasValue(0);
+
+        stalled.release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stalled.completed.get() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(stalled.completed).hasValue(1);
+        assertThat(stalled.sends).hasValue(1);
+    }
+
+    @Test
+    void clientWhoseOutboxOverflowsIsClosed() throws Exception {
+        broadcaster = new TestBroadcaster(1, Duration.ofMinutes(1));
+        StalledEmitter stalled = new StalledEmitter();
+        emitters.add(stalled);
+
+        subscribe();
+        assertThat(stalled.sending.await(5, TimeUnit.SECONDS)).isTrue();
+        // The history size raises the outbox bound to 3 events; the snapshot being written is not counted.
+        for (long id = 1; id <= 4; id++) {
+            broadcaster.publish(StageType.PREPARATION, null, entry(id));
+            broadcaster.flush();
+        }
+
+        assertThat(broadcaster.subscriberCount(StageType.PREPARATION)).isZero();
+        stalled.release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stalled.completed.get() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(stalled.completed).hasValue(1);
+        assertThat(stalled.sends).hasValue(1);
+    }
+
+    @Test
+    void clientsWaitForAFreeSendThreadRatherThanBeingDropped() throws Exception {
+        broadcaster = new TestBroadcaster(64, Duration.ofSeconds(10));
+        List<SlowEmitter> slow = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            SlowEmitter emitter = new SlowEmitter(Duration.ofMillis(20));
+            slow.add(emitter);
+            emitters.add(emitter);
+            subscribe();
+        }
+
+        broadcaster.publish(StageType.PREPARATION, null, entry(1L));
+        broadcaster.flush();
+        broadcaster.heartbeat();
+
+        for (SlowEmitter emitter : slow) {
+            emitter.awaitSends(3);
+            assertThat(emitter.completed).hasValue(0);
+        }
+        assertThat(broadcaster.subscriberCount(StageType.PREPARATION)).isEqualTo(100);
+    }
+
+    private void subscribe() {
+        broadcaster.subscribe(StageType.PREPARATION, EnumSet.of(StageState.PENDING), null, states -> List.of());
+    }
+
+    private static DispatchQueueEntry entry(long orderId) {
+        Instant now = Instant.now();
+        return new DispatchQueueEntry(orderId, "PO-" + orderId, 1, now, StageType.PREPARATION, StageState.PENDING,
+            StageType.PREPARATION, StageState.PENDING, null, null, now, null, null, 0L, 0L);
+    }
+
+    private final class TestBroadcaster extends QueueDeltaBroadcaster {
+
+        private TestBroadcaster(int historySize, Duration sendTimeout) {
+            super(MAPPER, historySize, 1, sendTimeout, 4);
+        }
+
+        @Override
+        SseEmitter newEmitter() {
+            return emitters.removeFirst();
+        }
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+
+        final AtomicInteger sends = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            sends.incrementAndGet();
+        }
+
+        @Override
+        public void complete() {
+            completed.incrementAndGet();
+        }
+
+        void awaitSends(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (sends.get() < count && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(sends.get()).isGreaterThanOrEqualTo(count);
+        }
+    }
+
+    private static final class SlowEmitter extends RecordingEmitter {
+
+        private final Duration writeTime;
+
+        private SlowEmitter(Duration writeTime) {
+            this.writeTime = writeTime;
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            try {
+                Thread.sleep(writeTime.toMillis());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            super.send(builder);
+        }
+    }
+
+    private static final class StalledEmitter extends RecordingEmitter {
+
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            super.send(builder);
+            sending.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.produsoft.workflow.journal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SpringBootTest(properties = "app.workflow.journal.projection-interval=PT1H")
+class JournalProjectorTests {
+
+    @Autowired
+    private JournalProjector journalProjector;
+
+    @Autowired
+    private StageTransitionRepository transitionRepository;
+
+    @Autowired
+    private RecordingProjection recordingProjection;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void projectsTransitionsCommittedAfterTheCursorPassedThem() throws Exception {
+        journalProjector.catchUp();
+        long slowOrder = orderId();
+        long fastOrder = orderId();
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Void> slowTransaction = CompletableFuture.runAsync(() ->
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                transitionRepository.append(List.of(transition(slowOrder)));
+                inserted.countDown();
+                await(release);
+            }));
+        assertThat(inserted.await(10, TimeUnit.SECONDS)).isTrue();
+        transitionRepository.append(List.of(transition(fastOrder)));
+
+        journalProjector.catchUp();
+        assertThat(recordingProjection.orderIds()).contains(fastOrder).doesNotContain(slowOrder);
+
+        release.countDown();
+        slowTransaction.get(10, TimeUnit.SECONDS);
+        journalProjector.catchUp();
+
+        assertThat(recordingProjection.orderIds()).containsOnlyOnce(slowOrder, fastOrder);
+        assertThat(transitionRepository.findByOrderId(slowOrder).get(0).id())
+            .isLessThan(transitionRepository.findByOrderId(fastOrder).get(0).id());
+    }
+
+    @Test
+    void rebuildReplaysTheJournalOnce() {
+        long order = orderId();
+        transitionRepository.append(List.of(transition(order)));
+        journalProjector.catchUp();
+        assertThat(recordingProjection.orderIds()).containsOnlyOnce(order);
+
+        journalProjector.rebuild(RecordingProjection.NAME);
+        assertThat(recordingProjection.orderIds()).isEmpty();
+        journalProjector.catchUp();
+
+        assertThat(recordingProjection.orderIds()).containsOnlyOnce(order);
+        assertThat(recordingProjection.transitionIds()).doesNotHaveDuplicates();
+    }
+
+    private static long orderId() {
+        return ThreadLocalRandom.current().nextLong(1_000_000_000L, Long.MAX_VALUE);
+    }
+
+    private static StageTransition transition(long orderId) {
+        return new StageTransition(null, orderId, StageType.PREPARATION, StageState.PENDING, StageState.IN_PROGRESS,
+            "operator1", null, Instant.now());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @TestConfiguration
+    static class RecordingProjectionConfiguration {
+
+        @Bean
+        RecordingProjection recordingProjection() {
+            return new RecordingProjection();
+        }
+    }
+
+    static class RecordingProjection implements JournalProjection {
+
+        static final String NAME = "test-recording";
+
+        private final List<StageTransition> applied = new CopyOnWriteArrayList<>();
+
+        @Override
+        public String name() {
+            return NAME;
+        }
+
+        @Override
+        public void apply(List<StageTransition> transitions) {
+            applied.addAll(transitions);
+        }
+
+        @Override
+        public void reset() {
+            applied.clear();
+        }
+
+        List<Long> orderIds() {
+            return applied.stream().map(StageTransition::orderId).toList();
+        }
+
+        List<Long> transitionIds() {
+            return applied.stream().map(StageTransition::id).toList();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.DoubleStream;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Measures the streaming chat path, from the HTTP request through context building, the Ollama client and the SSE
+ * response, against {@link FakeOllamaServer}. For each concurrency level it reports time to first token, tokens
+ * per second as seen by the client, end-to-end latency percentiles and bytes allocated per request.
+ *
+ * <p>Not part of the regular test run. Start it with
+ * {@code mvn test -Dtest=AiChatLatencyBenchmark -Dsurefire.failIfNoSpecifiedTests=false}, adding any of these
+ * system properties:
+ * <ul>
+ *   <li>{@code benchmark.concurrency}, comma-separated levels (default {@code 1,8,32})</li>
+ *   <li>{@code benchmark.requests} per level (default 64)</li>
+ *   <li>{@code benchmark.tokens} per reply (default 100) and {@code benchmark.token-text} (default {@code "tok "})</li>
+ *   <li>{@code benchmark.token-delay-ms} (default 5) and {@code benchmark.first-token-ms} (default 100)</li>
+ * </ul>
+ * Allocation is the growth of every live thread's allocated bytes over a level, so it includes the benchmark's own
+ * client and is an upper bound.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class AiChatLatencyBenchmark {
+
+    private static final int TOKENS = Integer.getInteger("benchmark.tokens", 100);
+    private static final FakeOllamaServer ollama = new FakeOllamaServer()
+        .tokensPerReply(TOKENS)
+        .tokenText(System.getProperty("benchmark.token-text", "tok "))
+        .tokenDelay(Duration.ofMillis(Integer.getInteger("benchmark.token-delay-ms", 5)))
+        .firstTokenLatency(Duration.ofMillis(Integer.getInteger("benchmark.first-token-ms", 100)))
+        .start();
+    private static final String AUTHORIZATION = "Basic "
+        + Base64.getEncoder().encodeToString("operator1:user".getBytes(StandardCharsets.UTF_8));
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final AtomicInteger questionNumber = new AtomicInteger();
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void ollamaProperties(DynamicPropertyRegistry registry) {
+        registry.add("app.ai.ollama.host", ollama::baseUrl);
+        registry.add("app.ai.ollama.api-key", () -> "benchmark-key");
+        // Every request must reach the model, not the reply cache.
+        registry.add("app.ai.cache.ttl", () -> "PT0S");
+    }
+
+    @AfterAll
+    static void stopServer() {
+        ollama.close();
+    }
+
+    @Test
+    void streamingChatLatency() throws Exception {
+        int requests = Integer.getInteger("benchmark.requests", 64);
+        int[] levels = Arrays.stream(System.getProperty("benchmark.concurrency", "1,8,32").split(","))
+            .map(String::trim)
+            .mapToInt(Integer::parseInt)
+            .toArray();
+
+        runLevel(Math.min(4, requests), 2);
+
+        System.out.printf("%nStreaming chat: %d tokens per reply, %s between tokens, %s to first token%n",
+            TOKENS, Duration.ofMillis(Integer.getInteger("benchmark.token-delay-ms", 5)),
+            Duration.ofMillis(Integer.getInteger("benchmark.first-token-ms", 100)));
+        System.out.printf("%11s %8s | %9s %9s | %9s | %9s %9s %9s | %12s%n",
+            "concurrency", "requests", "ttft p50", "ttft p99", "tok/s p50", "e2e p50", "e2e p90", "e2e p99", "alloc/req");
+        for (int concurrency : levels) {
+            long allocatedBefore = allocatedBytes();
+            List<Sample> samples = runLevel(requests, concurrency);
+            long allocatedPerRequest = (allocatedBytes() - allocatedBefore) / requests;
+
+            assertThat(samples).allSatisfy(sample -> assertThat(sample.tokens()).isEqualTo(TOKENS));
+            System.out.printf("%11d %8d | %7.1fms %7.1fms | %9.0f | %7.1fms %7.1fms %7.1fms | %10.1fKB%n",
+                concurrency, samples.size(),
+                percentile(samples.stream().mapToDouble(Sample::firstTokenMillis), 0.5),
+                percentile(samples.stream().mapToDouble(Sample::firstTokenMillis), 0.99),
+                percentile(samples.stream().mapToDouble(Sample::tokensPerSecond), 0.5),
+                percentile(samples.stream().mapToDouble(Sample::totalMillis), 0.5),
+                percentile(samples.stream().mapToDouble(Sample::totalMillis), 0.9),
+                percentile(samples.stream().mapToDouble(Sample::totalMillis), 0.99),
+                allocatedPerRequest / 1024.0);
+        }
+    }
+
+    private List<Sample> runLevel(int requests, int concurrency) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<Sample>> futures = new ArrayList<>(requests);
+            for (int i = 0; i < requests; i++) {
+                futures.add(pool.submit(this::streamOneReply));
+            }
+            List<Sample> samples = new ArrayList<>(requests);
+            for (Future<Sample> future : futures) {
+                samples.add(future.get());
+            }
+            return samples;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Sample streamOneReply() throws Exception {
+        HttpResponse<String> created = client.send(post("/api/ai/conversations", "{}", "application/json"),
+            HttpResponse.BodyHandlers.ofString());
+        long conversationId = objectMapper.readTree(created.body()).path("id").asLong();
+        String body = objectMapper.writeValueAsString(
+            Map.of("content", "What is the status of order " + questionNumber.incrementAndGet() + "?"));
+
+        long start = System.nanoTime();
+        long firstToken = 0;
+        StringBuilder reply = new StringBuilder();
+        HttpResponse<Stream<String>> response = client.send(
+            post("/api/ai/conversations/" + conversationId + "/messages", body, "text/event-stream"),
+            HttpResponse.BodyHandlers.ofLines());
+        assertThat(response.statusCode()).isEqualTo(200);
+        try (Stream<String> lines = response.body()) {
+            for (String line : (Iterable<String>) lines::iterator) {
+                if (line.startsWith("data:") && line.contains("\"delta\"")) {
+                    if (firstToken == 0) {
+                        firstToken = System.nanoTime();
+                    }
+                    reply.append(objectMapper.readTree(line.substring(5)).path("delta").asText());
+                }
+            }
+        }
+        long end = System.nanoTime();
+        int tokens = reply.length() / Math.max(ollama.expectedReply().length() / TOKENS, 1);
+        return new Sample(start, firstToken == 0 ? end : firstToken, end, tokens);
+    }
+
+    private HttpRequest post(String path, String body, String accept) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+            .header("Authorization", AUTHORIZATION)
+            .header("Content-Type", "application/json")
+            .header("Accept", accept)
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return Arrays.stream(threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+            .filter(bytes -> bytes > 0)
+            .sum();
+    }
+
+    private static double percentile(DoubleStream values, double quantile) {
+        double[] sorted = values.sorted().toArray();
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.min(Math.max(index, 0), sorted.length - 1)];
+    }
+
+    private record Sample(long startNanos, long firstTokenNanos, long endNanos, int tokens) {
+
+        double firstTokenMillis() {
+            return (firstTokenNanos - startNanos) / 1_000_000.0;
+        }
+
+        double totalMillis() {
+            return (endNanos - startNanos) / 1_000_000.0;
+        }
+
+        double tokensPerSecond() {
+            double seconds = (endNanos - firstTokenNanos) / 1_000_000_000.0;
+            return seconds > 0 ? tokens / seconds : Double.NaN;
+        }
+    }
+}
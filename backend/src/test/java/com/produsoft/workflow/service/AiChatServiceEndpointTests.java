@@ -0,0 +1,93 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.produsoft.workflow.dto.AiChatRequest;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Chats against several Ollama endpoints, checking that a session stays on one of them.
+ */
+@SpringBootTest
+class AiChatServiceEndpointTests {
+
+    private static final List<FakeOllamaServer> endpoints = List.of(
+        new FakeOllamaServer().start(), new FakeOllamaServer().start(), new FakeOllamaServer().start());
+
+    @Autowired
+    private AiChatService aiChatService;
+
+    @DynamicPropertySource
+    static void ollamaProperties(DynamicPropertyRegistry registry) {
+        registry.add("app.ai.ollama.host", () -> endpoints.get(0).baseUrl());
+        registry.add("app.ai.ollama.endpoints",
+            () -> endpoints.stream().map(FakeOllamaServer::baseUrl).collect(Collectors.joining(",")));
+        registry.add("app.ai.ollama.api-key", () -> "test-key");
+        registry.add("app.ai.cache.ttl", () -> "PT0S");
+        registry.add("app.ai.resilience.retry-backoff", () -> "PT0S");
+    }
+
+    @AfterEach
+    void resetServers() {
+        endpoints.forEach(endpoint -> endpoint.failureRate(0));
+    }
+
+    @AfterAll
+    static void stopServers() {
+        endpoints.forEach(FakeOllamaServer::close);
+    }
+
+    @Test
+    void everyTurnOfASessionGoesToTheSameEndpoint() {
+        String sessionKey = "conversation-" + UUID.randomUUID();
+        List<Integer> before = requestCounts();
+
+        for (int turn = 1; turn <= 3; turn++) {
+            aiChatService.chat(request("Turn " + turn), sessionKey);
+        }
+
+        List<Integer> sent = sentSince(before);
+        assertThat(sent).containsOnly(0, 3).containsOnlyOnce(3);
+    }
+
+    @Test
+    void retryMovesToTheSessionsNextEndpoint() {
+        String sessionKey = "conversation-" + UUID.randomUUID();
+        List<Integer> before = requestCounts();
+        aiChatService.chat(request("First turn"), sessionKey);
+        int pinned = sentSince(before).indexOf(1);
+        endpoints.get(pinned).failureRate(1);
+
+        List<Integer> beforeRetry = requestCounts();
+        String reply = aiChatService.chat(request("Second turn"), sessionKey).content();
+
+        assertThat(reply).isEqualTo(endpoints.get(0).expectedReply());
+        List<Integer> sent = sentSince(beforeRetry);
+        assertThat(sent.get(pinned)).isEqualTo(1);
+        assertThat(sent).containsOnly(0, 1).containsOnlyOnce(0);
+    }
+
+    private static List<Integer> requestCounts() {
+        return endpoints.stream().map(FakeOllamaServer::requestCount).toList();
+    }
+
+    private static List<Integer> sentSince(List<Integer> before) {
+        return IntStream.range(0, endpoints.size())
+            .mapToObj(i -> endpoints.get(i).requestCount() - before.get(i))
+            .toList();
+    }
+
+    private static AiChatRequest request(String content) {
+        return new AiChatRequest(null, List.of(new AiChatRequest.Message("user", content)), false);
+    }
+}
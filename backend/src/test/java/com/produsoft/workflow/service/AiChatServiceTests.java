@@ -0,0 +1,102 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.produsoft.workflow.dto.AiChatRequest;
+import com.produsoft.workflow.exception.AiClientException;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+@SpringBootTest
+class AiChatServiceTests {
+
+    private static final FakeOllamaServer ollama = new FakeOllamaServer().start();
+
+    @Autowired
+    private AiChatService aiChatService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @DynamicPropertySource
+    static void ollamaProperties(DynamicPropertyRegistry registry) {
+        registry.add("app.ai.ollama.host", ollama::baseUrl);
+        registry.add("app.ai.ollama.api-key", () -> "test-key");
+        registry.add("app.ai.cache.ttl", () -> "PT0S");
+    }
+
+    @AfterEach
+    void resetServer() {
+        ollama.tokensPerReply(8).tokenText("token ").tokenDelay(Duration.ZERO).failureRate(0).midStreamFailureRate(0);
+    }
+
+    @AfterAll
+    static void stopServer() {
+        ollama.close();
+    }
+
+    @Test
+    void streamsDeltasAndReturnsWholeReply() throws Exception {
+        ollama.tokensPerReply(20).tokenText("ü-part ").tokenDelay(Duration.ofMillis(1));
+        List<String> deltas = new CopyOnWriteArrayList<>();
+
+        String reply = aiChatService.chatStreamAsync(request("stream please", true), deltas::add)
+            .get(10, TimeUnit.SECONDS);
+
+        assertThat(reply).isEqualTo(ollama.expectedReply());
+        assertThat(String.join("", deltas)).isEqualTo(reply);
+        assertThat(ollama.lastRequest().path("stream").asBoolean()).isTrue();
+    }
+
+    @Test
+    void returnsNonStreamingReply() {
+        assertThat(aiChatService.chat(request("no stream", false)).content()).isEqualTo(ollama.expectedReply());
+        assertThat(ollama.lastRequest().path("stream").asBoolean()).isFalse();
+    }
+
+    @Test
+    void sendsKeepAliveAndRecordsPromptEvaluation() throws Exception {
+        aiChatService.chatStreamAsync(request("keep it loaded", true), "conversation-1", null).get(10, TimeUnit.SECONDS);
+
+        assertThat(ollama.lastRequest().path("keep_alive").asText()).isEqualTo("1800s");
+        assertThat(meterRegistry.get("ai.ollama.prompt.tokens").tag("kind", "evaluated").summary().totalAmount())
+            .isGreaterThanOrEqualTo(100);
+        assertThat(meterRegistry.get("ai.ollama.prompt.eval").timer().totalTime(TimeUnit.MILLISECONDS))
+            .isGreaterThanOrEqualTo(2);
+    }
+
+    @Test
+    void reportsUpstreamErrors() {
+        ollama.failureRate(1);
+
+        assertThatThrownBy(() -> aiChatService.chatStreamAsync(request("failing", true), null).join())
+            .isInstanceOf(CompletionException.class)
+            .hasCauseInstanceOf(AiClientException.class)
+            .hasMessageContaining("simulated failure");
+    }
+
+    @Test
+    void reportsErrorsInTheMiddleOfAStream() {
+        ollama.midStreamFailureRate(1);
+
+        assertThatThrownBy(() -> aiChatService.chatStreamAsync(request("failing halfway", true), null).join())
+            .hasCauseInstanceOf(AiClientException.class)
+            .hasMessageContaining("simulated stream failure");
+    }
+
+    private static AiChatRequest request(String content, boolean stream) {
+        return new AiChatRequest(null, List.of(new AiChatRequest.Message("user", content)), stream);
+    }
+}
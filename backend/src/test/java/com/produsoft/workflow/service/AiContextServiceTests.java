@@ -0,0 +1,144 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.dto.AiChatRequest;
+import com.produsoft.workflow.dto.CreateOrderRequest;
+import com.produsoft.workflow.repository.OrderRepository;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+@SpringBootTest
+class AiContextServiceTests {
+
+    /** Matches no indexed order, so the prompt falls back to the cached highest-priority orders. */
+    private static final String UNMATCHED_QUESTION = "zzqxv";
+
+    @Autowired
+    private AiContextService contextService;
+
+    @Autowired
+    private WorkflowDataVersion dataVersion;
+
+    @Autowired
+    private OrderWorkflowService workflowService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private WipCounterService wipCounterService;
+
+    @Autowired
+    private OrderContextIndex contextIndex;
+
+    @Test
+    void committedOrderChangesBumpTheDataVersion() {
+        long before = dataVersion.current();
+        Order order = workflowService.createOrder(new CreateOrderRequest(orderNumber(), 1, null));
+        long created = dataVersion.current();
+        assertThat(created).isGreaterThan(before);
+
+        workflowService.claimStage(order.getId(), StageType.PREPARATION, "operator1");
+        assertThat(dataVersion.current()).isGreaterThan(created);
+    }
+
+    @Test
+    void snapshotIsReusedUntilTheDataVersionChanges() {
+        // The order stays claimed afterwards so claim-next tests never pick it up.
+        String orderNumber = orderNumber();
+        Order order = workflowService.createOrder(new CreateOrderRequest(orderNumber, 5_000_000, "first-note"));
+        assertThat(prompt()).contains(orderNumber).contains("first-note");
+
+        // Written behind the service's back: no event, so the cached snapshot is still considered current.
+        jdbcTemplate.update("UPDATE orders SET notes = ? WHERE id = ?", "second-note", order.getId());
+        assertThat(prompt()).contains("first-note").doesNotContain("second-note");
+
+        workflowService.claimStage(order.getId(), StageType.PREPARATION, "operator1");
+        assertThat(prompt()).contains("second-note").doesNotContain("first-note");
+    }
+
+    @Test
+    void relevantOrdersAreShownWhileTheyFitTheTokenBudget() {
+        String term = "budget" + UUID.randomUUID().toString().replace("-", "");
+        for (int i = 0; i < 3; i++) {
+            workflowService.createOrder(new CreateOrderRequest(orderNumber(), 1, term + " " + "x".repeat(200)));
+        }
+        List<AiChatRequest.Message> history = List.of(new AiChatRequest.Message("user", "Where is " + term + "?"));
+
+        String roomy = workflowData(contextService.buildPrompt(term, history));
+        assertThat(shownCount(roomy)).isEqualTo(3);
+        assertThat(roomy).contains("orders that best match the question");
+
+        int budget = 250;
+        AiContextService tight = new AiContextService(orderRepository, wipCounterService, dataVersion, contextIndex,
+            Duration.ofSeconds(30), budget, true);
+        String data = workflowData(tight.buildPrompt(term, history));
+        assertThat(shownCount(data)).isBetween(1, 2);
+        assertThat(TokenEstimator.estimate(data)).isLessThanOrEqualTo(budget);
+    }
+
+    @Test
+    void consecutiveTurnsStartWithTheSameBytesUpToTheWorkflowData() throws Exception {
+        String term = "prefix" + UUID.randomUUID().toString().replace("-", "");
+        AiChatRequest.Message question1 = new AiChatRequest.Message("user", "Where is " + term + "?");
+        AiChatRequest.Message answer1 = new AiChatRequest.Message("assistant", "No order mentions it.");
+        AiChatRequest.Message question2 = new AiChatRequest.Message("user", "And now, " + term + "?");
+        AiChatRequest.Message answer2 = new AiChatRequest.Message("assistant", "One order mentions it.");
+        AiChatRequest.Message question3 = new AiChatRequest.Message("user", "Who has " + term + "?");
+
+        List<AiChatRequest.Message> second = contextService.buildPrompt(term, List.of(question1, answer1, question2));
+        workflowService.createOrder(new CreateOrderRequest(orderNumber(), 1, term));
+        List<AiChatRequest.Message> third = contextService.buildPrompt(term,
+            List.of(question1, answer1, question2, answer2, question3));
+
+        assertThat(workflowData(third)).isNotEqualTo(workflowData(second)).contains(term);
+        String secondPrefix = json(second.subList(0, second.size() - 2));
+        String thirdPrompt = json(third);
+        assertThat(thirdPrompt).startsWith(secondPrefix.substring(0, secondPrefix.length() - 1));
+        assertThat(third.subList(1, third.size() - 2)).containsExactly(question1, answer1, question2, answer2);
+    }
+
+    private static String json(List<AiChatRequest.Message> messages) throws Exception {
+        return new ObjectMapper().writeValueAsString(messages);
+    }
+
+    private static String workflowData(List<AiChatRequest.Message> prompt) {
+        // With the stable prefix the workflow data is the system message just before the user's latest message.
+        assertThat(prompt).hasSizeGreaterThanOrEqualTo(3);
+        AiChatRequest.Message data = prompt.get(prompt.size() - 2);
+        assertThat(data.role()).isEqualTo("system");
+        return data.content();
+    }
+
+    private static int shownCount(String workflowData) {
+        Matcher matcher = Pattern.compile("Showing (\\d+) ").matcher(workflowData);
+        assertThat(matcher.find()).isTrue();
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    private String prompt() {
+        return contextService.buildPrompt(UNMATCHED_QUESTION,
+                List.of(new AiChatRequest.Message("user", UNMATCHED_QUESTION))).stream()
+            .map(AiChatRequest.Message::content)
+            .collect(Collectors.joining("\n"));
+    }
+
+    private static String orderNumber() {
+        return "CTX-" + UUID.randomUUID();
+    }
+}
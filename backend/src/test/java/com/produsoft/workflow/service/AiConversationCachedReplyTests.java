@@ -0,0 +1,77 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.produsoft.workflow.domain.AiMessage;
+import com.produsoft.workflow.domain.AiMessageRole;
+import com.produsoft.workflow.dto.AiConversationSummaryResponse;
+import com.produsoft.workflow.dto.CreateConversationRequest;
+import com.produsoft.workflow.dto.SendMessageRequest;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+/**
+ * Streams replies with the response cache on, so that a repeated question is answered from it.
+ */
+@SpringBootTest
+class AiConversationCachedReplyTests {
+
+    private static final FakeOllamaServer ollama = new FakeOllamaServer().start();
+
+    @Autowired
+    private AiConversationService conversationService;
+
+    @DynamicPropertySource
+    static void ollamaProperties(DynamicPropertyRegistry registry) {
+        registry.add("app.ai.ollama.host", ollama::baseUrl);
+        registry.add("app.ai.ollama.api-key", () -> "test-key");
+        registry.add("app.ai.cache.ttl", () -> "PT60S");
+    }
+
+    @AfterAll
+    static void stopServer() {
+        ollama.close();
+    }
+
+    @Test
+    void replyServedFromTheCacheIsStoredInTheSecondConversation() throws InterruptedException {
+        String username = "cached-" + UUID.randomUUID();
+        String question = "Which orders are late? " + UUID.randomUUID();
+        Long first = conversationService.createConversation(username, new CreateConversationRequest("First", null)).id();
+        conversationService.streamMessage(username, first, new SendMessageRequest(question));
+        awaitMessages(username, first, 2);
+        int upstreamCalls = ollama.requestCount();
+
+        Long second = conversationService.createConversation(username, new CreateConversationRequest("Second", null)).id();
+        conversationService.streamMessage(username, second, new SendMessageRequest(question));
+        List<AiMessage> messages = awaitMessages(username, second, 2);
+
+        assertThat(ollama.requestCount()).isEqualTo(upstreamCalls);
+        assertThat(messages).extracting(AiMessage::getRole).containsExactly(AiMessageRole.USER, AiMessageRole.ASSISTANT);
+        assertThat(messages.get(1).getContent()).isEqualTo(ollama.expectedReply());
+        AiConversationSummaryResponse summary = conversationService.listConversations(username).stream()
+            .filter(conversation -> conversation.id().equals(second))
+            .findFirst()
+            .orElseThrow();
+        assertThat(summary.messageCount()).isEqualTo(2);
+        assertThat(summary.lastMessagePreview()).isEqualTo(ollama.expectedReply());
+    }
+
+    private List<AiMessage> awaitMessages(String username, Long conversationId, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        List<AiMessage> messages = List.of();
+        while (messages.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            messages = conversationService.findMessagePage(username, conversationId, null, null).messages();
+        }
+        assertThat(messages).hasSize(count);
+        return messages;
+    }
+}
@@ -0,0 +1,134 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.produsoft.workflow.domain.AiConversation;
+import com.produsoft.workflow.domain.AiMessage;
+import com.produsoft.workflow.domain.AiMessageRole;
+import com.produsoft.workflow.dto.AiChatRequest;
+import com.produsoft.workflow.repository.AiConversationRepository;
+import com.produsoft.workflow.repository.AiMessageRepository;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SpringBootTest
+class AiConversationCompactorTests {
+
+    private static final FakeOllamaServer ollama = new FakeOllamaServer().start();
+    private static final Instant START = Instant.parse("2026-01-05T08:00:00Z");
+
+    @Autowired
+    private AiConversationRepository conversationRepository;
+
+    @Autowired
+    private AiMessageRepository messageRepository;
+
+    @Autowired
+    private AiChatService aiChatService;
+
+    @Autowired
+    private AiStreamExecutor streamExecutor;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @DynamicPropertySource
+    static void ollamaProperties(DynamicPropertyRegistry registry) {
+        registry.add("app.ai.ollama.host", ollama::baseUrl);
+        registry.add("app.ai.ollama.api-key", () -> "test-key");
+        registry.add("app.ai.cache.ttl", () -> "PT0S");
+    }
+
+    @AfterAll
+    static void stopServer() {
+        ollama.close();
+    }
+
+    @Test
+    void foldsOlderTurnsIntoASummaryAndBuildsHistoryFromIt() throws InterruptedException {
+        AiConversationCompactor compactor = compactor(3000, 50, 2);
+        Long conversationId = createConversation();
+        for (int i = 0; i < 6; i++) {
+            append(conversationId, "turn " + i + " " + "x".repeat(40), START.plusSeconds(i));
+        }
+
+        compactor.compactIfNeeded(conversationId);
+        AiMessage summary = awaitSummary(conversationId);
+
+        assertThat(summary.getContent()).isEqualTo(ollama.expectedReply().trim());
+        assertThat(summary.getCreatedAt()).isEqualTo(START.plusSeconds(3));
+        String transcript = ollama.lastRequest().path("messages").get(1).path("content").asText();
+        assertThat(transcript).contains("turn 0", "turn 3").doesNotContain("turn 4", "turn 5");
+
+        List<AiChatRequest.Message> history = compactor.buildHistory(conversationId);
+        assertThat(history).hasSize(3);
+        assertThat(history.get(0).role()).isEqualTo("system");
+        assertThat(history.get(0).content()).endsWith(summary.getContent());
+        assertThat(history.get(1).content()).startsWith("turn 4");
+        assertThat(history.get(2).content()).startsWith("turn 5");
+    }
+
+    @Test
+    void leavesShortConversationsAloneAndAlwaysKeepsTheLatestTurn() {
+        AiConversationCompactor compactor = compactor(30, 2000, 2);
+        Long conversationId = createConversation();
+        append(conversationId, "an early question", START);
+        append(conversationId, "y".repeat(400), START.plusSeconds(1));
+        int requests = ollama.requestCount();
+
+        compactor.compactIfNeeded(conversationId);
+
+        assertThat(ollama.requestCount()).isEqualTo(requests);
+        assertThat(messageRepository.findTopByConversationIdAndRoleOrderByCreatedAtDescIdDesc(conversationId,
+            AiMessageRole.SYSTEM)).isEmpty();
+        // The latest turn is over the whole budget on its own: it is kept and nothing older fits beside it.
+        assertThat(compactor.buildHistory(conversationId))
+            .extracting(AiChatRequest.Message::content)
+            .containsExactly("y".repeat(400));
+    }
+
+    private AiConversationCompactor compactor(int historyTokenBudget, int summarizeAfterTokens, int keepRecentMessages) {
+        return new AiConversationCompactor(messageRepository, conversationRepository, aiChatService, streamExecutor,
+            transactionManager, historyTokenBudget, summarizeAfterTokens, keepRecentMessages);
+    }
+
+    private AiMessage awaitSummary(Long conversationId) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        Optional<AiMessage> summary = Optional.empty();
+        while (summary.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            summary = messageRepository.findTopByConversationIdAndRoleOrderByCreatedAtDescIdDesc(conversationId,
+                AiMessageRole.SYSTEM);
+        }
+        return summary.orElseThrow();
+    }
+
+    private Long createConversation() {
+        AiConversation conversation = new AiConversation();
+        conversation.setCreatedBy("compactor-" + UUID.randomUUID());
+        return conversationRepository.save(conversation).getId();
+    }
+
+    private void append(Long conversationId, String content, Instant createdAt) {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            AiConversation conversation = conversationRepository.findById(conversationId).orElseThrow();
+            AiMessage message = new AiMessage();
+            message.setRole(conversation.getMessageCount() % 2 == 0 ? AiMessageRole.USER : AiMessageRole.ASSISTANT);
+            message.setContent(content);
+            message.setCreatedAt(createdAt);
+            conversation.addMessage(message);
+            messageRepository.save(message);
+        });
+    }
+}
@@ -0,0 +1,187 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.produsoft.workflow.domain.AiConversation;
+import com.produsoft.workflow.domain.AiMessage;
+import com.produsoft.workflow.domain.AiMessageRole;
+import com.produsoft.workflow.dto.AiChatRequest;
+import com.produsoft.workflow.dto.AiConversationResponse;
+import com.produsoft.workflow.dto.AiConversationSummaryResponse;
+import com.produsoft.workflow.dto.CreateConversationRequest;
+import com.produsoft.workflow.exception.InvalidStageActionException;
+import com.produsoft.workflow.exception.NotFoundException;
+import com.produsoft.workflow.repository.AiConversationRepository;
+import com.produsoft.workflow.repository.AiMessageRepository;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+@SpringBootTest
+class AiConversationServiceTests {
+
+    private static final Instant START = Instant.parse("2026-01-05T08:00:00Z");
+
+    @Autowired
+    private AiConversationService conversationService;
+
+    @Autowired
+    private AiConversationCompactor compactor;
+
+    @Autowired
+    private AiConversationRepository conversationRepository;
+
+    @Autowired
+    private AiMessageRepository messageRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void messagePagesWalkBackThroughTheConversationWithoutGapsOrOverlap() {
+        String username = username();
+        Long conversationId = createConversation(username);
+        // Messages 2 and 3 share a timestamp, so the page boundary between them is decided by id.
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            ids.add(append(conversationId, "message " + i, START.plusSeconds(i == 3 ? 2 : i)));
+        }
+
+        List<Long> seen = new ArrayList<>();
+        AiMessagePage page = conversationService.findMessagePage(username, conversationId, null, 2);
+        assertThat(messageIds(page)).containsExactly(ids.get(5), ids.get(6));
+        List<List<Long>> pages = new ArrayList<>();
+        pages.add(messageIds(page));
+        while (page.nextCursor() != null) {
+            page = conversationService.findMessagePage(username, conversationId, page.nextCursor(), 2);
+            pages.add(messageIds(page));
+        }
+        for (int i = pages.size() - 1; i >= 0; i--) {
+            seen.addAll(pages.get(i));
+        }
+
+        assertThat(pages).hasSize(4);
+        assertThat(seen).containsExactlyElementsOf(ids);
+
+        AiConversationResponse conversation = conversationService.getConversation(username, conversationId);
+        assertThat(conversation.messages()).hasSize(7);
+        assertThat(conversation.earlierMessagesCursor()).isNull();
+    }
+
+    @Test
+    void messagePagesAreOnlyServedToTheConversationOwner() {
+        String username = username();
+        Long conversationId = createConversation(username);
+        append(conversationId, "hello", START);
+
+        assertThatThrownBy(() -> conversationService.findMessagePage(username(), conversationId, null, null))
+            .isInstanceOf(NotFoundException.class);
+        assertThatThrownBy(() -> conversationService.findMessagePage(username, conversationId, "not-a-cursor", null))
+            .isInstanceOf(InvalidStageActionException.class);
+    }
+
+    @Test
+    void historyHoldsOnlyTheLatestTurnsInChronologicalOrder() {
+        String username = username();
+        Long conversationId = createConversation(username);
+        for (int i = 0; i < 30; i++) {
+            append(conversationId, "turn " + i, START.plusSeconds(i));
+        }
+
+        List<AiChatRequest.Message> history = compactor.buildHistory(conversationId);
+
+        assertThat(history).hasSize(20);
+        assertThat(history.get(0).content()).isEqualTo("turn 10");
+        assertThat(history.get(19).content()).isEqualTo("turn 29");
+    }
+
+    @Test
+    void conversationPagesFollowTheLatestActivityAndStayWithTheirOwner() {
+        String username = username();
+        List<Long> created = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            created.add(createConversation(username));
+        }
+        createConversation(username());
+        append(created.get(0), "bumps the oldest conversation", START);
+
+        List<Long> paged = new ArrayList<>();
+        AiConversationPage page = conversationService.findConversationPage(username, null, 2);
+        paged.addAll(conversationIds(page));
+        int pages = 1;
+        while (page.nextCursor() != null) {
+            page = conversationService.findConversationPage(username, page.nextCursor(), 2);
+            paged.addAll(conversationIds(page));
+            pages++;
+        }
+
+        assertThat(pages).isEqualTo(3);
+        assertThat(paged).first().isEqualTo(created.get(0));
+        assertThat(paged).containsExactlyElementsOf(conversationService.listConversations(username).stream()
+            .map(AiConversationSummaryResponse::id)
+            .toList());
+        assertThat(paged).containsExactlyInAnyOrderElementsOf(created);
+    }
+
+    @Test
+    void summaryCarriesThePreviewAndCountOfAppendedMessages() {
+        String username = username();
+        Long conversationId = createConversation(username);
+        assertThat(summary(username, conversationId).messageCount()).isZero();
+
+        append(conversationId, "short question", START);
+        append(conversationId, "y".repeat(300), START.plusSeconds(5));
+
+        AiConversationSummaryResponse summary = summary(username, conversationId);
+        assertThat(summary.messageCount()).isEqualTo(2);
+        assertThat(summary.lastMessageAt()).isEqualTo(START.plusSeconds(5));
+        assertThat(summary.lastMessagePreview())
+            .hasSize(AiConversation.PREVIEW_LENGTH)
+            .endsWith("...");
+    }
+
+    private Long createConversation(String username) {
+        return conversationService.createConversation(username, new CreateConversationRequest("Paging", null)).id();
+    }
+
+    /**
+     * Appends a turn dated {@code createdAt} the way a completed chat would, without calling the assistant.
+     */
+    private Long append(Long conversationId, String content, Instant createdAt) {
+        return new TransactionTemplate(transactionManager).execute(status -> {
+            AiConversation conversation = conversationRepository.findById(conversationId).orElseThrow();
+            AiMessage message = new AiMessage();
+            message.setRole(AiMessageRole.USER);
+            message.setContent(content);
+            message.setCreatedAt(createdAt);
+            conversation.addMessage(message);
+            return messageRepository.save(message).getId();
+        });
+    }
+
+    private AiConversationSummaryResponse summary(String username, Long conversationId) {
+        return conversationService.listConversations(username).stream()
+            .filter(summary -> summary.id().equals(conversationId))
+            .findFirst()
+            .orElseThrow();
+    }
+
+    private static List<Long> conversationIds(AiConversationPage page) {
+        return page.conversations().stream().map(AiConversation::getId).toList();
+    }
+
+    private static List<Long> messageIds(AiMessagePage page) {
+        return page.messages().stream().map(AiMessage::getId).toList();
+    }
+
+    private static String username() {
+        return "chat-" + UUID.randomUUID();
+    }
+}
@@ -0,0 +1,224 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.produsoft.workflow.domain.AiMessage;
+import com.produsoft.workflow.domain.AiMessageRole;
+import com.produsoft.workflow.dto.AiChatRequest;
+import com.produsoft.workflow.dto.AiConversationMapper;
+import com.produsoft.workflow.dto.AiConversationSummaryResponse;
+import com.produsoft.workflow.dto.CreateConversationRequest;
+import com.produsoft.workflow.dto.SendMessageRequest;
+import com.produsoft.workflow.repository.AiConversationRepository;
+import com.produsoft.workflow.repository.AiMessageRepository;
+import com.produsoft.workflow.repository.AiReplyCheckpointRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@SpringBootTest
+class AiConversationStreamingTests {
+
+    private static final FakeOllamaServer ollama = new FakeOllamaServer().start();
+
+    @Autowired
+    private AiConversationService conversationService;
+
+    @Autowired
+    private AiConversationRepository conversationRepository;
+
+    @Autowired
+    private AiMessageRepository messageRepository;
+
+    @Autowired
+    private AiChatService aiChatService;
+
+    @Autowired
+    private AiConversationMapper mapper;
+
+    @Autowired
+    private AiContextService contextService;
+
+    @Autowired
+    private AiStreamExecutor streamExecutor;
+
+    @Autowired
+    private AiConversationCompactor compactor;
+
+    @Autowired
+    private SseTokenFlusher tokenFlusher;
+
+    @Autowired
+    private AiReplyCheckpointRepository checkpointRepository;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @DynamicPropertySource
+    static void ollamaProperties(DynamicPropertyRegistry registry) {
+        registry.add("app.ai.ollama.host", ollama::baseUrl);
+        registry.add("app.ai.ollama.api-key", () -> "test-key");
+        registry.add("app.ai.cache.ttl", () -> "PT0S");
+    }
+
+    @AfterEach
+    void resetServer() {
+        ollama.tokensPerReply(8).tokenText("token ").tokenDelay(Duration.ZERO);
+    }
+
+    @AfterAll
+    static void stopServer() {
+        ollama.close();
+    }
+
+    @Test
+    void cancellingAStreamedChatStopsItsDeltas() throws InterruptedException {
+        ollama.tokensPerReply(400).tokenDelay(Duration.ofMillis(5));
+        List<String> deltas = new CopyOnWriteArrayList<>();
+        CountDownLatch started = new CountDownLatch(1);
+
+        CompletableFuture<String> reply = aiChatService.chatStreamAsync(
+            new AiChatRequest(null, List.of(new AiChatRequest.Message("user", "cancel " + UUID.randomUUID())), true),
+            delta -> {
+                deltas.add(delta);
+                started.countDown();
+            });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        reply.cancel(true);
+        // Deltas already parsed from the last chunk read may still arrive; nothing after that does.
+        Thread.sleep(100);
+        int received = deltas.size();
+        Thread.sleep(300);
+
+        assertThat(reply).isCancelled();
+        assertThat(deltas).hasSize(received).hasSizeLessThan(400);
+    }
+
+    @Test
+    void partialReplyOfADisconnectedClientIsStoredUnderThePersistPolicy() throws InterruptedException {
+        String username = username();
+        Long conversationId = streamThenDisconnect(username, "persist");
+
+        assertThat(meterRegistry.get("ai.stream.cancelled").tag("partial", "persisted").counter().count()).isEqualTo(1);
+        List<AiMessage> messages = conversationService.findMessagePage(username, conversationId, null, null).messages();
+        assertThat(messages).extracting(AiMessage::getRole).containsExactly(AiMessageRole.USER, AiMessageRole.ASSISTANT);
+        String partial = messages.get(1).getContent();
+        assertThat(partial).isNotEmpty();
+        assertThat(ollama.expectedReply()).startsWith(partial).isNotEqualTo(partial);
+    }
+
+    @Test
+    void partialReplyOfADisconnectedClientIsDroppedUnderTheDiscardPolicy() throws InterruptedException {
+        String username = username();
+        Long conversationId = streamThenDisconnect(username, "discard");
+
+        assertThat(meterRegistry.get("ai.stream.cancelled").tag("partial", "discarded").counter().count()).isEqualTo(1);
+        assertThat(conversationService.findMessagePage(username, conversationId, null, null).messages())
+            .extracting(AiMessage::getRole)
+            .containsExactly(AiMessageRole.USER);
+    }
+
+    @Test
+    void streamedReplyIsAppendedToTheConversationListing() throws InterruptedException {
+        String username = username();
+        Long conversationId = conversationService.createConversation(username,
+            new CreateConversationRequest("Appending", null)).id();
+
+        conversationService.streamMessage(username, conversationId, new SendMessageRequest("Status " + UUID.randomUUID()));
+        List<AiMessage> messages = awaitMessages(username, conversationId, 2);
+
+        AiMessage assistant = messages.get(1);
+        assertThat(assistant.getRole()).isEqualTo(AiMessageRole.ASSISTANT);
+        assertThat(assistant.getContent()).isEqualTo(ollama.expectedReply());
+        AiConversationSummaryResponse summary = conversationService.listConversations(username).get(0);
+        assertThat(summary.messageCount()).isEqualTo(2);
+        assertThat(summary.lastMessagePreview()).isEqualTo(ollama.expectedReply());
+        assertThat(summary.lastMessageAt()).isEqualTo(assistant.getCreatedAt());
+        assertThat(summary.updatedAt()).isEqualTo(assistant.getCreatedAt());
+    }
+
+    @Test
+    void replyToAConversationDeletedWhileStreamingIsNotStored() throws InterruptedException {
+        ollama.tokensPerReply(20).tokenDelay(Duration.ofMillis(20));
+        String username = username();
+        Long conversationId = conversationService.createConversation(username,
+            new CreateConversationRequest("Deleted", null)).id();
+
+        conversationService.streamMessage(username, conversationId, new SendMessageRequest("Status " + UUID.randomUUID()));
+        conversationService.deleteConversation(username, conversationId);
+        Thread.sleep(1000);
+
+        assertThat(conversationRepository.findById(conversationId)).isEmpty();
+        assertThat(messageRepository.findLatest(conversationId, Limit.of(10))).isEmpty();
+    }
+
+    private List<AiMessage> awaitMessages(String username, Long conversationId, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        List<AiMessage> messages = List.of();
+        while (messages.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            messages = conversationService.findMessagePage(username, conversationId, null, null).messages();
+        }
+        assertThat(messages).hasSize(count);
+        return messages;
+    }
+
+    /**
+     * Streams a slow reply to a client that goes away after the first tokens, and waits for the reply to be
+     * cancelled once it has had no client for the (zero) resume grace.
+     */
+    private Long streamThenDisconnect(String username, String policy) throws InterruptedException {
+        ollama.tokensPerReply(400).tokenDelay(Duration.ofMillis(5));
+        AiReplyStreams replyStreams = new AiReplyStreams(tokenFlusher, checkpointRepository, transactionManager,
+            meterRegistry, 65536, Duration.ZERO, Duration.ofMinutes(1), Duration.ofHours(1), Duration.ofSeconds(1));
+        AiConversationService service = service(replyStreams, policy);
+        Long conversationId = conversationService.createConversation(username,
+            new CreateConversationRequest("Streaming", null)).id();
+
+        SseEmitter emitter = new TransactionTemplate(transactionManager).execute(status ->
+            service.streamMessage(username, conversationId, new SendMessageRequest("Where is " + UUID.randomUUID() + "?")));
+        Thread.sleep(200);
+        // The next token event fails to send, as it would to a closed connection.
+        emitter.complete();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (meterRegistry.find("ai.stream.cancelled").counters().stream().allMatch(counter -> counter.count() == 0)
+            && System.nanoTime() < deadline) {
+            replyStreams.maintain();
+            Thread.sleep(20);
+        }
+        return conversationId;
+    }
+
+    private AiConversationService service(AiReplyStreams replyStreams, String cancelledReplyPolicy) {
+        return new AiConversationService(conversationRepository, messageRepository, aiChatService, mapper,
+            contextService, streamExecutor, compactor, replyStreams, eventPublisher, transactionManager, meterRegistry,
+            cancelledReplyPolicy);
+    }
+
+    private static String username() {
+        return "stream-" + UUID.randomUUID();
+    }
+}
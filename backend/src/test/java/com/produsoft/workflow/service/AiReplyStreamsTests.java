@@ -0,0 +1,215 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.produsoft.workflow.domain.AiConversation;
+import com.produsoft.workflow.domain.AiMessageRole;
+import com.produsoft.workflow.dto.AiConversationMapper;
+import com.produsoft.workflow.dto.AiMessageResponse;
+import com.produsoft.workflow.dto.SendMessageRequest;
+import com.produsoft.workflow.exception.TooManyRequestsException;
+import com.produsoft.workflow.repository.AiConversationRepository;
+import com.produsoft.workflow.repository.AiMessageRepository;
+import com.produsoft.workflow.repository.AiReplyCheckpointRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@SpringBootTest
+class AiReplyStreamsTests {
+
+    @Autowired
+    private SseTokenFlusher tokenFlusher;
+
+    @Autowired
+    private AiReplyCheckpointRepository checkpointRepository;
+
+    @Autowired
+    private AiConversationRepository conversationRepository;
+
+    @Autowired
+    private AiMessageRepository messageRepository;
+
+    @Autowired
+    private AiChatService aiChatService;
+
+    @Autowired
+    private AiConversationMapper mapper;
+
+    @Autowired
+    private AiContextService contextService;
+
+    @Autowired
+    private AiConversationCompactor compactor;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Deque<SseEmitter> emitters = new ArrayDeque<>();
+
+    @Test
+    void resumedClientGetsTheMissedTextAndThenTheRestOfTheReply() throws InterruptedException {
+        TestReplyStreams replyStreams = new TestReplyStreams();
+        Long conversationId = createConversation();
+        AiReplyStreams.ReplyStream reply = replyStreams.open(conversationId, () -> { });
+        RecordingEmitter original = new RecordingEmitter();
+        reply.attach(original, 0);
+        reply.accept("Hello ");
+        reply.accept("world");
+        original.awaitDeltas("Hello world");
+
+        RecordingEmitter resumed = new RecordingEmitter();
+        emitters.add(resumed);
+        replyStreams.resume(conversationId, reply.id() + ":6");
+        resumed.awaitDeltas("world");
+        reply.accept("!");
+        reply.complete(new AiMessageResponse(1L, AiMessageRole.ASSISTANT, "Hello world!", Instant.now()));
+
+        resumed.awaitCompleted();
+        assertThat(resumed.deltas()).isEqualTo("world!");
+        assertThat(resumed.events).last().isEqualTo("message");
+        assertThat(resumed.lastId).isEqualTo(reply.id() + ":12");
+        assertThat(meterRegistry.get("ai.stream.resumes").tag("source", "memory").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void resumeAfterARestartIsAnsweredFromTheCheckpoint() throws InterruptedException {
+        Long conversationId = createConversation();
+        AiReplyStreams beforeRestart = new TestReplyStreams();
+        AiReplyStreams.ReplyStream reply = beforeRestart.open(conversationId, () -> { });
+        reply.accept("partial answer");
+        beforeRestart.maintain();
+
+        TestReplyStreams afterRestart = new TestReplyStreams();
+        RecordingEmitter resumed = new RecordingEmitter();
+        emitters.add(resumed);
+        afterRestart.resume(conversationId, reply.id() + ":8");
+
+        resumed.awaitCompleted();
+        assertThat(resumed.deltas()).isEqualTo("answer");
+        assertThat(resumed.events).containsExactly("token", "interrupted");
+        assertThat(meterRegistry.get("ai.stream.resumes").tag("source", "checkpoint").counter().count())
+            .isEqualTo(1);
+
+        RecordingEmitter unknown = new RecordingEmitter();
+        emitters.add(unknown);
+        afterRestart.resume(conversationId, "missing:3");
+        assertThat(unknown.events).containsExactly("error");
+    }
+
+    @Test
+    void replyOfAChatRejectedForCapacityIsDropped() {
+        String username = "resume-" + UUID.randomUUID();
+        AiConversation conversation = new AiConversation();
+        conversation.setCreatedBy(username);
+        Long conversationId = conversationRepository.save(conversation).getId();
+        AiStreamExecutor fullExecutor = new AiStreamExecutor(1, 0, Duration.ofMinutes(1), meterRegistry);
+        fullExecutor.submit(CompletableFuture::new, error -> { });
+        AiReplyStreams replyStreams = new TestReplyStreams();
+        AiConversationService service = new AiConversationService(conversationRepository, messageRepository,
+            aiChatService, mapper, contextService, fullExecutor, compactor, replyStreams, eventPublisher,
+            transactionManager, meterRegistry, "discard");
+
+        assertThatThrownBy(() -> new TransactionTemplate(transactionManager).execute(status ->
+            service.streamMessage(username, conversationId, new SendMessageRequest("Anything late?"))))
+            .isInstanceOf(TooManyRequestsException.class);
+
+        assertThat(meterRegistry.get("ai.stream.replies").gauge().value()).isZero();
+    }
+
+    private Long createConversation() {
+        AiConversation conversation = new AiConversation();
+        conversation.setCreatedBy("resume-" + UUID.randomUUID());
+        return conversationRepository.save(conversation).getId();
+    }
+
+    private final class TestReplyStreams extends AiReplyStreams {
+
+        private TestReplyStreams() {
+            super(tokenFlusher, checkpointRepository, transactionManager, meterRegistry, 65536,
+                Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofHours(1), Duration.ofSeconds(1));
+        }
+
+        @Override
+        SseEmitter newEmitter() {
+            return emitters.removeFirst();
+        }
+    }
+
+    private static final class RecordingEmitter extends SseEmitter {
+
+        private static final Pattern EVENT = Pattern.compile("^event:(\\S+)", Pattern.MULTILINE);
+        private static final Pattern ID = Pattern.compile("^id:(\\S+)", Pattern.MULTILINE);
+
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final List<String> deltas = new CopyOnWriteArrayList<>();
+        final AtomicInteger completed = new AtomicInteger();
+        volatile String lastId;
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            for (DataWithMediaType part : builder.build()) {
+                if (part.getData() instanceof String text) {
+                    Matcher event = EVENT.matcher(text);
+                    if (event.find()) {
+                        events.add(event.group(1));
+                    }
+                    Matcher id = ID.matcher(text);
+                    if (id.find()) {
+                        lastId = id.group(1);
+                    }
+                } else if (part.getData() instanceof Map<?, ?> data && data.containsKey("delta")) {
+                    deltas.add((String) data.get("delta"));
+                }
+            }
+        }
+
+        @Override
+        public void complete() {
+            completed.incrementAndGet();
+        }
+
+        String deltas() {
+            return String.join("", deltas);
+        }
+
+        void awaitDeltas(String text) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!deltas().equals(text) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(deltas()).isEqualTo(text);
+        }
+
+        void awaitCompleted() throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (completed.get() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(completed).hasValue(1);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.produsoft.workflow.dto.AiChatRequest;
+import com.produsoft.workflow.dto.AiChatResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+class AiResponseCacheTests {
+
+    private static final String MODEL = "test-model";
+
+    private final WorkflowDataVersion dataVersion = new WorkflowDataVersion();
+    private final AiResponseCache cache = new AiResponseCache(dataVersion, Duration.ofMinutes(1), 16, new SimpleMeterRegistry());
+    private final List<CompletableFuture<AiChatResponse>> calls = new ArrayList<>();
+    private final List<Consumer<String>> publishers = new ArrayList<>();
+
+    @Test
+    void identicalRequestsShareOneCallAndThenTheCachedReply() {
+        StringBuilder first = new StringBuilder();
+        StringBuilder second = new StringBuilder();
+        CompletableFuture<AiChatResponse> leader = cache.get(MODEL, messages("How many orders?"), first::append, upstream());
+        publishers.get(0).accept("Three ");
+
+        CompletableFuture<AiChatResponse> follower = cache.get(MODEL, messages("  How many\norders? "), second::append, upstream());
+        publishers.get(0).accept("orders.");
+        calls.get(0).complete(new AiChatResponse(MODEL, "assistant", "Three orders."));
+
+        assertThat(calls).hasSize(1);
+        assertThat(leader).isCompletedWithValue(new AiChatResponse(MODEL, "assistant", "Three orders."));
+        assertThat(follower).isCompletedWithValue(new AiChatResponse(MODEL, "assistant", "Three orders."));
+        assertThat(first).hasToString("Three orders.");
+        assertThat(second).hasToString("Three orders.");
+
+        StringBuilder cached = new StringBuilder();
+        assertThat(cache.get(MODEL, messages("How many orders?"), cached::append, upstream())).isDone();
+        assertThat(cached).hasToString("Three orders.");
+        assertThat(calls).hasSize(1);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void orderChangesAndFailuresAreNotServedFromTheCache() {
+        cache.get(MODEL, messages("Status?"), null, upstream());
+        calls.get(0).complete(new AiChatResponse(MODEL, "assistant", "All good."));
+
+        dataVersion.onOrderChanged(null);
+        CompletableFuture<AiChatResponse> afterChange = cache.get(MODEL, messages("Status?"), null, upstream());
+        assertThat(calls).hasSize(2);
+        calls.get(1).completeExceptionally(new IllegalStateException("upstream failed"));
+        assertThat(afterChange).isCompletedExceptionally();
+
+        cache.get(MODEL, messages("Status?"), null, upstream());
+        assertThat(calls).hasSize(3);
+    }
+
+    @Test
+    void callIsCancelledOnlyOnceEveryWaitingRequestCancelled() {
+        CompletableFuture<AiChatResponse> first = cache.get(MODEL, messages("Which orders are late?"), null, upstream());
+        CompletableFuture<AiChatResponse> second = cache.get(MODEL, messages("Which orders are late?"), null, upstream());
+
+        first.cancel(true);
+        assertThat(calls.get(0)).isNotDone();
+
+        second.cancel(true);
+        assertThat(calls.get(0)).isCancelled();
+
+        CompletableFuture<AiChatResponse> retry = cache.get(MODEL, messages("Which orders are late?"), null, upstream());
+        assertThat(calls).hasSize(2);
+        calls.get(1).complete(new AiChatResponse(MODEL, "assistant", "None."));
+        assertThat(retry).isCompletedWithValue(new AiChatResponse(MODEL, "assistant", "None."));
+    }
+
+    private Function<Consumer<String>, CompletableFuture<AiChatResponse>> upstream() {
+        return publisher -> {
+            CompletableFuture<AiChatResponse> call = new CompletableFuture<>();
+            calls.add(call);
+            publishers.add(publisher);
+            return call;
+        };
+    }
+
+    private static List<AiChatRequest.Message> messages(String question) {
+        return List.of(new AiChatRequest.Message("system", "You are a workflow assistant."),
+            new AiChatRequest.Message("user", question));
+    }
+}
@@ -0,0 +1,119 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.produsoft.workflow.exception.ServiceUnavailableException;
+import com.produsoft.workflow.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+class AiStreamExecutorTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void queuesChatsBeyondTheConcurrencyLimitAndRejectsWhenTheQueueIsFull() {
+        AiStreamExecutor executor = new AiStreamExecutor(2, 1, Duration.ofMinutes(1), meterRegistry);
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        AtomicInteger started = new AtomicInteger();
+
+        executor.submit(() -> {
+            started.incrementAndGet();
+            return first;
+        }, error -> { });
+        executor.submit(() -> {
+            started.incrementAndGet();
+            return new CompletableFuture<>();
+        }, error -> { });
+        executor.submit(() -> {
+            started.incrementAndGet();
+            return new CompletableFuture<>();
+        }, error -> { });
+
+        assertThat(started).hasValue(2);
+        assertThat(executor.activeCount()).isEqualTo(2);
+        assertThat(executor.queuedCount()).isEqualTo(1);
+        assertThatThrownBy(() -> executor.submit(CompletableFuture::new, error -> { }))
+            .isInstanceOf(TooManyRequestsException.class);
+        assertThat(meterRegistry.get("ai.stream.rejected").tag("reason", "queue-full").counter().count()).isEqualTo(1);
+
+        first.complete(null);
+
+        assertThat(started).hasValue(3);
+        assertThat(executor.activeCount()).isEqualTo(2);
+        assertThat(executor.queuedCount()).isZero();
+    }
+
+    @Test
+    void dropsQueuedChatsThatWaitedTooLong() throws InterruptedException {
+        AiStreamExecutor executor = new AiStreamExecutor(1, 4, Duration.ofMillis(50), meterRegistry);
+        CompletableFuture<Void> running = new CompletableFuture<>();
+        AtomicReference<RuntimeException> notStarted = new AtomicReference<>();
+        AtomicInteger started = new AtomicInteger();
+
+        executor.submit(() -> running, error -> { });
+        executor.submit(() -> {
+            started.incrementAndGet();
+            return new CompletableFuture<>();
+        }, notStarted::set);
+        Thread.sleep(100);
+        executor.expireQueued();
+
+        assertThat(notStarted.get()).isInstanceOf(TooManyRequestsException.class);
+        assertThat(executor.queuedCount()).isZero();
+        running.complete(null);
+        assertThat(started).hasValue(0);
+        assertThat(executor.activeCount()).isZero();
+    }
+
+    @Test
+    void shutdownRejectsNewChatsAndDropsQueuedOnes() {
+        AiStreamExecutor executor = new AiStreamExecutor(1, 4, Duration.ofMinutes(1), meterRegistry);
+        AtomicReference<RuntimeException> notStarted = new AtomicReference<>();
+        executor.submit(CompletableFuture::new, error -> { });
+        executor.submit(CompletableFuture::new, notStarted::set);
+
+        executor.shutdown();
+
+        assertThat(notStarted.get()).isInstanceOf(ServiceUnavailableException.class);
+        assertThatThrownBy(() -> executor.submit(CompletableFuture::new, error -> { }))
+            .isInstanceOf(ServiceUnavailableException.class);
+    }
+
+    @Test
+    void reportsChatsThatFailToStartAndFreesTheirSlot() {
+        AiStreamExecutor executor = new AiStreamExecutor(1, 4, Duration.ofMinutes(1), meterRegistry);
+        CompletableFuture<Void> running = new CompletableFuture<>();
+        IllegalStateException failure = new IllegalStateException("API key is not configured");
+        AtomicReference<RuntimeException> notStarted = new AtomicReference<>();
+        AtomicInteger started = new AtomicInteger();
+
+        executor.submit(() -> running, error -> { });
+        executor.submit(() -> {
+            throw failure;
+        }, notStarted::set);
+        executor.submit(() -> {
+            started.incrementAndGet();
+            return new CompletableFuture<>();
+        }, error -> { });
+        running.complete(null);
+
+        assertThat(notStarted.get()).isSameAs(failure);
+        assertThat(started).hasValue(1);
+        assertThat(executor.activeCount()).isEqualTo(1);
+        assertThat(executor.queuedCount()).isZero();
+
+        AtomicReference<RuntimeException> direct = new AtomicReference<>();
+        AiStreamExecutor idle = new AiStreamExecutor(1, 4, Duration.ofMinutes(1), meterRegistry);
+        idle.submit(() -> {
+            throw failure;
+        }, direct::set);
+        assertThat(direct.get()).isSameAs(failure);
+        assertThat(idle.activeCount()).isZero();
+    }
+}
@@ -0,0 +1,135 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.produsoft.workflow.config.OllamaClientProperties;
+import com.produsoft.workflow.exception.ServiceUnavailableException;
+import com.produsoft.workflow.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class AiUpstreamGuardTests {
+
+    private static final String MODEL = "test-model";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OllamaClientProperties properties = new OllamaClientProperties();
+
+    @Test
+    void circuitOpensOnFailuresAndClosesAfterASuccessfulTrial() throws InterruptedException {
+        AiUpstreamGuard guard = guard(8, 1);
+        guard.call(MODEL, model -> "ok", ex -> false);
+        guard.call(MODEL, model -> "ok", ex -> false);
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> guard.call(MODEL, model -> {
+                throw new IllegalStateException("upstream failed");
+            }, ex -> false)).isInstanceOf(IllegalStateException.class);
+        }
+
+        AtomicInteger calls = new AtomicInteger();
+        assertThatThrownBy(() -> guard.call(MODEL, model -> calls.incrementAndGet(), ex -> false))
+            .isInstanceOf(ServiceUnavailableException.class);
+        assertThat(calls).hasValue(0);
+        assertThat(circuitState()).isEqualTo(2);
+        assertThat(meterRegistry.get("ai.upstream.rejected").tag("reason", "circuit-open").counter().count())
+            .isEqualTo(1);
+
+        Thread.sleep(150);
+        int trial = guard.call(MODEL, model -> calls.incrementAndGet(), ex -> false);
+        assertThat(trial).isEqualTo(1);
+        assertThat(circuitState()).isZero();
+    }
+
+    @Test
+    void cancellingACallAdmittedWhileClosedDoesNotFreeATrialPlace() throws InterruptedException {
+        AiUpstreamGuard guard = guard(8, 1);
+        List<CompletableFuture<String>> attempts = new ArrayList<>();
+        CompletableFuture<String> beforeOpening = stream(guard, attempts);
+        guard.call(MODEL, model -> "ok", ex -> false);
+        guard.call(MODEL, model -> "ok", ex -> false);
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> guard.call(MODEL, model -> {
+                throw new IllegalStateException("upstream failed");
+            }, ex -> false)).isInstanceOf(IllegalStateException.class);
+        }
+        assertThat(circuitState()).isEqualTo(2);
+
+        Thread.sleep(150);
+        CompletableFuture<String> trial = stream(guard, attempts);
+        assertThat(circuitState()).isEqualTo(1);
+        beforeOpening.cancel(true);
+
+        assertThat(stream(guard, attempts)).isCompletedExceptionally();
+        assertThat(attempts).hasSize(2);
+        assertThat(trial).isNotDone();
+        attempts.get(1).complete("done");
+        assertThat(circuitState()).isZero();
+    }
+
+    @Test
+    void bulkheadRejectsCallsBeyondItsLimitWhichCoversTheStreamingConcurrency() {
+        // Configured below the streaming concurrency, so raised to it.
+        AiUpstreamGuard guard = guard(1, 2);
+        List<CompletableFuture<String>> attempts = new ArrayList<>();
+
+        CompletableFuture<String> first = stream(guard, attempts);
+        CompletableFuture<String> second = stream(guard, attempts);
+        CompletableFuture<String> third = stream(guard, attempts);
+
+        assertThat(attempts).hasSize(2);
+        assertThat(first).isNotDone();
+        assertThat(second).isNotDone();
+        assertThat(third).isCompletedExceptionally();
+        assertThatThrownBy(third::join).hasCauseInstanceOf(TooManyRequestsException.class);
+        assertThat(meterRegistry.get("ai.upstream.rejected").tag("reason", "bulkhead-full").counter().count())
+            .isEqualTo(1);
+
+        attempts.get(0).complete("done");
+        assertThat(first).isCompletedWithValue("done");
+        assertThat(stream(guard, attempts)).isNotDone();
+        assertThat(attempts).hasSize(3);
+    }
+
+    @Test
+    void retriesTransientFailuresThenFallsBackToTheSmallerModel() {
+        properties.setFallbackModel("small-model");
+        AiUpstreamGuard guard = guard(8, 1);
+        List<String> models = new ArrayList<>();
+
+        String answer = guard.call(MODEL, model -> {
+            models.add(model);
+            if (model.equals(MODEL)) {
+                throw new IllegalStateException("upstream failed");
+            }
+            return "answered by " + model;
+        }, ex -> true);
+
+        assertThat(answer).isEqualTo("answered by small-model");
+        assertThat(models).containsExactly(MODEL, MODEL, "small-model");
+        assertThat(meterRegistry.get("ai.upstream.retries").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("ai.upstream.fallbacks").counter().count()).isEqualTo(1);
+    }
+
+    private static CompletableFuture<String> stream(AiUpstreamGuard guard, List<CompletableFuture<String>> attempts) {
+        return guard.callAsync(MODEL, (model, responded) -> {
+            CompletableFuture<String> attempt = new CompletableFuture<>();
+            attempts.add(attempt);
+            return attempt;
+        }, () -> true);
+    }
+
+    private double circuitState() {
+        return meterRegistry.get("ai.upstream.circuit.state").tag("model", MODEL).gauge().value();
+    }
+
+    private AiUpstreamGuard guard(int maxConcurrentCalls, int streamingConcurrency) {
+        return new AiUpstreamGuard(properties, meterRegistry, 4, 4, 50, 100, Duration.ofMinutes(1),
+            Duration.ofMillis(100), 1, maxConcurrentCalls, streamingConcurrency, 2, Duration.ZERO);
+    }
+}
@@ -0,0 +1,207 @@
+package com.produsoft.workflow.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stand-in for Ollama's {@code POST /api/chat}, for tests and benchmarks that must not reach the real service.
+ * Replies with {@code tokensPerReply} copies of {@code tokenText}, either as one JSON document or as an NDJSON
+ * stream with one line per token. The wait before the first token, the gap between tokens and the share of
+ * requests that fail, up front with HTTP 500 or halfway through the stream with an {@code error} line, are all
+ * adjustable while the server runs.
+ *
+ * <pre>{@code
+ * try (FakeOllamaServer ollama = new FakeOllamaServer().tokensPerReply(50).tokenDelay(Duration.ofMillis(5)).start()) {
+ *     // point app.ai.ollama.host at ollama.baseUrl()
+ * }
+ * }</pre>
+ */
+public class FakeOllamaServer implements AutoCloseable {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicReference<JsonNode> lastRequest = new AtomicReference<>();
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private volatile Duration firstTokenLatency = Duration.ZERO;
+    private volatile Duration tokenDelay = Duration.ZERO;
+    private volatile int tokensPerReply = 8;
+    private volatile String tokenText = "token ";
+    private volatile double failureRate;
+    private volatile double midStreamFailureRate;
+
+    public FakeOllamaServer start() {
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to start the fake Ollama server", ex);
+        }
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fake-ollama");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/api/chat", this::handleChat);
+        server.start();
+        return this;
+    }
+
+    public String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /** Time before the first token, or before the whole reply when not streaming. */
+    public FakeOllamaServer firstTokenLatency(Duration latency) {
+        this.firstTokenLatency = latency;
+        return this;
+    }
+
+    /** Gap between tokens; the token rate is its inverse. */
+    public FakeOllamaServer tokenDelay(Duration delay) {
+        this.tokenDelay = delay;
+        return this;
+    }
+
+    public FakeOllamaServer tokensPerReply(int tokens) {
+        this.tokensPerReply = tokens;
+        return this;
+    }
+
+    /** Text of every token, which sets the payload size. */
+    public FakeOllamaServer tokenText(String text) {
+        this.tokenText = text;
+        return this;
+    }
+
+    /** Share of requests, from 0 to 1, answered with HTTP 500. */
+    public FakeOllamaServer failureRate(double rate) {
+        this.failureRate = rate;
+        return this;
+    }
+
+    /** Share of streamed requests, from 0 to 1, that end with an error line halfway through the reply. */
+    public FakeOllamaServer midStreamFailureRate(double rate) {
+        this.midStreamFailureRate = rate;
+        return this;
+    }
+
+    public String expectedReply() {
+        return tokenText.repeat(tokensPerReply);
+    }
+
+    public int requestCount() {
+        return requestCount.get();
+    }
+
+    public JsonNode lastRequest() {
+        return lastRequest.get();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private void handleChat(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+            requestCount.incrementAndGet();
+            lastRequest.set(request);
+            String model = request.path("model").asText("fake-model");
+
+            if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+                sendJson(exchange, 500, objectMapper.createObjectNode().put("error", "simulated failure"));
+                return;
+            }
+            pause(firstTokenLatency);
+            if (request.path("stream").asBoolean(false)) {
+                stream(exchange, model);
+            } else {
+                for (int i = 1; i < tokensPerReply; i++) {
+                    pause(tokenDelay);
+                }
+                ObjectNode response = chunk(model, expectedReply(), true);
+                sendJson(exchange, 200, response);
+            }
+        }
+    }
+
+    private void stream(HttpExchange exchange, String model) throws IOException {
+        boolean failHalfway = ThreadLocalRandom.current().nextDouble() < midStreamFailureRate;
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream body = exchange.getResponseBody();
+        for (int i = 0; i < tokensPerReply; i++) {
+            if (i > 0) {
+                pause(tokenDelay);
+            }
+            if (failHalfway && i == tokensPerReply / 2) {
+                writeLine(body, objectMapper.createObjectNode().put("error", "simulated stream failure"));
+                return;
+            }
+            writeLine(body, chunk(model, tokenText, false));
+        }
+        writeLine(body, chunk(model, "", true));
+    }
+
+    private ObjectNode chunk(String model, String content, boolean done) {
+        ObjectNode chunk = objectMapper.createObjectNode()
+            .put("model", model)
+            .put("created_at", Instant.now().toString());
+        chunk.putObject("message").put("role", "assistant").put("content", content);
+        chunk.put("done", done);
+        if (done) {
+            chunk.put("done_reason", "stop")
+                .put("prompt_eval_count", 100)
+                .put("prompt_eval_duration", 2_000_000L)
+                .put("eval_count", tokensPerReply)
+                .put("eval_duration", 5_000_000L)
+                .put("total_duration", 0L);
+        }
+        return chunk;
+    }
+
+    private void writeLine(OutputStream body, JsonNode line) throws IOException {
+        body.write(objectMapper.writeValueAsBytes(line));
+        body.write('\n');
+        body.flush();
+    }
+
+    private void sendJson(HttpExchange exchange, int status, JsonNode json) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsString(json).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void pause(Duration duration) {
+        if (duration.isZero() || duration.isNegative()) {
+            return;
+        }
+        try {
+            Thread.sleep(duration.toMillis(), duration.toNanosPart() % 1_000_000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.produsoft.workflow.config.OllamaClientProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class OllamaHttpClientTests {
+
+    private final FakeOllamaServer ollama = new FakeOllamaServer().start();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private OllamaHttpClient client;
+
+    @AfterEach
+    void shutDown() {
+        if (client != null) {
+            client.shutdown();
+        }
+        ollama.close();
+    }
+
+    @Test
+    void streamsRepliesWithoutChangingJvmWideSettings() throws Exception {
+        String poolSize = System.getProperty("jdk.httpclient.connectionPoolSize");
+        String keepAlive = System.getProperty("jdk.httpclient.keepalive.timeout");
+        client = new OllamaHttpClient(properties(Duration.ofSeconds(5)), meterRegistry);
+
+        HttpResponse<String> response = client.sendStreaming(chatRequest(), HttpResponse.BodyHandlers.ofString())
+            .get(10, TimeUnit.SECONDS);
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body().lines()).hasSize(9);
+        assertThat(System.getProperty("jdk.httpclient.connectionPoolSize")).isEqualTo(poolSize);
+        assertThat(System.getProperty("jdk.httpclient.keepalive.timeout")).isEqualTo(keepAlive);
+        assertThat(meterRegistry.get("ai.ollama.first.byte").tag("mode", "streaming").timer().count()).isEqualTo(1);
+        awaitRequest("success");
+    }
+
+    @Test
+    void streamThatGoesQuietFailsAtTheIdleReadTimeout() throws InterruptedException {
+        ollama.tokensPerReply(3).tokenDelay(Duration.ofSeconds(2));
+        client = new OllamaHttpClient(properties(Duration.ofMillis(200)), meterRegistry);
+
+        CompletableFuture<HttpResponse<String>> exchange =
+            client.sendStreaming(chatRequest(), HttpResponse.BodyHandlers.ofString());
+
+        assertThatThrownBy(() -> exchange.get(5, TimeUnit.SECONDS))
+            .hasRootCauseInstanceOf(HttpTimeoutException.class);
+        awaitRequest("timeout");
+    }
+
+    private void awaitRequest(String outcome) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (meterRegistry.find("ai.ollama.requests").tag("outcome", outcome).timer() == null
+            && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(meterRegistry.get("ai.ollama.requests").tag("mode", "streaming").tag("outcome", outcome)
+            .timer().count()).isEqualTo(1);
+    }
+
+    private HttpRequest.Builder chatRequest() {
+        return HttpRequest.newBuilder()
+            .uri(URI.create(ollama.baseUrl() + "/api/chat"))
+            .POST(HttpRequest.BodyPublishers.ofString("{\"model\":\"test-model\",\"stream\":true}"));
+    }
+
+    private static OllamaClientProperties properties(Duration idleReadTimeout) {
+        OllamaClientProperties properties = new OllamaClientProperties();
+        properties.setConnectTimeout(Duration.ofSeconds(2));
+        properties.setFirstByteTimeout(Duration.ofSeconds(5));
+        properties.setIdleReadTimeout(idleReadTimeout);
+        return properties;
+    }
+}
@@ -0,0 +1,57 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.dto.CreateOrderRequest;
+import com.produsoft.workflow.dto.FlagStageExceptionRequest;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+class OrderContextIndexTests {
+
+    @Autowired
+    private OrderContextIndex contextIndex;
+
+    @Autowired
+    private OrderWorkflowService workflowService;
+
+    @Test
+    void tokenizesCompoundTokensWholeAndInParts() {
+        assertThat(OrderContextIndex.tokenize("PO-4711 is IN_PROGRESS"))
+            .containsExactly("po-4711", "4711", "is", "in_progress", "progress");
+        assertThat(OrderContextIndex.tokenize("  ")).isEmpty();
+    }
+
+    @Test
+    void ranksOrdersByMatchAndFieldWeight() {
+        String term = term();
+        Order inNotes = workflowService.createOrder(new CreateOrderRequest(orderNumber(), 1, "Customer asked about " + term));
+        Order inException = workflowService.createOrder(new CreateOrderRequest(orderNumber(), 1, null));
+        workflowService.claimStage(inException.getId(), StageType.PREPARATION, "operator1");
+        workflowService.flagException(inException.getId(), StageType.PREPARATION,
+            new FlagStageExceptionRequest("operator1", "Supplier sent " + term, null));
+
+        assertThat(contextIndex.search("what about " + term + "?", 5)).containsExactly(inException.getId(), inNotes.getId());
+        assertThat(contextIndex.search(term, 1)).containsExactly(inException.getId());
+        assertThat(contextIndex.search(inNotes.getOrderNumber(), 5)).first().isEqualTo(inNotes.getId());
+    }
+
+    @Test
+    void ignoresQuestionsMadeOfStopWordsOrUnknownTerms() {
+        assertThat(contextIndex.search("Show me all the orders", 5)).isEmpty();
+        assertThat(contextIndex.search(term(), 5)).isEmpty();
+    }
+
+    private static String term() {
+        return "idx" + UUID.randomUUID().toString().replace("-", "");
+    }
+
+    private static String orderNumber() {
+        return "IDX-" + UUID.randomUUID();
+    }
+}
@@ -0,0 +1,80 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.dto.BulkOrderIngestResponse;
+import com.produsoft.workflow.dto.BulkOrderLineResult;
+import com.produsoft.workflow.dto.CreateOrderRequest;
+import java.io.StringReader;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest(properties = "app.workflow.ingest.chunk-size=2")
+class OrderIngestServiceTests {
+
+    @Autowired
+    private OrderIngestService ingestService;
+
+    @Autowired
+    private OrderWorkflowService workflowService;
+
+    @Autowired
+    private WipCounterService wipCounterService;
+
+    @Test
+    void createsValidCsvLinesAcrossChunksAndReportsTheRest() throws Exception {
+        String prefix = "CSV-" + UUID.randomUUID() + "-";
+        workflowService.createOrder(new CreateOrderRequest(prefix + "existing", 1, null));
+        long totalBefore = wipCounterService.buildSummary().totalOrders();
+        String csv = String.join("\n",
+            "orderNumber,priority,notes",
+            prefix + "1,3,\"Rush, fragile\"",
+            prefix + "1,4,repeated",
+            "",
+            prefix + "2,,",
+            prefix + "existing,2,",
+            prefix + "3,high,",
+            prefix + "4,1,last");
+
+        BulkOrderIngestResponse response = ingestService.ingest(new StringReader(csv), OrderIngestFormat.CSV);
+
+        assertThat(response.received()).isEqualTo(6);
+        assertThat(response.created()).isEqualTo(3);
+        assertThat(response.rejected()).isEqualTo(3);
+        assertThat(response.results()).extracting(BulkOrderLineResult::line).containsExactly(2, 3, 5, 6, 7, 8);
+        assertThat(response.results()).extracting(BulkOrderLineResult::status).containsExactly(
+            BulkOrderLineResult.CREATED, BulkOrderLineResult.REJECTED, BulkOrderLineResult.CREATED,
+            BulkOrderLineResult.REJECTED, BulkOrderLineResult.REJECTED, BulkOrderLineResult.CREATED);
+        assertThat(response.results().get(1).error()).contains("repeated in upload");
+        assertThat(response.results().get(3).error()).contains("already exists");
+        assertThat(response.results().get(4).error()).contains("Invalid priority");
+
+        Order first = workflowService.findOrder(response.results().get(0).orderId());
+        assertThat(first.getNotes()).isEqualTo("Rush, fragile");
+        assertThat(first.getPriority()).isEqualTo(3);
+        assertThat(first.getOverallState()).isEqualTo(StageState.PENDING);
+        assertThat(first.getStageStatus(StageType.PREPARATION).orElseThrow().getState()).isEqualTo(StageState.PENDING);
+        assertThat(wipCounterService.buildSummary().totalOrders()).isEqualTo(totalBefore + 3);
+    }
+
+    @Test
+    void rejectsMalformedAndInvalidNdjsonLines() throws Exception {
+        String orderNumber = "NDJSON-" + UUID.randomUUID();
+        String ndjson = String.join("\n",
+            "{\"orderNumber\":\"" + orderNumber + "\",\"priority\":2}",
+            "{\"orderNumber\":",
+            "{\"priority\":1}");
+
+        BulkOrderIngestResponse response = ingestService.ingest(new StringReader(ndjson), OrderIngestFormat.NDJSON);
+
+        assertThat(response.created()).isEqualTo(1);
+        assertThat(response.results().get(0).orderNumber()).isEqualTo(orderNumber);
+        assertThat(response.results().get(1).error()).startsWith("Malformed JSON");
+        assertThat(response.results().get(2).error()).isEqualTo("Order number is required");
+    }
+}
@@ -0,0 +1,142 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.OrderStageStatus;
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.dto.CreateOrderRequest;
+import com.produsoft.workflow.exception.InvalidStageActionException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+@SpringBootTest
+class OrderWorkflowServiceTests {
+
+    @Autowired
+    private OrderWorkflowService workflowService;
+
+    @Test
+    void claimNextTakesTheHighestPriorityClaimableStage() {
+        Order order = workflowService.createOrder(new CreateOrderRequest(orderNumber(), 980_000, null));
+
+        OrderStageStatus claimed = workflowService.claimNext(StageType.PREPARATION, "operator1");
+
+        assertThat(claimed.getOrder().getId()).isEqualTo(order.getId());
+        assertThat(claimed.getState()).isEqualTo(StageState.IN_PROGRESS);
+        assertThat(claimed.getAssignee()).isEqualTo("operator1");
+        assertThatThrownBy(() -> workflowService.claimStage(order.getId(), StageType.PREPARATION, "operator2"))
+            .isInstanceOf(InvalidStageActionException.class);
+    }
+
+    @Test
+    void concurrentClaimNextCallsNeverHandOutTheSameStage() throws Exception {
+        int operators = 4;
+        Set<Long> created = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < operators; i++) {
+            created.add(workflowService.createOrder(new CreateOrderRequest(orderNumber(), 990_000 + i, null)).getId());
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(operators);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Long>> claims = new ArrayList<>();
+            for (int i = 0; i < operators; i++) {
+                String assignee = "operator" + i;
+                Callable<Long> claim = () -> {
+                    start.await();
+                    while (true) {
+                        try {
+                            return workflowService.claimNext(StageType.PREPARATION, assignee).getOrder().getId();
+                        } catch (OptimisticLockingFailureException ex) {
+                            // Lost the race for a row; the next attempt finds the following one.
+                        }
+                    }
+                };
+                claims.add(pool.submit(claim));
+            }
+            start.countDown();
+
+            List<Long> claimedIds = new ArrayList<>();
+            for (Future<Long> claim : claims) {
+                claimedIds.add(claim.get(30, TimeUnit.SECONDS));
+            }
+            assertThat(claimedIds).doesNotHaveDuplicates().containsExactlyInAnyOrderElementsOf(created);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void pagesThroughEveryOrderOnceInStreamOrder() {
+        for (int i = 0; i < 5; i++) {
+            workflowService.createOrder(new CreateOrderRequest(orderNumber(), i % 2 == 0 ? 7 : 3, null));
+        }
+        List<Long> streamed = new ArrayList<>();
+        workflowService.streamOrders(null, null, order -> {
+            assertThat(order.getStages()).hasSize(StageType.values().length);
+            streamed.add(order.getId());
+        });
+
+        List<Long> paged = new ArrayList<>();
+        List<Integer> priorities = new ArrayList<>();
+        String cursor = null;
+        do {
+            OrderPage page = workflowService.findOrderPage(cursor, 2, null, null);
+            assertThat(page.orders()).hasSizeLessThanOrEqualTo(2);
+            page.orders().forEach(order -> {
+                paged.add(order.getId());
+                priorities.add(order.getPriority() == null ? 0 : order.getPriority());
+            });
+            cursor = page.nextCursor();
+        } while (cursor != null);
+
+        assertThat(paged).doesNotHaveDuplicates().isEqualTo(streamed);
+        assertThat(priorities).isSortedAccordingTo(Comparator.reverseOrder());
+    }
+
+    @Test
+    void pageFiltersApplyAcrossPages() {
+        List<Long> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            OrderPage page = workflowService.findOrderPage(cursor, 1, StageState.PENDING, StageType.PREPARATION);
+            page.orders().forEach(order -> {
+                assertThat(order.getOverallState()).isEqualTo(StageState.PENDING);
+                assertThat(order.getCurrentStage()).isEqualTo(StageType.PREPARATION);
+                paged.add(order.getId());
+            });
+            cursor = page.nextCursor();
+        } while (cursor != null);
+
+        List<Long> streamed = new ArrayList<>();
+        workflowService.streamOrders(StageState.PENDING, StageType.PREPARATION, order -> streamed.add(order.getId()));
+        assertThat(paged).isEqualTo(streamed);
+    }
+
+    @Test
+    void rejectsMalformedCursors() {
+        assertThatThrownBy(() -> workflowService.findOrderPage("not-a-cursor", 10, null, null))
+            .isInstanceOf(InvalidStageActionException.class);
+    }
+
+    private static String orderNumber() {
+        return "WF-" + UUID.randomUUID();
+    }
+}
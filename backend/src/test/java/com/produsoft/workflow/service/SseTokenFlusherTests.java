@@ -0,0 +1,145 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+class SseTokenFlusherTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private SseTokenFlusher flusher;
+
+    @AfterEach
+    void shutDown() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+    }
+
+    @Test
+    void coalescesDeltasAndSendsTheClosingEventAfterTheLastToken() throws InterruptedException {
+        flusher = flusher(Duration.ofMinutes(1), 4, Duration.ofMinutes(1));
+        RecordingEmitter emitter = new RecordingEmitter();
+        SseTokenFlusher.TokenStream stream = flusher.open(emitter, new AtomicBoolean(true), "reply", 0, () -> { });
+
+        stream.accept("ab");
+        stream.accept("cde");
+        emitter.awaitEvents(1);
+        stream.accept("f");
+        CountDownLatch finished = new CountDownLatch(1);
+        stream.finish(() -> {
+            emitter.events.add("closing");
+            finished.countDown();
+        });
+
+        assertThat(finished.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(emitter.events).containsExactly("abcde", "f", "closing");
+        assertThat(meterRegistry.get("ai.stream.flushes").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void stalledClientIsDroppedAtTheSendTimeoutWithoutHoldingUpOthers() throws InterruptedException {
+        flusher = flusher(Duration.ZERO, 1, Duration.ofMillis(100));
+        StalledEmitter stalled = new StalledEmitter();
+        AtomicBoolean stalledOpen = new AtomicBoolean(true);
+        CountDownLatch gone = new CountDownLatch(1);
+        flusher.open(stalled, stalledOpen, "stalled", 0, gone::countDown).accept("x");
+        assertThat(stalled.sending.await(5, TimeUnit.SECONDS)).isTrue();
+
+        RecordingEmitter healthy = new RecordingEmitter();
+        flusher.open(healthy, new AtomicBoolean(true), "healthy", 0, () -> { }).accept("y");
+        healthy.awaitEvents(1);
+
+        assertThat(gone.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(stalledOpen).isFalse();
+        assertThat(stalled.completedWithError).hasValue(0);
+        assertThat(meterRegistry.get("ai.stream.send.timeouts").counter().count()).isEqualTo(1);
+
+        stalled.release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (stalled.completedWithError.get() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(stalled.completedWithError).hasValue(1);
+        assertThat(stalled.events).containsExactly("x");
+    }
+
+    @Test
+    void clientIsClosedWhenEverySendThreadIsBusy() throws InterruptedException {
+        flusher = new SseTokenFlusher(Duration.ZERO, 1, 1024, "drop", 1, Duration.ofMinutes(1), meterRegistry);
+        StalledEmitter stalled = new StalledEmitter();
+        flusher.open(stalled, new AtomicBoolean(true), "stalled", 0, () -> { }).accept("x");
+        assertThat(stalled.sending.await(5, TimeUnit.SECONDS)).isTrue();
+
+        RecordingEmitter waiting = new RecordingEmitter();
+        AtomicBoolean waitingOpen = new AtomicBoolean(true);
+        CountDownLatch gone = new CountDownLatch(1);
+        flusher.open(waiting, waitingOpen, "waiting", 0, gone::countDown).accept("y");
+
+        assertThat(gone.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(waitingOpen).isFalse();
+        assertThat(waiting.completedWithError).hasValue(1);
+        assertThat(waiting.events).isEmpty();
+        stalled.release.countDown();
+    }
+
+    private SseTokenFlusher flusher(Duration flushInterval, int flushMaxChars, Duration sendTimeout) {
+        return new SseTokenFlusher(flushInterval, flushMaxChars, 1024, "drop", 4, sendTimeout, meterRegistry);
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+
+        final List<String> events = new CopyOnWriteArrayList<>();
+        final AtomicInteger completedWithError = new AtomicInteger();
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            builder.build().stream()
+                .map(DataWithMediaType::getData)
+                .filter(Map.class::isInstance)
+                .map(data -> (String) ((Map<?, ?>) data).get("delta"))
+                .forEach(events::add);
+        }
+
+        @Override
+        public void completeWithError(Throwable ex) {
+            completedWithError.incrementAndGet();
+        }
+
+        void awaitEvents(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (events.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(events).hasSizeGreaterThanOrEqualTo(count);
+        }
+    }
+
+    private static final class StalledEmitter extends RecordingEmitter {
+
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            super.send(builder);
+            sending.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
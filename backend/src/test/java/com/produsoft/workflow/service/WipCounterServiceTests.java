@@ -0,0 +1,77 @@
+package com.produsoft.workflow.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.produsoft.workflow.domain.Order;
+import com.produsoft.workflow.domain.StageState;
+import com.produsoft.workflow.domain.StageType;
+import com.produsoft.workflow.dto.CreateOrderRequest;
+import com.produsoft.workflow.dto.FlagStageExceptionRequest;
+import com.produsoft.workflow.dto.StageSummaryResponse;
+import com.produsoft.workflow.dto.WipSummaryResponse;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+class WipCounterServiceTests {
+
+    @Autowired
+    private OrderWorkflowService workflowService;
+
+    @Autowired
+    private WipCounterService wipCounterService;
+
+    @Test
+    void countersFollowTransitions() {
+        WipSummaryResponse before = wipCounterService.buildSummary();
+
+        Order order = workflowService.createOrder(new CreateOrderRequest(orderNumber(), 1, null));
+        WipSummaryResponse created = wipCounterService.buildSummary();
+        assertThat(created.totalOrders()).isEqualTo(before.totalOrders() + 1);
+        assertThat(stage(created, StageType.PREPARATION).pending())
+            .isEqualTo(stage(before, StageType.PREPARATION).pending() + 1);
+
+        workflowService.claimStage(order.getId(), StageType.PREPARATION, "operator1");
+        WipSummaryResponse claimed = wipCounterService.buildSummary();
+        assertThat(stage(claimed, StageType.PREPARATION).pending())
+            .isEqualTo(stage(before, StageType.PREPARATION).pending());
+        assertThat(stage(claimed, StageType.PREPARATION).inProgress())
+            .isEqualTo(stage(before, StageType.PREPARATION).inProgress() + 1);
+
+        workflowService.flagException(order.getId(), StageType.PREPARATION,
+            new FlagStageExceptionRequest("operator1", "Missing parts", null));
+        WipSummaryResponse flagged = wipCounterService.buildSummary();
+        assertThat(flagged.exceptionOrders()).isEqualTo(before.exceptionOrders() + 1);
+        assertThat(stage(flagged, StageType.PREPARATION).inProgress())
+            .isEqualTo(stage(before, StageType.PREPARATION).inProgress());
+        assertThat(flagged.totalOrders()).isEqualTo(before.totalOrders() + 1);
+    }
+
+    @Test
+    void reconcileCorrectsDriftedCounters() {
+        workflowService.createOrder(new CreateOrderRequest(orderNumber(), 1, null));
+        wipCounterService.reconcile();
+        WipSummaryResponse accurate = wipCounterService.buildSummary();
+
+        WipCounterService.Delta drift = new WipCounterService.Delta();
+        drift.add(OrderStateSnapshot.EMPTY,
+            new OrderStateSnapshot(StageState.PENDING, Map.of(StageType.PREPARATION, StageState.PENDING)));
+        wipCounterService.apply(drift);
+        assertThat(wipCounterService.buildSummary()).isNotEqualTo(accurate);
+
+        wipCounterService.reconcile();
+
+        assertThat(wipCounterService.buildSummary()).isEqualTo(accurate);
+    }
+
+    private static StageSummaryResponse stage(WipSummaryResponse summary, StageType stage) {
+        return summary.stages().stream().filter(s -> s.stage() == stage).findFirst().orElseThrow();
+    }
+
+    private static String orderNumber() {
+        return "WIP-" + UUID.randomUUID();
+    }
+}